@@ -0,0 +1,374 @@
+package com.skypro.telegram_team.cluster;
+
+import com.skypro.telegram_team.listener.TelegramBotUpdatesListener;
+import com.skypro.telegram_team.listener.VolunteerRoster;
+import com.skypro.telegram_team.listener.buffers.QuestionsBuffer;
+import com.skypro.telegram_team.listener.buffers.RequestsBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * Узел кластера (telegram.bot.cluster.enabled=true): несколько экземпляров бота с общей БД postgres.
+ * <p>
+ * Каждый узел раз в heartbeat-interval отмечается в таблице cluster_nodes. Узлы, не отмечавшиеся дольше node-ttl,
+ * считаются остановленными, их разделы распределяются между живыми узлами ({@link PartitionAssignment}).
+ * <p>
+ * Обновления из телеграм получает один узел (ingress) - тот, кто удерживает advisory lock postgres.
+ * Блокировка держится на отдельном соединении, при остановке узла или потере соединения она освобождается,
+ * и ingress становится другой узел. Ingress записывает обновления в очередь {@link ClusterUpdatesQueue}.
+ * <p>
+ * Каждый узел забирает из очереди обновления своих разделов и обрабатывает их локально.
+ * Состояние диалогов хранится в общем хранилище (telegram.bot.state-store=jdbc), буферы вопросов и запросов
+ * узла содержат только чаты его разделов, поэтому истекшие вопросы и запросы обрабатывает один узел.
+ * При перераспределении потерянные разделы сразу перестают забираться из очереди и выгружаются из буферов,
+ * а полученные разделы загружаются из хранилища и начинают забираться на следующем heartbeat,
+ * если остались за узлом: за это время прежний владелец узнает о новом распределении и записывает
+ * изменения (flush-interval хранилища должен быть меньше heartbeat-interval).
+ * Пока остановленный узел не исключен из списка (node-ttl), порядок обновлений одного чата может нарушаться.
+ * <p>
+ * На каждом heartbeat узел перечитывает из БД список волонтеров ({@link VolunteerRoster#reload()}):
+ * волонтеров и их вопросы могут изменить другие узлы.
+ */
+@Component
+@ConditionalOnProperty(name = "telegram.bot.cluster.enabled", havingValue = "true")
+public class ClusterCoordinator {
+    private static final String UPDATE_NODE = "UPDATE cluster_nodes SET heartbeat_at = ?, ingress = ? WHERE node_id = ?";
+    private static final String INSERT_NODE = "INSERT INTO cluster_nodes (node_id, heartbeat_at, ingress) VALUES (?, ?, ?)";
+    private static final String DELETE_NODE = "DELETE FROM cluster_nodes WHERE node_id = ?";
+    private static final String DELETE_DEAD_NODES = "DELETE FROM cluster_nodes WHERE heartbeat_at < ?";
+    private static final String SELECT_LIVE_NODES = "SELECT node_id FROM cluster_nodes WHERE heartbeat_at >= ?";
+    private static final String TRY_LOCK = "SELECT pg_try_advisory_lock(?)";
+    private final Logger logger = LoggerFactory.getLogger(ClusterCoordinator.class);
+    private final JdbcTemplate jdbcTemplate;
+    private final DataSource dataSource;
+    private final TelegramBotUpdatesListener updatesListener;
+    private final ClusterUpdatesQueue queue;
+    private final QuestionsBuffer questionsBuffer;
+    private final RequestsBuffer requestsBuffer;
+    private final VolunteerRoster volunteerRoster;
+    private final String nodeId;
+    private final long lockKey;
+    private final Duration heartbeatInterval;
+    private final Duration nodeTtl;
+    private final Duration pollInterval;
+    private final int batchSize;
+    private final ScheduledExecutorService heartbeat =
+            Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("cluster-heartbeat-"));
+    private final ScheduledExecutorService worker =
+            Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("cluster-worker-"));
+    private volatile int[] owned = new int[0];
+    //Разделы узла по предыдущему heartbeat, доступ из потока heartbeat
+    private int[] assigned = new int[0];
+    //Соединение, на котором удерживается блокировка ingress
+    private Connection ingressConnection;
+
+    /**
+     * @param jdbcTemplate      доступ к базе данных
+     * @param dataSource        отдельное соединение для блокировки ingress
+     * @param updatesListener   получение обновлений из телеграм и их локальная обработка
+     * @param queue             очередь обновлений кластера
+     * @param questionsBuffer   вопросы чатов разделов узла
+     * @param requestsBuffer    запросы чатов разделов узла
+     * @param volunteerRoster   список волонтеров, перечитывается на каждом heartbeat
+     * @param stateStore        хранилище состояния диалогов, должно быть общим (jdbc)
+     * @param nodeId            id узла, если не задан - pid@host
+     * @param lockKey           ключ advisory lock ingress
+     * @param heartbeatInterval как часто узел отмечается в таблице узлов
+     * @param nodeTtl           через сколько после последней отметки узел считается остановленным
+     * @param pollInterval      как часто забирать обновления из очереди, если она пуста
+     * @param batchSize         сколько обновлений забирать из очереди за раз
+     */
+    public ClusterCoordinator(JdbcTemplate jdbcTemplate, DataSource dataSource,
+                              TelegramBotUpdatesListener updatesListener, ClusterUpdatesQueue queue,
+                              QuestionsBuffer questionsBuffer, RequestsBuffer requestsBuffer,
+                              VolunteerRoster volunteerRoster,
+                              @Value("${telegram.bot.state-store:memory}") String stateStore,
+                              @Value("${telegram.bot.cluster.node-id:}") String nodeId,
+                              @Value("${telegram.bot.cluster.lock-key:7411001}") long lockKey,
+                              @Value("${telegram.bot.cluster.heartbeat-interval:2s}") Duration heartbeatInterval,
+                              @Value("${telegram.bot.cluster.node-ttl:10s}") Duration nodeTtl,
+                              @Value("${telegram.bot.cluster.poll-interval:200ms}") Duration pollInterval,
+                              @Value("${telegram.bot.cluster.batch-size:100}") int batchSize) {
+        if (nodeTtl.compareTo(heartbeatInterval.multipliedBy(2)) < 0) {
+            throw new IllegalArgumentException("Expected node-ttl >= 2 * heartbeat-interval");
+        }
+        if (!"jdbc".equals(stateStore)) {
+            throw new IllegalArgumentException("Cluster mode requires telegram.bot.state-store=jdbc");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.dataSource = dataSource;
+        this.updatesListener = updatesListener;
+        this.queue = queue;
+        this.questionsBuffer = questionsBuffer;
+        this.requestsBuffer = requestsBuffer;
+        this.volunteerRoster = volunteerRoster;
+        this.nodeId = nodeId.isEmpty() ? defaultNodeId() : nodeId;
+        this.lockKey = lockKey;
+        this.heartbeatInterval = heartbeatInterval;
+        this.nodeTtl = nodeTtl;
+        this.pollInterval = pollInterval;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Войти в кластер после запуска приложения
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        logger.info("Cluster node {} started, {} partitions", nodeId, queue.getPartitions());
+        heartbeat.scheduleWithFixedDelay(this::heartbeat, 0, heartbeatInterval.toMillis(), TimeUnit.MILLISECONDS);
+        worker.scheduleWithFixedDelay(this::drain, pollInterval.toMillis(), pollInterval.toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Выйти из кластера: освободить ingress и удалить узел, чтобы его разделы сразу перешли к другим узлам
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        worker.shutdown();
+        heartbeat.shutdown();
+        worker.awaitTermination(nodeTtl.toMillis(), TimeUnit.MILLISECONDS);
+        heartbeat.awaitTermination(heartbeatInterval.toMillis(), TimeUnit.MILLISECONDS);
+        releaseIngress();
+        try {
+            jdbcTemplate.update(DELETE_NODE, nodeId);
+        } catch (RuntimeException e) {
+            logger.error("Node {} not removed: {}", nodeId, e.getMessage());
+        }
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Разделы, которыми владеет узел
+     */
+    public int[] getOwnedPartitions() {
+        return owned.clone();
+    }
+
+    /**
+     * Узел получает обновления из телеграм
+     */
+    public synchronized boolean isIngress() {
+        return ingressConnection != null;
+    }
+
+    /**
+     * Отметиться в таблице узлов, пересчитать разделы узла, попытаться стать ingress и перечитать список волонтеров
+     */
+    void heartbeat() {
+        try {
+            boolean ingress = checkIngress();
+            Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+            if (jdbcTemplate.update(UPDATE_NODE, now, ingress, nodeId) == 0) {
+                jdbcTemplate.update(INSERT_NODE, nodeId, now, ingress);
+            }
+            Timestamp liveSince = Timestamp.valueOf(LocalDateTime.now().minus(nodeTtl));
+            jdbcTemplate.update(DELETE_DEAD_NODES, liveSince);
+            List<String> liveNodes = jdbcTemplate.queryForList(SELECT_LIVE_NODES, String.class, liveSince);
+            if (rebalance(PartitionAssignment.owned(liveNodes, nodeId, queue.getPartitions()))) {
+                logger.info("Partitions rebalanced: {} live nodes, node {} owns {} partitions",
+                        liveNodes.size(), nodeId, owned.length);
+            }
+        } catch (RuntimeException e) {
+            logger.error("Cluster heartbeat failed: {}", e.getMessage());
+        }
+        volunteerRoster.reload();
+    }
+
+    /**
+     * Передать разделы по новому распределению: потерянные разделы выгрузить сразу,
+     * полученные - загрузить, если они были назначены узлу и на предыдущем heartbeat
+     *
+     * @param current разделы узла по текущему списку живых узлов, по возрастанию
+     * @return true, если разделы узла изменились
+     */
+    boolean rebalance(int[] current) {
+        int[] lost = minus(owned, current);
+        int[] previous = assigned;
+        int[] acquired = Arrays.stream(minus(current, owned)).filter(partition -> contains(previous, partition))
+                .toArray();
+        assigned = current;
+        if (lost.length > 0) {
+            owned = minus(owned, lost);
+            LongPredicate lostChats = chatId -> contains(lost, PartitionAssignment.partitionOf(chatId, null,
+                    queue.getPartitions()));
+            questionsBuffer.release(lostChats);
+            requestsBuffer.release(lostChats);
+        }
+        if (acquired.length > 0) {
+            questionsBuffer.restore(acquired);
+            requestsBuffer.restore(acquired);
+            owned = IntStream.concat(Arrays.stream(owned), Arrays.stream(acquired)).sorted().toArray();
+        }
+        return lost.length > 0 || acquired.length > 0;
+    }
+
+    /**
+     * Забрать обновления своих разделов и обработать их, пока очередь не опустеет
+     */
+    void drain() {
+        try {
+            int claimed;
+            do {
+                claimed = processBatch();
+            } while (claimed == batchSize);
+        } catch (RuntimeException e) {
+            logger.error("Cluster queue processing failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Обработать одну пачку обновлений из очереди
+     *
+     * @return количество забранных обновлений, 0 - если очередь пуста или узел перегружен
+     */
+    private int processBatch() {
+        int[] partitions = owned;
+        if (partitions.length == 0) {
+            return 0;
+        }
+        List<ClusterUpdatesQueue.Queued> batch = queue.claim(nodeId, partitions, batchSize,
+                LocalDateTime.now().minus(nodeTtl));
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        List<CompletableFuture<Void>> results = batch.stream()
+                .map(queued -> updatesListener.processLocally(queued.update()))
+                .toList();
+        CompletableFuture.allOf(results.toArray(CompletableFuture[]::new))
+                .exceptionally(e -> null)
+                .join();
+        List<Long> completed = new ArrayList<>(batch.size());
+        List<Long> rejected = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            ClusterUpdatesQueue.Queued queued = batch.get(i);
+            if (TelegramBotUpdatesListener.isRejected(results.get(i))) {
+                rejected.add(queued.id());
+            } else {
+                //Ошибка обработки уже записана в лог, повтор обновления не поможет
+                completed.add(queued.id());
+            }
+        }
+        queue.complete(completed);
+        queue.release(rejected);
+        //Узел перегружен: следующая пачка - не раньше следующего опроса
+        return rejected.isEmpty() ? batch.size() : 0;
+    }
+
+    /**
+     * Занять ingress, если он свободен, или проверить, что блокировка все еще удерживается
+     *
+     * @return true, если узел получает обновления из телеграм
+     */
+    private synchronized boolean checkIngress() {
+        if (ingressConnection != null) {
+            if (isValid(ingressConnection)) {
+                return true;
+            }
+            logger.warn("Node {} lost ingress lock", nodeId);
+            releaseIngress();
+        }
+        try {
+            Connection connection = dataSource.getConnection();
+            if (tryLock(connection)) {
+                ingressConnection = connection;
+                logger.info("Node {} is ingress now", nodeId);
+                updatesListener.startPolling();
+                return true;
+            }
+            connection.close();
+        } catch (SQLException e) {
+            logger.error("Ingress lock failed: {}", e.getMessage());
+        }
+        return false;
+    }
+
+    private boolean tryLock(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(TRY_LOCK)) {
+            statement.setLong(1, lockKey);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    /**
+     * Остановить получение обновлений и закрыть соединение, блокировка освобождается вместе с ним
+     */
+    private synchronized void releaseIngress() {
+        if (ingressConnection == null) {
+            return;
+        }
+        updatesListener.stopPolling();
+        try {
+            ingressConnection.close();
+        } catch (SQLException e) {
+            logger.warn("Ingress connection not closed: {}", e.getMessage());
+        }
+        ingressConnection = null;
+    }
+
+    private boolean isValid(Connection connection) {
+        try {
+            return connection.isValid((int) Math.max(1, heartbeatInterval.toSeconds()));
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Разделы из first, которых нет в second, массивы по возрастанию
+     */
+    private static int[] minus(int[] first, int[] second) {
+        return Arrays.stream(first).filter(partition -> !contains(second, partition)).toArray();
+    }
+
+    private static boolean contains(int[] partitions, int partition) {
+        return Arrays.binarySearch(partitions, partition) >= 0;
+    }
+
+    /**
+     * id узла по умолчанию: pid@host
+     */
+    public static String defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "localhost";
+        }
+        return ProcessHandle.current().pid() + "@" + host;
+    }
+}
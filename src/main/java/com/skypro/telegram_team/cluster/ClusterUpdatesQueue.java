@@ -0,0 +1,154 @@
+package com.skypro.telegram_team.cluster;
+
+import com.pengrad.telegrambot.BotUtils;
+import com.pengrad.telegrambot.model.Message;
+import com.pengrad.telegrambot.model.Update;
+import com.skypro.telegram_team.listener.UpdatesDispatcher;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Очередь обновлений кластера в БД (postgres).
+ * <p>
+ * Узел, получающий обновления из телеграм, записывает их в раздел по id чата ({@link PartitionAssignment}),
+ * повторно доставленное обновление (тот же update_id) не записывается.
+ * Ответ волонтера на сообщение с вопросом записывается в раздел чата пользователя, задавшего вопрос:
+ * вопрос хранится в буфере узла, которому принадлежит чат пользователя. Вопрос находится по сообщению
+ * в общем хранилище состояния диалогов (buffered_questions), поэтому кластеру нужен telegram.bot.state-store=jdbc.
+ * Узлы забирают обновления своих разделов: обновление помечается узлом, после обработки удаляется.
+ * Обновления, помеченные остановившимся узлом, через node-ttl может забрать новый владелец раздела.
+ */
+@Component
+@ConditionalOnProperty(name = "telegram.bot.cluster.enabled", havingValue = "true")
+public class ClusterUpdatesQueue {
+    private static final String INSERT = "INSERT INTO cluster_updates (update_id, partition_no, payload, created_at) " +
+            "VALUES (?, ?, ?, ?) ON CONFLICT (update_id) DO NOTHING";
+    private static final String CLAIM = "UPDATE cluster_updates SET claimed_by = ?, claimed_at = ? " +
+            "WHERE id IN (SELECT id FROM cluster_updates WHERE partition_no = ANY (?) " +
+            "AND (claimed_by IS NULL OR claimed_by = ? OR claimed_at < ?) " +
+            "ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED) " +
+            "RETURNING id, payload";
+    private static final String COMPLETE = "DELETE FROM cluster_updates WHERE id = ANY (?)";
+    private static final String QUESTION_USER_CHAT = "SELECT user_chat_id FROM buffered_questions " +
+            "WHERE volunteer_chat_id = ? AND volunteer_message_id = ?";
+    private static final String RELEASE = "UPDATE cluster_updates SET claimed_by = NULL, claimed_at = NULL " +
+            "WHERE id = ANY (?)";
+    private final JdbcTemplate jdbcTemplate;
+    private final int partitions;
+
+    /**
+     * @param jdbcTemplate доступ к базе данных
+     * @param partitions   количество разделов
+     */
+    public ClusterUpdatesQueue(JdbcTemplate jdbcTemplate,
+                               @Value("${telegram.bot.cluster.partitions:256}") int partitions) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.partitions = partitions;
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * Записать обновления в очередь одним пакетом
+     *
+     * @param updates обновления
+     */
+    public void enqueue(List<Update> updates) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        jdbcTemplate.batchUpdate(INSERT, updates.stream()
+                .map(update -> new Object[]{update.updateId(), partitionOf(update), BotUtils.toJson(update), now})
+                .toList());
+    }
+
+    /**
+     * Раздел обновления: раздел чата пользователя, если это ответ волонтера на вопрос, иначе раздел чата обновления
+     *
+     * @param update обновление
+     * @return номер раздела
+     */
+    int partitionOf(Update update) {
+        Long chatId = UpdatesDispatcher.chatIdOf(update);
+        Message message = update.message();
+        if (message != null && message.replyToMessage() != null) {
+            List<Long> userChats = jdbcTemplate.queryForList(QUESTION_USER_CHAT, Long.class,
+                    message.chat().id(), message.replyToMessage().messageId());
+            if (!userChats.isEmpty() && userChats.get(0) != null) {
+                chatId = userChats.get(0);
+            }
+        }
+        return PartitionAssignment.partitionOf(chatId, update.updateId(), partitions);
+    }
+
+    /**
+     * Забрать обновления разделов узла в порядке поступления
+     *
+     * @param nodeId      узел
+     * @param owned       разделы узла
+     * @param limit       максимальное количество обновлений
+     * @param staleBefore обновления, помеченные другими узлами раньше этого времени, считаются брошенными
+     * @return обновления в порядке поступления
+     */
+    public List<Queued> claim(String nodeId, int[] owned, int limit, LocalDateTime staleBefore) {
+        List<Queued> claimed = jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(CLAIM);
+            statement.setString(1, nodeId);
+            statement.setTimestamp(2, Timestamp.valueOf(LocalDateTime.now()));
+            statement.setArray(3, connection.createArrayOf("integer", Arrays.stream(owned).boxed().toArray()));
+            statement.setString(4, nodeId);
+            statement.setTimestamp(5, Timestamp.valueOf(staleBefore));
+            statement.setInt(6, limit);
+            return statement;
+        }, (rs, rowNum) -> new Queued(rs.getLong("id"), BotUtils.parseUpdate(rs.getString("payload"))));
+        //RETURNING не сохраняет порядок подзапроса
+        claimed.sort(Comparator.comparingLong(Queued::id));
+        return claimed;
+    }
+
+    /**
+     * Удалить обработанные обновления
+     */
+    public void complete(Collection<Long> ids) {
+        updateByIds(COMPLETE, ids);
+    }
+
+    /**
+     * Вернуть обновления в очередь, например если узел не смог принять их из-за перегрузки
+     */
+    public void release(Collection<Long> ids) {
+        updateByIds(RELEASE, ids);
+    }
+
+    private void updateByIds(String sql, Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql);
+            Array array = connection.createArrayOf("bigint", ids.toArray());
+            statement.setArray(1, array);
+            return statement;
+        });
+    }
+
+    /**
+     * Обновление из очереди
+     *
+     * @param id     id записи в очереди
+     * @param update обновление
+     */
+    public record Queued(long id, Update update) {
+    }
+}
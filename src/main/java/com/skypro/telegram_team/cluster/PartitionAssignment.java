@@ -0,0 +1,98 @@
+package com.skypro.telegram_team.cluster;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Распределение чатов по разделам и разделов по узлам кластера.
+ * <p>
+ * Чат всегда попадает в один и тот же раздел, поэтому его обновления обрабатывает один узел по порядку.
+ * Владелец раздела выбирается rendezvous hashing: у каждого узла своя оценка раздела, раздел получает
+ * узел с наибольшей оценкой. Все узлы получают одинаковое распределение по одному списку живых узлов,
+ * а при остановке узла к другим переходят только его разделы.
+ */
+public final class PartitionAssignment {
+
+    private PartitionAssignment() {
+    }
+
+    /**
+     * Раздел чата
+     *
+     * @param chatId     id чата, может отсутствовать
+     * @param updateId   id обновления, используется если чата нет
+     * @param partitions количество разделов
+     * @return номер раздела
+     */
+    public static int partitionOf(Long chatId, Integer updateId, int partitions) {
+        long key = chatId != null ? chatId : (updateId != null ? updateId : 0);
+        return (int) Long.remainderUnsigned(mix(key), partitions);
+    }
+
+    /**
+     * Разделы, которыми владеет узел
+     *
+     * @param liveNodes  живые узлы кластера
+     * @param nodeId     узел
+     * @param partitions количество разделов
+     * @return номера разделов по возрастанию, пустой массив, если узла нет среди живых
+     */
+    public static int[] owned(Collection<String> liveNodes, String nodeId, int partitions) {
+        if (!liveNodes.contains(nodeId)) {
+            return new int[0];
+        }
+        long[] seeds = liveNodes.stream().mapToLong(PartitionAssignment::seedOf).toArray();
+        long own = seedOf(nodeId);
+        int[] owned = new int[partitions];
+        int count = 0;
+        for (int partition = 0; partition < partitions; partition++) {
+            if (ownerSeed(seeds, partition) == own) {
+                owned[count++] = partition;
+            }
+        }
+        return Arrays.copyOf(owned, count);
+    }
+
+    /**
+     * Оценка раздела узлом-владельцем, при равенстве оценок побеждает меньший seed
+     */
+    private static long ownerSeed(long[] seeds, int partition) {
+        long best = 0;
+        long bestScore = 0;
+        boolean found = false;
+        for (long seed : seeds) {
+            long score = mix(seed ^ partition);
+            if (!found || Long.compareUnsigned(score, bestScore) > 0
+                    || (score == bestScore && Long.compareUnsigned(seed, best) < 0)) {
+                best = seed;
+                bestScore = score;
+                found = true;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 64-битный хэш id узла (FNV-1a), чтобы у разных узлов не совпадали оценки
+     */
+    private static long seedOf(String nodeId) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < nodeId.length(); i++) {
+            hash ^= nodeId.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Перемешивание битов (финализатор murmur3), чтобы соседние ключи попадали в разные разделы
+     */
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
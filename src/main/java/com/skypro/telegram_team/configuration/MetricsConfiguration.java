@@ -0,0 +1,88 @@
+package com.skypro.telegram_team.configuration;
+
+import com.skypro.telegram_team.listener.UpdatesDispatcher;
+import com.skypro.telegram_team.listener.buffers.QuestionsBuffer;
+import com.skypro.telegram_team.listener.buffers.RequestsBuffer;
+import com.skypro.telegram_team.services.UserCache;
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Метрики бота, публикуются через actuator (/actuator/prometheus).
+ * Время обработки команд, запросов к телеграм и очередь исходящих сообщений записываются в местах вызова,
+ * время методов сервисов и заданий по расписанию - через {@link io.micrometer.core.annotation.Timed}.
+ */
+@Configuration
+public class MetricsConfiguration {
+
+    /**
+     * Поддержка {@link io.micrometer.core.annotation.Timed} на бинах
+     */
+    @Bean
+    public TimedAspect timedAspect(MeterRegistry registry) {
+        return new TimedAspect(registry);
+    }
+
+    /**
+     * Очередь обновлений: в обработке, отложенные, отклоненные
+     */
+    @Bean
+    public MeterBinder updatesDispatcherMetrics(UpdatesDispatcher dispatcher) {
+        return registry -> {
+            Gauge.builder("bot.updates.pending", dispatcher, UpdatesDispatcher::getPending)
+                    .description("Updates in progress")
+                    .register(registry);
+            Gauge.builder("bot.updates.deferred", dispatcher, UpdatesDispatcher::getDeferredSize)
+                    .description("Expensive updates waiting for load to drop")
+                    .register(registry);
+            Gauge.builder("bot.updates.shedding", dispatcher, d -> d.isShedding() ? 1 : 0)
+                    .description("1 while expensive updates are deferred")
+                    .register(registry);
+            FunctionCounter.builder("bot.updates.shed", dispatcher, UpdatesDispatcher::getDeferredCount)
+                    .tag("action", "deferred")
+                    .register(registry);
+            FunctionCounter.builder("bot.updates.shed", dispatcher, UpdatesDispatcher::getRejectedCount)
+                    .tag("action", "rejected")
+                    .register(registry);
+        };
+    }
+
+    /**
+     * Кэш пользователей: попадания, промахи, вытеснения, размер
+     */
+    @Bean
+    public MeterBinder userCacheMetrics(UserCache userCache) {
+        return registry -> {
+            FunctionCounter.builder("bot.user.cache.gets", userCache, c -> c.getStats().hitCount())
+                    .tag("result", "hit")
+                    .register(registry);
+            FunctionCounter.builder("bot.user.cache.gets", userCache, c -> c.getStats().missCount())
+                    .tag("result", "miss")
+                    .register(registry);
+            FunctionCounter.builder("bot.user.cache.evictions", userCache, c -> c.getStats().evictionCount())
+                    .register(registry);
+            Gauge.builder("bot.user.cache.size", userCache, UserCache::getSize)
+                    .register(registry);
+        };
+    }
+
+    /**
+     * Буферы вопросов волонтерам и запросов данных
+     */
+    @Bean
+    public MeterBinder buffersMetrics(QuestionsBuffer questionsBuffer, RequestsBuffer requestsBuffer) {
+        return registry -> {
+            Gauge.builder("bot.buffer.size", questionsBuffer, QuestionsBuffer::size)
+                    .tag("buffer", "questions")
+                    .register(registry);
+            Gauge.builder("bot.buffer.size", requestsBuffer, RequestsBuffer::size)
+                    .tag("buffer", "requests")
+                    .register(registry);
+        };
+    }
+}
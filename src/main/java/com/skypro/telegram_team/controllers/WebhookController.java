@@ -0,0 +1,72 @@
+package com.skypro.telegram_team.controllers;
+
+import com.pengrad.telegrambot.BotUtils;
+import com.pengrad.telegrambot.model.Update;
+import com.skypro.telegram_team.listener.TelegramBotUpdatesListener;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Прием обновлений телеграм через webhook (telegram.bot.mode=webhook).
+ * Обновление ставится в обработку, ответ 200 возвращается сразу, не дожидаясь окончания обработки,
+ * в том числе если обработка уже завершилась ошибкой (повторная доставка повторила бы выполненные действия).
+ * Если обновление не принято из-за перегрузки, возвращается 503 - телеграм повторит доставку позже.
+ */
+@RestController
+@ConditionalOnProperty(name = "telegram.bot.mode", havingValue = TelegramBotUpdatesListener.MODE_WEBHOOK)
+public class WebhookController {
+    private static final String SECRET_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+    private final TelegramBotUpdatesListener updatesListener;
+    private final byte[] secret;
+
+    public WebhookController(TelegramBotUpdatesListener updatesListener,
+                             @Value("${telegram.bot.webhook.secret:}") String secret) {
+        this.updatesListener = updatesListener;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Operation(summary = "Прием обновления от телеграм", tags = "Telegram")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Обновление принято в обработку"),
+            @ApiResponse(responseCode = "401", description = "Неверный secret token"),
+            @ApiResponse(responseCode = "503", description = "Обновление не принято из-за перегрузки")
+    })
+    @PostMapping("${telegram.bot.webhook.path:/telegram/webhook}")
+    public ResponseEntity<Void> receiveUpdate(@RequestHeader(value = SECRET_HEADER, required = false) String token,
+                                              @RequestBody String body) {
+        if (!isSecretValid(token)) {
+            return new ResponseEntity<>(HttpStatus.UNAUTHORIZED);
+        }
+        Update update = BotUtils.parseUpdate(body);
+        if (TelegramBotUpdatesListener.isRejected(updatesListener.dispatch(update))) {
+            return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        return ResponseEntity.ok().build();
+    }
+
+    /**
+     * Проверка secret token из заголовка запроса, если secret не задан - проверка не выполняется
+     * (при запуске пишется предупреждение)
+     *
+     * @param token secret token из заголовка
+     * @return true, если token совпадает
+     */
+    private boolean isSecretValid(String token) {
+        if (secret.length == 0) {
+            return true;
+        }
+        return token != null && MessageDigest.isEqual(secret, token.getBytes(StandardCharsets.UTF_8));
+    }
+}
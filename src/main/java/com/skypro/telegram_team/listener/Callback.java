@@ -1,5 +1,17 @@
 package com.skypro.telegram_team.listener;
 
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Команды inline keyboard.
+ * В callback data передается имя команды, за которым следует аргумент в формате команды
+ * (например, SAVE_SHELTER1 - id приюта, ASK_VOLUNTEER12 - чат волонтера), у остальных команд аргумента нет
+ */
 public enum Callback {
     INF_SCHEDULE("Расписание"),
     INF_ADDRESS("Адрес"),
@@ -14,23 +26,92 @@ public enum Callback {
     HOW_EXPERT_FIRST("Советы эксперта по первому общению"),
     HOW_EXPERT_NEXT("Советы эксперта по дальнейшему общению"),
     HOW_REJECT_REASONS("Причины отказа"),
-    ASK_VOLUNTEER(""),
+    ASK_VOLUNTEER("", Argument.ID),
     ASK_ANY_VOLUNTEER("Любого"),
     SAVE_USER_PHONE("Указать телефон"),
     SAVE_USER_EMAIL("Указать почту"),
-    SAVE_SHELTER(""),
+    SAVE_SHELTER("", Argument.ID),
     SEND_PHOTO("Фото"),
     SEND_DIET("Питание"),
     SEND_BEHAVIOR("Поведение"),
     SEND_WELL_BEING("Самочувствие");
 
+    /**
+     * Команды по имени
+     */
+    private static final Map<String, Callback> BY_NAME = Arrays.stream(Callback.values())
+            .collect(Collectors.toMap(Callback::name, Function.identity()));
+
+    /**
+     * Поиск команды по callback data
+     *
+     * @param data callback data
+     * @return команда или пусто, если команда не найдена или аргумент не соответствует формату команды
+     */
+    public static Optional<Callback> fromData(String data) {
+        int start = argumentStart(data);
+        return Optional.ofNullable(BY_NAME.get(data.substring(0, start)))
+                .filter(callback -> callback.argument.matches(data.substring(start)));
+    }
+
+    /**
+     * Аргумент команды из callback data
+     *
+     * @param data callback data
+     * @return аргумент или пустая строка, если аргумента нет
+     */
+    public static String argumentOf(String data) {
+        return data.substring(argumentStart(data));
+    }
+
+    /**
+     * Начало числового аргумента в конце callback data
+     */
+    private static int argumentStart(String data) {
+        int i = data.length();
+        while (i > 0 && Character.isDigit(data.charAt(i - 1))) {
+            i--;
+        }
+        return i;
+    }
+
     private final String text;
+    private final Argument argument;
 
     Callback(String text) {
+        this(text, Argument.NONE);
+    }
+
+    Callback(String text, Argument argument) {
         this.text = text;
+        this.argument = argument;
     }
 
     public String getText() {
         return text;
     }
+
+    /**
+     * Формат аргумента команды
+     */
+    enum Argument {
+        /**
+         * Без аргумента
+         */
+        NONE(""),
+        /**
+         * Id (чата, приюта), помещается в long
+         */
+        ID("[0-9]{1,18}");
+
+        private final Pattern pattern;
+
+        Argument(String regex) {
+            this.pattern = Pattern.compile(regex);
+        }
+
+        boolean matches(String argument) {
+            return pattern.matcher(argument).matches();
+        }
+    }
 }
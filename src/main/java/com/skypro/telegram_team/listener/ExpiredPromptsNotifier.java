@@ -0,0 +1,42 @@
+package com.skypro.telegram_team.listener;
+
+import com.pengrad.telegrambot.request.SendMessage;
+import com.skypro.telegram_team.listener.buffers.QuestionExpiredEvent;
+import com.skypro.telegram_team.listener.buffers.RequestExpiredEvent;
+import com.skypro.telegram_team.sender.MessageSender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Уведомление пользователя о том, что его запрос данных или вопрос волонтеру удален из буфера без ответа
+ * (telegram.bot.buffers.notify-expired=true)
+ */
+@Component
+@ConditionalOnProperty(name = "telegram.bot.buffers.notify-expired", havingValue = "true", matchIfMissing = true)
+public class ExpiredPromptsNotifier {
+    private final Logger logger = LoggerFactory.getLogger(ExpiredPromptsNotifier.class);
+    private final MessageSender messageSender;
+
+    public ExpiredPromptsNotifier(MessageSender messageSender) {
+        this.messageSender = messageSender;
+    }
+
+    @EventListener
+    public void onRequestExpired(RequestExpiredEvent event) {
+        logger.debug("Request expired in chat {}", event.request().getChatId());
+        messageSender.send(new SendMessage(event.request().getChatId(),
+                "Время ожидания ответа истекло, выберите действие в меню еще раз"));
+    }
+
+    @EventListener
+    public void onQuestionExpired(QuestionExpiredEvent event) {
+        logger.debug("Question expired in chat {}", event.question().getUserChatId());
+        String text = event.question().getQuestion() == null
+                ? "Время ожидания вопроса истекло, выберите действие в меню еще раз"
+                : "Волонтер не успел ответить на вопрос, задайте его еще раз";
+        messageSender.send(new SendMessage(event.question().getUserChatId(), text));
+    }
+}
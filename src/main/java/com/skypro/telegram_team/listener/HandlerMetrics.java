@@ -0,0 +1,42 @@
+package com.skypro.telegram_team.listener;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.function.Supplier;
+
+/**
+ * Время и количество вызовов обработчиков команд (метрика bot.handler)
+ */
+class HandlerMetrics {
+    private final MeterRegistry registry;
+
+    HandlerMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Выполнить обработчик с записью времени выполнения
+     *
+     * @param type    тип команды: menu, callback, message
+     * @param command команда
+     * @param handler обработчик
+     * @return результат обработчика
+     */
+    <T> T record(String type, String command, Supplier<T> handler) {
+        Timer.Sample sample = Timer.start(registry);
+        String exception = "none";
+        try {
+            return handler.get();
+        } catch (RuntimeException e) {
+            exception = e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            sample.stop(Timer.builder("bot.handler")
+                    .tag("type", type)
+                    .tag("command", command)
+                    .tag("exception", exception)
+                    .register(registry));
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package com.skypro.telegram_team.listener;
 
 import java.util.Arrays;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 public enum Menu {
     START("/start"),
@@ -12,10 +15,14 @@ public enum Menu {
     SET_SHELTER("Выбрать приют"),
     ASK_VOLUNTEER("Спросить волонтера");
 
+    /**
+     * Пункты меню по тексту
+     */
+    private static final Map<String, Menu> BY_TEXT = Arrays.stream(Menu.values())
+            .collect(Collectors.toMap(Menu::getText, Function.identity()));
+
     public static Optional<Menu> fromText(String text) {
-        return Arrays.stream(Menu.values())
-                .filter(m -> m.text.equals(text))
-                .findFirst();
+        return Optional.ofNullable(BY_TEXT.get(text));
     }
 
     private final String text;
@@ -10,12 +10,18 @@ import com.skypro.telegram_team.models.Shelter;
 import com.skypro.telegram_team.models.User;
 import com.skypro.telegram_team.services.ShelterService;
 import com.skypro.telegram_team.services.UserService;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 @Component
 public class TelegramBotCallbackListener {
@@ -24,13 +30,20 @@ public class TelegramBotCallbackListener {
     private final ShelterService shelterService;
     private final QuestionsBuffer questionsBuffer;
     private final RequestsBuffer requestsBuffer;
+    private final VolunteerRoster volunteerRoster;
+    private final Map<Callback, CallbackHandler> handlers = new EnumMap<>(Callback.class);
+    private final HandlerMetrics handlerMetrics;
 
     public TelegramBotCallbackListener(UserService userService, ShelterService shelterService,
-                                       QuestionsBuffer questionsBuffer, RequestsBuffer requestsBuffer) {
+                                       QuestionsBuffer questionsBuffer, RequestsBuffer requestsBuffer,
+                                       VolunteerRoster volunteerRoster, MeterRegistry meterRegistry) {
         this.userService = userService;
         this.shelterService = shelterService;
         this.questionsBuffer = questionsBuffer;
         this.requestsBuffer = requestsBuffer;
+        this.volunteerRoster = volunteerRoster;
+        this.handlerMetrics = new HandlerMetrics(meterRegistry);
+        registerHandlers();
     }
 
     /**
@@ -44,106 +57,89 @@ public class TelegramBotCallbackListener {
         //callback команды
         Long userChatId = callbackQuery.message().chat().id();
         User user = userService.findByTelegramId(userChatId);
+        String data = callbackQuery.data();
+        Optional<Callback> callback = Callback.fromData(data);
 
-        if (callbackQuery.data().startsWith(Callback.SAVE_SHELTER.name())) {
-            //Присвоить приют
-            Long shelterId = Long.parseLong(callbackQuery.data().substring(Callback.SAVE_SHELTER.name().length()));
-            return Collections.singletonList(assignUserToShelter(shelterId, user));
+        if (callback.isEmpty()) {
+            return user.getShelter() == null
+                    ? Collections.singletonList(new SendMessage(userChatId, "Приют не выбран"))
+                    : Collections.emptyList();
         }
+        if (callback.get() != Callback.SAVE_SHELTER && user.getShelter() == null) {
+            //Кроме выбора приюта, все команды требуют выбранного приюта
+            return Collections.singletonList(new SendMessage(userChatId, "Приют не выбран"));
+        }
+        return handlerMetrics.record("callback", callback.get().name(),
+                () -> handlers.get(callback.get()).handle(userChatId, user, Callback.argumentOf(data)));
+    }
 
-        if (user.getShelter() != null) {
-            Request request = new Request(userChatId);
-            if (callbackQuery.data().equals(Callback.INF_ADDRESS.name())) {
-                //Адрес
-                return Collections.singletonList(new SendMessage(userChatId, user.getShelter().getAddress()));
-            } else if (callbackQuery.data().equals(Callback.INF_SCHEDULE.name())) {
-                //Расписание
-                return Collections.singletonList(new SendMessage(userChatId, user.getShelter().getSchedule()));
-            } else if (callbackQuery.data().equals(Callback.INF_SCHEME.name())) {
-                //Схема проезда
-                return Collections.singletonList(new SendMessage(userChatId, user.getShelter().getScheme()));
-            } else if (callbackQuery.data().equals(Callback.INF_SAFETY.name())) {
-                //Техника безопасности
-                return Collections.singletonList(new SendMessage(userChatId, user.getShelter().getSafety()));
-            } else if (callbackQuery.data().equals(Callback.HOW_RULES.name())) {
-                //Правила знакомства с собакой
-                return Collections.singletonList(new SendMessage(userChatId, user.getShelter().getRules()));
-            } else if (callbackQuery.data().equals(Callback.HOW_DOCS.name())) {
-                //Список документов
-                return Collections.singletonList(new SendMessage(userChatId, user.getShelter().getDocs()));
-            } else if (callbackQuery.data().equals(Callback.HOW_MOVE.name())) {
-                //Рекомендации по транспортировке
-                return Collections.singletonList(new SendMessage(userChatId, user.getShelter().getMovement()));
-            } else if (callbackQuery.data().equals(Callback.HOW_ARRANGE.name())) {
-                //Рекомендации по обустройству
-                return Collections.singletonList(new SendMessage(userChatId, user.getShelter().getArrangements()));
-            } else if (callbackQuery.data().equals(Callback.HOW_ARRANGE_PUPPY.name())) {
-                //Рекомендации по обустройству для щенка
-                return Collections.singletonList(new SendMessage(userChatId, user.getShelter().getArrangementsForPuppy()));
-            } else if (callbackQuery.data().equals(Callback.HOW_ARRANGE_CRIPPLE.name())) {
-                //Рекомендации по обустройству для собаки-инвалида
-                return Collections.singletonList(new SendMessage(userChatId, user.getShelter().getArrangementsForCripple()));
-            } else if (callbackQuery.data().equals(Callback.HOW_EXPERT_FIRST.name())) {
-                //Советы кинолога по первому общению
-                return Collections.singletonList(new SendMessage(userChatId, user.getShelter().getExpertAdvicesFirst()));
-            } else if (callbackQuery.data().equals(Callback.HOW_EXPERT_NEXT.name())) {
-                //Советы кинолога по дальнейшему общению
-                return Collections.singletonList(new SendMessage(userChatId, user.getShelter().getExpertAdvicesNext()));
-            } else if (callbackQuery.data().equals(Callback.HOW_REJECT_REASONS.name())) {
-                //Причины отказа
-                return Collections.singletonList(new SendMessage(userChatId, user.getShelter().getRejectReasons()));
-                //...
-            } else if (callbackQuery.data().startsWith(Callback.ASK_VOLUNTEER.name())) {
-                //Конкретный волонтера (чат выбранного волонтера в callback data)
-                Long volunteerChatId = Long.parseLong(callbackQuery.data().substring(Callback.ASK_VOLUNTEER.name().length()));
-                questionsBuffer.addQuestion(new Question(userChatId, volunteerChatId));
-                return Collections.singletonList(new SendMessage(userChatId, "Напишите вопрос"));
-            } else if (callbackQuery.data().startsWith(Callback.ASK_ANY_VOLUNTEER.name())) {
-                //Любой волонтер (будет найден первый попавшийся)
-                if (userService.findAnyVolunteer().isPresent()) {
-                    var volunteer = userService.findAnyVolunteer().get();
-                    Long volunteerChatId = volunteer.getTelegramId();
+    /**
+     * Регистрация обработчиков команд
+     */
+    private void registerHandlers() {
+        //Присвоить приют (id приюта в callback data)
+        handlers.put(Callback.SAVE_SHELTER, (userChatId, user, argument) ->
+                Collections.singletonList(assignUserToShelter(Long.parseLong(argument), user)));
+        //Информация о приюте
+        registerShelterInfo(Callback.INF_ADDRESS, Shelter::getAddress);
+        registerShelterInfo(Callback.INF_SCHEDULE, Shelter::getSchedule);
+        registerShelterInfo(Callback.INF_SCHEME, Shelter::getScheme);
+        registerShelterInfo(Callback.INF_SAFETY, Shelter::getSafety);
+        registerShelterInfo(Callback.HOW_RULES, Shelter::getRules);
+        registerShelterInfo(Callback.HOW_DOCS, Shelter::getDocs);
+        registerShelterInfo(Callback.HOW_MOVE, Shelter::getMovement);
+        registerShelterInfo(Callback.HOW_ARRANGE, Shelter::getArrangements);
+        registerShelterInfo(Callback.HOW_ARRANGE_PUPPY, Shelter::getArrangementsForPuppy);
+        registerShelterInfo(Callback.HOW_ARRANGE_CRIPPLE, Shelter::getArrangementsForCripple);
+        registerShelterInfo(Callback.HOW_EXPERT_FIRST, Shelter::getExpertAdvicesFirst);
+        registerShelterInfo(Callback.HOW_EXPERT_NEXT, Shelter::getExpertAdvicesNext);
+        registerShelterInfo(Callback.HOW_REJECT_REASONS, Shelter::getRejectReasons);
+        //Конкретный волонтер (чат выбранного волонтера в callback data)
+        handlers.put(Callback.ASK_VOLUNTEER, (userChatId, user, argument) -> {
+            questionsBuffer.addQuestion(new Question(userChatId, Long.parseLong(argument)));
+            return Collections.singletonList(new SendMessage(userChatId, "Напишите вопрос"));
+        });
+        //Любой волонтер (наименее загруженный)
+        handlers.put(Callback.ASK_ANY_VOLUNTEER, (userChatId, user, argument) -> volunteerRoster.leastLoaded()
+                .map(volunteerChatId -> {
                     questionsBuffer.addQuestion(new Question(userChatId, volunteerChatId));
                     return Collections.singletonList(new SendMessage(userChatId, "Напишите вопрос"));
-                } else {
-                    return Collections.singletonList(new SendMessage(userChatId, "Нет свободных волонтеров"));
-                }
-                //...
-            } else if (callbackQuery.data().equals(Callback.SAVE_USER_PHONE.name())) {
-                //Телефон
-                request.setUserPhoneRequested(true);
-                requestsBuffer.addRequest(request);
-                return Collections.singletonList(new SendMessage(userChatId, "Напишите телефон"));
-            } else if (callbackQuery.data().equals(Callback.SAVE_USER_EMAIL.name())) {
-                //Почта
-                request.setUserEmailRequested(true);
-                requestsBuffer.addRequest(request);
-                return Collections.singletonList(new SendMessage(userChatId, "Напишите почту"));
-            } else if (callbackQuery.data().equals(Callback.SEND_PHOTO.name())) {
-                //Фото для отчета
-                request.setReportPhotoRequested(true);
-                requestsBuffer.addRequest(request);
-                return Collections.singletonList(new SendMessage(userChatId, "Отправьте фото"));
-            } else if (callbackQuery.data().equals(Callback.SEND_DIET.name())) {
-                //Диета для отчета
-                request.setReportDietRequested(true);
-                requestsBuffer.addRequest(request);
-                return Collections.singletonList(new SendMessage(userChatId, "Опишите диету"));
-            } else if (callbackQuery.data().equals(Callback.SEND_BEHAVIOR.name())) {
-                //Поведение для отчета
-                request.setReportBehaviorRequested(true);
-                requestsBuffer.addRequest(request);
-                return Collections.singletonList(new SendMessage(userChatId, "Опишите поведение"));
-            } else if (callbackQuery.data().equals(Callback.SEND_WELL_BEING.name())) {
-                //Самочувствие для отчета
-                request.setReportWellBeingRequest(true);
-                requestsBuffer.addRequest(request);
-                return Collections.singletonList(new SendMessage(userChatId, "Опишите самочувствие"));
-            }
-        } else {
-            return Collections.singletonList(new SendMessage(userChatId, "Приют не выбран"));
-        }
-        return Collections.emptyList();
+                })
+                .orElseGet(() -> Collections.singletonList(new SendMessage(userChatId, "Нет свободных волонтеров"))));
+        //Запросы данных пользователя и отчета
+        registerRequest(Callback.SAVE_USER_PHONE, Request::setUserPhoneRequested, "Напишите телефон");
+        registerRequest(Callback.SAVE_USER_EMAIL, Request::setUserEmailRequested, "Напишите почту");
+        registerRequest(Callback.SEND_PHOTO, Request::setReportPhotoRequested, "Отправьте фото");
+        registerRequest(Callback.SEND_DIET, Request::setReportDietRequested, "Опишите диету");
+        registerRequest(Callback.SEND_BEHAVIOR, Request::setReportBehaviorRequested, "Опишите поведение");
+        registerRequest(Callback.SEND_WELL_BEING, Request::setReportWellBeingRequest, "Опишите самочувствие");
+    }
+
+    /**
+     * Команда отправляет пользователю информацию о выбранном приюте
+     *
+     * @param callback команда
+     * @param info     поле приюта
+     */
+    private void registerShelterInfo(Callback callback, Function<Shelter, String> info) {
+        handlers.put(callback, (userChatId, user, argument) ->
+                Collections.singletonList(new SendMessage(userChatId, info.apply(user.getShelter()))));
+    }
+
+    /**
+     * Команда ожидает от пользователя данные в следующем сообщении
+     *
+     * @param callback команда
+     * @param flag     признак ожидаемых данных в запросе
+     * @param text     текст сообщения пользователю
+     */
+    private void registerRequest(Callback callback, BiConsumer<Request, Boolean> flag, String text) {
+        handlers.put(callback, (userChatId, user, argument) -> {
+            Request request = new Request(userChatId);
+            flag.accept(request, true);
+            requestsBuffer.addRequest(request);
+            return Collections.singletonList(new SendMessage(userChatId, text));
+        });
     }
 
     /**
@@ -177,4 +173,18 @@ public class TelegramBotCallbackListener {
         }
         return new SendMessage(user.getTelegramId(), "Данные пользователя записаны");
     }
-}
\ No newline at end of file
+
+    /**
+     * Обработчик команды inline keyboard
+     */
+    @FunctionalInterface
+    private interface CallbackHandler {
+        /**
+         * @param userChatId чат пользователя
+         * @param user       пользователь
+         * @param argument   аргумент команды из callback data
+         * @return сообщения для отправки пользователю
+         */
+        List<SendMessage> handle(Long userChatId, User user, String argument);
+    }
+}
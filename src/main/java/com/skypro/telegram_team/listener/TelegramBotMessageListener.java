@@ -14,9 +14,12 @@ import com.skypro.telegram_team.listener.buffers.RequestsBuffer;
 import com.skypro.telegram_team.models.Report;
 import com.skypro.telegram_team.models.Shelter;
 import com.skypro.telegram_team.models.User;
+import com.skypro.telegram_team.sender.MessageSender;
 import com.skypro.telegram_team.services.ReportService;
 import com.skypro.telegram_team.services.ShelterService;
 import com.skypro.telegram_team.services.UserService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -24,36 +27,41 @@ import org.springframework.stereotype.Component;
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Optional;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Component
 public class TelegramBotMessageListener {
-    /**
-     * Шаблон сообщения от пользователя к волонтеру
-     * id сообщения должно быть вначале, используется для отправки ответа
-     */
-    private final static String USER_VOLUNTEER_MSG_TEMPL = "(^|\\s)([0-9]+)";
     private final Logger logger = LoggerFactory.getLogger(TelegramBotMessageListener.class);
     private final TelegramBot telegramBot;
+    private final MessageSender messageSender;
     private final QuestionsBuffer questionsBuffer;
     private final RequestsBuffer requestsBuffer;
     private final ShelterService shelterService;
     private final UserService userService;
     private final ReportService reportService;
+    private final Map<Menu, Function<Long, SendMessage>> menuHandlers = new EnumMap<>(Menu.class);
+    private final MeterRegistry meterRegistry;
+    private final HandlerMetrics handlerMetrics;
 
-    public TelegramBotMessageListener(TelegramBot telegramBot,
+    public TelegramBotMessageListener(TelegramBot telegramBot, MessageSender messageSender,
                                       QuestionsBuffer questionsBuffer, RequestsBuffer requestsBuffer,
-                                      ShelterService shelterService, UserService userService, ReportService reportService) {
+                                      ShelterService shelterService, UserService userService, ReportService reportService,
+                                      MeterRegistry meterRegistry) {
         this.telegramBot = telegramBot;
+        this.messageSender = messageSender;
         this.questionsBuffer = questionsBuffer;
         this.requestsBuffer = requestsBuffer;
         this.shelterService = shelterService;
         this.userService = userService;
         this.reportService = reportService;
+        this.meterRegistry = meterRegistry;
+        this.handlerMetrics = new HandlerMetrics(meterRegistry);
+        registerMenuHandlers();
     }
 
     /**
@@ -73,11 +81,11 @@ public class TelegramBotMessageListener {
         if (!sendMessages.isEmpty()) {
             return sendMessages;
         }
-        sendMessages = processDataMessage(message);
+        sendMessages = handlerMetrics.record("message", "DATA", () -> processDataMessage(message));
         if (!sendMessages.isEmpty()) {
             return sendMessages;
         }
-        return processReplyMessage(message);
+        return handlerMetrics.record("message", "REPLY", () -> processReplyMessage(message));
     }
 
     /**
@@ -88,55 +96,40 @@ public class TelegramBotMessageListener {
      */
     private List<SendMessage> processMenuMessage(Message message) {
         //Меню
-        if (message.text() == null || Menu.fromText(message.text()).isEmpty()) {
+        if (message.text() == null) {
             return Collections.emptyList();
         }
-        Menu menu = Menu.fromText(message.text()).get();
-        switch (menu) {
-            case START -> {
-                //Старт
-                return Collections.singletonList(
-                        new SendMessage(message.chat().id(), "Привет! Для продолжения работы выберите приют.")
-                                .replyMarkup(MenuKeyboard.START_KEYBOARD.getKeyboard()));
-            }
-            case SET_SHELTER -> {
-                //Выбрать приют
-                return Collections.singletonList(
-                        new SendMessage(message.chat().id(), "Выберите приют")
-                                .replyMarkup(getSheltersMarkup()));
-            }
-            case GET_INFO -> {
-                //Инфо о приюте
-                return Collections.singletonList(
-                        new SendMessage(message.chat().id(), "Информация о приюте")
-                                .replyMarkup(InlineKeyboard.SHELTER_INFO.getMarkup()));
-            }
-            case GET_ANIMAL -> {
-                //Как взять животное
-                return Collections.singletonList(
-                        new SendMessage(message.chat().id(), "Как взять животное")
-                                .replyMarkup(InlineKeyboard.ANIMAL_INFO.getMarkup()));
-            }
-            case ASK_VOLUNTEER -> {
-                //Вопрос волонтеру
-                return Collections.singletonList(
-                        new SendMessage(message.chat().id(), "Кого спросить?")
-                                .replyMarkup(getVolunteersMarkup()));
-            }
-            case SET_USER_DATA -> {
-                //Записать данные пользователя
-                return Collections.singletonList(
-                        new SendMessage(message.chat().id(), "Какие данные записать?")
-                                .replyMarkup(InlineKeyboard.USER_DATA.getMarkup()));
-            }
-            case SEND_REPORT -> {
-                //Отправить отчет
-                return Collections.singletonList(
-                        new SendMessage(message.chat().id(), "Какие данные отправить?")
-                                .replyMarkup(InlineKeyboard.REPORT_DATA.getMarkup()));
-            }
-        }
-        return Collections.emptyList();
+        return Menu.fromText(message.text())
+                .map(menu -> handlerMetrics.record("menu", menu.name(),
+                        () -> Collections.singletonList(menuHandlers.get(menu).apply(message.chat().id()))))
+                .orElse(Collections.emptyList());
+    }
+
+    /**
+     * Регистрация обработчиков команд меню
+     */
+    private void registerMenuHandlers() {
+        //Старт
+        menuHandlers.put(Menu.START, chatId -> new SendMessage(chatId, "Привет! Для продолжения работы выберите приют.")
+                .replyMarkup(MenuKeyboard.START_KEYBOARD.getKeyboard()));
+        //Выбрать приют
+        menuHandlers.put(Menu.SET_SHELTER, chatId -> new SendMessage(chatId, "Выберите приют")
+                .replyMarkup(getSheltersMarkup()));
+        //Инфо о приюте
+        menuHandlers.put(Menu.GET_INFO, chatId -> new SendMessage(chatId, "Информация о приюте")
+                .replyMarkup(InlineKeyboard.SHELTER_INFO.getMarkup()));
+        //Как взять животное
+        menuHandlers.put(Menu.GET_ANIMAL, chatId -> new SendMessage(chatId, "Как взять животное")
+                .replyMarkup(InlineKeyboard.ANIMAL_INFO.getMarkup()));
+        //Вопрос волонтеру
+        menuHandlers.put(Menu.ASK_VOLUNTEER, chatId -> new SendMessage(chatId, "Кого спросить?")
+                .replyMarkup(getVolunteersMarkup()));
+        //Записать данные пользователя
+        menuHandlers.put(Menu.SET_USER_DATA, chatId -> new SendMessage(chatId, "Какие данные записать?")
+                .replyMarkup(InlineKeyboard.USER_DATA.getMarkup()));
+        //Отправить отчет
+        menuHandlers.put(Menu.SEND_REPORT, chatId -> new SendMessage(chatId, "Какие данные отправить?")
+                .replyMarkup(InlineKeyboard.REPORT_DATA.getMarkup()));
     }
 
     /**
@@ -148,24 +141,22 @@ public class TelegramBotMessageListener {
     private List<SendMessage> processDataMessage(Message message) {
         //Данные от пользователя
         Long userChatId = message.chat().id();
-        if (questionsBuffer.getQuestionByUserChat(userChatId).isPresent()) {
+        Optional<Question> userQuestion = questionsBuffer.getQuestionByUserChat(userChatId);
+        if (userQuestion.isPresent()) {
             //Записать сообщение волонтеру
-            Question question = questionsBuffer.getQuestionByUserChat(userChatId).get();
-            return sendQuestionToVolunteer(question, message);
-        } else if (requestsBuffer.getRequest(userChatId).isPresent()) {
-            //Есть запрос на данные
-            Request request = requestsBuffer.getRequest(userChatId).get();
-            if (request.isUserPhoneRequested() || request.isUserEmailRequested()) {
-                //Записать данные пользователя
-                requestsBuffer.delRequest(request);
-                return Collections.singletonList(updateRequestedUserData(request, message));
-            }
-            if (request.isReportPhotoRequested() || request.isReportDietRequested() ||
-                    request.isReportBehaviorRequested() || request.isReportWellBeingRequest()) {
-                //Записать данные дневного отчета
-                requestsBuffer.delRequest(request);
-                return Collections.singletonList(updateRequestedReportData(request, message));
-            }
+            return sendQuestionToVolunteer(userQuestion.get(), message);
+        }
+        //Флаги запроса данных, 0 - запроса нет
+        int requested = requestsBuffer.getFlags(userChatId);
+        if ((requested & Request.USER_DATA) != 0) {
+            //Записать данные пользователя
+            requestsBuffer.delRequest(userChatId);
+            return Collections.singletonList(updateRequestedUserData(requested, message));
+        }
+        if ((requested & Request.REPORT_DATA) != 0) {
+            //Записать данные дневного отчета
+            requestsBuffer.delRequest(userChatId);
+            return Collections.singletonList(updateRequestedReportData(requested, message));
         }
         return Collections.emptyList();
     }
@@ -179,10 +170,11 @@ public class TelegramBotMessageListener {
      */
     private List<SendMessage> processReplyMessage(Message message) {
         if (message.replyToMessage() != null) {
-            //Номер сообщения из пользовательского сообщения
-            var messageId = getMessageId(message.replyToMessage().text());
-            if (messageId != 0 && questionsBuffer.getQuestionById(messageId).isPresent()) {
-                Question question = questionsBuffer.getQuestionById(messageId).get();
+            //Вопрос, на сообщение с которым отвечает волонтер
+            Optional<Question> answeredQuestion = questionsBuffer.getQuestionByVolunteerMessage(
+                    message.chat().id(), message.replyToMessage().messageId());
+            if (answeredQuestion.isPresent()) {
+                Question question = answeredQuestion.get();
                 question.setAnswer("Ответ волонтера: \n" + message.text());
                 var sendMessage = new SendMessage(question.getUserChatId(), question.getAnswer());
                 questionsBuffer.delQuestion(question);
@@ -248,7 +240,7 @@ public class TelegramBotMessageListener {
 
     /**
      * Отправить сообщение волонтеру
-     * В сообщении вначале указываем id сообщения пользователя
+     * Id отправленного сообщения запоминается в буфере, по нему находится вопрос при ответе волонтера
      *
      * @param question вопрос волонтеру
      * @param message  сообщение от пользователя с вопросом
@@ -256,13 +248,15 @@ public class TelegramBotMessageListener {
      */
     private List<SendMessage> sendQuestionToVolunteer(Question question, Message message) {
         if (question.getQuestion() == null) {
-            question.setId(message.messageId());
-            question.setQuestion(String.format("%d: Сообщение от пользователя, для ответа используйте reply:\n %s",
-                    message.messageId(), message.text()));
-            return List.of(
-                    new SendMessage(question.getVolunteerChatId(), question.getQuestion()),
-                    new SendMessage(question.getUserChatId(), "Сообщение отправлено волонтеру")
-            );
+            question.setQuestion("Сообщение от пользователя, для ответа используйте reply:\n " + message.text());
+            questionsBuffer.setQuestionId(question, message.messageId());
+            messageSender.send(new SendMessage(question.getVolunteerChatId(), question.getQuestion()))
+                    .thenAccept(response -> {
+                        if (response.isOk() && response.message() != null) {
+                            questionsBuffer.setVolunteerMessageId(question, response.message().messageId());
+                        }
+                    });
+            return List.of(new SendMessage(question.getUserChatId(), "Сообщение отправлено волонтеру"));
         } else {
             return List.of(new SendMessage(question.getUserChatId(), "Волонтер еще не ответил"));
         }
@@ -272,16 +266,16 @@ public class TelegramBotMessageListener {
      * Обновить данные пользователя
      * Если пользователя нет, то создать
      *
-     * @param request запрос данных пользователя
-     * @param message сообщение с данными пользователя
+     * @param requested флаги запроса данных пользователя
+     * @param message   сообщение с данными пользователя
      * @return ответное сообщение пользователю
      */
-    private SendMessage updateRequestedUserData(Request request, Message message) {
+    private SendMessage updateRequestedUserData(int requested, Message message) {
         User user = userService.findByTelegramId(message.chat().id());
-        if (request.isUserPhoneRequested()) {
+        if ((requested & Request.USER_PHONE) != 0) {
             user.setPhone(message.text());
         }
-        if (request.isUserEmailRequested()) {
+        if ((requested & Request.USER_EMAIL) != 0) {
             user.setEmail(message.text());
         }
         return updateUser(user);
@@ -333,28 +327,31 @@ public class TelegramBotMessageListener {
      * Обновить дневной отчет
      * Если отчет за текущий день не найден, то создать
      *
-     * @param request запрос данных пользователя
-     * @param message сообщение с данными пользователя
+     * @param requested флаги запроса данных отчета
+     * @param message   сообщение с данными пользователя
      * @return ответное сообщение пользователю
      */
-    private SendMessage updateRequestedReportData(Request request, Message message) {
+    private SendMessage updateRequestedReportData(int requested, Message message) {
         Long userChatId = message.chat().id();
         try {
             Report report = addReportIfNotExist(userService.findByTelegramId(message.chat().id()));
-            if (request.isReportDietRequested()) {
+            if ((requested & Request.REPORT_DIET) != 0) {
                 report.setDiet(message.text());
             }
-            if (request.isReportBehaviorRequested()) {
+            if ((requested & Request.REPORT_BEHAVIOR) != 0) {
                 report.setChangeBehavior(message.text());
             }
-            if (request.isReportPhotoRequested()) {
+            if ((requested & Request.REPORT_PHOTO) != 0) {
                 if (message.photo() != null) {
-                    report.setPhoto(getPhotoContent(message.photo()));
+                    byte[] photo = getPhotoContent(message.photo());
+                    if (photo != null) {
+                        reportService.photoUpload(report, photo);
+                    }
                 } else {
                     return new SendMessage(userChatId, "Пришлите фото");
                 }
             }
-            if (request.isReportWellBeingRequest()) {
+            if ((requested & Request.REPORT_WELL_BEING) != 0) {
                 report.setWellBeing(message.text());
             }
             reportService.update(report, report.getId());
@@ -391,27 +388,17 @@ public class TelegramBotMessageListener {
      */
     private byte[] getPhotoContent(PhotoSize[] photoSize) {
         logger.info("upload report photo");
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "ok";
         try {
             GetFileResponse getFileResponse = telegramBot.execute(new GetFile(photoSize[photoSize.length - 1].fileId()));
             return telegramBot.getFileContent(getFileResponse.file());
         } catch (IOException e) {
+            outcome = "failure";
             logger.error(e.getMessage());
+        } finally {
+            sample.stop(meterRegistry.timer("bot.telegram.requests", "method", "getFile", "outcome", outcome));
         }
         return null;
     }
-
-    /**
-     * Поиск номера сообщения для ответа пользователю волонтером
-     *
-     * @param message сообщение для поиска номера
-     * @return id сообщения
-     */
-    private int getMessageId(String message) {
-        Pattern pattern = Pattern.compile(USER_VOLUNTEER_MSG_TEMPL);
-        Matcher matcher = pattern.matcher(message);
-        if (matcher.find()) {
-            return Integer.parseInt(matcher.group(2));
-        }
-        return 0;
-    }
 }
\ No newline at end of file
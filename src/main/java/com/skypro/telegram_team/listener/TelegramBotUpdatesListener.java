@@ -4,71 +4,360 @@ package com.skypro.telegram_team.listener;
 import com.pengrad.telegrambot.TelegramBot;
 import com.pengrad.telegrambot.UpdatesListener;
 import com.pengrad.telegrambot.model.Update;
+import com.pengrad.telegrambot.request.GetUpdates;
+import com.pengrad.telegrambot.request.SetWebhook;
+import com.pengrad.telegrambot.response.BaseResponse;
+import com.skypro.telegram_team.cluster.ClusterUpdatesQueue;
+import com.skypro.telegram_team.sender.MessageSender;
+import com.skypro.telegram_team.services.UpdateCheckpointService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
+import java.time.Duration;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 
 @Component
 public class TelegramBotUpdatesListener implements UpdatesListener {
+    /**
+     * Режим получения обновлений через webhook, по умолчанию используется long polling
+     */
+    public static final String MODE_WEBHOOK = "webhook";
+    private static final int MAX_BACKOFF_SHIFT = 5;
 
     private final Logger logger = LoggerFactory.getLogger(TelegramBotUpdatesListener.class);
     private final TelegramBot telegramBot;
     private final TelegramBotUpdateListener updateListener;
+    private final UpdatesDispatcher dispatcher;
+    private final MessageSender messageSender;
+    private final UpdateCheckpointService checkpointService;
+    private final Optional<ClusterUpdatesQueue> clusterQueue;
+    private boolean polling;
+    private int unconfirmedPolls;
 
-    public TelegramBotUpdatesListener(TelegramBot telegramBot, TelegramBotUpdateListener updateListener) {
+    @Value("${telegram.bot.updates.limit:100}")
+    private int pollingLimit;
+    @Value("${telegram.bot.updates.timeout:25}")
+    private int pollingTimeout;
+    @Value("${telegram.bot.updates.allowed:message,callback_query}")
+    private String[] allowedUpdates;
+    @Value("${telegram.bot.updates.max-attempts:3}")
+    private int maxAttempts;
+    @Value("${telegram.bot.updates.unconfirmed-backoff:500ms}")
+    private Duration unconfirmedBackoff = Duration.ofMillis(500);
+    @Value("${telegram.bot.mode:polling}")
+    private String mode;
+    @Value("${telegram.bot.webhook.url:}")
+    private String webhookUrl;
+    @Value("${telegram.bot.webhook.secret:}")
+    private String webhookSecret;
+
+    /**
+     * @param clusterQueue очередь обновлений кластера, если включен режим кластера (telegram.bot.cluster.enabled)
+     */
+    @Autowired
+    public TelegramBotUpdatesListener(TelegramBot telegramBot, TelegramBotUpdateListener updateListener,
+                                      UpdatesDispatcher dispatcher, MessageSender messageSender,
+                                      UpdateCheckpointService checkpointService,
+                                      Optional<ClusterUpdatesQueue> clusterQueue) {
         this.telegramBot = telegramBot;
         this.updateListener = updateListener;
+        this.dispatcher = dispatcher;
+        this.messageSender = messageSender;
+        this.checkpointService = checkpointService;
+        this.clusterQueue = clusterQueue;
+    }
+
+    TelegramBotUpdatesListener(TelegramBot telegramBot, TelegramBotUpdateListener updateListener,
+                               UpdatesDispatcher dispatcher, MessageSender messageSender,
+                               UpdateCheckpointService checkpointService) {
+        this(telegramBot, updateListener, dispatcher, messageSender, checkpointService, Optional.empty());
     }
 
     /**
      * Инициализирует компонент, устанавливая этот экземпляр в качестве слушателя обновлений телеграм-бота.
+     * Получение обновлений продолжается со следующего после сохраненного в БД.
+     * В режиме webhook регистрирует адрес webhook, обновления принимает {@link com.skypro.telegram_team.controllers.WebhookController}.
+     * В режиме кластера long polling запускает узел, выбранный для получения обновлений
+     * ({@link com.skypro.telegram_team.cluster.ClusterCoordinator}).
      */
     @PostConstruct
     public void init() {
-        telegramBot.setUpdatesListener(this);
+        if (!MODE_WEBHOOK.equals(mode)) {
+            if (pollingLimit <= dispatcher.getHighWatermark()) {
+                //список обновлений обрабатывается целиком, больше обновлений в обработке не бывает
+                logger.warn("Updates limit {} does not exceed dispatcher high-watermark {}, load shedding is off",
+                        pollingLimit, dispatcher.getHighWatermark());
+            }
+            if (clusterQueue.isEmpty()) {
+                startPolling();
+            }
+            return;
+        }
+        if (webhookSecret.isEmpty()) {
+            logger.warn("Webhook secret is not set, secret token of incoming updates is not checked");
+        }
+        if (webhookUrl.isEmpty()) {
+            logger.warn("Webhook url is not set, updates are expected to be posted by hand");
+            return;
+        }
+        SetWebhook setWebhook = new SetWebhook().url(webhookUrl);
+        if (!webhookSecret.isEmpty()) {
+            //в этой версии библиотеки нет метода для secret_token
+            setWebhook.getParameters().put("secret_token", webhookSecret);
+        }
+        BaseResponse response = telegramBot.execute(setWebhook);
+        if (!response.isOk()) {
+            logger.error("Set webhook failed: {}", response.description());
+        }
+    }
+
+    /**
+     * Начать получение обновлений через long polling со следующего после сохраненного в БД.
+     * В режиме webhook ничего не делает.
+     */
+    public synchronized void startPolling() {
+        if (MODE_WEBHOOK.equals(mode) || polling) {
+            return;
+        }
+        GetUpdates getUpdates = new GetUpdates()
+                .limit(pollingLimit)
+                .timeout(pollingTimeout)
+                .allowedUpdates(allowedUpdates)
+                .offset(checkpointService.getLastUpdateId() + 1);
+        telegramBot.setUpdatesListener(this, e -> logger.error("Get updates failed: {}", e.getMessage()),
+                getUpdates);
+        polling = true;
     }
 
     /**
-     * Обрабатывает список обновлений, используя сервис клавиатур.
+     * Остановить получение обновлений через long polling
+     */
+    public synchronized void stopPolling() {
+        if (polling) {
+            telegramBot.removeGetUpdatesListener();
+            polling = false;
+        }
+    }
+
+    /**
+     * Обрабатывает список обновлений.
+     * Уже обработанные обновления (повторная доставка) пропускаются.
+     * В режиме кластера обновления записываются в очередь кластера и подтверждаются после записи.
+     * <p>
+     * Если не подтверждено ни одно обновление, библиотека сразу запросит тот же список еще раз,
+     * поэтому следующий запрос выполняется после задержки unconfirmed-backoff,
+     * которая удваивается, пока обновления не подтверждаются.
      *
      * @param updates Список обновлений, которые необходимо обработать.
-     * @return Код подтверждения для всех обновлений.
+     * @return id последнего обновления, до которого включительно обработаны все обновления списка,
+     * или {@link #CONFIRMED_UPDATES_NONE}, если не обработано первое обновление.
      */
     @Override
     public int process(List<Update> updates) {
-        processUpdates(updates);
-        return CONFIRMED_UPDATES_ALL;
+        int confirmed = clusterQueue.isPresent() ? forward(updates) : processBatch(updates);
+        if (confirmed == CONFIRMED_UPDATES_NONE && !updates.isEmpty()) {
+            backoff();
+        } else {
+            unconfirmedPolls = 0;
+        }
+        return confirmed;
     }
 
     /**
-     * Обрабатывает список обновлений
+     * Обработать список обновлений на этом узле и сохранить id последнего подтвержденного
      *
-     * @param updates Список обновлений, которые необходимо обработать.
+     * @param updates обновления
+     * @return id последнего подтвержденного обновления или {@link #CONFIRMED_UPDATES_NONE}
      */
-    private void processUpdates(List<Update> updates) {
-        updates.forEach(update -> {
+    private int processBatch(List<Update> updates) {
+        List<CompletableFuture<Void>> results = processUpdates(updates);
+        int confirmed = CONFIRMED_UPDATES_NONE;
+        boolean contiguous = true;
+        for (int i = 0; i < updates.size(); i++) {
+            int updateId = updates.get(i).updateId();
+            if (!isProcessed(results.get(i), updateId)) {
+                contiguous = false;
+            } else if (contiguous) {
+                confirmed = updateId;
+            } else {
+                checkpointService.markProcessed(updateId);
+            }
+        }
+        if (confirmed != CONFIRMED_UPDATES_NONE) {
             try {
-                logger.info("Process update: {}", update);
-                processUpdate(update);
+                checkpointService.confirm(confirmed);
             } catch (Exception e) {
-                logger.error(e.getMessage());
+                logger.error("Checkpoint {} not saved: {}", confirmed, e.getMessage());
             }
-        });
+        }
+        return confirmed;
+    }
+
+    /**
+     * Задержка перед следующим запросом обновлений, если не подтверждено ни одно обновление
+     */
+    private void backoff() {
+        Duration delay = unconfirmedBackoff.multipliedBy(1L << Math.min(unconfirmedPolls, MAX_BACKOFF_SHIFT));
+        unconfirmedPolls++;
+        logger.warn("No updates confirmed, next poll in {}", delay);
+        try {
+            Thread.sleep(delay.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
-     * Обрабатывает одно обновление из списка
+     * Поставить в обработку одно обновление, полученное не из long polling (webhook).
+     * Уже принятое обновление (повторная доставка) не обрабатывается повторно.
+     *
+     * @param update обновление
+     * @return завершается после обработки обновления, сразу завершается с {@link RejectedExecutionException},
+     * если обновление не принято из-за перегрузки
+     */
+    public CompletableFuture<Void> dispatch(Update update) {
+        if (clusterQueue.isPresent()) {
+            try {
+                clusterQueue.get().enqueue(List.of(update));
+                return CompletableFuture.completedFuture(null);
+            } catch (RuntimeException e) {
+                logger.error("Update {} not queued: {}", update.updateId(), e.getMessage());
+                return CompletableFuture.failedFuture(new RejectedExecutionException("Cluster queue is unavailable", e));
+            }
+        }
+        if (!checkpointService.markReceived(update.updateId())) {
+            logger.debug("Update {} already received", update.updateId());
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> result = processLocally(update);
+        if (isRejected(result)) {
+            checkpointService.forgetReceived(update.updateId());
+        }
+        return result;
+    }
+
+    /**
+     * Обновление не принято в обработку из-за перегрузки
+     *
+     * @param result результат {@link #dispatch(Update)}
+     * @return true, если результат завершен с {@link RejectedExecutionException}
+     */
+    public static boolean isRejected(CompletableFuture<Void> result) {
+        return result.isCompletedExceptionally() && causeOf(result) instanceof RejectedExecutionException;
+    }
+
+    private static Throwable causeOf(CompletableFuture<Void> result) {
+        return result.handle((r, e) -> e instanceof CompletionException ? e.getCause() : e).join();
+    }
+
+    /**
+     * Поставить обновление в обработку на этом узле
+     *
+     * @param update обновление
+     * @return завершается после обработки обновления, сразу завершается с ошибкой,
+     * если обновление не принято из-за перегрузки
+     */
+    public CompletableFuture<Void> processLocally(Update update) {
+        return dispatcher.dispatch(update, this::processUpdate)
+                .whenComplete((r, e) -> {
+                    if (e != null) {
+                        logger.error("Update {} failed: {}", update.updateId(), e.getMessage());
+                    }
+                });
+    }
+
+    /**
+     * Записать обновления в очередь кластера
+     *
+     * @param updates обновления
+     * @return id последнего обновления, если записаны все обновления, иначе {@link #CONFIRMED_UPDATES_NONE}
+     */
+    private int forward(List<Update> updates) {
+        if (updates.isEmpty()) {
+            return CONFIRMED_UPDATES_NONE;
+        }
+        try {
+            clusterQueue.get().enqueue(updates);
+        } catch (RuntimeException e) {
+            logger.error("Updates not queued: {}", e.getMessage());
+            return CONFIRMED_UPDATES_NONE;
+        }
+        int confirmed = updates.get(updates.size() - 1).updateId();
+        try {
+            checkpointService.confirm(confirmed);
+        } catch (Exception e) {
+            logger.error("Checkpoint {} not saved: {}", confirmed, e.getMessage());
+        }
+        return confirmed;
+    }
+
+    /**
+     * Обрабатывает список обновлений.
+     * Обновления распределяются диспетчером по чатам и обрабатываются параллельно,
+     * метод ждет окончания обработки всего списка.
+     *
+     * @param updates Список обновлений, которые необходимо обработать.
+     * @return результаты обработки в порядке списка обновлений
+     */
+    private List<CompletableFuture<Void>> processUpdates(List<Update> updates) {
+        List<CompletableFuture<Void>> results = updates.stream()
+                .map(update -> checkpointService.isProcessed(update.updateId())
+                        ? CompletableFuture.<Void>completedFuture(null)
+                        : dispatcher.dispatch(update, this::processUpdate))
+                .toList();
+        CompletableFuture.allOf(results.toArray(CompletableFuture[]::new))
+                .exceptionally(e -> null)
+                .join();
+        return results;
+    }
+
+    /**
+     * Проверить результат обработки обновления.
+     * Обновление, которое не удалось обработать за несколько попыток, считается обработанным,
+     * чтобы не блокировать получение следующих обновлений.
+     * Обновление, не принятое из-за перегрузки, попыткой не считается и не пропускается намеренно:
+     * оно не обрабатывалось, и пропуск потерял бы его. Пока рабочие потоки перегружены, подтверждение
+     * останавливается на этом обновлении, следующие запросы обновлений выполняются с растущей задержкой
+     * ({@link #process(List)}), а обработанные после него обновления при повторной доставке пропускаются.
+     *
+     * @param result   результат обработки
+     * @param updateId id обновления
+     * @return true, если обновление можно подтвердить
+     */
+    private boolean isProcessed(CompletableFuture<Void> result, int updateId) {
+        if (!result.isCompletedExceptionally()) {
+            return true;
+        }
+        Throwable error = causeOf(result);
+        if (error instanceof RejectedExecutionException) {
+            logger.warn("Update {} rejected: {}", updateId, error.getMessage());
+            return false;
+        }
+        if (checkpointService.registerFailure(updateId, maxAttempts)) {
+            logger.error("Update {} skipped after {} attempts: {}", updateId, maxAttempts, error.getMessage());
+            return true;
+        }
+        logger.error("Update {} failed: {}", updateId, error.getMessage());
+        return false;
+    }
+
+    /**
+     * Обрабатывает одно обновление из списка.
+     * Ответы ставятся в очередь на отправку, обработка не ждет их отправки.
      *
      * @param update Обновление, которое необходимо обработать
      */
     private void processUpdate(Update update) {
+        logger.debug("Process update: {}", update);
         updateListener.processUpdate(update)
-                .forEach(telegramBot::execute);
+                .forEach(messageSender::send);
     }
 }
-
-
-
@@ -0,0 +1,276 @@
+package com.skypro.telegram_team.listener;
+
+import com.pengrad.telegrambot.model.Update;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Диспетчер обновлений.
+ * Распределяет обновления по фиксированному набору рабочих потоков по id чата:
+ * обновления одного чата обрабатываются последовательно в порядке поступления,
+ * обновления разных чатов - параллельно.
+ * <p>
+ * Количество принятых обновлений ограничено:
+ * - если в обработке больше обновлений, чем верхний порог, дорогие обновления (данные отчета, фото, вопросы)
+ * откладываются до снижения нагрузки ниже нижнего порога, дешевые (меню, информация о приюте) обрабатываются сразу
+ * - обновления рабочего потока, у которого есть отложенные обновления, откладываются вслед за ними,
+ * в том числе дешевые, чтобы не нарушить порядок обновлений чата
+ * - если принятых обновлений (в обработке и отложенных) больше емкости, новые обновления отклоняются
+ * {@link RejectedExecutionException}
+ */
+@Component
+public class UpdatesDispatcher {
+    /**
+     * Команды, ответ на которые не требует записи данных
+     */
+    private static final Set<Callback> CHEAP_CALLBACKS = Arrays.stream(Callback.values())
+            .filter(c -> c.name().startsWith("INF_") || c.name().startsWith("HOW_"))
+            .collect(Collectors.toCollection(() -> EnumSet.noneOf(Callback.class)));
+    private final Logger logger = LoggerFactory.getLogger(UpdatesDispatcher.class);
+    private final ExecutorService[] workers;
+    private final int capacity;
+    private final int highWatermark;
+    private final int lowWatermark;
+    private final Queue<Deferred> deferred = new ArrayDeque<>();
+    /**
+     * Количество отложенных обновлений по рабочим потокам, изменяется под блокировкой диспетчера
+     */
+    private final int[] deferredByShard;
+    private final AtomicInteger deferredSize = new AtomicInteger();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong deferredCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private volatile boolean shedding;
+
+    /**
+     * @param workers       количество рабочих потоков, если не задано (0) - по количеству ядер
+     * @param capacity      максимальное количество принятых обновлений (в обработке и отложенных)
+     * @param highWatermark количество обновлений в обработке, начиная с которого дорогие обновления откладываются
+     * @param lowWatermark  количество обновлений в обработке, ниже которого отложенные обновления обрабатываются
+     */
+    public UpdatesDispatcher(@Value("${telegram.bot.dispatcher.workers:0}") int workers,
+                             @Value("${telegram.bot.dispatcher.capacity:5000}") int capacity,
+                             @Value("${telegram.bot.dispatcher.high-watermark:50}") int highWatermark,
+                             @Value("${telegram.bot.dispatcher.low-watermark:25}") int lowWatermark) {
+        if (lowWatermark > highWatermark || highWatermark > capacity) {
+            throw new IllegalArgumentException("Expected low-watermark <= high-watermark <= capacity");
+        }
+        int size = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        this.workers = new ExecutorService[size];
+        for (int i = 0; i < size; i++) {
+            this.workers[i] = Executors.newSingleThreadExecutor(
+                    new CustomizableThreadFactory("update-worker-" + i + "-"));
+        }
+        this.deferredByShard = new int[size];
+        this.capacity = capacity;
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        logger.info("Update dispatcher started with {} workers", size);
+    }
+
+    /**
+     * Поставить обновление в очередь рабочего потока его чата
+     *
+     * @param update  обновление
+     * @param handler обработчик обновления
+     * @return завершается после обработки обновления,
+     * или сразу с {@link RejectedExecutionException}, если обновление не принято
+     */
+    public synchronized CompletableFuture<Void> dispatch(Update update, Consumer<Update> handler) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        int shard = shardOf(chatIdOf(update), update.updateId());
+        int inFlight = pending.get();
+        if (inFlight >= highWatermark && !shedding) {
+            shedding = true;
+            logger.warn("Load shedding started, {} updates in progress", inFlight);
+        }
+        if (inFlight + deferredSize.get() >= capacity) {
+            rejectedCount.incrementAndGet();
+            result.completeExceptionally(new RejectedExecutionException("Update queue is full"));
+        } else if (deferredByShard[shard] > 0 || (shedding || deferredSize.get() > 0) && !isCheap(update)) {
+            //Дорогие обновления ждут, пока не будут обработаны ранее отложенные,
+            //обновления потока с отложенными обновлениями - пока не будут обработаны отложенные обновления потока
+            deferredSize.incrementAndGet();
+            deferredByShard[shard]++;
+            deferred.add(new Deferred(update, handler, result, shard));
+            deferredCount.incrementAndGet();
+            relieve();
+        } else {
+            submit(update, handler, result, shard);
+        }
+        return result;
+    }
+
+    /**
+     * Количество обновлений в обработке, начиная с которого дорогие обновления откладываются
+     */
+    public int getHighWatermark() {
+        return highWatermark;
+    }
+
+    /**
+     * Количество обновлений в обработке
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Количество отложенных обновлений
+     */
+    public int getDeferredSize() {
+        return deferredSize.get();
+    }
+
+    /**
+     * Сколько всего обновлений было отложено
+     */
+    public long getDeferredCount() {
+        return deferredCount.get();
+    }
+
+    /**
+     * Сколько всего обновлений было отклонено
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Дорогие обновления откладываются
+     */
+    public boolean isShedding() {
+        return shedding;
+    }
+
+    /**
+     * Номер рабочего потока для чата
+     *
+     * @param chatId   id чата, может отсутствовать
+     * @param updateId id обновления, используется если чата нет
+     * @return номер рабочего потока
+     */
+    int shardOf(Long chatId, Integer updateId) {
+        long key = chatId != null ? chatId : (updateId != null ? updateId : 0);
+        return Math.floorMod(Long.hashCode(key), workers.length);
+    }
+
+    /**
+     * Поиск id чата в обновлении
+     *
+     * @param update обновление
+     * @return id чата или null, если обновление не относится к чату
+     */
+    public static Long chatIdOf(Update update) {
+        if (update.message() != null) {
+            return update.message().chat().id();
+        }
+        if (update.callbackQuery() != null) {
+            if (update.callbackQuery().message() != null) {
+                return update.callbackQuery().message().chat().id();
+            }
+            return update.callbackQuery().from().id();
+        }
+        if (update.editedMessage() != null) {
+            return update.editedMessage().chat().id();
+        }
+        return null;
+    }
+
+    /**
+     * Дешевое обновление: команда меню или запрос информации о приюте
+     *
+     * @param update обновление
+     * @return true, если обновление можно обработать при высокой нагрузке
+     */
+    static boolean isCheap(Update update) {
+        if (update.callbackQuery() != null) {
+            return update.callbackQuery().data() != null && Callback.fromData(update.callbackQuery().data())
+                    .filter(CHEAP_CALLBACKS::contains)
+                    .isPresent();
+        }
+        if (update.message() != null) {
+            return update.message().text() != null && Menu.fromText(update.message().text()).isPresent();
+        }
+        return false;
+    }
+
+    private void submit(Update update, Consumer<Update> handler, CompletableFuture<Void> result, int shard) {
+        pending.incrementAndGet();
+        ExecutorService worker = workers[shard];
+        try {
+            worker.execute(() -> {
+                try {
+                    handler.accept(update);
+                    result.complete(null);
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.decrementAndGet();
+            result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Обновление обработано
+     */
+    private void release() {
+        pending.decrementAndGet();
+        relieve();
+    }
+
+    /**
+     * При снижении нагрузки ниже нижнего порога передать отложенные обновления в обработку
+     * в порядке поступления, пока нагрузка ниже верхнего порога.
+     * Счетчик отложенных обновлений потока уменьшается после передачи в очередь потока,
+     * поэтому следующие обновления этого потока не могут его обогнать.
+     */
+    private synchronized void relieve() {
+        if (shedding && pending.get() <= lowWatermark) {
+            shedding = false;
+            logger.info("Load shedding stopped, {} updates deferred", deferredSize.get());
+        }
+        while (!shedding && pending.get() < highWatermark) {
+            Deferred next = deferred.poll();
+            if (next == null) {
+                return;
+            }
+            submit(next.update(), next.handler(), next.result(), next.shard());
+            deferredByShard[next.shard()]--;
+            deferredSize.decrementAndGet();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        Arrays.stream(workers).forEach(ExecutorService::shutdown);
+    }
+
+    /**
+     * Отложенное обновление
+     */
+    private record Deferred(Update update, Consumer<Update> handler, CompletableFuture<Void> result, int shard) {
+    }
+}
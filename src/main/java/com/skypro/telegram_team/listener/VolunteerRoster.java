@@ -0,0 +1,201 @@
+package com.skypro.telegram_team.listener;
+
+import com.skypro.telegram_team.listener.buffers.ConversationStateStore;
+import com.skypro.telegram_team.listener.buffers.QuestionsBuffer;
+import com.skypro.telegram_team.listener.buffers.VolunteerLoadChangedEvent;
+import com.skypro.telegram_team.models.User;
+import com.skypro.telegram_team.services.UserService;
+import com.skypro.telegram_team.services.VolunteerChangedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.TreeSet;
+
+/**
+ * Список волонтеров в памяти, упорядоченный по количеству открытых вопросов.
+ * Вопрос "любому волонтеру" получает наименее загруженный волонтер (O(log n) без запроса к БД).
+ * <p>
+ * Список загружается при запуске и обновляется при изменении флага волонтера ({@link VolunteerChangedEvent}),
+ * количество открытых вопросов - по событиям буфера вопросов ({@link VolunteerLoadChangedEvent}).
+ * Волонтер, у которого открыто telegram.bot.volunteers.max-open-questions вопросов, новых вопросов не получает
+ * (0 - без ограничения). Ограничение не строгое: одновременно выбранный волонтер может получить вопрос сверх него.
+ * <p>
+ * В режиме кластера (telegram.bot.cluster.enabled) волонтеров могут изменить другие узлы, а буфер вопросов узла
+ * содержит только вопросы его разделов. Поэтому список и количество вопросов всех узлов перечитываются из БД
+ * ({@link #reload()}) на каждом heartbeat координатора, между перечитываниями количество меняется на изменения
+ * вопросов своего узла.
+ */
+@Component
+public class VolunteerRoster {
+    private final Logger logger = LoggerFactory.getLogger(VolunteerRoster.class);
+    private final UserService userService;
+    private final QuestionsBuffer questionsBuffer;
+    private final ConversationStateStore store;
+    private final int maxOpenQuestions;
+    private final boolean clustered;
+    private final NavigableSet<Slot> byLoad = new TreeSet<>(
+            Comparator.comparingInt(Slot::openQuestions).thenComparingLong(Slot::chatId));
+    private final Map<Long, Slot> slots = new HashMap<>();
+    /**
+     * Количество открытых вопросов волонтеру в буфере этого узла на момент последнего изменения
+     */
+    private final Map<Long, Integer> localOpen = new HashMap<>();
+
+    /**
+     * @param userService      загрузка списка волонтеров
+     * @param questionsBuffer  количество открытых вопросов волонтеру
+     * @param store            количество вопросов волонтеру на всех узлах кластера
+     * @param maxOpenQuestions сколько вопросов может быть открыто у волонтера, 0 - без ограничения
+     * @param clustered        режим кластера
+     */
+    public VolunteerRoster(UserService userService, QuestionsBuffer questionsBuffer, ConversationStateStore store,
+                           @Value("${telegram.bot.volunteers.max-open-questions:5}") int maxOpenQuestions,
+                           @Value("${telegram.bot.cluster.enabled:false}") boolean clustered) {
+        this.userService = userService;
+        this.questionsBuffer = questionsBuffer;
+        this.store = store;
+        this.maxOpenQuestions = maxOpenQuestions;
+        this.clustered = clustered;
+    }
+
+    /**
+     * Загрузить волонтеров из БД, при ошибке список пуст до изменения волонтеров
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void load() {
+        clear();
+        try {
+            fill();
+            logger.info("Volunteer roster loaded, {} volunteers", slots.size());
+        } catch (RuntimeException e) {
+            logger.error("Volunteer roster loading failed", e);
+        }
+    }
+
+    /**
+     * Перечитать волонтеров и количество их вопросов из БД в режиме кластера,
+     * при ошибке остается прежний список
+     */
+    public void reload() {
+        if (!clustered) {
+            return;
+        }
+        Collection<User> volunteers;
+        Map<Long, Integer> open;
+        try {
+            volunteers = userService.findVolunteers();
+            open = store.countQuestionsByVolunteerChat();
+        } catch (RuntimeException e) {
+            logger.warn("Volunteer roster reloading failed, keeping {} volunteers", size(), e);
+            return;
+        }
+        synchronized (this) {
+            clear();
+            fill(volunteers, open);
+        }
+        logger.debug("Volunteer roster reloaded, {} volunteers", volunteers.size());
+    }
+
+    /**
+     * Наименее загруженный волонтер
+     *
+     * @return чат волонтера или пусто, если волонтеров нет или все заняты
+     */
+    public synchronized Optional<Long> leastLoaded() {
+        if (byLoad.isEmpty()) {
+            return Optional.empty();
+        }
+        Slot first = byLoad.first();
+        if (maxOpenQuestions > 0 && first.openQuestions() >= maxOpenQuestions) {
+            return Optional.empty();
+        }
+        return Optional.of(first.chatId());
+    }
+
+    /**
+     * Количество волонтеров в списке
+     */
+    public synchronized int size() {
+        return slots.size();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public synchronized void onVolunteerChanged(VolunteerChangedEvent event) {
+        if (event.volunteer() && event.telegramId() != 0) {
+            put(event.telegramId());
+        } else {
+            Slot slot = slots.remove(event.telegramId());
+            localOpen.remove(event.telegramId());
+            if (slot != null) {
+                byLoad.remove(slot);
+            }
+        }
+    }
+
+    @EventListener
+    public synchronized void onLoadChanged(VolunteerLoadChangedEvent event) {
+        Slot slot = slots.get(event.volunteerChatId());
+        if (slot != null) {
+            byLoad.remove(slot);
+            //В режиме кластера в слоте и вопросы других узлов, поэтому меняется на изменение вопросов этого узла
+            Integer previous = localOpen.put(event.volunteerChatId(), event.openQuestions());
+            int open = slot.openQuestions() + event.openQuestions() - (previous == null ? 0 : previous);
+            replace(new Slot(event.volunteerChatId(), Math.max(open, 0)));
+        }
+    }
+
+    private void clear() {
+        slots.clear();
+        byLoad.clear();
+        localOpen.clear();
+    }
+
+    private void fill() {
+        fill(userService.findVolunteers(), clustered ? store.countQuestionsByVolunteerChat() : null);
+    }
+
+    /**
+     * @param open количество вопросов всех узлов или null, если учитываются только вопросы этого узла
+     */
+    private void fill(Collection<User> volunteers, Map<Long, Integer> open) {
+        volunteers.stream()
+                .filter(volunteer -> volunteer.getTelegramId() != 0)
+                .forEach(volunteer -> put(volunteer.getTelegramId(), open));
+    }
+
+    private void put(long chatId) {
+        put(chatId, clustered ? Map.of() : null);
+    }
+
+    private void put(long chatId, Map<Long, Integer> open) {
+        Slot slot = slots.get(chatId);
+        if (slot != null) {
+            byLoad.remove(slot);
+        }
+        int local = questionsBuffer.countByVolunteerChat(chatId);
+        localOpen.put(chatId, local);
+        replace(new Slot(chatId, open == null ? local : Math.max(open.getOrDefault(chatId, 0), local)));
+    }
+
+    private void replace(Slot slot) {
+        slots.put(slot.chatId(), slot);
+        byLoad.add(slot);
+    }
+
+    /**
+     * Волонтер и количество его открытых вопросов
+     */
+    private record Slot(long chatId, int openQuestions) {
+    }
+}
@@ -0,0 +1,62 @@
+package com.skypro.telegram_team.listener.buffers;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Хранилище состояния диалогов: вопросов волонтерам и запросов данных.
+ * Буферы держат состояние в памяти для поиска и сохраняют каждое изменение в хранилище,
+ * при запуске состояние загружается из хранилища (telegram.bot.state-store).
+ * Сохранение не должно задерживать обработку сообщения.
+ */
+public interface ConversationStateStore {
+
+    /**
+     * Ключ нового вопроса: ключи возрастают и не повторяются среди вопросов хранилища
+     */
+    long nextQuestionKey();
+
+    void saveQuestion(Question question);
+
+    void deleteQuestion(Question question);
+
+    /**
+     * @param chatId чат
+     * @param flags  флаги запроса, см. {@link Request}
+     */
+    void saveRequest(long chatId, int flags);
+
+    void deleteRequest(long chatId);
+
+    /**
+     * Все сохраненные вопросы в порядке добавления
+     */
+    List<Question> loadQuestions();
+
+    /**
+     * Все сохраненные запросы данных
+     */
+    List<Request> loadRequests();
+
+    /**
+     * Сохраненные вопросы пользователей из разделов кластера
+     * ({@link com.skypro.telegram_team.cluster.PartitionAssignment}) в порядке добавления
+     *
+     * @param partitions разделы по чату пользователя
+     */
+    List<Question> loadQuestions(int[] partitions);
+
+    /**
+     * Сохраненные запросы данных чатов из разделов кластера
+     *
+     * @param partitions разделы по чату
+     */
+    List<Request> loadRequests(int[] partitions);
+
+    /**
+     * Количество сохраненных вопросов по чату волонтера, в режиме кластера - вопросы всех узлов
+     *
+     * @return количество вопросов по чату волонтера, волонтеры без вопросов не входят
+     */
+    Map<Long, Integer> countQuestionsByVolunteerChat();
+}
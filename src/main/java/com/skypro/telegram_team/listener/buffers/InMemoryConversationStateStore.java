@@ -0,0 +1,67 @@
+package com.skypro.telegram_team.listener.buffers;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Хранилище состояния диалогов в памяти процесса (telegram.bot.state-store=memory).
+ * Состояние и так хранится в буферах, поэтому хранилище ничего не сохраняет
+ * и при запуске ничего не загружает: состояние теряется при перезапуске.
+ * Ключи вопросов уникальны в пределах процесса.
+ */
+@Component
+@ConditionalOnProperty(name = "telegram.bot.state-store", havingValue = "memory", matchIfMissing = true)
+public class InMemoryConversationStateStore implements ConversationStateStore {
+    private final AtomicLong questionKeys = new AtomicLong();
+
+    @Override
+    public long nextQuestionKey() {
+        return questionKeys.incrementAndGet();
+    }
+
+    @Override
+    public void saveQuestion(Question question) {
+    }
+
+    @Override
+    public void deleteQuestion(Question question) {
+    }
+
+    @Override
+    public void saveRequest(long chatId, int flags) {
+    }
+
+    @Override
+    public void deleteRequest(long chatId) {
+    }
+
+    @Override
+    public List<Question> loadQuestions() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<Request> loadRequests() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<Question> loadQuestions(int[] partitions) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<Request> loadRequests(int[] partitions) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Map<Long, Integer> countQuestionsByVolunteerChat() {
+        return Collections.emptyMap();
+    }
+}
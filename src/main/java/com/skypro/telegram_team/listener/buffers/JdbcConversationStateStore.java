@@ -0,0 +1,297 @@
+package com.skypro.telegram_team.listener.buffers;
+
+import com.skypro.telegram_team.cluster.PartitionAssignment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Хранилище состояния диалогов в базе данных (telegram.bot.state-store=jdbc).
+ * <p>
+ * Изменения не записываются сразу, а копятся в памяти (write-behind) и записываются пакетом
+ * в фоновом потоке: по таймеру (telegram.bot.state-store.flush-interval)
+ * или при накоплении пакета (telegram.bot.state-store.batch-size).
+ * Из нескольких изменений одной записи до записи пакета сохраняется последнее.
+ * Если запись пакета не удалась, изменения возвращаются в очередь, если их не заменили более новые.
+ * <p>
+ * Ключи вопросов выдаются блоками из последовательности БД, поэтому не повторяются у нескольких узлов кластера.
+ * Для каждой записи сохраняется раздел кластера ее чата (telegram.bot.cluster.partitions),
+ * узел кластера загружает только вопросы и запросы своих разделов.
+ */
+@Component
+@ConditionalOnProperty(name = "telegram.bot.state-store", havingValue = "jdbc")
+public class JdbcConversationStateStore implements ConversationStateStore {
+    //Размер блока ключей совпадает с шагом последовательности buffered_question_keys
+    static final int QUESTION_KEY_BLOCK = 100;
+    private static final String NEXT_QUESTION_KEY_BLOCK = "SELECT nextval('buffered_question_keys')";
+    private static final String DELETE_QUESTION = "DELETE FROM buffered_questions WHERE question_key = ?";
+    private static final String INSERT_QUESTION = "INSERT INTO buffered_questions " +
+            "(question_key, question_id, user_chat_id, volunteer_chat_id, volunteer_message_id, question, answer, " +
+            "partition_no, updated_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String DELETE_REQUEST = "DELETE FROM buffered_requests WHERE chat_id = ?";
+    private static final String INSERT_REQUEST = "INSERT INTO buffered_requests " +
+            "(chat_id, user_phone, user_email, report_photo, report_diet, report_behavior, report_well_being, " +
+            "partition_no, updated_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String SELECT_QUESTIONS = "SELECT * FROM buffered_questions";
+    private static final String SELECT_REQUESTS = "SELECT * FROM buffered_requests";
+    private static final String BY_PARTITIONS = " WHERE partition_no = ANY (?)";
+    private static final String ORDER_BY_KEY = " ORDER BY question_key";
+    private static final String COUNT_BY_VOLUNTEER_CHAT = "SELECT volunteer_chat_id, COUNT(*) AS questions " +
+            "FROM buffered_questions WHERE volunteer_chat_id IS NOT NULL GROUP BY volunteer_chat_id";
+    private final Logger logger = LoggerFactory.getLogger(JdbcConversationStateStore.class);
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final long flushIntervalMillis;
+    private final int batchSize;
+    private final int partitions;
+    private final ScheduledExecutorService flusher =
+            Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("state-store-flush-"));
+    private final Object flushLock = new Object();
+    //Ожидающие записи изменения, пустое значение - удаление
+    private final Map<Long, Optional<Object[]>> questionWrites = new LinkedHashMap<>();
+    private final Map<Long, Optional<Object[]>> requestWrites = new LinkedHashMap<>();
+    //Текущий блок ключей вопросов: следующий ключ и граница блока
+    private long nextQuestionKey;
+    private long questionKeyLimit;
+
+    /**
+     * @param jdbcTemplate       доступ к базе данных
+     * @param transactionManager пакет записывается в одной транзакции
+     * @param flushInterval      как часто записывать накопленные изменения
+     * @param batchSize          количество изменений, при котором пакет записывается не дожидаясь таймера
+     * @param partitions         количество разделов кластера
+     */
+    public JdbcConversationStateStore(JdbcTemplate jdbcTemplate,
+                                      PlatformTransactionManager transactionManager,
+                                      @Value("${telegram.bot.state-store.flush-interval:200ms}") Duration flushInterval,
+                                      @Value("${telegram.bot.state-store.batch-size:500}") int batchSize,
+                                      @Value("${telegram.bot.cluster.partitions:256}") int partitions) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.flushIntervalMillis = flushInterval.toMillis();
+        this.batchSize = batchSize;
+        this.partitions = partitions;
+    }
+
+    @PostConstruct
+    public void start() {
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        flusher.shutdown();
+        flusher.awaitTermination(flushIntervalMillis, TimeUnit.MILLISECONDS);
+        flush();
+    }
+
+    /**
+     * Ключ из текущего блока, новый блок запрашивается из БД, когда текущий закончился
+     */
+    @Override
+    public synchronized long nextQuestionKey() {
+        if (nextQuestionKey == questionKeyLimit) {
+            nextQuestionKey = jdbcTemplate.queryForObject(NEXT_QUESTION_KEY_BLOCK, Long.class);
+            questionKeyLimit = nextQuestionKey + QUESTION_KEY_BLOCK;
+        }
+        return nextQuestionKey++;
+    }
+
+    @Override
+    public void saveQuestion(Question question) {
+        Object[] row = {question.getKey(), question.getId(), question.getUserChatId(), question.getVolunteerChatId(),
+                question.getVolunteerMessageId(), question.getQuestion(), question.getAnswer(),
+                partitionOf(question.getUserChatId()), Timestamp.valueOf(LocalDateTime.now())};
+        enqueue(questionWrites, question.getKey(), Optional.of(row));
+    }
+
+    @Override
+    public void deleteQuestion(Question question) {
+        enqueue(questionWrites, question.getKey(), Optional.empty());
+    }
+
+    @Override
+    public void saveRequest(long chatId, int flags) {
+        Object[] row = {chatId, (flags & Request.USER_PHONE) != 0, (flags & Request.USER_EMAIL) != 0,
+                (flags & Request.REPORT_PHOTO) != 0, (flags & Request.REPORT_DIET) != 0,
+                (flags & Request.REPORT_BEHAVIOR) != 0, (flags & Request.REPORT_WELL_BEING) != 0,
+                partitionOf(chatId), Timestamp.valueOf(LocalDateTime.now())};
+        enqueue(requestWrites, chatId, Optional.of(row));
+    }
+
+    @Override
+    public void deleteRequest(long chatId) {
+        enqueue(requestWrites, chatId, Optional.empty());
+    }
+
+    @Override
+    public List<Question> loadQuestions() {
+        flush();
+        return startBlockAfter(jdbcTemplate.query(SELECT_QUESTIONS + ORDER_BY_KEY, this::mapQuestion));
+    }
+
+    @Override
+    public List<Request> loadRequests() {
+        flush();
+        return jdbcTemplate.query(SELECT_REQUESTS, this::mapRequest);
+    }
+
+    @Override
+    public List<Question> loadQuestions(int[] partitions) {
+        flush();
+        return startBlockAfter(jdbcTemplate.query(byPartitions(SELECT_QUESTIONS + BY_PARTITIONS + ORDER_BY_KEY,
+                partitions), this::mapQuestion));
+    }
+
+    @Override
+    public List<Request> loadRequests(int[] partitions) {
+        flush();
+        return jdbcTemplate.query(byPartitions(SELECT_REQUESTS + BY_PARTITIONS, partitions), this::mapRequest);
+    }
+
+    @Override
+    public Map<Long, Integer> countQuestionsByVolunteerChat() {
+        flush();
+        Map<Long, Integer> counts = new HashMap<>();
+        jdbcTemplate.query(COUNT_BY_VOLUNTEER_CHAT,
+                (RowCallbackHandler) rs -> counts.put(rs.getLong("volunteer_chat_id"), rs.getInt("questions")));
+        return counts;
+    }
+
+    /**
+     * Количество изменений, ожидающих записи
+     */
+    public synchronized int getPendingWrites() {
+        return questionWrites.size() + requestWrites.size();
+    }
+
+    /**
+     * Записать накопленные изменения одним пакетом
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            Map<Long, Optional<Object[]>> questions;
+            Map<Long, Optional<Object[]>> requests;
+            synchronized (this) {
+                if (questionWrites.isEmpty() && requestWrites.isEmpty()) {
+                    return;
+                }
+                questions = new LinkedHashMap<>(questionWrites);
+                requests = new LinkedHashMap<>(requestWrites);
+                questionWrites.clear();
+                requestWrites.clear();
+            }
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    write(questions, DELETE_QUESTION, INSERT_QUESTION);
+                    write(requests, DELETE_REQUEST, INSERT_REQUEST);
+                });
+                logger.debug("State store flushed {} changes", questions.size() + requests.size());
+            } catch (DataAccessException e) {
+                logger.error("State store flush failed: {}", e.getMessage());
+                synchronized (this) {
+                    questions.forEach(questionWrites::putIfAbsent);
+                    requests.forEach(requestWrites::putIfAbsent);
+                }
+            }
+        }
+    }
+
+    private void enqueue(Map<Long, Optional<Object[]>> writes, Long key, Optional<Object[]> row) {
+        int pending;
+        synchronized (this) {
+            writes.put(key, row);
+            pending = questionWrites.size() + requestWrites.size();
+        }
+        if (pending == batchSize) {
+            flusher.execute(this::flush);
+        }
+    }
+
+    /**
+     * Записать изменения одной таблицы: удалить прежние строки и вставить новые
+     */
+    private void write(Map<Long, Optional<Object[]>> writes, String deleteSql, String insertSql) {
+        if (writes.isEmpty()) {
+            return;
+        }
+        List<Object[]> keys = new ArrayList<>(writes.size());
+        List<Object[]> rows = new ArrayList<>(writes.size());
+        writes.forEach((key, row) -> {
+            keys.add(new Object[]{key});
+            row.ifPresent(rows::add);
+        });
+        jdbcTemplate.batchUpdate(deleteSql, keys);
+        if (!rows.isEmpty()) {
+            jdbcTemplate.batchUpdate(insertSql, rows);
+        }
+    }
+
+    /**
+     * Если загружены вопросы с ключами не меньше текущего блока (выданы другим узлом позже),
+     * следующий ключ берется из нового блока, чтобы новые вопросы оставались после загруженных
+     */
+    private synchronized List<Question> startBlockAfter(List<Question> loaded) {
+        if (loaded.stream().anyMatch(question -> question.getKey() >= nextQuestionKey)) {
+            questionKeyLimit = nextQuestionKey;
+        }
+        return loaded;
+    }
+
+    private int partitionOf(Long chatId) {
+        return PartitionAssignment.partitionOf(chatId, null, partitions);
+    }
+
+    private static PreparedStatementCreator byPartitions(String sql, int[] partitions) {
+        return connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql);
+            statement.setArray(1, connection.createArrayOf("integer", Arrays.stream(partitions).boxed().toArray()));
+            return statement;
+        };
+    }
+
+    private Question mapQuestion(ResultSet rs, int rowNum) throws SQLException {
+        return Question.restore(rs.getLong("question_key"), rs.getObject("question_id", Integer.class),
+                rs.getObject("user_chat_id", Long.class), rs.getObject("volunteer_chat_id", Long.class),
+                rs.getObject("volunteer_message_id", Integer.class), rs.getString("question"), rs.getString("answer"));
+    }
+
+    private Request mapRequest(ResultSet rs, int rowNum) throws SQLException {
+        Request request = new Request(rs.getLong("chat_id"));
+        request.setUserPhoneRequested(rs.getBoolean("user_phone"));
+        request.setUserEmailRequested(rs.getBoolean("user_email"));
+        request.setReportPhotoRequested(rs.getBoolean("report_photo"));
+        request.setReportDietRequested(rs.getBoolean("report_diet"));
+        request.setReportBehaviorRequested(rs.getBoolean("report_behavior"));
+        request.setReportWellBeingRequest(rs.getBoolean("report_well_being"));
+        return request;
+    }
+}
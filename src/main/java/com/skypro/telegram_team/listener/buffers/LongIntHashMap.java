@@ -0,0 +1,190 @@
+package com.skypro.telegram_team.listener.buffers;
+
+/**
+ * Хеш-таблица long -> int с открытой адресацией (линейное пробирование).
+ * Ключи и значения хранятся в массивах примитивов: поиск, добавление и удаление не создают объектов,
+ * память выделяется только при росте таблицы.
+ * <p>
+ * Класс не потокобезопасен.
+ */
+final class LongIntHashMap {
+    private static final float LOAD_FACTOR = 0.5f;
+    //Ключ 0 обозначает пустую ячейку, поэтому значение для него хранится отдельно
+    private static final long FREE = 0;
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private int resizeAt;
+    private boolean hasFreeKey;
+    private int freeKeyValue;
+
+    /**
+     * @param expectedSize ожидаемое количество записей
+     */
+    LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    /**
+     * Значение по ключу
+     *
+     * @param key          ключ
+     * @param missingValue возвращается, если ключа нет
+     */
+    int get(long key, int missingValue) {
+        if (key == FREE) {
+            return hasFreeKey ? freeKeyValue : missingValue;
+        }
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) {
+                return values[i];
+            }
+            if (k == FREE) {
+                return missingValue;
+            }
+        }
+    }
+
+    boolean containsKey(long key) {
+        if (key == FREE) {
+            return hasFreeKey;
+        }
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) {
+                return true;
+            }
+            if (k == FREE) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Добавить или заменить значение
+     *
+     * @return true, если ключа не было
+     */
+    boolean put(long key, int value) {
+        if (key == FREE) {
+            boolean added = !hasFreeKey;
+            if (added) {
+                size++;
+            }
+            hasFreeKey = true;
+            freeKeyValue = value;
+            return added;
+        }
+        int i = slot(key);
+        for (; keys[i] != FREE; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return false;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size >= resizeAt) {
+            rehash(keys.length << 1);
+        }
+        return true;
+    }
+
+    /**
+     * Удалить ключ
+     *
+     * @return true, если ключ был
+     */
+    boolean remove(long key) {
+        if (key == FREE) {
+            if (!hasFreeKey) {
+                return false;
+            }
+            hasFreeKey = false;
+            size--;
+            return true;
+        }
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) {
+                shiftBack(i);
+                size--;
+                return true;
+            }
+            if (k == FREE) {
+                return false;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Обойти все записи
+     */
+    void forEach(EntryConsumer consumer) {
+        if (hasFreeKey) {
+            consumer.accept(FREE, freeKeyValue);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE) {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * Удаление без "надгробий": записи цепочки после удаленной сдвигаются назад,
+     * если их начальная ячейка не находится между освободившейся ячейкой и текущей
+     */
+    private void shiftBack(int free) {
+        for (int i = (free + 1) & mask; keys[i] != FREE; i = (i + 1) & mask) {
+            int home = slot(keys[i]);
+            if (((i - home) & mask) >= ((i - free) & mask)) {
+                keys[free] = keys[i];
+                values[free] = values[i];
+                free = i;
+            }
+        }
+        keys[free] = FREE;
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int j = 0; j < oldKeys.length; j++) {
+            long key = oldKeys[j];
+            if (key != FREE) {
+                int i = slot(key);
+                while (keys[i] != FREE) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface EntryConsumer {
+        void accept(long key, int value);
+    }
+}
@@ -1,15 +1,31 @@
 package com.skypro.telegram_team.listener.buffers;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Setter;
+import lombok.ToString;
 
 /**
  * Вопрос от пользователя волонтеру
  */
 @Data
 public class Question {
+    /**
+     * Внутренний ключ вопроса в буфере, задает порядок добавления.
+     * Присваивается при добавлении в буфер ({@link ConversationStateStore#nextQuestionKey()}), до этого 0
+     */
+    @Setter(AccessLevel.PACKAGE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private long key;
     private Integer id;
     private Long userChatId;
     private Long volunteerChatId;
+    /**
+     * Id сообщения с вопросом в чате волонтера, по нему находится вопрос при ответе волонтера
+     */
+    private Integer volunteerMessageId;
     private String question;
     private String answer;
 
@@ -18,9 +34,25 @@ public class Question {
     }
 
     public Question(Long userChatId, Long volunteerChatId, String question, String answer) {
+        this(0, userChatId, volunteerChatId, question, answer);
+    }
+
+    private Question(long key, Long userChatId, Long volunteerChatId, String question, String answer) {
+        this.key = key;
         this.userChatId = userChatId;
         this.volunteerChatId = volunteerChatId;
         this.question = question;
         this.answer = answer;
     }
+
+    /**
+     * Восстановить вопрос из хранилища с прежним ключом
+     */
+    public static Question restore(long key, Integer id, Long userChatId, Long volunteerChatId,
+                                   Integer volunteerMessageId, String question, String answer) {
+        Question restored = new Question(key, userChatId, volunteerChatId, question, answer);
+        restored.setId(id);
+        restored.setVolunteerMessageId(volunteerMessageId);
+        return restored;
+    }
 }
@@ -0,0 +1,9 @@
+package com.skypro.telegram_team.listener.buffers;
+
+/**
+ * Вопрос удален из буфера без ответа: истекло время жизни или буфер переполнен
+ *
+ * @param question вопрос
+ */
+public record QuestionExpiredEvent(Question question) {
+}
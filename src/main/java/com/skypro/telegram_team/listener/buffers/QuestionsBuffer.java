@@ -1,42 +1,333 @@
 package com.skypro.telegram_team.listener.buffers;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongPredicate;
+import java.util.function.LongSupplier;
 
 /**
  * Буфер для хранения в памяти вопросов от пользователя к волонтеру
  * При ответе на вопрос он должен удаляться
+ * <p>
+ * Вопросы проиндексированы по id, чату пользователя, чату волонтера
+ * и сообщению с вопросом в чате волонтера (для ответа волонтера через reply).
+ * Если по ключу несколько вопросов, возвращается добавленный первым.
+ * Поиск выполняется без блокировок, изменения выполняются под блокировкой буфера,
+ * чтобы индексы оставались согласованными.
+ * <p>
+ * При добавлении и удалении вопроса публикуется количество открытых вопросов волонтеру
+ * ({@link VolunteerLoadChangedEvent}).
+ * <p>
+ * Вопрос, на который не ответили за время жизни, удаляется из буфера ({@link QuestionExpiredEvent}).
+ * Если буфер заполнен, при добавлении удаляется самый старый вопрос.
+ * <p>
+ * Изменения сохраняются в {@link ConversationStateStore}, при запуске вопросы загружаются из него
+ * с новым временем жизни. В режиме кластера буфер хранит только вопросы пользователей из разделов узла:
+ * они загружаются, когда узел получает разделы ({@link #restore(int[])}), и выгружаются без удаления
+ * из хранилища, когда узел их теряет ({@link #release(LongPredicate)}).
  */
 @Component
 public class QuestionsBuffer {
-    private final List<Question> questions = new ArrayList<>();
+    private static final long TICK_MILLIS = 1000;
+    private static final int WHEEL_SIZE = 3600;
+    private final Map<Integer, Question> byId = new ConcurrentHashMap<>();
+    private final Map<Long, NavigableMap<Long, Question>> byUserChat = new ConcurrentHashMap<>();
+    private final Map<Long, NavigableMap<Long, Question>> byVolunteerChat = new ConcurrentHashMap<>();
+    private final Map<VolunteerMessage, Question> byVolunteerMessage = new ConcurrentHashMap<>();
+    private final NavigableMap<Long, Question> questions = new ConcurrentSkipListMap<>();
+    private final long ttlMillis;
+    private final int maxSize;
+    private final ConversationStateStore store;
+    private final ApplicationEventPublisher publisher;
+    private final LongSupplier clock;
+    private final TimingWheel wheel;
+    private volatile int size;
+    @Value("${telegram.bot.cluster.enabled:false}")
+    private boolean clustered;
+
+    /**
+     * @param ttl       время жизни вопроса
+     * @param maxSize   максимальное количество вопросов в буфере
+     * @param store     хранилище состояния диалогов
+     * @param publisher получает события об удалении вопросов без ответа
+     */
+    @Autowired
+    public QuestionsBuffer(@Value("${telegram.bot.buffers.questions.ttl:24h}") Duration ttl,
+                           @Value("${telegram.bot.buffers.questions.max-size:10000}") int maxSize,
+                           ConversationStateStore store,
+                           ApplicationEventPublisher publisher) {
+        this(ttl, maxSize, store, publisher, System::currentTimeMillis);
+    }
+
+    QuestionsBuffer(Duration ttl, int maxSize, ConversationStateStore store, ApplicationEventPublisher publisher,
+                    LongSupplier clock) {
+        this.ttlMillis = ttl.toMillis();
+        this.maxSize = maxSize;
+        this.store = store;
+        this.publisher = publisher;
+        this.clock = clock;
+        this.wheel = new TimingWheel(TICK_MILLIS, WHEEL_SIZE, clock.getAsLong());
+    }
+
+    /**
+     * Загрузить вопросы из хранилища, в режиме кластера вопросы загружаются по разделам узла
+     */
+    @PostConstruct
+    public void restore() {
+        if (!clustered) {
+            store.loadQuestions().forEach(question -> add(question, false));
+        }
+    }
+
+    /**
+     * Загрузить вопросы пользователей из разделов, полученных узлом кластера
+     *
+     * @param partitions разделы
+     */
+    public void restore(int[] partitions) {
+        store.loadQuestions(partitions).forEach(question -> add(question, false));
+    }
+
+    /**
+     * Выгрузить вопросы пользователей, чаты которых перешли к другому узлу кластера.
+     * Вопросы остаются в хранилище, события об истечении не публикуются
+     *
+     * @param userChats чаты пользователей, вопросы которых выгружаются
+     */
+    public synchronized void release(LongPredicate userChats) {
+        questions.values().stream()
+                .filter(question -> question.getUserChatId() != null && userChats.test(question.getUserChatId()))
+                .map(Question::getKey)
+                .toList()
+                .forEach(key -> remove(key, false));
+    }
 
     public void addQuestion(Question question) {
-        questions.add(question);
+        add(question, true);
     }
 
-    public void delQuestion(Question question) {
-        questions.remove(question);
+    private void add(Question question, boolean save) {
+        Question evicted = null;
+        synchronized (this) {
+            if (questions.containsKey(question.getKey())) {
+                return;
+            }
+            if (question.getKey() == 0) {
+                question.setKey(store.nextQuestionKey());
+            }
+            if (size >= maxSize) {
+                evicted = remove(questions.firstKey(), true);
+            }
+            questions.put(question.getKey(), question);
+            size++;
+            if (question.getId() != null) {
+                byId.putIfAbsent(question.getId(), question);
+            }
+            index(byUserChat, question.getUserChatId(), question);
+            index(byVolunteerChat, question.getVolunteerChatId(), question);
+            VolunteerMessage volunteerMessage = VolunteerMessage.of(question);
+            if (volunteerMessage != null) {
+                byVolunteerMessage.put(volunteerMessage, question);
+            }
+            publishLoad(question.getVolunteerChatId());
+            wheel.schedule(question.getKey(), clock.getAsLong() + ttlMillis);
+            if (save) {
+                store.saveQuestion(question);
+            }
+        }
+        if (evicted != null) {
+            publisher.publishEvent(new QuestionExpiredEvent(evicted));
+        }
+    }
+
+    public synchronized void delQuestion(Question question) {
+        if (questions.containsKey(question.getKey())) {
+            remove(question.getKey(), true);
+        }
+    }
+
+    /**
+     * Присвоить id вопросу (в том числе уже добавленному в буфер) и обновить индекс.
+     * Вопрос передан волонтеру, время жизни отсчитывается заново
+     *
+     * @param question вопрос
+     * @param id       id вопроса
+     */
+    public synchronized void setQuestionId(Question question, Integer id) {
+        boolean buffered = questions.containsKey(question.getKey());
+        if (buffered && question.getId() != null && byId.get(question.getId()) == question) {
+            byId.remove(question.getId());
+        }
+        question.setId(id);
+        if (buffered && id != null) {
+            byId.putIfAbsent(id, question);
+        }
+        if (buffered) {
+            wheel.schedule(question.getKey(), clock.getAsLong() + ttlMillis);
+            store.saveQuestion(question);
+        }
+    }
+
+    /**
+     * Запомнить сообщение с вопросом, отправленное волонтеру, и обновить индекс
+     *
+     * @param question  вопрос
+     * @param messageId id сообщения в чате волонтера
+     */
+    public synchronized void setVolunteerMessageId(Question question, Integer messageId) {
+        boolean buffered = questions.containsKey(question.getKey());
+        VolunteerMessage previous = VolunteerMessage.of(question);
+        if (buffered && previous != null) {
+            byVolunteerMessage.remove(previous, question);
+        }
+        question.setVolunteerMessageId(messageId);
+        VolunteerMessage volunteerMessage = VolunteerMessage.of(question);
+        if (buffered && volunteerMessage != null) {
+            byVolunteerMessage.put(volunteerMessage, question);
+        }
+        if (buffered) {
+            store.saveQuestion(question);
+        }
     }
 
     public Optional<Question> getQuestionById(Integer id) {
-        return questions.stream()
-                .filter(q -> q.getId().equals(id))
-                .findFirst();
+        return Optional.ofNullable(byId.get(id));
     }
 
     public Optional<Question> getQuestionByUserChat(Long chatId) {
-        return questions.stream()
-                .filter(q -> q.getUserChatId().equals(chatId))
-                .findFirst();
+        return first(byUserChat, chatId);
     }
 
     public Optional<Question> getQuestionByVolunteerChat(Long chatId) {
-        return questions.stream()
-                .filter(q -> q.getVolunteerChatId().equals(chatId))
-                .findFirst();
+        return first(byVolunteerChat, chatId);
+    }
+
+    /**
+     * Вопрос, на сообщение с которым отвечает волонтер
+     *
+     * @param chatId    чат волонтера
+     * @param messageId id сообщения с вопросом в чате волонтера
+     */
+    public Optional<Question> getQuestionByVolunteerMessage(Long chatId, Integer messageId) {
+        if (chatId == null || messageId == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(byVolunteerMessage.get(new VolunteerMessage(chatId, messageId)));
+    }
+
+    /**
+     * Количество открытых вопросов волонтеру
+     *
+     * @param chatId чат волонтера
+     */
+    public int countByVolunteerChat(Long chatId) {
+        NavigableMap<Long, Question> chatQuestions = byVolunteerChat.get(chatId);
+        return chatQuestions == null ? 0 : chatQuestions.size();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Удалить вопросы, время жизни которых истекло
+     */
+    @Scheduled(fixedDelay = TICK_MILLIS)
+    public void expire() {
+        expire(clock.getAsLong());
+    }
+
+    void expire(long nowMillis) {
+        List<Question> expired = new ArrayList<>();
+        synchronized (this) {
+            wheel.advance(nowMillis, key -> expired.add(remove(key, true)));
+        }
+        expired.forEach(question -> publisher.publishEvent(new QuestionExpiredEvent(question)));
+    }
+
+    /**
+     * Удалить вопрос из буфера и индексов, вызывается под блокировкой буфера
+     *
+     * @param delete удалить вопрос и из хранилища
+     */
+    private Question remove(long key, boolean delete) {
+        Question question = questions.remove(key);
+        size--;
+        wheel.cancel(key);
+        if (question.getId() != null && byId.get(question.getId()) == question) {
+            byId.remove(question.getId());
+        }
+        unindex(byUserChat, question.getUserChatId(), question);
+        unindex(byVolunteerChat, question.getVolunteerChatId(), question);
+        VolunteerMessage volunteerMessage = VolunteerMessage.of(question);
+        if (volunteerMessage != null) {
+            byVolunteerMessage.remove(volunteerMessage, question);
+        }
+        publishLoad(question.getVolunteerChatId());
+        if (delete) {
+            store.deleteQuestion(question);
+        }
+        return question;
+    }
+
+    /**
+     * Опубликовать количество вопросов волонтеру, вызывается под блокировкой буфера,
+     * чтобы события одного волонтера шли в порядке изменений
+     */
+    private void publishLoad(Long volunteerChatId) {
+        if (volunteerChatId != null) {
+            publisher.publishEvent(new VolunteerLoadChangedEvent(volunteerChatId, countByVolunteerChat(volunteerChatId)));
+        }
+    }
+
+    private static void index(Map<Long, NavigableMap<Long, Question>> index, Long chatId, Question question) {
+        if (chatId != null) {
+            index.computeIfAbsent(chatId, id -> new ConcurrentSkipListMap<>()).put(question.getKey(), question);
+        }
+    }
+
+    private static void unindex(Map<Long, NavigableMap<Long, Question>> index, Long chatId, Question question) {
+        if (chatId == null) {
+            return;
+        }
+        NavigableMap<Long, Question> chatQuestions = index.get(chatId);
+        if (chatQuestions != null) {
+            chatQuestions.remove(question.getKey());
+            if (chatQuestions.isEmpty()) {
+                index.remove(chatId);
+            }
+        }
+    }
+
+    private static Optional<Question> first(Map<Long, NavigableMap<Long, Question>> index, Long chatId) {
+        NavigableMap<Long, Question> chatQuestions = index.get(chatId);
+        if (chatQuestions == null) {
+            return Optional.empty();
+        }
+        Map.Entry<Long, Question> first = chatQuestions.firstEntry();
+        return first == null ? Optional.empty() : Optional.of(first.getValue());
+    }
+
+    /**
+     * Сообщение в чате волонтера
+     */
+    private record VolunteerMessage(long chatId, int messageId) {
+        private static VolunteerMessage of(Question question) {
+            return question.getVolunteerChatId() == null || question.getVolunteerMessageId() == null
+                    ? null : new VolunteerMessage(question.getVolunteerChatId(), question.getVolunteerMessageId());
+        }
     }
 }
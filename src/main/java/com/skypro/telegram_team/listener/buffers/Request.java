@@ -5,73 +5,91 @@ import java.util.Objects;
 /**
  * Запрос пользователя на обновление данных
  * пользователя или дневного отчета
+ * <p>
+ * Флаги запроса хранятся битовой маской, в буфере хранится только маска.
  */
 public class Request {
-    //Чат
-    private final Long chatId;
     //Запросы данных пользователя
-    private boolean userPhoneRequested;
-    private boolean userEmailRequested;
+    public static final int USER_PHONE = 1;
+    public static final int USER_EMAIL = 1 << 1;
     //Запросы данных для отчета
-    private boolean reportPhotoRequested;
-    private boolean reportDietRequested;
-    private boolean reportBehaviorRequested;
-    private boolean reportWellBeingRequest;
+    public static final int REPORT_PHOTO = 1 << 2;
+    public static final int REPORT_DIET = 1 << 3;
+    public static final int REPORT_BEHAVIOR = 1 << 4;
+    public static final int REPORT_WELL_BEING = 1 << 5;
+    public static final int USER_DATA = USER_PHONE | USER_EMAIL;
+    public static final int REPORT_DATA = REPORT_PHOTO | REPORT_DIET | REPORT_BEHAVIOR | REPORT_WELL_BEING;
+    //Чат
+    private final Long chatId;
+    private int flags;
 
     public Request(Long chatId) {
+        this(chatId, 0);
+    }
+
+    public Request(Long chatId, int flags) {
         this.chatId = chatId;
+        this.flags = flags;
     }
 
     public void setUserPhoneRequested(boolean userPhoneRequested) {
-        this.userPhoneRequested = userPhoneRequested;
+        set(USER_PHONE, userPhoneRequested);
     }
 
     public void setUserEmailRequested(boolean userEmailRequested) {
-        this.userEmailRequested = userEmailRequested;
+        set(USER_EMAIL, userEmailRequested);
     }
 
     public void setReportPhotoRequested(boolean reportPhotoRequested) {
-        this.reportPhotoRequested = reportPhotoRequested;
+        set(REPORT_PHOTO, reportPhotoRequested);
     }
 
     public void setReportDietRequested(boolean reportDietRequested) {
-        this.reportDietRequested = reportDietRequested;
+        set(REPORT_DIET, reportDietRequested);
     }
 
     public void setReportBehaviorRequested(boolean reportBehaviorRequested) {
-        this.reportBehaviorRequested = reportBehaviorRequested;
+        set(REPORT_BEHAVIOR, reportBehaviorRequested);
     }
 
     public void setReportWellBeingRequest(boolean reportWellBeingRequest) {
-        this.reportWellBeingRequest = reportWellBeingRequest;
+        set(REPORT_WELL_BEING, reportWellBeingRequest);
     }
 
     public Long getChatId() {
         return chatId;
     }
 
+    public int getFlags() {
+        return flags;
+    }
+
     public boolean isUserPhoneRequested() {
-        return userPhoneRequested;
+        return (flags & USER_PHONE) != 0;
     }
 
     public boolean isUserEmailRequested() {
-        return userEmailRequested;
+        return (flags & USER_EMAIL) != 0;
     }
 
     public boolean isReportPhotoRequested() {
-        return reportPhotoRequested;
+        return (flags & REPORT_PHOTO) != 0;
     }
 
     public boolean isReportDietRequested() {
-        return reportDietRequested;
+        return (flags & REPORT_DIET) != 0;
     }
 
     public boolean isReportBehaviorRequested() {
-        return reportBehaviorRequested;
+        return (flags & REPORT_BEHAVIOR) != 0;
     }
 
     public boolean isReportWellBeingRequest() {
-        return reportWellBeingRequest;
+        return (flags & REPORT_WELL_BEING) != 0;
+    }
+
+    private void set(int flag, boolean value) {
+        flags = value ? flags | flag : flags & ~flag;
     }
 
     @Override
@@ -0,0 +1,9 @@
+package com.skypro.telegram_team.listener.buffers;
+
+/**
+ * Запрос данных удален из буфера без ответа: истекло время жизни или буфер переполнен
+ *
+ * @param request запрос
+ */
+public record RequestExpiredEvent(Request request) {
+}
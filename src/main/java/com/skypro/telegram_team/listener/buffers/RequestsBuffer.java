@@ -1,29 +1,202 @@
 package com.skypro.telegram_team.listener.buffers;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
-import java.util.HashMap;
-import java.util.Map;
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.LongPredicate;
+import java.util.function.LongSupplier;
 
 /**
  * Буфер для хранения:
  * - флагов на запрос данных пользователя
  * - флагов на запрос данных отчета
+ * <p>
+ * Для каждого чата хранится только битовая маска флагов ({@link Request}) в таблице примитивов,
+ * {@link #getFlags(long)}, {@link #addRequest(long, int)} и {@link #delRequest(long)} не создают объектов.
+ * <p>
+ * Запрос, на который пользователь не ответил за время жизни, удаляется из буфера ({@link RequestExpiredEvent}).
+ * Если буфер заполнен, при добавлении удаляется самый старый запрос.
+ * <p>
+ * Изменения сохраняются в {@link ConversationStateStore}, при запуске запросы загружаются из него
+ * с новым временем жизни. В режиме кластера буфер хранит только запросы чатов из разделов узла
+ * ({@link #restore(int[])}, {@link #release(LongPredicate)}).
  */
 @Component
 public class RequestsBuffer {
-    private final Map<Long, Request> requests = new HashMap<>();
+    private static final long TICK_MILLIS = 1000;
+    private static final int WHEEL_SIZE = 3600;
+    private static final int MISSING = -1;
+    //Чат -> флаги запроса
+    private final LongIntHashMap requests;
+    private final long ttlMillis;
+    private final int maxSize;
+    private final ConversationStateStore store;
+    private final ApplicationEventPublisher publisher;
+    private final LongSupplier clock;
+    private final TimingWheel wheel;
+    @Value("${telegram.bot.cluster.enabled:false}")
+    private boolean clustered;
+
+    /**
+     * @param ttl       время жизни запроса
+     * @param maxSize   максимальное количество запросов в буфере
+     * @param store     хранилище состояния диалогов
+     * @param publisher получает события об удалении запросов без ответа
+     */
+    @Autowired
+    public RequestsBuffer(@Value("${telegram.bot.buffers.requests.ttl:30m}") Duration ttl,
+                          @Value("${telegram.bot.buffers.requests.max-size:10000}") int maxSize,
+                          ConversationStateStore store,
+                          ApplicationEventPublisher publisher) {
+        this(ttl, maxSize, store, publisher, System::currentTimeMillis);
+    }
+
+    RequestsBuffer(Duration ttl, int maxSize, ConversationStateStore store, ApplicationEventPublisher publisher,
+                   LongSupplier clock) {
+        this.requests = new LongIntHashMap(Math.min(maxSize, 1 << 16));
+        this.ttlMillis = ttl.toMillis();
+        this.maxSize = maxSize;
+        this.store = store;
+        this.publisher = publisher;
+        this.clock = clock;
+        this.wheel = new TimingWheel(TICK_MILLIS, WHEEL_SIZE, clock.getAsLong());
+    }
+
+    /**
+     * Загрузить запросы из хранилища, в режиме кластера запросы загружаются по разделам узла
+     */
+    @PostConstruct
+    public void restore() {
+        if (!clustered) {
+            store.loadRequests().forEach(request -> add(request.getChatId(), request.getFlags(), false));
+        }
+    }
+
+    /**
+     * Загрузить запросы чатов из разделов, полученных узлом кластера
+     *
+     * @param partitions разделы
+     */
+    public void restore(int[] partitions) {
+        store.loadRequests(partitions).forEach(request -> add(request.getChatId(), request.getFlags(), false));
+    }
+
+    /**
+     * Выгрузить запросы чатов, перешедших к другому узлу кластера.
+     * Запросы остаются в хранилище, события об истечении не публикуются
+     *
+     * @param chats чаты, запросы которых выгружаются
+     */
+    public synchronized void release(LongPredicate chats) {
+        List<Long> released = new ArrayList<>();
+        requests.forEach((chatId, flags) -> {
+            if (chats.test(chatId)) {
+                released.add(chatId);
+            }
+        });
+        released.forEach(chatId -> remove(chatId, false));
+    }
 
     public void addRequest(Request request) {
-        requests.put(request.getChatId(), request);
+        addRequest(request.getChatId(), request.getFlags());
+    }
+
+    /**
+     * Добавить запрос, новый запрос в чат заменяет прежний
+     *
+     * @param chatId чат
+     * @param flags  флаги запроса
+     */
+    public void addRequest(long chatId, int flags) {
+        add(chatId, flags, true);
     }
 
     public void delRequest(Request request) {
-        requests.remove(request.getChatId());
+        delRequest(request.getChatId());
+    }
+
+    public synchronized void delRequest(long chatId) {
+        if (requests.remove(chatId)) {
+            wheel.cancel(chatId);
+            store.deleteRequest(chatId);
+        }
+    }
+
+    public synchronized Optional<Request> getRequest(Long chatId) {
+        int flags = chatId == null ? MISSING : requests.get(chatId, MISSING);
+        return flags == MISSING ? Optional.empty() : Optional.of(new Request(chatId, flags));
+    }
+
+    /**
+     * Флаги запроса в чат
+     *
+     * @param chatId чат
+     * @return флаги запроса, 0 - если запроса нет
+     */
+    public synchronized int getFlags(long chatId) {
+        return requests.get(chatId, 0);
+    }
+
+    public synchronized int size() {
+        return requests.size();
+    }
+
+    /**
+     * Удалить запросы, время жизни которых истекло
+     */
+    @Scheduled(fixedDelay = TICK_MILLIS)
+    public void expire() {
+        expire(clock.getAsLong());
+    }
+
+    void expire(long nowMillis) {
+        List<Request> expired = new ArrayList<>();
+        synchronized (this) {
+            wheel.advance(nowMillis, chatId -> expired.add(remove(chatId, true)));
+        }
+        expired.forEach(request -> publisher.publishEvent(new RequestExpiredEvent(request)));
+    }
+
+    private void add(long chatId, int flags, boolean save) {
+        List<Request> evicted = null;
+        synchronized (this) {
+            if (requests.size() >= maxSize && !requests.containsKey(chatId)) {
+                //Все запросы живут одинаково, поэтому первым истекает самый старый
+                List<Request> oldest = new ArrayList<>(1);
+                wheel.expireEarliest(key -> oldest.add(remove(key, true)));
+                evicted = oldest;
+            }
+            requests.put(chatId, flags);
+            wheel.schedule(chatId, clock.getAsLong() + ttlMillis);
+            if (save) {
+                store.saveRequest(chatId, flags);
+            }
+        }
+        if (evicted != null) {
+            evicted.forEach(request -> publisher.publishEvent(new RequestExpiredEvent(request)));
+        }
     }
 
-    public Optional<Request> getRequest(Long chatId) {
-        return Optional.ofNullable(requests.get(chatId));
+    /**
+     * Удалить запрос, вызывается под блокировкой буфера
+     *
+     * @param delete удалить запрос и из хранилища
+     */
+    private Request remove(long chatId, boolean delete) {
+        int flags = requests.get(chatId, 0);
+        requests.remove(chatId);
+        wheel.cancel(chatId);
+        if (delete) {
+            store.deleteRequest(chatId);
+        }
+        return new Request(chatId, flags);
     }
 }
@@ -0,0 +1,180 @@
+package com.skypro.telegram_team.listener.buffers;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Колесо таймеров (hashed timing wheel) для истечения записей буферов.
+ * Записи раскладываются по ячейкам колеса по времени истечения, за один шаг проверяется только одна ячейка,
+ * поэтому стоимость истечения не зависит от количества записей в буфере.
+ * Перенос и отмена записи не ищут ее в колесе: действует только последнее назначенное время,
+ * устаревшие записи отбрасываются при проходе их ячейки.
+ * <p>
+ * Время истечения округляется вверх до шага колеса и хранится в примитивах,
+ * назначение и отмена не создают объектов.
+ * <p>
+ * Класс не потокобезопасен, синхронизация - на стороне буфера.
+ */
+class TimingWheel {
+    private static final int MISSING = -1;
+    private final long tickMillis;
+    private final long startTick;
+    private final Bucket[] buckets;
+    //Ключ -> шаг истечения, отсчитанный от startTick
+    private final LongIntHashMap deadlines = new LongIntHashMap(1024);
+    private long lastTick;
+
+    /**
+     * @param tickMillis длительность шага колеса, мс
+     * @param wheelSize  количество ячеек колеса
+     * @param nowMillis  текущее время, мс
+     */
+    TimingWheel(long tickMillis, int wheelSize, long nowMillis) {
+        this.tickMillis = tickMillis;
+        this.buckets = new Bucket[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            buckets[i] = new Bucket();
+        }
+        this.startTick = nowMillis / tickMillis;
+        this.lastTick = startTick;
+    }
+
+    /**
+     * Назначить (или перенести) время истечения записи
+     *
+     * @param key            ключ записи
+     * @param deadlineMillis время истечения, мс
+     */
+    void schedule(long key, long deadlineMillis) {
+        //Первый шаг, на котором время истечения уже наступило
+        long tick = Math.max((deadlineMillis + tickMillis - 1) / tickMillis, lastTick + 1);
+        int relative = (int) (tick - startTick);
+        deadlines.put(key, relative);
+        buckets[(int) (tick % buckets.length)].add(key, relative);
+    }
+
+    /**
+     * Отменить истечение записи
+     *
+     * @param key ключ записи
+     */
+    void cancel(long key) {
+        deadlines.remove(key);
+    }
+
+    /**
+     * Количество записей с назначенным временем истечения
+     */
+    int size() {
+        return deadlines.size();
+    }
+
+    /**
+     * Пройти ячейки колеса до текущего времени
+     *
+     * @param nowMillis текущее время, мс
+     * @param expired   получает ключи истекших записей
+     */
+    void advance(long nowMillis, LongConsumer expired) {
+        long nowTick = nowMillis / tickMillis;
+        //Если шагов пропущено больше оборота, достаточно пройти каждую ячейку один раз
+        long from = Math.max(lastTick + 1, nowTick - buckets.length + 1);
+        for (long tick = from; tick <= nowTick; tick++) {
+            buckets[(int) (tick % buckets.length)].expire((int) (nowTick - startTick), expired);
+        }
+        lastTick = Math.max(lastTick, nowTick);
+    }
+
+    /**
+     * Досрочно истечь запись, которая истекла бы первой
+     *
+     * @param expired получает ключ истекшей записи
+     * @return false, если записей нет
+     */
+    boolean expireEarliest(LongConsumer expired) {
+        if (deadlines.size() == 0) {
+            return false;
+        }
+        //Обычно запись находится в пределах одного оборота, иначе - поиск по всем ячейкам
+        for (long tick = lastTick + 1; tick <= lastTick + buckets.length; tick++) {
+            if (buckets[(int) (tick % buckets.length)].expireFirstDue((int) (tick - startTick), expired)) {
+                return true;
+            }
+        }
+        Bucket earliest = null;
+        int earliestTick = Integer.MAX_VALUE;
+        for (Bucket bucket : buckets) {
+            int tick = bucket.earliestLive();
+            if (tick < earliestTick) {
+                earliestTick = tick;
+                earliest = bucket;
+            }
+        }
+        return earliest != null && earliest.expireFirstDue(earliestTick, expired);
+    }
+
+    /**
+     * Ячейка колеса: ключи и шаги истечения в параллельных массивах
+     */
+    private final class Bucket {
+        private long[] keys = new long[4];
+        private int[] ticks = new int[4];
+        private int size;
+
+        private void add(long key, int tick) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size << 1);
+                ticks = Arrays.copyOf(ticks, size << 1);
+            }
+            keys[size] = key;
+            ticks[size] = tick;
+            size++;
+        }
+
+        private boolean isLive(int i) {
+            //Запись не отменена и не перенесена
+            return deadlines.get(keys[i], MISSING) == ticks[i];
+        }
+
+        private void expire(int nowTick, LongConsumer expired) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (!isLive(i)) {
+                    continue;
+                }
+                if (ticks[i] <= nowTick) {
+                    deadlines.remove(keys[i]);
+                    expired.accept(keys[i]);
+                } else {
+                    //Истекает на одном из следующих оборотов
+                    keys[kept] = keys[i];
+                    ticks[kept] = ticks[i];
+                    kept++;
+                }
+            }
+            size = kept;
+        }
+
+        private boolean expireFirstDue(int tick, LongConsumer expired) {
+            for (int i = 0; i < size; i++) {
+                if (ticks[i] <= tick && isLive(i)) {
+                    long key = keys[i];
+                    deadlines.remove(key);
+                    expired.accept(key);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int earliestLive() {
+            int earliest = Integer.MAX_VALUE;
+            for (int i = 0; i < size; i++) {
+                if (ticks[i] < earliest && isLive(i)) {
+                    earliest = ticks[i];
+                }
+            }
+            return earliest;
+        }
+    }
+}
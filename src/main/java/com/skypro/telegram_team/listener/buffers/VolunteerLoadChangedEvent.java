@@ -0,0 +1,10 @@
+package com.skypro.telegram_team.listener.buffers;
+
+/**
+ * Изменилось количество открытых вопросов волонтеру
+ *
+ * @param volunteerChatId чат волонтера
+ * @param openQuestions   количество вопросов волонтеру в буфере после изменения
+ */
+public record VolunteerLoadChangedEvent(long volunteerChatId, int openQuestions) {
+}
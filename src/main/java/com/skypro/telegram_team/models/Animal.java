@@ -4,10 +4,8 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.Setter;
-import org.hibernate.annotations.Type;
 
 import javax.persistence.*;
-import java.util.Arrays;
 import java.util.Objects;
 
 @RequiredArgsConstructor
@@ -35,10 +33,12 @@ public class Animal {
     @JsonIgnore
     private Shelter shelter;
 
-    @Lob
+    /**
+     * Фото {@link Photo}, читается по id только при выгрузке
+     */
+    @Column(name = "photo_id")
     @JsonIgnore
-    @Type(type = "org.hibernate.type.ImageType")
-    private byte[] photo;
+    private Long photoId;
 
     @Enumerated(EnumType.STRING)
     private AnimalStateEnum state;
@@ -75,7 +75,7 @@ public class Animal {
                 ", name='" + name + '\'' +
                 ", breed='" + breed + '\'' +
                 ", description='" + description + '\'' +
-                ", photo=" + Arrays.toString(photo) +
+                ", photoId=" + photoId +
                 ", state=" + state +
                 '}';
     }
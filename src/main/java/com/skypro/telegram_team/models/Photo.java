@@ -0,0 +1,56 @@
+package com.skypro.telegram_team.models;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.Type;
+
+import javax.persistence.*;
+import java.util.Objects;
+
+/**
+ * Фото животного или отчета.
+ * Хранится отдельно от животных и отчетов и читается по id только при выгрузке фото,
+ * поэтому списки животных и отчетов не читают содержимое фото.
+ */
+@Entity
+@RequiredArgsConstructor
+@Getter
+@Setter
+@Table(name = "photos")
+public class Photo {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(nullable = false)
+    private long id;
+
+    @Lob
+    @Type(type = "org.hibernate.type.ImageType")
+    @Column(nullable = false)
+    private byte[] data;
+
+    public Photo(byte[] data) {
+        this.data = data;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Photo photo = (Photo) o;
+        return id == photo.id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id);
+    }
+
+    @Override
+    public String toString() {
+        return "Photo{" +
+                "id=" + id +
+                ", size=" + (data == null ? 0 : data.length) +
+                '}';
+    }
+}
@@ -0,0 +1,39 @@
+package com.skypro.telegram_team.models;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+/**
+ * Последнее обработанное обновление телеграм (offset для long polling)
+ */
+@Entity
+@RequiredArgsConstructor
+@Getter
+@Setter
+@Table(name = "update_checkpoints")
+public class UpdateCheckpoint {
+    @Id
+    private String name;
+    private int updateId;
+    private LocalDateTime updatedAt;
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        UpdateCheckpoint that = (UpdateCheckpoint) o;
+        return Objects.equals(name, that.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name);
+    }
+}
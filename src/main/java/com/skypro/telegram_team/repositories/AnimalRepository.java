@@ -3,6 +3,9 @@ package com.skypro.telegram_team.repositories;
 import com.skypro.telegram_team.models.Animal;
 import com.skypro.telegram_team.models.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -18,4 +21,15 @@ public interface AnimalRepository extends JpaRepository<Animal, Long> {
     List<Animal> findAllByUserIdNotNullAndState(Animal.AnimalStateEnum inTest);
 
     List<Animal> findAnimalsByUserState(User.OwnerStateEnum ownerStateEnum);
+
+    /**
+     * Изменить статус всех животных пользователей с заданным статусом одним запросом
+     *
+     * @return количество измененных животных
+     */
+    @Modifying
+    @Query("UPDATE Animal a SET a.state = :state WHERE a.user.id IN " +
+            "(SELECT u.id FROM User u WHERE u.state = :userState)")
+    int updateStateByUserState(@Param("userState") User.OwnerStateEnum userState,
+                               @Param("state") Animal.AnimalStateEnum state);
 }
@@ -0,0 +1,26 @@
+package com.skypro.telegram_team.repositories;
+
+import java.time.LocalDateTime;
+
+/**
+ * Дата последнего отчета по животному и данные усыновителя, нужные для напоминаний
+ * (без загрузки отчетов и их фото)
+ */
+public interface LastReportProjection {
+    long getAnimalId();
+
+    long getUserId();
+
+    long getTelegramId();
+
+    String getName();
+
+    String getSurname();
+
+    LocalDateTime getEndTest();
+
+    /**
+     * Дата последнего отчета, null - отчетов нет
+     */
+    LocalDateTime getLastReportDate();
+}
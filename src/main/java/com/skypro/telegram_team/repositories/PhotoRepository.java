@@ -0,0 +1,21 @@
+package com.skypro.telegram_team.repositories;
+
+import com.skypro.telegram_team.models.Photo;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface PhotoRepository extends JpaRepository<Photo, Long> {
+
+    /**
+     * Заменить содержимое фото без чтения прежнего содержимого
+     *
+     * @return количество измененных фото, 0 - фото не найдено
+     */
+    @Modifying
+    @Query("UPDATE Photo p SET p.data = :data WHERE p.id = :id")
+    int updateData(@Param("id") long id, @Param("data") byte[] data);
+}
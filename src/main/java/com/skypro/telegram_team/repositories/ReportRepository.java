@@ -1,12 +1,17 @@
 package com.skypro.telegram_team.repositories;
 
+import com.skypro.telegram_team.models.Animal;
 import com.skypro.telegram_team.models.Report;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
 import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface ReportRepository extends JpaRepository<Report, Long> {
@@ -15,4 +20,27 @@ public interface ReportRepository extends JpaRepository<Report, Long> {
     Collection<Report> findByUserId(Long userId);
 
     Collection<Report> findByUserIdAndDate(Long userId, LocalDateTime dateTime);
+
+    /**
+     * Первый отчет пользователя за период [from, to) по индексу reports (user_id, date, id):
+     * порядок (date, id) совпадает с порядком индекса, сортировка не нужна
+     */
+    Optional<Report> findFirstByUserIdAndDateGreaterThanEqualAndDateLessThanOrderByDateAscIdAsc(
+            Long userId, LocalDateTime from, LocalDateTime to);
+
+    /**
+     * Дата последнего отчета по каждому животному в заданном статусе, у которого есть усыновитель,
+     * одним запросом с группировкой. Страница по возрастанию (id усыновителя, id животного),
+     * начиная после заданной пары (keyset pagination), животные одного усыновителя идут подряд.
+     */
+    @Query("SELECT a.id AS animalId, u.id AS userId, u.telegramId AS telegramId, u.name AS name, " +
+            "u.surname AS surname, u.endTest AS endTest, MAX(r.date) AS lastReportDate " +
+            "FROM Animal a JOIN a.user u LEFT JOIN Report r ON r.animal = a " +
+            "WHERE a.state = :state AND (u.id > :afterUserId OR (u.id = :afterUserId AND a.id > :afterAnimalId)) " +
+            "GROUP BY a.id, u.id, u.telegramId, u.name, u.surname, u.endTest " +
+            "ORDER BY u.id, a.id")
+    List<LastReportProjection> findLastReportDates(@Param("state") Animal.AnimalStateEnum state,
+                                                   @Param("afterUserId") long afterUserId,
+                                                   @Param("afterAnimalId") long afterAnimalId,
+                                                   Pageable pageable);
 }
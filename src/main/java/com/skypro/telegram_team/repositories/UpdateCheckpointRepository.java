@@ -0,0 +1,9 @@
+package com.skypro.telegram_team.repositories;
+
+import com.skypro.telegram_team.models.UpdateCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface UpdateCheckpointRepository extends JpaRepository<UpdateCheckpoint, String> {
+}
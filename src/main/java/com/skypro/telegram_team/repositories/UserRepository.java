@@ -1,9 +1,14 @@
 package com.skypro.telegram_team.repositories;
 
 import com.skypro.telegram_team.models.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.Collection;
 import java.util.List;
 
@@ -15,5 +20,41 @@ public interface UserRepository extends JpaRepository<User, Long> {
     List<User> findByState(User.OwnerStateEnum state);
 
     Collection<User> findByTelegramId(Long telegramId);
-}
 
+    /**
+     * Страница пользователей с заданным статусом по возрастанию id, начиная после afterId (keyset pagination)
+     */
+    List<UserStateProjection> findStateProjectionsByStateAndIdGreaterThanOrderById(User.OwnerStateEnum state,
+                                                                                   long afterId,
+                                                                                   Pageable pageable);
+
+    /**
+     * Перевести не больше limit пользователей из одного статуса в другой одним запросом
+     * (postgres, UPDATE ... RETURNING). Повторная проверка статуса во внешнем условии не дает перевести
+     * пользователя дважды при одновременном выполнении на нескольких узлах.
+     *
+     * @return измененные пользователи
+     */
+    @Transactional
+    @Query(value = "UPDATE users SET state = :#{#to.name()} WHERE state = :#{#from.name()} AND id IN " +
+            "(SELECT id FROM users WHERE state = :#{#from.name()} ORDER BY id LIMIT :limit) " +
+            "RETURNING id, telegram_id AS \"telegramId\", name, surname, end_test AS \"endTest\"",
+            nativeQuery = true)
+    List<UserStateProjection> updateState(@Param("from") User.OwnerStateEnum from,
+                                          @Param("to") User.OwnerStateEnum to,
+                                          @Param("limit") int limit);
+
+    /**
+     * Перевести в DECISION не больше limit пользователей, у которых закончился испытательный срок, одним запросом
+     *
+     * @param now текущее время
+     * @return измененные пользователи
+     */
+    @Transactional
+    @Query(value = "UPDATE users SET state = 'DECISION' WHERE state = 'PROBATION' AND end_test < :now AND id IN " +
+            "(SELECT id FROM users WHERE state = 'PROBATION' AND end_test < :now ORDER BY id LIMIT :limit) " +
+            "RETURNING id, telegram_id AS \"telegramId\", name, surname, end_test AS \"endTest\"",
+            nativeQuery = true)
+    List<UserStateProjection> updateStateOfEndedProbation(@Param("now") LocalDateTime now,
+                                                          @Param("limit") int limit);
+}
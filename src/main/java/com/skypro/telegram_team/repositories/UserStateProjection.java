@@ -0,0 +1,19 @@
+package com.skypro.telegram_team.repositories;
+
+import java.time.LocalDateTime;
+
+/**
+ * Данные пользователя, нужные для уведомления об изменении статуса
+ * (без загрузки связанных животного и приюта)
+ */
+public interface UserStateProjection {
+    long getId();
+
+    long getTelegramId();
+
+    String getName();
+
+    String getSurname();
+
+    LocalDateTime getEndTest();
+}
@@ -0,0 +1,368 @@
+package com.skypro.telegram_team.sender;
+
+import com.pengrad.telegrambot.Callback;
+import com.pengrad.telegrambot.TelegramBot;
+import com.pengrad.telegrambot.request.BaseRequest;
+import com.pengrad.telegrambot.response.BaseResponse;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Очередь исходящих запросов к телеграм.
+ * Запросы отправляются асинхронно с соблюдением ограничений телеграм:
+ * - общее ограничение на количество сообщений в секунду
+ * - ограничение на количество сообщений в секунду в один чат
+ * Сообщения в один чат отправляются по одному в порядке постановки в очередь,
+ * ожидание одного чата не задерживает отправку в другие чаты. Запросы без чата (например, ответ на нажатие кнопки)
+ * ограничены только общим ограничением.
+ * Ответы пользователям ({@link Priority#INTERACTIVE}) отправляются раньше массовых уведомлений
+ * ({@link Priority#BULK}): и в очереди чата, и при выборе следующего чата для отправки.
+ */
+@Component
+public class MessageSender {
+    private static final int MAX_RETRIES = 3;
+    private static final long IDLE_SWEEP_SECONDS = 60;
+    private final Logger logger = LoggerFactory.getLogger(MessageSender.class);
+    private final TelegramBot telegramBot;
+    private final TokenBucket globalBucket;
+    private final double chatPerSecond;
+    private final double chatBurst;
+    //Очереди по чату (id или @username канала), запрос без чата - в своей очереди
+    private final Map<Object, ChatLane> lanes = new ConcurrentHashMap<>();
+    //Чаты, готовые к отправке, по приоритету первого запроса чата
+    private final Queue<ChatLane> interactiveReady = new ConcurrentLinkedQueue<>();
+    private final Queue<ChatLane> bulkReady = new ConcurrentLinkedQueue<>();
+    private final Semaphore readyLanes = new Semaphore(0);
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("message-sender-delay-"));
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong latencyNanos = new AtomicLong();
+    private final MeterRegistry meterRegistry;
+    private volatile boolean running;
+    private Thread worker;
+
+    /**
+     * @param telegramBot     бот
+     * @param globalPerSecond общее количество сообщений в секунду
+     * @param chatPerSecond   количество сообщений в секунду в один чат
+     * @param chatBurst       сколько сообщений можно отправить в один чат без ожидания
+     * @param meterRegistry   метрики очереди и времени запросов к телеграм
+     */
+    public MessageSender(TelegramBot telegramBot,
+                         @Value("${telegram.bot.sender.global-per-second:30}") double globalPerSecond,
+                         @Value("${telegram.bot.sender.chat-per-second:1}") double chatPerSecond,
+                         @Value("${telegram.bot.sender.chat-burst:3}") double chatBurst,
+                         MeterRegistry meterRegistry) {
+        this.telegramBot = telegramBot;
+        this.globalBucket = new TokenBucket(globalPerSecond, globalPerSecond, System::nanoTime);
+        this.chatPerSecond = chatPerSecond;
+        this.chatBurst = chatBurst;
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("bot.sender.queue", queueDepth, AtomicInteger::get)
+                .description("Requests waiting to be sent to telegram")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        worker = new Thread(this::run, "message-sender");
+        worker.setDaemon(true);
+        worker.start();
+        scheduler.scheduleWithFixedDelay(this::sweepIdleLanes, IDLE_SWEEP_SECONDS, IDLE_SWEEP_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        worker.interrupt();
+        scheduler.shutdown();
+    }
+
+    /**
+     * Поставить ответ пользователю в очередь на отправку
+     *
+     * @param request запрос, чат определяется по параметру chat_id
+     * @return завершается ответом телеграм
+     */
+    public <T extends BaseRequest<T, R>, R extends BaseResponse> CompletableFuture<R> send(T request) {
+        return send(request, Priority.INTERACTIVE);
+    }
+
+    /**
+     * Поставить запрос в очередь на отправку
+     *
+     * @param request  запрос, чат определяется по параметру chat_id
+     * @param priority приоритет запроса
+     * @return завершается ответом телеграм
+     */
+    public <T extends BaseRequest<T, R>, R extends BaseResponse> CompletableFuture<R> send(T request,
+                                                                                        Priority priority) {
+        Outgoing<T, R> outgoing = new Outgoing<>(request, priority);
+        Object chatId = chatIdOf(request);
+        lanes.compute(chatId != null ? chatId : outgoing, (id, lane) -> {
+            if (lane == null) {
+                lane = new ChatLane(chatId != null
+                        ? new TokenBucket(chatPerSecond, chatBurst, System::nanoTime) : null);
+            }
+            synchronized (lane) {
+                lane.pending(priority).add(outgoing);
+                //Чат, уже стоящий в очереди массовых уведомлений, остается в ней,
+                //но ответ пользователю будет отправлен в этот чат первым
+                if (!lane.active) {
+                    lane.active = true;
+                    makeReady(lane);
+                }
+            }
+            return lane;
+        });
+        queueDepth.incrementAndGet();
+        return outgoing.result;
+    }
+
+    /**
+     * Количество запросов в очереди, включая отправляемые
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * Количество отправленных запросов
+     */
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    /**
+     * Количество запросов, отправить которые не удалось
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Среднее время отправки запроса (от постановки в очередь до ответа телеграм), мс
+     */
+    public double getAverageLatencyMillis() {
+        long count = sentCount.get() + failedCount.get();
+        return count == 0 ? 0 : latencyNanos.get() / 1_000_000d / count;
+    }
+
+    /**
+     * Цикл отправки: берет чат, готовый к отправке, и отправляет его первый запрос
+     */
+    private void run() {
+        while (running) {
+            try {
+                readyLanes.acquire();
+                ChatLane lane = interactiveReady.poll();
+                if (lane == null) {
+                    lane = bulkReady.poll();
+                }
+                ChatLane waiting = lane;
+                long wait = lane.bucket != null ? lane.bucket.tryAcquire() : 0;
+                if (wait > 0) {
+                    scheduler.schedule(() -> makeReady(waiting), wait, TimeUnit.NANOSECONDS);
+                    continue;
+                }
+                while ((wait = globalBucket.tryAcquire()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                Outgoing<?, ?> outgoing;
+                synchronized (lane) {
+                    outgoing = lane.head();
+                }
+                outgoing.execute(lane);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                logger.error(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Запрос отправлен: убрать его из очереди чата и, если есть, поставить следующий
+     */
+    private void complete(ChatLane lane, Outgoing<?, ?> outgoing, boolean ok) {
+        (ok ? sentCount : failedCount).incrementAndGet();
+        latencyNanos.addAndGet(System.nanoTime() - outgoing.enqueuedAt);
+        queueDepth.decrementAndGet();
+        synchronized (lane) {
+            lane.pending(outgoing.priority).remove(outgoing);
+            if (lane.head() == null) {
+                lane.active = false;
+            } else {
+                makeReady(lane);
+            }
+        }
+    }
+
+    /**
+     * Поставить чат в очередь на отправку по приоритету его первого запроса
+     */
+    private void makeReady(ChatLane lane) {
+        Outgoing<?, ?> head;
+        synchronized (lane) {
+            head = lane.head();
+        }
+        (head != null && head.priority == Priority.BULK ? bulkReady : interactiveReady).add(lane);
+        readyLanes.release();
+    }
+
+    /**
+     * Телеграм попросил подождать (429 Too Many Requests): повторить тот же запрос позже
+     */
+    private void retryLater(ChatLane lane, int seconds) {
+        scheduler.schedule(() -> makeReady(lane), seconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Удалить очереди чатов, в которые давно ничего не отправлялось
+     */
+    private void sweepIdleLanes() {
+        lanes.keySet().forEach(chatId -> lanes.computeIfPresent(chatId, (id, lane) -> {
+            synchronized (lane) {
+                return !lane.active && (lane.bucket == null || lane.bucket.isFull()) ? null : lane;
+            }
+        }));
+    }
+
+    /**
+     * Чат запроса
+     *
+     * @return id чата, @username канала или null, если у запроса нет чата
+     */
+    private static Object chatIdOf(BaseRequest<?, ?> request) {
+        Object chatId = request.getParameters().get("chat_id");
+        if (chatId instanceof Number number) {
+            return number.longValue();
+        }
+        if (chatId instanceof String username) {
+            return username.matches("-?\\d+") ? Long.valueOf(username) : username;
+        }
+        return null;
+    }
+
+    /**
+     * Очередь запросов одного чата
+     */
+    private static final class ChatLane {
+        private final Deque<Outgoing<?, ?>> interactive = new ArrayDeque<>();
+        private final Deque<Outgoing<?, ?>> bulk = new ArrayDeque<>();
+        //Ограничение чата, null - у запроса нет чата
+        private final TokenBucket bucket;
+        //Чат стоит в очереди на отправку или его запрос отправляется
+        private boolean active;
+
+        private ChatLane(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+
+        private Deque<Outgoing<?, ?>> pending(Priority priority) {
+            return priority == Priority.BULK ? bulk : interactive;
+        }
+
+        /**
+         * Следующий запрос чата: ответы пользователю раньше массовых уведомлений
+         */
+        private Outgoing<?, ?> head() {
+            return interactive.isEmpty() ? bulk.peek() : interactive.peek();
+        }
+    }
+
+    /**
+     * Приоритет запроса
+     */
+    public enum Priority {
+        /**
+         * Ответ пользователю, которого он ждет
+         */
+        INTERACTIVE,
+        /**
+         * Массовые уведомления заданий по расписанию
+         */
+        BULK
+    }
+
+    /**
+     * Запрос в очереди
+     */
+    private final class Outgoing<T extends BaseRequest<T, R>, R extends BaseResponse> {
+        private final T request;
+        private final Priority priority;
+        private final CompletableFuture<R> result = new CompletableFuture<>();
+        private final long enqueuedAt = System.nanoTime();
+        private int retries;
+
+        private Outgoing(T request, Priority priority) {
+            this.request = request;
+            this.priority = priority;
+        }
+
+        private void execute(ChatLane lane) {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            telegramBot.execute(request, new Callback<T, R>() {
+                @Override
+                public void onResponse(T request, R response) {
+                    sample.stop(requestTimer(response.isOk() ? "ok" : "error"));
+                    if (!response.isOk() && response.parameters() != null
+                            && response.parameters().retryAfter() != null && retries++ < MAX_RETRIES) {
+                        logger.warn("Too many requests, retry after {} s", response.parameters().retryAfter());
+                        retryLater(lane, response.parameters().retryAfter());
+                        return;
+                    }
+                    if (!response.isOk()) {
+                        logger.error("Send failed: {} {}", response.errorCode(), response.description());
+                    }
+                    complete(lane, Outgoing.this, response.isOk());
+                    result.complete(response);
+                }
+
+                @Override
+                public void onFailure(T request, IOException e) {
+                    sample.stop(requestTimer("failure"));
+                    logger.error(e.getMessage());
+                    complete(lane, Outgoing.this, false);
+                    result.completeExceptionally(e);
+                }
+            });
+        }
+
+        /**
+         * Время запроса к телеграм по методу и результату:
+         * ok, error - телеграм вернул ошибку, failure - ответ не получен
+         */
+        private Timer requestTimer(String outcome) {
+            return meterRegistry.timer("bot.telegram.requests", "method", request.getMethod(), "outcome", outcome);
+        }
+    }
+}
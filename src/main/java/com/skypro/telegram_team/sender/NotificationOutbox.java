@@ -0,0 +1,174 @@
+package com.skypro.telegram_team.sender;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Исходящие уведомления в БД (transactional outbox, postgres).
+ * <p>
+ * Уведомление записывается в той же транзакции, что и изменение, о котором оно сообщает:
+ * если транзакция откатилась, уведомление не будет отправлено, если зафиксирована - будет отправлено
+ * даже после перезапуска приложения. Отправляет уведомления {@link NotificationOutboxRelay}.
+ * <p>
+ * Ключ идемпотентности задает отправитель по событию (например, пользователь и этап),
+ * уведомление с уже записанным ключом повторно не записывается. Одновременная запись того же ключа
+ * из другой транзакции не приводит к ошибке и откату транзакции записывающего.
+ */
+@Component
+public class NotificationOutbox {
+    private static final String INSERT = "INSERT INTO notification_outbox (idempotency_key, chat_id, text, " +
+            "created_at, next_attempt_at) VALUES (?, ?, ?, ?, ?) ON CONFLICT (idempotency_key) DO NOTHING";
+    private static final String CLAIM = "UPDATE notification_outbox SET claimed_by = ?, claimed_at = ? " +
+            "WHERE id IN (SELECT id FROM notification_outbox WHERE sent_at IS NULL AND failed_at IS NULL " +
+            "AND next_attempt_at <= ? AND (claimed_by IS NULL OR claimed_at < ?) " +
+            "ORDER BY next_attempt_at, id LIMIT ? FOR UPDATE SKIP LOCKED) " +
+            "RETURNING id, chat_id, text, attempts, next_attempt_at";
+    private static final String MARK_SENT = "UPDATE notification_outbox SET sent_at = ?, claimed_by = NULL, " +
+            "claimed_at = NULL WHERE id = ANY (?)";
+    private static final String EXTEND_CLAIM = "UPDATE notification_outbox SET claimed_at = ? " +
+            "WHERE claimed_by = ? AND id = ANY (?) AND sent_at IS NULL AND failed_at IS NULL";
+    private static final String RETRY = "UPDATE notification_outbox SET attempts = attempts + 1, " +
+            "next_attempt_at = ?, error = ?, claimed_by = NULL, claimed_at = NULL WHERE id = ?";
+    private static final String FAIL = "UPDATE notification_outbox SET attempts = attempts + 1, failed_at = ?, " +
+            "error = ?, claimed_by = NULL, claimed_at = NULL WHERE id = ?";
+    private static final String PURGE = "DELETE FROM notification_outbox WHERE sent_at < ? OR failed_at < ?";
+    private final JdbcTemplate jdbcTemplate;
+
+    public NotificationOutbox(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Записать уведомление в текущей транзакции для отправки сразу
+     *
+     * @param idempotencyKey ключ события, уведомление с тем же ключом записывается один раз
+     * @param chatId         чат
+     * @param text           текст сообщения (parse mode HTML)
+     * @return true - уведомление записано, false - уведомление с этим ключом уже есть
+     */
+    public boolean enqueue(String idempotencyKey, long chatId, String text) {
+        return enqueue(idempotencyKey, chatId, text, LocalDateTime.now());
+    }
+
+    /**
+     * Записать уведомление в текущей транзакции
+     *
+     * @param idempotencyKey ключ события, уведомление с тем же ключом записывается один раз
+     * @param chatId         чат
+     * @param text           текст сообщения (parse mode HTML)
+     * @param sendAt         не отправлять раньше этого времени
+     * @return true - уведомление записано, false - уведомление с этим ключом уже есть
+     */
+    public boolean enqueue(String idempotencyKey, long chatId, String text, LocalDateTime sendAt) {
+        return jdbcTemplate.update(INSERT, idempotencyKey, chatId, text, Timestamp.valueOf(LocalDateTime.now()),
+                Timestamp.valueOf(sendAt)) == 1;
+    }
+
+    /**
+     * Забрать уведомления, которые пора отправить, в порядке времени отправки
+     *
+     * @param nodeId      узел
+     * @param limit       максимальное количество уведомлений
+     * @param staleBefore уведомления, забранные раньше этого времени и не отправленные, считаются брошенными
+     * @return уведомления в порядке времени отправки
+     */
+    public List<Notification> claim(String nodeId, int limit, LocalDateTime staleBefore) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Notification> claimed = jdbcTemplate.query(CLAIM,
+                (rs, rowNum) -> new Notification(rs.getLong("id"), rs.getLong("chat_id"), rs.getString("text"),
+                        rs.getInt("attempts"), rs.getTimestamp("next_attempt_at").toLocalDateTime()),
+                nodeId, now, now, Timestamp.valueOf(staleBefore), limit);
+        //RETURNING не сохраняет порядок подзапроса
+        claimed.sort(Comparator.comparing(Notification::sendAt).thenComparingLong(Notification::id));
+        return claimed;
+    }
+
+    /**
+     * Отметить отправленные уведомления
+     */
+    public void markSent(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(MARK_SENT);
+            statement.setTimestamp(1, Timestamp.valueOf(LocalDateTime.now()));
+            Array array = connection.createArrayOf("bigint", ids.toArray());
+            statement.setArray(2, array);
+            return statement;
+        });
+    }
+
+    /**
+     * Продлить claim уведомлений, которые узел еще отправляет: другие узлы не заберут их до claim-ttl от текущего времени
+     *
+     * @param nodeId узел, забравший уведомления
+     * @param ids    уведомления
+     */
+    public void extendClaim(String nodeId, Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(EXTEND_CLAIM);
+            statement.setTimestamp(1, Timestamp.valueOf(LocalDateTime.now()));
+            statement.setString(2, nodeId);
+            Array array = connection.createArrayOf("bigint", ids.toArray());
+            statement.setArray(3, array);
+            return statement;
+        });
+    }
+
+    /**
+     * Вернуть уведомление в очередь для повторной отправки
+     *
+     * @param id            уведомление
+     * @param nextAttemptAt когда отправить повторно
+     * @param error         ошибка последней попытки
+     */
+    public void retryLater(long id, LocalDateTime nextAttemptAt, String error) {
+        jdbcTemplate.update(RETRY, Timestamp.valueOf(nextAttemptAt), error, id);
+    }
+
+    /**
+     * Больше не отправлять уведомление, оно остается в таблице с ошибкой до очистки
+     *
+     * @param id    уведомление
+     * @param error ошибка последней попытки
+     */
+    public void fail(long id, String error) {
+        jdbcTemplate.update(FAIL, Timestamp.valueOf(LocalDateTime.now()), error, id);
+    }
+
+    /**
+     * Удалить отправленные и неотправленные с ошибкой уведомления.
+     * Пока уведомление не удалено, его ключ идемпотентности не дает записать его повторно.
+     *
+     * @param before удалить уведомления, обработанные раньше этого времени
+     * @return количество удаленных уведомлений
+     */
+    public int purge(LocalDateTime before) {
+        Timestamp timestamp = Timestamp.valueOf(before);
+        return jdbcTemplate.update(PURGE, timestamp, timestamp);
+    }
+
+    /**
+     * Уведомление из очереди
+     *
+     * @param id       id записи
+     * @param chatId   чат
+     * @param text     текст сообщения
+     * @param attempts количество неудачных попыток отправки
+     * @param sendAt   когда уведомление должно было быть отправлено
+     */
+    public record Notification(long id, long chatId, String text, int attempts, LocalDateTime sendAt) {
+    }
+}
@@ -0,0 +1,245 @@
+package com.skypro.telegram_team.sender;
+
+import com.pengrad.telegrambot.model.request.ParseMode;
+import com.pengrad.telegrambot.request.SendMessage;
+import com.pengrad.telegrambot.response.SendResponse;
+import com.skypro.telegram_team.cluster.ClusterCoordinator;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Отправка уведомлений из {@link NotificationOutbox}.
+ * <p>
+ * Раз в poll-interval узел забирает пачку уведомлений, которые пора отправить, и ставит их в {@link MessageSender}
+ * с приоритетом {@link MessageSender.Priority#BULK} (ответы пользователям отправляются раньше), очередь соблюдает
+ * ограничения телеграм на количество сообщений. Следующая пачка забирается после ответа телеграм
+ * на все сообщения предыдущей. Неотправленное уведомление отправляется повторно с увеличивающейся задержкой,
+ * после max-attempts попыток или если телеграм отклонил сообщение (чат не найден, бот заблокирован)
+ * уведомление больше не отправляется.
+ * <p>
+ * Отставание от расписания - время от запланированной отправки уведомления до ответа телеграм,
+ * метрика bot.outbox.lag.
+ * <p>
+ * Уведомление отмечается отправленным после ответа телеграм, поэтому если узел остановился между отправкой и отметкой,
+ * после claim-ttl уведомление будет отправлено повторно (доставка не меньше одного раза).
+ * Если ответа нет дольше claim-ttl, сообщение может быть еще в очереди {@link MessageSender}: уведомление остается
+ * забранным этим узлом (claim продлевается) и не отправляется повторно, результат записывается по ответу телеграм.
+ */
+@Component
+public class NotificationOutboxRelay {
+    private static final int BAD_REQUEST = 400;
+    private static final int FORBIDDEN = 403;
+    private static final int MAX_BACKOFF_SHIFT = 10;
+    private final Logger logger = LoggerFactory.getLogger(NotificationOutboxRelay.class);
+    private final NotificationOutbox outbox;
+    private final MessageSender messageSender;
+    private final MeterRegistry meterRegistry;
+    private final String nodeId;
+    private final Duration pollInterval;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final Duration retryDelay;
+    private final Duration claimTtl;
+    private final Duration retention;
+    //Уведомления, ответ на которые не получен за claim-ttl: отправка еще не завершена
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService worker =
+            Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("outbox-relay-"));
+
+    /**
+     * @param outbox        исходящие уведомления
+     * @param messageSender очередь запросов к телеграм
+     * @param meterRegistry метрики отправки
+     * @param nodeId        id узла, если не задан - pid@host
+     * @param pollInterval  как часто забирать уведомления, если их нет
+     * @param batchSize     сколько уведомлений забирать за раз
+     * @param maxAttempts   сколько раз пытаться отправить уведомление
+     * @param retryDelay    задержка перед повторной отправкой, удваивается с каждой попыткой
+     * @param claimTtl      через сколько забранное и не отправленное уведомление может забрать другой узел
+     * @param retention     сколько хранить отправленные уведомления (и их ключи идемпотентности)
+     */
+    public NotificationOutboxRelay(NotificationOutbox outbox, MessageSender messageSender, MeterRegistry meterRegistry,
+                                   @Value("${telegram.bot.cluster.node-id:}") String nodeId,
+                                   @Value("${telegram.bot.outbox.poll-interval:1s}") Duration pollInterval,
+                                   @Value("${telegram.bot.outbox.batch-size:100}") int batchSize,
+                                   @Value("${telegram.bot.outbox.max-attempts:5}") int maxAttempts,
+                                   @Value("${telegram.bot.outbox.retry-delay:30s}") Duration retryDelay,
+                                   @Value("${telegram.bot.outbox.claim-ttl:5m}") Duration claimTtl,
+                                   @Value("${telegram.bot.outbox.retention:7d}") Duration retention) {
+        this.outbox = outbox;
+        this.messageSender = messageSender;
+        this.meterRegistry = meterRegistry;
+        this.nodeId = nodeId.isEmpty() ? ClusterCoordinator.defaultNodeId() : nodeId;
+        this.pollInterval = pollInterval;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.retryDelay = retryDelay;
+        this.claimTtl = claimTtl;
+        this.retention = retention;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        worker.scheduleWithFixedDelay(this::drain, pollInterval.toMillis(), pollInterval.toMillis(),
+                TimeUnit.MILLISECONDS);
+        worker.scheduleWithFixedDelay(this::purge, 1, 1, TimeUnit.HOURS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        worker.shutdownNow();
+    }
+
+    /**
+     * Отправить уведомления, пока не останется тех, которые пора отправить
+     */
+    void drain() {
+        try {
+            int claimed;
+            do {
+                claimed = relayBatch();
+            } while (claimed == batchSize);
+        } catch (RuntimeException e) {
+            logger.error("Outbox relay failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Отправить одну пачку уведомлений и дождаться ответа телеграм
+     *
+     * @return количество забранных уведомлений
+     */
+    int relayBatch() {
+        List<NotificationOutbox.Notification> claimed =
+                outbox.claim(nodeId, batchSize, LocalDateTime.now().minus(claimTtl));
+        List<NotificationOutbox.Notification> sending = new ArrayList<>(claimed.size());
+        List<CompletableFuture<SendResponse>> results = new ArrayList<>(claimed.size());
+        for (NotificationOutbox.Notification notification : claimed) {
+            //Забрано повторно после claim-ttl, но этот узел его еще отправляет
+            if (inFlight.contains(notification.id())) {
+                continue;
+            }
+            sending.add(notification);
+            results.add(messageSender.send(new SendMessage(notification.chatId(), notification.text())
+                    .parseMode(ParseMode.HTML)
+                    .disableWebPagePreview(true)
+                    .disableNotification(true), MessageSender.Priority.BULK));
+        }
+        //Ответа ждем не дольше claim-ttl, дальше уведомление может забрать другой узел
+        long deadline = System.nanoTime() + claimTtl.toNanos();
+        List<Long> sent = new ArrayList<>();
+        List<Long> late = new ArrayList<>();
+        for (int i = 0; i < sending.size(); i++) {
+            NotificationOutbox.Notification notification = sending.get(i);
+            try {
+                SendResponse response = results.get(i).get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (handle(notification, response)) {
+                    sent.add(notification.id());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                retryOrFail(notification, e.toString(), false);
+            } catch (TimeoutException e) {
+                //Повтор сейчас отправил бы сообщение второй раз, если оно еще в очереди MessageSender
+                inFlight.add(notification.id());
+                late.add(notification.id());
+                results.get(i).whenCompleteAsync((response, error) -> completeLate(notification, response, error),
+                        worker);
+            }
+        }
+        outbox.extendClaim(nodeId, late);
+        outbox.markSent(sent);
+        meterRegistry.counter("bot.outbox.notifications", "outcome", "sent").increment(sent.size());
+        return claimed.size();
+    }
+
+    /**
+     * Обработать ответ телеграм: неотправленное уведомление возвращается в очередь или отмечается ошибкой
+     *
+     * @return true - уведомление отправлено, его нужно отметить отправленным
+     */
+    private boolean handle(NotificationOutbox.Notification notification, SendResponse response) {
+        recordLag(notification);
+        if (response.isOk()) {
+            return true;
+        }
+        String error = response.errorCode() + " " + response.description();
+        boolean rejected = response.errorCode() == BAD_REQUEST || response.errorCode() == FORBIDDEN;
+        retryOrFail(notification, error, rejected);
+        return false;
+    }
+
+    /**
+     * Записать результат отправки, ответ на которую пришел позже claim-ttl
+     */
+    private void completeLate(NotificationOutbox.Notification notification, SendResponse response,
+                              Throwable error) {
+        try {
+            if (error != null) {
+                retryOrFail(notification, error.toString(), false);
+            } else if (handle(notification, response)) {
+                outbox.markSent(List.of(notification.id()));
+                meterRegistry.counter("bot.outbox.notifications", "outcome", "sent").increment();
+            }
+        } catch (RuntimeException e) {
+            logger.error("Notification {} result not saved: {}", notification.id(), e.getMessage());
+        } finally {
+            inFlight.remove(notification.id());
+        }
+    }
+
+    private void recordLag(NotificationOutbox.Notification notification) {
+        Duration lag = Duration.between(notification.sendAt(), LocalDateTime.now());
+        meterRegistry.timer("bot.outbox.lag").record(lag.isNegative() ? Duration.ZERO : lag);
+    }
+
+    private void retryOrFail(NotificationOutbox.Notification notification, String error, boolean rejected) {
+        if (rejected || notification.attempts() + 1 >= maxAttempts) {
+            logger.error("Notification {} to chat {} not sent: {}", notification.id(), notification.chatId(), error);
+            outbox.fail(notification.id(), error);
+            meterRegistry.counter("bot.outbox.notifications", "outcome", "failed").increment();
+            return;
+        }
+        Duration delay = retryDelay.multipliedBy(1L << Math.min(notification.attempts(), MAX_BACKOFF_SHIFT));
+        logger.warn("Notification {} to chat {} will be retried in {}: {}",
+                notification.id(), notification.chatId(), delay, error);
+        outbox.retryLater(notification.id(), LocalDateTime.now().plus(delay), error);
+        meterRegistry.counter("bot.outbox.notifications", "outcome", "retry").increment();
+    }
+
+    /**
+     * Удалить уведомления старше retention
+     */
+    void purge() {
+        try {
+            int purged = outbox.purge(LocalDateTime.now().minus(retention));
+            if (purged > 0) {
+                logger.info("Purged {} outbox notifications", purged);
+            }
+        } catch (RuntimeException e) {
+            logger.error("Outbox purge failed: {}", e.getMessage());
+        }
+    }
+}
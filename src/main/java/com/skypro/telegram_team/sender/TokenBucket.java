@@ -0,0 +1,57 @@
+package com.skypro.telegram_team.sender;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Ограничитель частоты отправки (token bucket).
+ * Токены пополняются с постоянной скоростью до емкости ведра,
+ * каждая отправка забирает один токен.
+ */
+class TokenBucket {
+    private final double capacity;
+    private final double tokensPerNano;
+    private final LongSupplier clock;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param perSecond скорость пополнения, токенов в секунду
+     * @param capacity  емкость ведра (допустимый всплеск)
+     * @param clock     источник времени в наносекундах
+     */
+    TokenBucket(double perSecond, double capacity, LongSupplier clock) {
+        this.capacity = capacity;
+        this.tokensPerNano = perSecond / 1_000_000_000d;
+        this.clock = clock;
+        this.tokens = capacity;
+        this.lastRefill = clock.getAsLong();
+    }
+
+    /**
+     * Забрать токен, если он есть
+     *
+     * @return 0, если токен получен, иначе время в наносекундах до появления токена
+     */
+    synchronized long tryAcquire() {
+        refill();
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+
+    /**
+     * Ведро заполнено, т.е. отправок давно не было
+     */
+    synchronized boolean isFull() {
+        refill();
+        return tokens >= capacity;
+    }
+
+    private void refill() {
+        long now = clock.getAsLong();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+    }
+}
@@ -4,6 +4,7 @@ import com.skypro.telegram_team.exceptions.InvalidDataException;
 import com.skypro.telegram_team.models.Animal;
 import com.skypro.telegram_team.models.User;
 import com.skypro.telegram_team.repositories.AnimalRepository;
+import io.micrometer.core.annotation.Timed;
 import lombok.extern.log4j.Log4j2;
 import org.modelmapper.ModelMapper;
 import org.springframework.data.domain.Sort;
@@ -23,12 +24,17 @@ import java.util.Objects;
  */
 @Log4j2
 @Service
+@Timed("bot.service")
 public class AnimalService {
     private final AnimalRepository animalRepository;
+    private final PhotoService photoService;
+    private final UserCache userCache;
 
 
-    public AnimalService(AnimalRepository animalRepository) {
+    public AnimalService(AnimalRepository animalRepository, PhotoService photoService, UserCache userCache) {
         this.animalRepository = animalRepository;
+        this.photoService = photoService;
+        this.userCache = userCache;
     }
 
     /**
@@ -58,7 +64,8 @@ public class AnimalService {
     }
 
     /**
-     * удаление животного по id из БД используя метод репозитория {@link JpaRepository#deleteById(Object)}
+     * удаление животного по id из БД используя метод репозитория {@link JpaRepository#deleteById(Object)},
+     * вместе с животным удаляется его фото
      *
      * @param id идентификатор животного
      * @return Animal
@@ -69,6 +76,12 @@ public class AnimalService {
         log.info("Deleting animal by id: " + id);
         Animal animal = animalRepository.findById(id).orElseThrow(() -> new EntityNotFoundException("Animal not found"));
         animalRepository.delete(animal);
+        userCache.invalidateByAnimal(id);
+        if (animal.getPhotoId() != null) {
+            //Животное ссылается на фото, поэтому сначала удаляем животное
+            animalRepository.flush();
+            photoService.deleteById(animal.getPhotoId());
+        }
         return animal;
     }
 
@@ -107,7 +120,8 @@ public class AnimalService {
     }
 
     /**
-     * Обновление животного в БД используя метод репозитория {@link JpaRepository#save(Object)}
+     * Обновление животного в БД используя метод репозитория {@link JpaRepository#save(Object)}.
+     * Фото изменяется только через {@link #photoUpload(Long, MultipartFile)}
      *
      * @param animal объект животное, содержащий данные для обновления
      * @param id     идентификатор животного, которое нужно обновить
@@ -125,8 +139,10 @@ public class AnimalService {
         Animal animalToUpdate = animalRepository.findById(id)
                 .orElseThrow(() -> new EntityNotFoundException("Animal not found"));
         animal.setId(id);
+        animal.setPhotoId(animalToUpdate.getPhotoId());
 
         modelMapper.map(animal, animalToUpdate);
+        userCache.invalidateByAnimal(id);
         return animalRepository.save(animalToUpdate);
     }
 
@@ -154,7 +170,24 @@ public class AnimalService {
     }
 
     /**
-     * Загрузка фото животного
+     * Изменение статуса всех животных пользователей с заданным статусом одним запросом в отдельной транзакции
+     *
+     * @param ownerStateEnum статус пользователя
+     * @param state          новый статус животного
+     * @return количество измененных животных
+     */
+    @Transactional
+    public int changeStateByUserState(User.OwnerStateEnum ownerStateEnum, Animal.AnimalStateEnum state) {
+        log.info("Changing state of animals by user state - " + ownerStateEnum + " to " + state);
+        int changed = animalRepository.updateStateByUserState(ownerStateEnum, state);
+        if (changed > 0) {
+            userCache.invalidateAll();
+        }
+        return changed;
+    }
+
+    /**
+     * Загрузка фото животного, прежнее фото заменяется
      *
      * @param id   идентификатор животного
      * @param file фото
@@ -168,8 +201,9 @@ public class AnimalService {
         }
         var animal = animalRepository.findById(id)
                 .orElseThrow(() -> new EntityNotFoundException("Animal not found"));
-        animal.setPhoto(file.getBytes());
+        animal.setPhotoId(photoService.save(animal.getPhotoId(), file.getBytes()));
         animalRepository.save(animal);
+        userCache.invalidateByAnimal(id);
     }
 
     /**
@@ -182,10 +216,10 @@ public class AnimalService {
         log.info("Was invoked method to download photo from animal {}", id);
         var animal = animalRepository.findById(id)
                 .orElseThrow(() -> new EntityNotFoundException("Animal not found"));
-        if (animal.getPhoto() == null) {
+        if (animal.getPhotoId() == null) {
             throw new EntityNotFoundException("Animal photo not found");
         }
-        return animal.getPhoto();
+        return photoService.findData(animal.getPhotoId());
     }
 
     /**
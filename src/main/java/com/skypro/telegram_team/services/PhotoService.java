@@ -0,0 +1,72 @@
+package com.skypro.telegram_team.services;
+
+import com.skypro.telegram_team.models.Photo;
+import com.skypro.telegram_team.repositories.PhotoRepository;
+import io.micrometer.core.annotation.Timed;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityNotFoundException;
+import java.util.List;
+
+/**
+ * Сервис для работы с фото животных и отчетов.
+ * <p>
+ * Животное и отчет хранят только id фото, содержимое читается отсюда при выгрузке фото.
+ */
+@Log4j2
+@Service
+@Timed("bot.service")
+public class PhotoService {
+    private final PhotoRepository photoRepository;
+
+    public PhotoService(PhotoRepository photoRepository) {
+        this.photoRepository = photoRepository;
+    }
+
+    /**
+     * Сохранение фото: если фото с id уже есть, то заменяется его содержимое, иначе создается новое фото
+     *
+     * @param photoId идентификатор прежнего фото или null
+     * @param data    содержимое фото
+     * @return идентификатор сохраненного фото
+     */
+    @Transactional
+    public long save(Long photoId, byte[] data) {
+        if (photoId != null && photoRepository.updateData(photoId, data) == 1) {
+            log.info("Replaced photo {}, {} bytes", photoId, data.length);
+            return photoId;
+        }
+        Photo photo = photoRepository.save(new Photo(data));
+        log.info("Saved photo {}, {} bytes", photo.getId(), data.length);
+        return photo.getId();
+    }
+
+    /**
+     * Содержимое фото
+     *
+     * @param photoId идентификатор фото
+     * @return содержимое
+     * @throws EntityNotFoundException если фото не найдено
+     */
+    public byte[] findData(long photoId) {
+        log.info("Finding photo by id: " + photoId);
+        return photoRepository.findById(photoId)
+                .map(Photo::getData)
+                .orElseThrow(() -> new EntityNotFoundException("Photo not found"));
+    }
+
+    /**
+     * Удаление фото одним запросом, без чтения содержимого
+     *
+     * @param photoId идентификатор фото или null
+     */
+    @Transactional
+    public void deleteById(Long photoId) {
+        if (photoId != null) {
+            log.info("Deleting photo by id: " + photoId);
+            photoRepository.deleteAllByIdInBatch(List.of(photoId));
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.skypro.telegram_team.services;
+
+import java.time.LocalDateTime;
+
+/**
+ * У пользователя изменился испытательный срок: назначен, продлен или закончился
+ *
+ * @param userId  идентификатор пользователя
+ * @param endTest конец испытательного срока, null - пользователь не на испытательном сроке
+ */
+public record ProbationChangedEvent(long userId, LocalDateTime endTest) {
+}
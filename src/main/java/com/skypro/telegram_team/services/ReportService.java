@@ -1,18 +1,22 @@
 package com.skypro.telegram_team.services;
 
 import com.skypro.telegram_team.exceptions.InvalidDataException;
+import com.skypro.telegram_team.models.Animal;
 import com.skypro.telegram_team.models.Report;
+import com.skypro.telegram_team.repositories.LastReportProjection;
 import com.skypro.telegram_team.repositories.ReportRepository;
 import com.skypro.telegram_team.repositories.UserRepository;
+import io.micrometer.core.annotation.Timed;
 import lombok.extern.log4j.Log4j2;
 import org.modelmapper.ModelMapper;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.EntityNotFoundException;
 import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
 import java.util.Collection;
 import java.util.List;
 
@@ -21,14 +25,18 @@ import java.util.List;
  */
 @Log4j2
 @Service
+@Timed("bot.service")
 public class ReportService {
     private final UserRepository userRepository;
     private final ReportRepository reportRepository;
+    private final PhotoService photoService;
 
     public ReportService(ReportRepository reportRepository,
-                         UserRepository userRepository) {
+                         UserRepository userRepository,
+                         PhotoService photoService) {
         this.reportRepository = reportRepository;
         this.userRepository = userRepository;
+        this.photoService = photoService;
     }
 
     /**
@@ -56,7 +64,8 @@ public class ReportService {
     }
 
     /**
-     * удаление отчета по id из БД используя метод репозитория {@link JpaRepository#delete(Object)}}
+     * удаление отчета по id из БД используя метод репозитория {@link JpaRepository#delete(Object)}},
+     * вместе с отчетом удаляется его фото
      *
      * @param id идентификатор отчета
      * @return удаленный отчет
@@ -66,6 +75,11 @@ public class ReportService {
         log.info("Deleting report by id: " + id);
         Report report = reportRepository.findById(id).orElseThrow(() -> new EntityNotFoundException("Report not found"));
         reportRepository.delete(report);
+        if (report.getPhotoId() != null) {
+            //Отчет ссылается на фото, поэтому сначала удаляем отчет
+            reportRepository.flush();
+            photoService.deleteById(report.getPhotoId());
+        }
         return report;
     }
 
@@ -80,7 +94,8 @@ public class ReportService {
     }
 
     /**
-     * Обновление отчета в БД используя метод репозитория {@link JpaRepository#save(Object)}}
+     * Обновление отчета в БД используя метод репозитория {@link JpaRepository#save(Object)}}.
+     * Если в отчете нет фото, то остается прежнее фото
      *
      * @param report отчет для обновления
      * @param id     идентификатор отчета
@@ -93,6 +108,9 @@ public class ReportService {
         ModelMapper modelMapper = new ModelMapper();
         Report reportToUpdate = reportRepository.findById(id).orElseThrow(() -> new EntityNotFoundException("Report not found"));
         report.setId(id);
+        if (report.getPhotoId() == null) {
+            report.setPhotoId(reportToUpdate.getPhotoId());
+        }
         modelMapper.map(report, reportToUpdate);
         return reportRepository.save(reportToUpdate);
     }
@@ -108,6 +126,21 @@ public class ReportService {
         return reportRepository.findByAnimalId(id);
     }
 
+    /**
+     * Страница дат последнего отчета по каждому животному в статусе с усыновителем, используя метод репозитория
+     * {@link ReportRepository#findLastReportDates(Animal.AnimalStateEnum, long, long, Pageable)}
+     *
+     * @param state         статус животного
+     * @param afterUserId   id усыновителя последней строки предыдущей страницы, 0 - первая страница
+     * @param afterAnimalId id животного последней строки предыдущей страницы, 0 - первая страница
+     * @param limit         размер страницы
+     * @return животное, усыновитель и дата последнего отчета по возрастанию (id усыновителя, id животного)
+     */
+    public List<LastReportProjection> findLastReportDates(Animal.AnimalStateEnum state, long afterUserId,
+                                                          long afterAnimalId, int limit) {
+        return reportRepository.findLastReportDates(state, afterUserId, afterAnimalId, PageRequest.of(0, limit));
+    }
+
     /**
      * Поиск отчетов по пользователю используя метод репозитория {@link ReportRepository#findByUserId(Long)}}
      *
@@ -131,37 +164,50 @@ public class ReportService {
     }
 
     /**
-     * Поиск отчета пользователя по дате
+     * Поиск отчета пользователя за день используя метод репозитория
+     * {@link ReportRepository#findFirstByUserIdAndDateGreaterThanEqualAndDateLessThanOrderByDateAscIdAsc(Long,
+     * LocalDateTime, LocalDateTime)}: отчет ищется по интервалу [начало дня, начало следующего дня),
+     * поэтому находится отчет с любым временем в течение дня.
      * Если отчет не найден, то возвращаем пустой отчет
      *
-     * @param userId
-     * @param dateTime
-     * @return
+     * @param userId   идентификатор пользователя
+     * @param dateTime любое время в течение дня
+     * @return первый отчет пользователя за день или пустой отчет
      */
     public Report findFirstByUserIdAndDate(Long userId, LocalDateTime dateTime) {
-        //почему-то не выбирает данные из БД по дате, поэтому пока фильтруем здесь
-        LocalDateTime finalDateTime = dateTime.truncatedTo(ChronoUnit.DAYS);
-        return findAll().stream()
-                .filter(r -> r.getUser().getId() == userId &&
-                        r.getDate().toLocalDate().isEqual(finalDateTime.toLocalDate()))
-                .findFirst()
+        LocalDateTime startOfDay = dateTime.toLocalDate().atStartOfDay();
+        return reportRepository.findFirstByUserIdAndDateGreaterThanEqualAndDateLessThanOrderByDateAscIdAsc(
+                        userId, startOfDay, startOfDay.plusDays(1))
                 .orElse(new Report());
     }
 
     /**
-     * Выгрузка фото животного
+     * Сохранение фото отчета, прежнее фото заменяется.
+     * Отчет в БД не обновляется, id фото записывается в переданный отчет
+     *
+     * @param report отчет
+     * @param photo  содержимое фото
+     */
+    @Transactional
+    public void photoUpload(Report report, byte[] photo) {
+        log.info("Was invoked method to upload photo to report {}", report.getId());
+        report.setPhotoId(photoService.save(report.getPhotoId(), photo));
+    }
+
+    /**
+     * Выгрузка фото отчета
      *
-     * @param id идентификатор животного
+     * @param id идентификатор отчета
      * @return данные
      */
     public byte[] photoDownload(Long id) {
         log.info("Was invoked method to download photo from report {}", id);
         var report = reportRepository.findById(id)
                 .orElseThrow(() -> new EntityNotFoundException("Report not found"));
-        if (report.getPhoto() == null) {
+        if (report.getPhotoId() == null) {
             throw new EntityNotFoundException("Report photo not found");
         }
-        return report.getPhoto();
+        return photoService.findData(report.getPhotoId());
     }
 
 //    /**
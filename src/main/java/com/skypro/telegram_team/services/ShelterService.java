@@ -4,6 +4,7 @@ import com.skypro.telegram_team.models.Animal;
 import com.skypro.telegram_team.models.Shelter;
 import com.skypro.telegram_team.repositories.AnimalRepository;
 import com.skypro.telegram_team.repositories.ShelterRepository;
+import io.micrometer.core.annotation.Timed;
 import lombok.extern.log4j.Log4j2;
 import org.modelmapper.ModelMapper;
 import org.springframework.data.jpa.repository.JpaRepository;
@@ -21,13 +22,17 @@ import java.util.Collection;
  */
 @Log4j2
 @Service
+@Timed("bot.service")
 public class ShelterService {
     private final ShelterRepository shelterRepository;
     private final AnimalRepository animalRepository;
+    private final UserCache userCache;
 
-    public ShelterService(ShelterRepository shelterRepository, AnimalRepository animalRepository) {
+    public ShelterService(ShelterRepository shelterRepository, AnimalRepository animalRepository,
+                          UserCache userCache) {
         this.shelterRepository = shelterRepository;
         this.animalRepository = animalRepository;
+        this.userCache = userCache;
     }
 
     /**
@@ -85,6 +90,7 @@ public class ShelterService {
                 .orElseThrow(() -> new EntityNotFoundException("Shelter not found"));
         //shelter.setId(id);
         //modelMapper.map(shelter, shelterToUpdate);
+        userCache.invalidateByShelter(id);
         return shelterRepository.save(shelter);
     }
 
@@ -101,6 +107,7 @@ public class ShelterService {
         Shelter shelter = shelterRepository.findById(id)
                 .orElseThrow(() -> new EntityNotFoundException("Shelter not found"));
         shelterRepository.delete(shelter);
+        userCache.invalidateByShelter(id);
         return shelter;
     }
 
@@ -125,5 +132,6 @@ public class ShelterService {
 
         animal.setShelter(shelter);
         animalRepository.save(animal);
+        userCache.invalidateByAnimal(animalId);
     }
 }
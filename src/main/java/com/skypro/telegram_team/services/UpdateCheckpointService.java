@@ -0,0 +1,148 @@
+package com.skypro.telegram_team.services;
+
+import com.skypro.telegram_team.models.UpdateCheckpoint;
+import com.skypro.telegram_team.repositories.UpdateCheckpointRepository;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Сервис для хранения id последнего обработанного обновления телеграм.
+ * <p>
+ * Подтвержденный id сохраняется в БД, обновления с меньшим или равным id считаются обработанными
+ * и при повторной доставке пропускаются. Обновления, обработанные после необработанного
+ * (еще не подтвержденные), запоминаются в памяти до подтверждения.
+ * <p>
+ * Обновления webhook приходят по одному и не подтверждаются по порядку, поэтому для них запоминаются
+ * id последних {@link #RECEIVED_WINDOW} принятых обновлений.
+ */
+@Log4j2
+@Service
+public class UpdateCheckpointService {
+    private static final String POLLING = "polling";
+    static final int RECEIVED_WINDOW = 10_000;
+    private final UpdateCheckpointRepository checkpointRepository;
+    private final Set<Integer> processedAhead = ConcurrentHashMap.newKeySet();
+    private final Map<Integer, Integer> attempts = new ConcurrentHashMap<>();
+    private final LinkedHashSet<Integer> received = new LinkedHashSet<>();
+    private volatile Integer lastUpdateId;
+
+    public UpdateCheckpointService(UpdateCheckpointRepository checkpointRepository) {
+        this.checkpointRepository = checkpointRepository;
+    }
+
+    /**
+     * Id последнего подтвержденного обновления, при первом обращении читается из БД
+     *
+     * @return id обновления или 0, если обновлений еще не было
+     */
+    public int getLastUpdateId() {
+        if (lastUpdateId == null) {
+            synchronized (this) {
+                if (lastUpdateId == null) {
+                    lastUpdateId = checkpointRepository.findById(POLLING)
+                            .map(UpdateCheckpoint::getUpdateId)
+                            .orElse(0);
+                    log.info("Last confirmed update: {}", lastUpdateId);
+                }
+            }
+        }
+        return lastUpdateId;
+    }
+
+    /**
+     * Обновление уже обработано
+     *
+     * @param updateId id обновления
+     * @return true, если обновление обработано ранее
+     */
+    public boolean isProcessed(Integer updateId) {
+        return updateId != null && (updateId <= getLastUpdateId() || processedAhead.contains(updateId));
+    }
+
+    /**
+     * Запомнить обработанное, но еще не подтвержденное обновление
+     *
+     * @param updateId id обновления
+     */
+    public void markProcessed(int updateId) {
+        processedAhead.add(updateId);
+        attempts.remove(updateId);
+    }
+
+    /**
+     * Запомнить обновление, принятое в обработку через webhook.
+     * Телеграм повторяет доставку, если не получил ответ, повторно доставленное обновление не обрабатывается.
+     *
+     * @param updateId id обновления
+     * @return false, если обновление уже принято или обработано
+     */
+    public boolean markReceived(int updateId) {
+        if (isProcessed(updateId)) {
+            return false;
+        }
+        synchronized (received) {
+            if (!received.add(updateId)) {
+                return false;
+            }
+            if (received.size() > RECEIVED_WINDOW) {
+                Iterator<Integer> oldest = received.iterator();
+                oldest.next();
+                oldest.remove();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Забыть обновление, которое не принято в обработку: повторная доставка будет обработана
+     *
+     * @param updateId id обновления
+     */
+    public void forgetReceived(int updateId) {
+        synchronized (received) {
+            received.remove(updateId);
+        }
+    }
+
+    /**
+     * Учесть неудачную попытку обработки обновления
+     *
+     * @param updateId    id обновления
+     * @param maxAttempts максимальное количество попыток
+     * @return true, если попытки исчерпаны и обновление нужно пропустить
+     */
+    public boolean registerFailure(int updateId, int maxAttempts) {
+        return attempts.merge(updateId, 1, Integer::sum) >= maxAttempts;
+    }
+
+    /**
+     * Подтвердить обработку всех обновлений до updateId включительно
+     *
+     * @param updateId id последнего обработанного обновления
+     */
+    @Transactional
+    public void confirm(int updateId) {
+        if (updateId <= getLastUpdateId()) {
+            return;
+        }
+        UpdateCheckpoint checkpoint = checkpointRepository.findById(POLLING).orElseGet(() -> {
+            UpdateCheckpoint created = new UpdateCheckpoint();
+            created.setName(POLLING);
+            return created;
+        });
+        checkpoint.setUpdateId(updateId);
+        checkpoint.setUpdatedAt(LocalDateTime.now());
+        checkpointRepository.save(checkpoint);
+        lastUpdateId = updateId;
+        processedAhead.removeIf(id -> id <= updateId);
+        attempts.keySet().removeIf(id -> id <= updateId);
+    }
+}
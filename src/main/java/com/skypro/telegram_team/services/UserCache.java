@@ -0,0 +1,206 @@
+package com.skypro.telegram_team.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.skypro.telegram_team.models.Animal;
+import com.skypro.telegram_team.models.Shelter;
+import com.skypro.telegram_team.models.User;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Кэш пользователей по telegramId.
+ * Ограничен по размеру и по времени жизни записи.
+ * Внутри транзакции изменения попадают в кэш только после ее фиксации,
+ * при откате транзакции запись удаляется из кэша.
+ * <p>
+ * Кэш хранит и возвращает копии пользователя с его животным и приютом, поэтому несохраненные изменения
+ * одного вызывающего не видны остальным. При изменении животного или приюта удаляются пользователи,
+ * которые на них ссылаются ({@link #invalidateByAnimal(long)}, {@link #invalidateByShelter(long)}).
+ * <p>
+ * В режиме кластера кэш отключен: пользователя могут изменить другие узлы, а кэш узнает только об изменениях
+ * своего узла, поэтому пользователь всегда загружается из БД.
+ */
+@Component
+public class UserCache {
+    private final Cache<Long, User> cache;
+    private final boolean enabled;
+
+    /**
+     * @param maxSize   максимальное количество пользователей в кэше
+     * @param ttl       время жизни записи с момента записи в кэш
+     * @param clustered режим кластера, кэш отключен
+     */
+    @Autowired
+    public UserCache(@Value("${telegram.bot.user-cache.max-size:10000}") long maxSize,
+                     @Value("${telegram.bot.user-cache.ttl:10m}") Duration ttl,
+                     @Value("${telegram.bot.cluster.enabled:false}") boolean clustered) {
+        this.enabled = !clustered;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+    }
+
+    UserCache(long maxSize, Duration ttl) {
+        this(maxSize, ttl, false);
+    }
+
+    /**
+     * Пользователь из кэша, если его нет - загрузить
+     *
+     * @param telegramId идентификатор Telegram
+     * @param loader     загрузка пользователя, null если пользователь не найден (в кэш не попадает)
+     * @return копия пользователя или null
+     */
+    public User get(Long telegramId, Function<Long, User> loader) {
+        if (!enabled) {
+            return loader.apply(telegramId);
+        }
+        User user = cache.get(telegramId, id -> {
+            User loaded = loader.apply(id);
+            return loaded != null ? copyOf(loaded) : null;
+        });
+        return user != null ? copyOf(user) : null;
+    }
+
+    /**
+     * Записать пользователя в кэш
+     *
+     * @param user пользователь
+     */
+    public void put(User user) {
+        if (!enabled || user.getTelegramId() == 0L) {
+            return;
+        }
+        User copy = copyOf(user);
+        afterCommit(() -> cache.put(copy.getTelegramId(), copy), () -> cache.invalidate(copy.getTelegramId()));
+    }
+
+    /**
+     * Удалить пользователя из кэша
+     *
+     * @param telegramId идентификатор Telegram
+     */
+    public void invalidate(Long telegramId) {
+        cache.invalidate(telegramId);
+        afterCommit(() -> cache.invalidate(telegramId), () -> cache.invalidate(telegramId));
+    }
+
+    /**
+     * Удалить из кэша пользователей с животным (животное изменено)
+     *
+     * @param animalId идентификатор животного
+     */
+    public void invalidateByAnimal(long animalId) {
+        invalidateIf(user -> user.getAnimal() != null && user.getAnimal().getId() == animalId);
+    }
+
+    /**
+     * Удалить из кэша пользователей с приютом или с животным из приюта (приют изменен)
+     *
+     * @param shelterId идентификатор приюта
+     */
+    public void invalidateByShelter(long shelterId) {
+        invalidateIf(user -> user.getShelter() != null && user.getShelter().getId() == shelterId
+                || user.getAnimal() != null && user.getAnimal().getShelter() != null
+                && user.getAnimal().getShelter().getId() == shelterId);
+    }
+
+    /**
+     * Удалить из кэша всех пользователей (изменено много животных одним запросом)
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+        afterCommit(cache::invalidateAll, cache::invalidateAll);
+    }
+
+    /**
+     * Статистика попаданий и промахов
+     */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /**
+     * Количество пользователей в кэше
+     */
+    public long getSize() {
+        return cache.estimatedSize();
+    }
+
+    private void invalidateIf(Predicate<User> condition) {
+        Runnable invalidate = () -> cache.asMap().values().removeIf(condition);
+        invalidate.run();
+        afterCommit(invalidate, invalidate);
+    }
+
+    /**
+     * Копия пользователя с копиями животного и приюта
+     */
+    static User copyOf(User user) {
+        User copy = new User();
+        BeanUtils.copyProperties(user, copy);
+        copy.setShelter(copyOf(user.getShelter()));
+        Animal animal = user.getAnimal();
+        if (animal != null) {
+            Animal animalCopy = new Animal();
+            BeanUtils.copyProperties(animal, animalCopy);
+            if (animal.getUser() != null) {
+                if (animal.getUser().getId() == user.getId()) {
+                    animalCopy.setUser(copy);
+                } else {
+                    User owner = new User();
+                    BeanUtils.copyProperties(animal.getUser(), owner, "animal", "shelter");
+                    animalCopy.setUser(owner);
+                }
+            }
+            animalCopy.setShelter(animal.getShelter() != null && animal.getShelter().equals(user.getShelter())
+                    ? copy.getShelter() : copyOf(animal.getShelter()));
+            copy.setAnimal(animalCopy);
+        }
+        return copy;
+    }
+
+    private static Shelter copyOf(Shelter shelter) {
+        if (shelter == null) {
+            return null;
+        }
+        Shelter copy = new Shelter();
+        BeanUtils.copyProperties(shelter, copy);
+        return copy;
+    }
+
+    /**
+     * Выполнить действие после фиксации текущей транзакции или сразу, если транзакции нет
+     *
+     * @param onCommit   действие после фиксации
+     * @param onRollback действие после отката
+     */
+    private void afterCommit(Runnable onCommit, Runnable onRollback) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            onCommit.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    onCommit.run();
+                } else {
+                    onRollback.run();
+                }
+            }
+        });
+    }
+}
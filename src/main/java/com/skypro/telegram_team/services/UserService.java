@@ -5,8 +5,12 @@ import com.skypro.telegram_team.models.Animal;
 import com.skypro.telegram_team.models.User;
 import com.skypro.telegram_team.repositories.AnimalRepository;
 import com.skypro.telegram_team.repositories.UserRepository;
+import com.skypro.telegram_team.repositories.UserStateProjection;
+import io.micrometer.core.annotation.Timed;
 import lombok.extern.log4j.Log4j2;
 import org.modelmapper.ModelMapper;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -15,7 +19,6 @@ import javax.persistence.EntityNotFoundException;
 import java.time.LocalDateTime;
 import java.util.Collection;
 import java.util.List;
-import java.util.Optional;
 import java.util.regex.Pattern;
 
 /**
@@ -26,20 +29,31 @@ import java.util.regex.Pattern;
  */
 @Log4j2
 @Service
+@Timed("bot.service")
 public class UserService {
     private final UserRepository userRepository;
     private final AnimalRepository animalRepository;
-
+    private final UserCache userCache;
+    private final ApplicationEventPublisher eventPublisher;
+    private final AnimalService animalService;
 
     /**
      * Конструктор класса UserService.
      *
      * @param userRepository   Репозиторий для работы с сущностью User.
      * @param animalRepository Репозиторий для работы с сущностью Animal.
+     * @param userCache        Кэш пользователей по telegramId.
+     * @param eventPublisher   Публикация изменений списка волонтеров {@link VolunteerChangedEvent}
+     *                         и испытательного срока {@link ProbationChangedEvent}.
+     * @param animalService    Сервис для работы с животными.
      */
-    public UserService(UserRepository userRepository, AnimalRepository animalRepository) {
+    public UserService(UserRepository userRepository, AnimalRepository animalRepository, UserCache userCache,
+                       ApplicationEventPublisher eventPublisher, AnimalService animalService) {
         this.userRepository = userRepository;
         this.animalRepository = animalRepository;
+        this.userCache = userCache;
+        this.eventPublisher = eventPublisher;
+        this.animalService = animalService;
     }
 
     /**
@@ -53,7 +67,12 @@ public class UserService {
     public User create(User user) {
         log.info("Saving user: " + user.getName() + " " + user.getSurname());
         validate(user);
-        return userRepository.save(user);
+        User savedUser = userRepository.save(user);
+        userCache.put(savedUser);
+        if (savedUser.isVolunteer()) {
+            eventPublisher.publishEvent(new VolunteerChangedEvent(savedUser.getTelegramId(), true));
+        }
+        return savedUser;
     }
 
     /**
@@ -80,6 +99,10 @@ public class UserService {
         log.info("Deleting user by id: " + id);
         User user = userRepository.findById(id).orElseThrow(() -> new EntityNotFoundException("User not found"));
         userRepository.delete(user);
+        userCache.invalidate(user.getTelegramId());
+        if (user.isVolunteer()) {
+            eventPublisher.publishEvent(new VolunteerChangedEvent(user.getTelegramId(), false));
+        }
         return user;
     }
 
@@ -107,13 +130,37 @@ public class UserService {
     @Transactional
     public User update(User user, Long id) {
         log.info("Updating myUser: " + user);
+        //Объект мог быть получен из кэша и уже изменен, в кэш вернется только сохраненный пользователь
+        userCache.invalidate(user.getTelegramId());
         validate(user);
         ModelMapper modelMapper = new ModelMapper();
         User userToUpdate = userRepository.findById(id)
                 .orElseThrow(() -> new EntityNotFoundException("User not found"));
+        userCache.invalidate(userToUpdate.getTelegramId());
+        boolean wasVolunteer = userToUpdate.isVolunteer();
+        long oldTelegramId = userToUpdate.getTelegramId();
         user.setId(id);
         modelMapper.map(user, userToUpdate);
-        return userRepository.save(userToUpdate);
+        User updatedUser = userRepository.save(userToUpdate);
+        userCache.put(updatedUser);
+        if (wasVolunteer && (!updatedUser.isVolunteer() || oldTelegramId != updatedUser.getTelegramId())) {
+            eventPublisher.publishEvent(new VolunteerChangedEvent(oldTelegramId, false));
+        }
+        if (updatedUser.isVolunteer() && (!wasVolunteer || oldTelegramId != updatedUser.getTelegramId())) {
+            eventPublisher.publishEvent(new VolunteerChangedEvent(updatedUser.getTelegramId(), true));
+        }
+        //Загруженный объект мог быть изменен до update (joinAnimalAndUser, updateState),
+        //поэтому срок публикуется при каждом обновлении, повторный срок не меняет очередь сроков
+        eventPublisher.publishEvent(new ProbationChangedEvent(updatedUser.getId(), probationEnd(updatedUser)));
+        return updatedUser;
+    }
+
+    /**
+     * Конец испытательного срока, если пользователь на испытательном сроке (в том числе продленном)
+     */
+    private static LocalDateTime probationEnd(User user) {
+        return user.getState() == User.OwnerStateEnum.PROBATION || user.getState() == User.OwnerStateEnum.PROLONGED
+                ? user.getEndTest() : null;
     }
 
     /**
@@ -128,8 +175,14 @@ public class UserService {
     public User userIsVolunteer(Long id, Boolean isVolunteer) {
         log.info("User is volunteer: " + isVolunteer);
         User user = userRepository.findById(id).orElseThrow(() -> new EntityNotFoundException("User not found"));
+        //Загруженный объект изменяется до update, поэтому изменение флага публикуется здесь
+        boolean wasVolunteer = user.isVolunteer();
         user.setVolunteer(isVolunteer);
-        return update(user, id);
+        User updatedUser = update(user, id);
+        if (wasVolunteer != updatedUser.isVolunteer()) {
+            eventPublisher.publishEvent(new VolunteerChangedEvent(updatedUser.getTelegramId(), updatedUser.isVolunteer()));
+        }
+        return updatedUser;
     }
 
     /**
@@ -144,37 +197,74 @@ public class UserService {
     }
 
     /**
-     * Поиск волонтеров
+     * Страница пользователей с заданным статусом для уведомления, без загрузки связанных сущностей
      *
-     * @return список волонтеров
+     * @param state   статус владельца
+     * @param afterId id последнего пользователя предыдущей страницы, 0 - первая страница
+     * @param limit   размер страницы
+     * @return пользователи с заданным статусом по возрастанию id
      */
-    public Collection<User> findVolunteers() {
-        return userRepository.findByVolunteerTrue();
+    public List<UserStateProjection> findStateProjectionsByState(User.OwnerStateEnum state, long afterId, int limit) {
+        return userRepository.findStateProjectionsByStateAndIdGreaterThanOrderById(state, afterId,
+                PageRequest.of(0, limit));
+    }
+
+    /**
+     * Переводит не больше limit пользователей из одного статуса в другой одним запросом в отдельной транзакции.
+     * Измененные пользователи удаляются из кэша.
+     *
+     * @param from  текущий статус
+     * @param to    новый статус
+     * @param limit сколько пользователей перевести
+     * @return измененные пользователи, меньше limit - больше пользователей в статусе from нет
+     */
+    @Transactional
+    public List<UserStateProjection> changeState(User.OwnerStateEnum from, User.OwnerStateEnum to, int limit) {
+        log.info("Changing users state {} -> {}", from, to);
+        return invalidateChanged(userRepository.updateState(from, to, limit));
+    }
+
+    /**
+     * Переводит в DECISION не больше limit пользователей, у которых закончился испытательный срок,
+     * одним запросом в отдельной транзакции. Измененные пользователи удаляются из кэша.
+     *
+     * @param now   текущее время
+     * @param limit сколько пользователей перевести
+     * @return измененные пользователи, меньше limit - больше пользователей с закончившимся сроком нет
+     */
+    @Transactional
+    public List<UserStateProjection> changeStateOfEndedProbation(LocalDateTime now, int limit) {
+        log.info("Changing users state PROBATION -> DECISION, probation ended before {}", now);
+        return invalidateChanged(userRepository.updateStateOfEndedProbation(now, limit));
+    }
+
+    private List<UserStateProjection> invalidateChanged(List<UserStateProjection> changed) {
+        changed.forEach(user -> userCache.invalidate(user.getTelegramId()));
+        return changed;
     }
 
     /**
-     * Возвращает любого волонтера из списка волонтеров.
+     * Поиск волонтеров
      *
-     * @return объект типа Optional<User>, содержащий любого волонтера из списка волонтеров,
-     * если список не пустой, иначе пустой объект Optional.
+     * @return список волонтеров
      */
-    public Optional<User> findAnyVolunteer() {
-        log.info("Поиск волонтера");
-        return findVolunteers().stream()
-                .findAny();
+    public Collection<User> findVolunteers() {
+        return userRepository.findByVolunteerTrue();
     }
 
     /**
      * Находит пользователя по заданному идентификатору Telegram.
+     * Найденный пользователь сохраняется в кэше.
      *
      * @param telegramId идентификатор Telegram, по которому нужно найти пользователя.
      * @return объект типа User, соответствующий заданному идентификатору Telegram,
      * или пустой объект User, если пользователь не найден.
      */
     public User findByTelegramId(Long telegramId) {
-        return userRepository.findByTelegramId(telegramId).stream()
+        User user = userCache.get(telegramId, id -> userRepository.findByTelegramId(id).stream()
                 .findFirst()
-                .orElse(new User());
+                .orElse(null));
+        return user != null ? user : new User();
     }
 
     /**
@@ -246,7 +336,6 @@ public class UserService {
         user.setState(User.OwnerStateEnum.PROBATION);
         user.setEndTest(LocalDateTime.now().plusMonths(1));
         update(user, userId);
-        AnimalService animalService = new AnimalService(animalRepository);
         animalService.update(animal, animalId);
 
     }
@@ -0,0 +1,10 @@
+package com.skypro.telegram_team.services;
+
+/**
+ * Пользователь стал волонтером или перестал им быть
+ *
+ * @param telegramId идентификатор Telegram пользователя (чат волонтера)
+ * @param volunteer  пользователь является волонтером
+ */
+public record VolunteerChangedEvent(long telegramId, boolean volunteer) {
+}
@@ -0,0 +1,39 @@
+package com.skypro.telegram_team.timer;
+
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Обход строк страницами: следующая страница читается после обработки предыдущей,
+ * поэтому в памяти одновременно не больше одной страницы.
+ */
+final class Pages {
+
+    private Pages() {
+    }
+
+    /**
+     * Обработать все страницы
+     *
+     * @param nextPage чтение страницы по последней строке предыдущей (keyset pagination), null - первая страница
+     * @param pageSize размер страницы, неполная страница - последняя
+     * @param action   обработка строки
+     * @param <T>      строка
+     * @return количество обработанных строк
+     */
+    static <T> int forEach(Function<T, List<T>> nextPage, int pageSize, Consumer<? super T> action) {
+        int total = 0;
+        T last = null;
+        List<T> page;
+        do {
+            page = nextPage.apply(last);
+            page.forEach(action);
+            total += page.size();
+            if (!page.isEmpty()) {
+                last = page.get(page.size() - 1);
+            }
+        } while (page.size() >= pageSize && !page.isEmpty());
+        return total;
+    }
+}
@@ -0,0 +1,220 @@
+package com.skypro.telegram_team.timer;
+
+import com.skypro.telegram_team.models.User;
+import com.skypro.telegram_team.repositories.UserStateProjection;
+import com.skypro.telegram_team.services.ProbationChangedEvent;
+import com.skypro.telegram_team.services.UserService;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Окончания испытательных сроков в памяти: очередь с приоритетом по endTest и одно отложенное пробуждение
+ * на ближайший срок. Когда срок наступает, пользователи переводятся в DECISION ({@link Timer#decideEndedProbation()}),
+ * а не при следующей проверке по расписанию.
+ * <p>
+ * Очередь загружается из БД при запуске (просроченные за время остановки сроки обрабатываются сразу)
+ * и обновляется по {@link ProbationChangedEvent}. Очередь только будит обработку: кого переводить,
+ * решает запрос к БД по end_test, поэтому устаревшая запись (срок продлен на другом узле) ничего не меняет.
+ * Измененный срок не удаляется из очереди сразу, устаревшие записи пропускаются при извлечении.
+ */
+@Log4j2
+@Component
+public class ProbationDeadlines {
+    private final UserService userService;
+    private final Timer timer;
+    private final int pageSize;
+    private final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("probation-deadlines-"));
+    private final PriorityQueue<Deadline> queue = new PriorityQueue<>(Comparator.comparing(Deadline::endTest));
+    //Актуальный срок пользователя, записи очереди с другим сроком устарели
+    private final Map<Long, LocalDateTime> deadlines = new HashMap<>();
+    private ScheduledFuture<?> wakeUp;
+    private LocalDateTime wakeUpAt;
+
+    /**
+     * @param userService загрузка сроков пользователей на испытательном сроке
+     * @param timer       перевод пользователей с закончившимся сроком
+     * @param pageSize    сколько пользователей загружать за один запрос
+     */
+    public ProbationDeadlines(UserService userService, Timer timer,
+                              @Value("${telegram.bot.jobs.page-size:500}") int pageSize) {
+        this.userService = userService;
+        this.timer = timer;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Заново загрузить сроки из БД, при ошибке сроки обработает проверка по расписанию
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        synchronized (this) {
+            queue.clear();
+            deadlines.clear();
+            try {
+                load(User.OwnerStateEnum.PROBATION);
+                load(User.OwnerStateEnum.PROLONGED);
+                log.info("Probation deadlines loaded, {} users", deadlines.size());
+            } catch (RuntimeException e) {
+                log.error("Probation deadlines loading failed", e);
+            }
+            reschedule();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProbationChanged(ProbationChangedEvent event) {
+        schedule(event.userId(), event.endTest());
+    }
+
+    /**
+     * Назначить, перенести или отменить срок пользователя
+     *
+     * @param userId  идентификатор пользователя
+     * @param endTest конец испытательного срока, null - отменить
+     */
+    public synchronized void schedule(long userId, LocalDateTime endTest) {
+        if (endTest == null) {
+            deadlines.remove(userId);
+        } else {
+            put(userId, endTest);
+        }
+        reschedule();
+    }
+
+    /**
+     * Ближайший срок
+     */
+    synchronized Optional<LocalDateTime> nextDeadline() {
+        dropStale();
+        return Optional.ofNullable(queue.peek()).map(Deadline::endTest);
+    }
+
+    /**
+     * Количество пользователей, у которых назначен срок
+     */
+    synchronized int size() {
+        return deadlines.size();
+    }
+
+    /**
+     * Извлечь наступившие сроки
+     *
+     * @param now текущее время
+     * @return пользователи, у которых срок наступил
+     */
+    synchronized List<Long> pollDue(LocalDateTime now) {
+        List<Long> due = new ArrayList<>();
+        dropStale();
+        while (!queue.isEmpty() && !queue.peek().endTest().isAfter(now)) {
+            Deadline deadline = queue.poll();
+            deadlines.remove(deadline.userId());
+            due.add(deadline.userId());
+            dropStale();
+        }
+        return due;
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    private void load(User.OwnerStateEnum state) {
+        Pages.forEach((UserStateProjection last) -> userService.findStateProjectionsByState(state, last == null ? 0 : last.getId(),
+                pageSize), pageSize, user -> {
+            if (user.getEndTest() != null) {
+                put(user.getId(), user.getEndTest());
+            }
+        });
+    }
+
+    private void put(long userId, LocalDateTime endTest) {
+        if (endTest.equals(deadlines.put(userId, endTest))) {
+            return;
+        }
+        queue.add(new Deadline(userId, endTest));
+        //Устаревших записей не больше, чем актуальных
+        if (queue.size() > 2 * deadlines.size() + 64) {
+            queue.clear();
+            deadlines.forEach((id, end) -> queue.add(new Deadline(id, end)));
+        }
+    }
+
+    /**
+     * Удалить устаревшие записи в начале очереди
+     */
+    private void dropStale() {
+        while (!queue.isEmpty() && !queue.peek().endTest().equals(deadlines.get(queue.peek().userId()))) {
+            queue.poll();
+        }
+    }
+
+    /**
+     * Назначить пробуждение на ближайший срок
+     */
+    private void reschedule() {
+        dropStale();
+        Deadline head = queue.peek();
+        if (head != null && head.endTest().equals(wakeUpAt)) {
+            return;
+        }
+        if (wakeUp != null) {
+            wakeUp.cancel(false);
+            wakeUp = null;
+            wakeUpAt = null;
+        }
+        if (head == null) {
+            return;
+        }
+        //+1 мс: срок считается наступившим, когда end_test < now
+        long delay = Math.max(0, Duration.between(LocalDateTime.now(), head.endTest()).toMillis() + 1);
+        wakeUp = executor.schedule(this::fire, delay, TimeUnit.MILLISECONDS);
+        wakeUpAt = head.endTest();
+    }
+
+    private void fire() {
+        synchronized (this) {
+            wakeUp = null;
+            wakeUpAt = null;
+        }
+        List<Long> due = pollDue(LocalDateTime.now());
+        if (!due.isEmpty()) {
+            try {
+                int decided = timer.decideEndedProbation();
+                log.info("Probation ended for {} users, {} moved to DECISION", due.size(), decided);
+            } catch (RuntimeException e) {
+                log.error("Probation deadline processing failed, users {} are left to the scheduled check", due, e);
+            }
+        }
+        synchronized (this) {
+            reschedule();
+        }
+    }
+
+    /**
+     * Срок пользователя
+     */
+    private record Deadline(long userId, LocalDateTime endTest) {
+    }
+}
@@ -0,0 +1,127 @@
+package com.skypro.telegram_team.timer;
+
+import com.skypro.telegram_team.cluster.ClusterCoordinator;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * Блокировка заданий по расписанию в БД: при нескольких экземплярах приложения задание
+ * по каждому срабатыванию выполняет только один узел.
+ * <p>
+ * Блокировка выдается на время lock-at-most-for (аренда), если узел остановился во время выполнения,
+ * по истечении аренды задание сможет выполнить другой узел. После выполнения блокировка держится еще
+ * до lock-at-least-for с начала выполнения, чтобы узел, у которого часы отстают, не выполнил
+ * то же срабатывание повторно. Каждое выполнение записывается в историю (scheduled_job_runs).
+ */
+@Log4j2
+@Component
+public class ScheduledJobLock {
+    private static final String LOCK_EXPIRED = "UPDATE scheduled_job_locks SET locked_by = ?, locked_at = ?, " +
+            "locked_until = ? WHERE job_name = ? AND locked_until <= ?";
+    private static final String LOCK_NEW = "INSERT INTO scheduled_job_locks (job_name, locked_by, locked_at, " +
+            "locked_until) VALUES (?, ?, ?, ?)";
+    private static final String UNLOCK = "UPDATE scheduled_job_locks SET locked_until = ? " +
+            "WHERE job_name = ? AND locked_by = ? AND locked_at = ?";
+    private static final String INSERT_RUN = "INSERT INTO scheduled_job_runs (job_name, node_id, started_at, " +
+            "duration_ms, rows_touched, error) VALUES (?, ?, ?, ?, ?, ?)";
+    private final JdbcTemplate jdbcTemplate;
+    private final String nodeId;
+    private final Duration lockAtMostFor;
+    private final Duration lockAtLeastFor;
+
+    /**
+     * @param jdbcTemplate   доступ к базе данных
+     * @param nodeId         id узла, если не задан - pid@host
+     * @param lockAtMostFor  аренда блокировки, должна быть больше времени выполнения задания
+     * @param lockAtLeastFor минимальное время блокировки с начала выполнения, меньше интервала запуска задания
+     */
+    public ScheduledJobLock(JdbcTemplate jdbcTemplate,
+                            @Value("${telegram.bot.cluster.node-id:}") String nodeId,
+                            @Value("${telegram.bot.jobs.lock-at-most-for:30m}") Duration lockAtMostFor,
+                            @Value("${telegram.bot.jobs.lock-at-least-for:1m}") Duration lockAtLeastFor) {
+        if (lockAtLeastFor.compareTo(lockAtMostFor) > 0) {
+            throw new IllegalArgumentException("Expected lock-at-least-for <= lock-at-most-for");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.nodeId = nodeId.isEmpty() ? ClusterCoordinator.defaultNodeId() : nodeId;
+        this.lockAtMostFor = lockAtMostFor;
+        this.lockAtLeastFor = lockAtLeastFor;
+    }
+
+    /**
+     * Выполнить задание, если его блокировку удалось получить
+     *
+     * @param jobName имя задания
+     * @param job     задание, возвращает количество затронутых строк
+     * @return true - задание выполнено этим узлом, false - его выполняет или уже выполнил другой узел
+     */
+    public boolean runLocked(String jobName, IntSupplier job) {
+        //Время блокировки сравнивается при освобождении, точность ограничена точностью TIMESTAMP в БД
+        LocalDateTime lockedAt = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+        if (!tryLock(jobName, lockedAt)) {
+            log.info("Задание {} выполняется другим узлом", jobName);
+            return false;
+        }
+        long start = System.nanoTime();
+        Integer rowsTouched = null;
+        String error = null;
+        try {
+            rowsTouched = job.getAsInt();
+            return true;
+        } catch (RuntimeException e) {
+            error = e.toString();
+            throw e;
+        } finally {
+            long durationMs = Duration.ofNanos(System.nanoTime() - start).toMillis();
+            recordRun(jobName, lockedAt, durationMs, rowsTouched, error);
+            unlock(jobName, lockedAt);
+        }
+    }
+
+    private boolean tryLock(String jobName, LocalDateTime now) {
+        Timestamp lockedAt = Timestamp.valueOf(now);
+        Timestamp lockedUntil = Timestamp.valueOf(now.plus(lockAtMostFor));
+        if (jdbcTemplate.update(LOCK_EXPIRED, nodeId, lockedAt, lockedUntil, jobName, lockedAt) == 1) {
+            return true;
+        }
+        try {
+            return jdbcTemplate.update(LOCK_NEW, jobName, nodeId, lockedAt, lockedUntil) == 1;
+        } catch (DuplicateKeyException e) {
+            //блокировка задания есть и еще не истекла
+            return false;
+        }
+    }
+
+    /**
+     * Освободить блокировку, но не раньше lock-at-least-for с начала выполнения
+     */
+    private void unlock(String jobName, LocalDateTime lockedAt) {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime atLeastUntil = lockedAt.plus(lockAtLeastFor);
+        try {
+            jdbcTemplate.update(UNLOCK, Timestamp.valueOf(atLeastUntil.isAfter(now) ? atLeastUntil : now),
+                    jobName, nodeId, Timestamp.valueOf(lockedAt));
+        } catch (RuntimeException e) {
+            log.error("Блокировка задания {} не освобождена, она истечет через {}", jobName, lockAtMostFor, e);
+        }
+    }
+
+    private void recordRun(String jobName, LocalDateTime startedAt, long durationMs, Integer rowsTouched,
+                           String error) {
+        try {
+            jdbcTemplate.update(INSERT_RUN, jobName, nodeId, Timestamp.valueOf(startedAt), durationMs,
+                    rowsTouched, error);
+        } catch (RuntimeException e) {
+            log.error("Выполнение задания {} не записано в историю", jobName, e);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.skypro.telegram_team.timer;
+
+import java.time.Duration;
+
+/**
+ * Детерминированный разброс времени отправки напоминаний: напоминания одного запуска задания распределяются
+ * по окну, а не отправляются все в момент срабатывания расписания. Смещение зависит только от получателя,
+ * поэтому получатель каждый раз получает напоминание в одно и то же время от начала окна.
+ */
+final class SendJitter {
+
+    private SendJitter() {
+    }
+
+    /**
+     * Смещение отправки получателю от начала окна
+     *
+     * @param recipient id получателя
+     * @param window    окно, 0 - без разброса
+     * @return смещение в пределах [0, window)
+     */
+    static Duration offset(long recipient, Duration window) {
+        long windowMillis = window.toMillis();
+        if (windowMillis <= 0) {
+            return Duration.ZERO;
+        }
+        return Duration.ofMillis(Math.floorMod(mix(recipient), windowMillis));
+    }
+
+    /**
+     * Перемешивание битов (финализатор SplitMix64), чтобы соседние id получали далекие смещения
+     */
+    private static long mix(long value) {
+        long z = value * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
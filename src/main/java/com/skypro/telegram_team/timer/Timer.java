@@ -1,34 +1,49 @@
 package com.skypro.telegram_team.timer;
 
-import com.pengrad.telegrambot.TelegramBot;
-import com.pengrad.telegrambot.model.request.ParseMode;
-import com.pengrad.telegrambot.request.SendMessage;
 import com.skypro.telegram_team.models.Animal;
-import com.skypro.telegram_team.models.Report;
 import com.skypro.telegram_team.models.User;
+import com.skypro.telegram_team.repositories.LastReportProjection;
+import com.skypro.telegram_team.repositories.UserStateProjection;
+import com.skypro.telegram_team.sender.NotificationOutbox;
 import com.skypro.telegram_team.services.AnimalService;
 import com.skypro.telegram_team.services.ReportService;
 import com.skypro.telegram_team.services.UserService;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
+import java.time.temporal.ChronoUnit;
 import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
 
 @Log4j2
 @Component
 @RequiredArgsConstructor
 @EnableScheduling
 public class Timer {
-    private final TelegramBot telegramBot;
+    private final NotificationOutbox outbox;
+    private final VolunteerDigestEvents digestEvents;
     private final AnimalService animalService;
     private final ReportService reportService;
     private final UserService userService;
+    private final MeterRegistry meterRegistry;
+    private final ScheduledJobLock jobLock;
+    private final TransactionTemplate transactionTemplate;
+    //Сколько строк читается и изменяется за один запрос, следующая страница читается после обработки предыдущей
+    @Value("${telegram.bot.jobs.page-size:500}")
+    private int pageSize;
+    //Напоминания одного запуска распределяются по окну (SendJitter), уведомления о переходах отправляются сразу
+    @Value("${telegram.bot.jobs.reminders.window:30m}")
+    private Duration reminderWindow;
 
 
     /**
@@ -41,178 +56,305 @@ public class Timer {
      * DECISION - Отправляется сообщение усыновителю об окончании испытательного срока, волонтер принимает решение.
      * PROLONGED - испытательный срок продлен и отправлено сообщение усыновителю о сроке продления.
      * PROBATION - испытательный срок 30 дней, устанавливается автоматически при связывании животного с пользователем,
-     * а так же при продлении испытательного срока на срок указанный волонтером.
+     * а так же при продлении испытательного срока на срок указанный волонтером. По окончании срока пользователь
+     * переводится в DECISION сразу ({@link ProbationDeadlines}), проверка по расписанию переводит пропущенных.
+     * Каждый переход статуса выполняется одним запросом к БД, уведомления по измененным строкам записываются
+     * в {@link NotificationOutbox}, а события сводки для волонтеров ({@link VolunteerDigest}) -
+     * в {@link VolunteerDigestEvents} в той же транзакции. В конце проверки записанные события и напоминания
+     * ожидающим решения отправляются одной сводкой каждому волонтеру.
      */
 //    @Scheduled(cron = "0 32 13 * * *")// demo
     @Scheduled(cron = "0 0 9-18/3 * * *")
     void checkAndChangeUsersStatus() {
+        recordJob("checkAndChangeUsersStatus", this::changeUsersStatus);
+    }
 
-        List<User> acceptedUsers = changeStateAcceptedToAdoptedAndCollect();
-        List<Animal> acceptedAnimals = changeStateAcceptedToHappyEndAndCollect();
+    private int changeUsersStatus() {
+        VolunteerDigest digest = new VolunteerDigest();
+        String runHour = runHour(LocalDateTime.now());
 
-        List<User> refusedUsers = changeStateRefusedToBlackListAndCollect();
-        List<Animal> backInShelterAnimals = changeStateRefusedToInShelterListAndCollect();
+        //Животные меняют статус по статусу пользователя до его изменения в этой проверке
+        int rowsTouched = changeStateAcceptedToHappyEnd();
+        rowsTouched += changeStateRefusedToInShelter();
 
-        List<User> prolongedUsers = findStateProlongedAndCollect();
+        rowsTouched += changeStateAcceptedToAdopted();
+        rowsTouched += changeStateRefusedToBlackList();
+        rowsTouched += findStateProlonged();
+        rowsTouched += decisionMakingOfVolunteersAboutUsers(digest);
 
-        List<User> decisionAboutUsers = decisionMakingOfVolunteersAboutUsers();
+        //События переходов забираются в сводку в одной транзакции с ее записью
+        transactionTemplate.executeWithoutResult(status -> {
+            long lastEvent = digestEvents.takeInto(digest);
+            sendDigest(digest, "usersStatus:" + runHour + ":" + lastEvent);
+        });
+        return rowsTouched;
+    }
 
-        List<User> saveChangesOfUsers = new ArrayList<>();
-        saveChangesOfUsers.addAll(acceptedUsers);
-        saveChangesOfUsers.addAll(refusedUsers);
-        saveChangesOfUsers.addAll(prolongedUsers);
-        saveChangesOfUsers.addAll(decisionAboutUsers); // объединяем все в один массив
 
-        List<Animal> saveChangesOfAnimals = new ArrayList<>();
-        saveChangesOfAnimals.addAll(acceptedAnimals);
-        saveChangesOfAnimals.addAll(backInShelterAnimals); // объединяем все в один массив
+    int changeStateAcceptedToAdopted() {
+        log.info("Проверяем и изменяем статус пользователей со статусом ACCEPTED на ADOPTED");
+        return changeStateInPages(() -> userService.changeState(User.OwnerStateEnum.ACCEPTED,
+                User.OwnerStateEnum.ADOPTED, pageSize), "adopted", (user, digest) -> {
+            sendMessage(eventKey("adopted", user), user.getTelegramId(), LocalDateTime.now(),
+                    String.format("Уважаемый %s %s Поздравляем, вы прошли пробный период!",
+                            user.getName(), user.getSurname()));
+            digest.add(VolunteerDigest.Section.ADOPTED, fullName(user));
+        });
+    }
 
-        saveChangesOfUsers.forEach(user -> userService.update(user, user.getId())); // обновляем изменения в БД
-        saveChangesOfAnimals.forEach(animal -> animalService.update(animal, animal.getId()));
+    int changeStateRefusedToBlackList() {
+        log.info("Проверяем и изменяем статус пользователей со статусом REFUSE на BLACKLIST");
+        return changeStateInPages(() -> userService.changeState(User.OwnerStateEnum.REFUSE,
+                User.OwnerStateEnum.BLACKLIST, pageSize), "blacklist", (user, digest) -> {
+            sendMessage(eventKey("blacklist", user), user.getTelegramId(), LocalDateTime.now(),
+                    String.format("Уважаемый %s %s Вы НЕ прошли пробный период! " +
+                            "Пожалуйста сдайте собаку в приют!", user.getName(), user.getSurname()));
+            digest.add(VolunteerDigest.Section.REFUSED, fullName(user));
+        });
     }
 
+    int findStateProlonged() {
+        log.info("Проверяем статус пользователей со статусом PROLONGED и сообщаем.");
+        return changeStateInPages(() -> userService.changeState(User.OwnerStateEnum.PROLONGED,
+                User.OwnerStateEnum.PROBATION, pageSize), "prolonged", (user, digest) -> {
+            long days = Duration.between(user.getEndTest(), LocalDateTime.now()).toDays();
+            sendMessage(eventKey("prolonged", user), user.getTelegramId(), LocalDateTime.now(), String.format(
+                    "Уважаемый %s %s, мы решили продлить пробный период на %s дней!",
+                    user.getName(), user.getSurname(), days));
+            digest.add(VolunteerDigest.Section.PROLONGED, String.format("%s на %s дней", fullName(user), days));
+        });
+    }
 
-    List<User> changeStateAcceptedToAdoptedAndCollect() {
-        log.info("Проверяем и изменяем статус пользователей со статусом ACCEPTED на ADOPTED");
-        List<User> sortUsersWithStateAccepted = userService.findByState(User.OwnerStateEnum.ACCEPTED).stream()
-                .peek(user -> user.setState(User.OwnerStateEnum.ADOPTED)).toList();
+    int decisionMakingOfVolunteersAboutUsers(VolunteerDigest digest) {
+        log.info("Проверяем статус пользователей со статусом PROBATION и DECISION");
+        //Напоминание ожидающим решения с прошлых проверок - до перевода новых, иначе они получили бы его дважды
+        LocalDateTime now = LocalDateTime.now();
+        String runHour = runHour(now);
+        int waitingUsers = Pages.forEach((UserStateProjection last) -> userService.findStateProjectionsByState(
+                        User.OwnerStateEnum.DECISION, last == null ? 0 : last.getId(), pageSize), pageSize,
+                user -> notifyDecision("decisionReminder:" + user.getId() + ":" + runHour, user,
+                        reminderAt(now, user.getTelegramId()), digest));
+        return waitingUsers + changeStateOfEndedProbation();
+    }
 
-        sortUsersWithStateAccepted.forEach(user -> {
-            sendMessage(user.getTelegramId(),
-                    String.format("Уважаемый %s %s Поздравляем, вы прошли пробный период!",
-                            user.getName(), user.getSurname()));
-            userService.findVolunteers().forEach(volunteer -> sendMessage(volunteer.getTelegramId(),
-                    String.format("Одобрение на усыновление подтверждено у %s %s.",
-                            user.getName(), user.getSurname())));
+    /**
+     * Перевести в DECISION пользователей, у которых закончился испытательный срок, сразу по его окончании
+     * (вызывается {@link ProbationDeadlines}), и уведомить их. Волонтеры узнают о них из сводки следующей проверки.
+     * Перевод выполняется одним запросом, поэтому пользователь получает уведомление один раз,
+     * даже если срок одновременно обработали несколько узлов или проверка по расписанию.
+     *
+     * @return количество переведенных пользователей
+     */
+    int decideEndedProbation() {
+        return meterRegistry.timer("bot.job", "job", "probationDeadline").record(this::changeStateOfEndedProbation);
+    }
 
-        });
-        return sortUsersWithStateAccepted;
-    }
-
-    List<User> changeStateRefusedToBlackListAndCollect() {
-        log.info("Проверяем и изменяем статус пользователей со статусом REFUSE на BLACKLIST");
-        List<User> sortUsersWithStateRefused = userService.findByState(User.OwnerStateEnum.REFUSE).stream()
-                .peek(user -> user.setState(User.OwnerStateEnum.BLACKLIST)).toList();
-
-        sortUsersWithStateRefused.stream()
-                .peek(user -> user.setState(User.OwnerStateEnum.BLACKLIST))
-                .forEach(user -> {
-                    sendMessage(user.getTelegramId(),
-                            String.format("Уважаемый %s %s Вы НЕ прошли пробный период! " +
-                                    "Пожалуйста сдайте собаку в приют!", user.getName(), user.getSurname()));
-                    userService.findVolunteers().forEach(volunteer -> sendMessage(volunteer.getTelegramId(),
-                            String.format("Отказ подтвержден у %s %s.",
-                                    user.getName(), user.getSurname())));
-                });
-        return sortUsersWithStateRefused;
-    }
-
-    List<User> findStateProlongedAndCollect() {
-        log.info("Проверяем статус пользователей со статусом PROLONGED и сообщаем.");
-        List<User> prolongedUsers = userService.findByState(User.OwnerStateEnum.PROLONGED).stream()
-                .toList();
-
-        prolongedUsers.stream()
-                .peek(user -> user.setState(User.OwnerStateEnum.PROBATION))
-                .forEach(user -> {
-                    sendMessage(user.getTelegramId(), String.format(
-                            "Уважаемый %s %s, мы решили продлить пробный период на %s дней!",
-                            user.getName(), user.getSurname(),
-                            Duration.between(user.getEndTest(), LocalDateTime.now()).toDays()));
-                    userService.findVolunteers().forEach(volunteer -> sendMessage(volunteer.getTelegramId(),
-                            String.format("Подтверждено продление у %s %s на %s дней!",
-                                    user.getName(), user.getSurname(),
-                                    Duration.between(user.getEndTest(), LocalDateTime.now()).toDays())));
-                });
-        return prolongedUsers;
-    }
-
-    List<User> decisionMakingOfVolunteersAboutUsers() {
-        log.info("Проверяем статус пользователей со статусом PROBATION и DECISION");
-        List<User> decisionAboutUsers = new ArrayList<>(userService.findByState(User.OwnerStateEnum.PROBATION).stream()
-                .filter(user -> user.getEndTest().isBefore(LocalDateTime.now()))
-                .toList());
-
-        decisionAboutUsers.addAll(userService.findByState(User.OwnerStateEnum.DECISION));
-
-        decisionAboutUsers.stream()
-                .peek(user -> user.setState(User.OwnerStateEnum.DECISION))
-                .forEach(user -> {
-                    sendMessage(user.getTelegramId(), String.format(
-                            "Уважаемый %s %s, у Вас закончился испытательный срок," +
-                                    " пожалуйста дождитесь принятия решения волонтером о вашем животном!",
-                            user.getName(), user.getSurname()));
+    private int changeStateOfEndedProbation() {
+        LocalDateTime now = LocalDateTime.now();
+        return changeStateInPages(() -> userService.changeStateOfEndedProbation(now, pageSize), "decision",
+                (user, digest) -> notifyDecision(eventKey("decision", user), user, LocalDateTime.now(), digest));
+    }
 
-                    userService.findVolunteers().forEach(volunteer -> sendMessage(volunteer.getTelegramId(),
-                            String.format("Принять решение об усыновлении" +
-                                    " животного у %s %s.", user.getName(), user.getSurname())));
-                });
-        return decisionAboutUsers;
+    private void notifyDecision(String key, UserStateProjection user, LocalDateTime sendAt,
+                                VolunteerDigest digest) {
+        sendMessage(key, user.getTelegramId(), sendAt, String.format(
+                "Уважаемый %s %s, у Вас закончился испытательный срок," +
+                        " пожалуйста дождитесь принятия решения волонтером о вашем животном!",
+                user.getName(), user.getSurname()));
+        digest.add(VolunteerDigest.Section.DECISION, fullName(user));
     }
 
-    List<Animal> changeStateRefusedToInShelterListAndCollect() {
-        return animalService.findByUserState(User.OwnerStateEnum.BLACKLIST).stream().
-                peek(animal -> animal.setState(Animal.AnimalStateEnum.IN_SHELTER)).toList();
+    /**
+     * Переводить пользователей страницами, пока есть кого переводить: перевод страницы, уведомления по ней
+     * и события сводки для волонтеров ({@link VolunteerDigestEvents}) записываются в одной транзакции
+     *
+     * @param changeState перевод страницы, возвращает измененных пользователей
+     * @param event       событие для ключей идемпотентности
+     * @param notify      уведомление об изменении пользователя и запись события в сводку страницы
+     * @return количество переведенных пользователей
+     */
+    private int changeStateInPages(Supplier<List<UserStateProjection>> changeState, String event,
+                                   BiConsumer<UserStateProjection, VolunteerDigest> notify) {
+        return Pages.forEach((UserStateProjection last) -> transactionTemplate.execute(status -> {
+            List<UserStateProjection> changed = changeState.get();
+            VolunteerDigest digest = new VolunteerDigest();
+            changed.forEach(user -> notify.accept(user, digest));
+            digestEvents.stage(digest);
+            return changed;
+        }), pageSize, user -> {
+        });
     }
 
-    List<Animal> changeStateAcceptedToHappyEndAndCollect() {
-        return animalService.findByUserState(User.OwnerStateEnum.ADOPTED).stream().
-                peek(animal -> animal.setState(Animal.AnimalStateEnum.HAPPY_END)).toList();
+    int changeStateRefusedToInShelter() {
+        return animalService.changeStateByUserState(User.OwnerStateEnum.BLACKLIST, Animal.AnimalStateEnum.IN_SHELTER);
+    }
+
+    int changeStateAcceptedToHappyEnd() {
+        return animalService.changeStateByUserState(User.OwnerStateEnum.ADOPTED, Animal.AnimalStateEnum.HAPPY_END);
     }
 
 //    @Scheduled(cron = "0 02 06 * * *")// demo
     @Scheduled(cron = "0 0 8-21/4 * * *")
 // every 4 hours from 8 to 21 (cron = "0 40 21 * * *")
     void checkingDailyAndTwoDaysReportFromUsers() {
-        log.info("Проверяем отчеты за день и за два дня от пользователей");
+        recordJob("checkingDailyAndTwoDaysReportFromUsers", this::checkReports);
+    }
 
-        LocalDateTime twoDaysAgo = LocalDateTime.now().minusDays(2).withHour(0);
-        LocalDateTime yesterdayAt0AM = LocalDateTime.now().minusDays(1).withHour(0);
+    private int checkReports() {
+        log.info("Проверяем отчеты за день и за два дня от пользователей");
 
-        List<Animal> animals = animalService.findAllByUserIdNotNullAndState(Animal.AnimalStateEnum.IN_TEST);
-        List<User> usersWithoutReportForTwoDays = new ArrayList<>();
-        List<User> usersWithoutDailyReport = new ArrayList<>();
+        VolunteerDigest digest = new VolunteerDigest();
+        ReportReminders reminders = new ReportReminders(LocalDateTime.now(), digest);
+        //Страницами по (id усыновителя, id животного): дата последнего отчета по каждому животному на испытательном сроке
+        int rows = Pages.forEach(last -> reportService.findLastReportDates(Animal.AnimalStateEnum.IN_TEST,
+                        last == null ? 0 : last.getUserId(), last == null ? 0 : last.getAnimalId(), pageSize),
+                pageSize, reminders::accept);
+        reminders.flush();
 
-        animals.forEach(animal -> {
-            User user = animal.getUser();
-            int testDays = 30;
-            List<Report> reports = reportService.findByAnimalId(animal.getId());
-            if (reports.size() == 0 && user.getEndTest().minusDays(testDays - 1).isBefore(LocalDateTime.now())) {
-                usersWithoutDailyReport.add(user);
-            }
-            if ((reports.size() == 0 && user.getEndTest().minusDays(testDays - 2).isBefore(LocalDateTime.now())) ||
-                    (reports.size() != 0 && reports.get(reports.size() - 1).getDate().isBefore(twoDaysAgo))) {
-                usersWithoutReportForTwoDays.add(user);
-            } else if (reports.size() != 0 && !usersWithoutReportForTwoDays.contains(user) &&
-                    reports.get(reports.size() - 1).getDate().isBefore(yesterdayAt0AM)) {
-                usersWithoutDailyReport.add(user);
+        sendDigest(digest, "reports:" + runHour(reminders.now));
+        return rows;
+    }
+
+    /**
+     * Отправить сводку каждому волонтеру: список волонтеров загружается один раз за сводку, то есть один раз
+     * за запуск задания - страницы переходов его не загружают, а только записывают события сводки.
+     * Каждый волонтер получает одно сообщение (несколько, если сводка длиннее ограничения телеграм).
+     * Сводка записывается всем волонтерам в текущей транзакции или в новой, если текущей нет.
+     *
+     * @param digest сводка, пустая сводка не отправляется
+     * @param key    ключ идемпотентности сводки, сводка с тем же ключом записывается один раз
+     */
+    void sendDigest(VolunteerDigest digest, String key) {
+        if (digest.isEmpty()) {
+            return;
+        }
+        List<String> messages = digest.render(VolunteerDigest.MAX_MESSAGE_LENGTH);
+        transactionTemplate.executeWithoutResult(status -> userService.findVolunteers().forEach(volunteer -> {
+            for (int i = 0; i < messages.size(); i++) {
+                sendMessage("digest:" + key + ":" + volunteer.getTelegramId() + ":" + i,
+                        volunteer.getTelegramId(), LocalDateTime.now(), messages.get(i));
             }
-        });
+        }));
+    }
 
-        usersWithoutReportForTwoDays.forEach(user -> {
-            userService.findVolunteers().forEach(volunteer -> sendMessage(volunteer.getTelegramId(),
-                    String.format("Последний отчет был принят более двух дней у : %s %s.",
-                            user.getName(), user.getSurname())));
-            sendMessage(user.getTelegramId(),
-                    "Последний отчет был принят более двух дней! Пожалуйста, сдайте отчет.");
-        });
+    private static String fullName(UserStateProjection user) {
+        return String.format("%s %s", user.getName(), user.getSurname());
+    }
+
+    /**
+     * Время отправки напоминания получателю: запуск задания плюс смещение получателя в окне напоминаний
+     */
+    private LocalDateTime reminderAt(LocalDateTime runAt, long chatId) {
+        return runAt.plus(SendJitter.offset(chatId, reminderWindow));
+    }
+
+    /**
+     * Ключ идемпотентности уведомления о переходе статуса: событие, пользователь и окончание его испытательного срока,
+     * поэтому повторный переход (например, после следующего продления) уведомляется заново
+     */
+    private static String eventKey(String event, UserStateProjection user) {
+        return event + ":" + user.getId() + ":" + user.getEndTest();
+    }
+
+    /**
+     * Час запуска для ключей идемпотентности напоминаний: при повторном выполнении задания в тот же час
+     * напоминание не записывается повторно
+     */
+    private static String runHour(LocalDateTime now) {
+        return now.truncatedTo(ChronoUnit.HOURS).toString();
+    }
 
-        usersWithoutDailyReport.forEach(user -> sendMessage(user.getTelegramId(),
-                "Здравствуйте, вчера от вас не поступал отчет о собаке. Пожалуйста, сдайте отчет."));
+    /**
+     * Напоминания об отчетах по одному усыновителю за раз: у усыновителя может быть несколько животных,
+     * строки одного усыновителя идут подряд, напоминание отправляется после его последней строки.
+     */
+    private class ReportReminders {
+        private static final int TEST_DAYS = 30;
+        private final LocalDateTime now;
+        private final LocalDateTime twoDaysAgo;
+        private final LocalDateTime yesterdayAt0AM;
+        private final VolunteerDigest digest;
+        private final String runHour;
+        private LastReportProjection user;
+        private boolean withoutReportForTwoDays;
+        private boolean withoutAnyReport;
+        private boolean withoutDailyReport;
+
+        ReportReminders(LocalDateTime now, VolunteerDigest digest) {
+            this.now = now;
+            this.twoDaysAgo = now.minusDays(2).withHour(0);
+            this.yesterdayAt0AM = now.minusDays(1).withHour(0);
+            this.digest = digest;
+            this.runHour = runHour(now);
+        }
+
+        void accept(LastReportProjection lastReport) {
+            if (user != null && user.getUserId() != lastReport.getUserId()) {
+                flush();
+            }
+            user = lastReport;
+            LocalDateTime lastReportDate = lastReport.getLastReportDate();
+            if (lastReportDate == null) {
+                withoutAnyReport |= lastReport.getEndTest().minusDays(TEST_DAYS - 1).isBefore(now);
+                withoutReportForTwoDays |= lastReport.getEndTest().minusDays(TEST_DAYS - 2).isBefore(now);
+            } else if (lastReportDate.isBefore(twoDaysAgo)) {
+                withoutReportForTwoDays = true;
+            } else {
+                withoutDailyReport |= lastReportDate.isBefore(yesterdayAt0AM);
+            }
+        }
+
+        /**
+         * Отправить напоминания текущему усыновителю
+         */
+        void flush() {
+            if (user == null) {
+                return;
+            }
+            if (withoutReportForTwoDays) {
+                digest.add(VolunteerDigest.Section.NO_REPORT_FOR_TWO_DAYS,
+                        String.format("%s %s", user.getName(), user.getSurname()));
+                sendMessage("reportTwoDays:" + user.getUserId() + ":" + runHour, user.getTelegramId(),
+                        reminderAt(now, user.getTelegramId()),
+                        "Последний отчет был принят более двух дней! Пожалуйста, сдайте отчет.");
+            }
+            if (withoutAnyReport || (withoutDailyReport && !withoutReportForTwoDays)) {
+                sendMessage("reportDaily:" + user.getUserId() + ":" + runHour, user.getTelegramId(),
+                        reminderAt(now, user.getTelegramId()),
+                        "Здравствуйте, вчера от вас не поступал отчет о собаке. Пожалуйста, сдайте отчет.");
+            }
+            user = null;
+            withoutReportForTwoDays = false;
+            withoutAnyReport = false;
+            withoutDailyReport = false;
+        }
+    }
+
+    /**
+     * Выполнить задание, если его не выполняет другой экземпляр приложения ({@link ScheduledJobLock}),
+     * с записью времени выполнения (метрика bot.job)
+     *
+     * @param name имя задания
+     * @param job  задание, возвращает количество затронутых строк
+     */
+    private void recordJob(String name, IntSupplier job) {
+        jobLock.runLocked(name, () -> meterRegistry.timer("bot.job", "job", name).record(job::getAsInt));
     }
 
     /**
-     * Отправляет текстовое сообщение в заданный чат.
+     * Записывает текстовое сообщение в заданный чат в {@link NotificationOutbox} в текущей транзакции,
+     * сообщение отправляется после ее фиксации.
      *
+     * @param key    ключ идемпотентности, сообщение с тем же ключом записывается один раз
      * @param chatId идентификатор чата, куда нужно отправить сообщение
+     * @param sendAt не отправлять раньше этого времени
      * @param text   текст сообщения
      */
-    private void sendMessage(long chatId, String text) {
-        log.info("Отправляем сообщение в чат {} сообщением {}", chatId, text);
-        SendMessage request = new SendMessage(chatId, text)
-                .parseMode(ParseMode.HTML)
-                .disableWebPagePreview(true)
-                .disableNotification(true);
-        telegramBot.execute(request);
+    private void sendMessage(String key, long chatId, LocalDateTime sendAt, String text) {
+        if (outbox.enqueue(key, chatId, text, sendAt)) {
+            log.info("Отправляем сообщение в чат {} в {} сообщением {}", chatId, sendAt, text);
+        } else {
+            log.info("Сообщение {} уже записано, повторно не отправляется", key);
+        }
     }
 }
@@ -0,0 +1,115 @@
+package com.skypro.telegram_team.timer;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Сводка событий таймера для волонтеров.
+ * <p>
+ * Этапы таймера добавляют события по разделам: переходы статуса - в сводку своей страницы, события которой
+ * записываются в {@link VolunteerDigestEvents} в одной транзакции с переходом, напоминания - в сводку запуска,
+ * которая в конце запуска объединяется с записанными событиями и отправляется.
+ * Сводка отправляется каждому волонтеру одним сообщением (или несколькими, если текст не помещается
+ * в ограничение телеграм на длину сообщения).
+ */
+class VolunteerDigest {
+    /**
+     * Ограничение телеграм на длину текста сообщения
+     */
+    static final int MAX_MESSAGE_LENGTH = 4096;
+    private static final String TITLE = "Сводка для волонтеров";
+    private final Map<Section, List<String>> events = new EnumMap<>(Section.class);
+
+    /**
+     * Добавить событие в раздел
+     *
+     * @param section раздел
+     * @param event   текст события
+     */
+    void add(Section section, String event) {
+        events.computeIfAbsent(section, key -> new ArrayList<>()).add(event);
+    }
+
+    boolean isEmpty() {
+        return events.isEmpty();
+    }
+
+    /**
+     * Перебрать события по разделам в порядке вывода
+     *
+     * @param action раздел и текст события
+     */
+    void forEach(BiConsumer<Section, String> action) {
+        events.forEach((section, sectionEvents) -> sectionEvents.forEach(event -> action.accept(section, event)));
+    }
+
+    /**
+     * Текст сводки (parse mode HTML), разбитый на сообщения не длиннее maxLength.
+     * Сообщение разбивается по строкам, в начале продолжения раздела повторяется его заголовок.
+     *
+     * @param maxLength максимальная длина сообщения
+     * @return сообщения по порядку, пустой список, если событий нет
+     */
+    List<String> render(int maxLength) {
+        List<String> messages = new ArrayList<>();
+        if (events.isEmpty()) {
+            return messages;
+        }
+        StringBuilder message = new StringBuilder("<b>").append(TITLE).append("</b>\n");
+        for (Map.Entry<Section, List<String>> entry : events.entrySet()) {
+            String header = "\n<b>" + entry.getKey().getTitle() + ":</b>";
+            boolean headerWritten = false;
+            for (String event : entry.getValue()) {
+                String line = "\n- " + escape(event);
+                if (line.length() + header.length() > maxLength) {
+                    line = line.substring(0, maxLength - header.length());
+                }
+                int required = line.length() + (headerWritten ? 0 : header.length());
+                if (message.length() + required > maxLength) {
+                    messages.add(message.toString().strip());
+                    message.setLength(0);
+                    headerWritten = false;
+                }
+                if (!headerWritten) {
+                    message.append(header);
+                    headerWritten = true;
+                }
+                message.append(line);
+            }
+            message.append('\n');
+        }
+        messages.add(message.toString().strip());
+        return messages;
+    }
+
+    /**
+     * Экранирование текста события для parse mode HTML
+     */
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    /**
+     * Разделы сводки в порядке вывода
+     */
+    enum Section {
+        ADOPTED("Одобрение на усыновление подтверждено"),
+        REFUSED("Отказ подтвержден"),
+        PROLONGED("Подтверждено продление"),
+        DECISION("Принять решение об усыновлении животного"),
+        NO_REPORT_FOR_TWO_DAYS("Последний отчет был принят более двух дней назад");
+
+        private final String title;
+
+        Section(String title) {
+            this.title = title;
+        }
+
+        String getTitle() {
+            return title;
+        }
+    }
+}
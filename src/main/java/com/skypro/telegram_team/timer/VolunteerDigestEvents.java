@@ -0,0 +1,72 @@
+package com.skypro.telegram_team.timer;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * События сводки для волонтеров, ожидающие отправки (таблица volunteer_digest_events).
+ * <p>
+ * Переходы статуса записывают события своей страницы в той же транзакции, что и переход,
+ * а проверка статусов в конце запуска забирает все записанные события в одну сводку,
+ * поэтому каждый волонтер получает одну сводку за запуск, сколько бы ни было страниц.
+ * События, записанные вне проверки (переход по окончании испытательного срока), попадают в сводку следующей проверки.
+ */
+@Component
+class VolunteerDigestEvents {
+    private static final String INSERT = "INSERT INTO volunteer_digest_events (section, event, created_at) " +
+            "VALUES (?, ?, ?)";
+    private static final String SELECT = "SELECT id, section, event FROM volunteer_digest_events ORDER BY id FOR UPDATE";
+    private static final String DELETE = "DELETE FROM volunteer_digest_events WHERE id = ANY (?)";
+    private final JdbcTemplate jdbcTemplate;
+
+    VolunteerDigestEvents(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Записать события сводки в текущей транзакции
+     *
+     * @param digest события, пустая сводка не записывается
+     */
+    void stage(VolunteerDigest digest) {
+        if (digest.isEmpty()) {
+            return;
+        }
+        List<Object[]> rows = new ArrayList<>();
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        digest.forEach((section, event) -> rows.add(new Object[]{section.name(), event, now}));
+        jdbcTemplate.batchUpdate(INSERT, rows);
+    }
+
+    /**
+     * Забрать записанные события в сводку в текущей транзакции: события удаляются из таблицы,
+     * при откате транзакции они останутся для следующей сводки
+     *
+     * @param digest сводка, в которую добавляются события в порядке записи
+     * @return id последнего забранного события, 0 - событий нет
+     */
+    long takeInto(VolunteerDigest digest) {
+        List<Long> ids = new ArrayList<>();
+        jdbcTemplate.query(SELECT, rs -> {
+            ids.add(rs.getLong("id"));
+            digest.add(VolunteerDigest.Section.valueOf(rs.getString("section")), rs.getString("event"));
+        });
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(DELETE);
+            Array array = connection.createArrayOf("bigint", ids.toArray());
+            statement.setArray(1, array);
+            return statement;
+        });
+        return ids.get(ids.size() - 1);
+    }
+}
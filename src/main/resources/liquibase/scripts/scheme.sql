@@ -210,3 +210,176 @@ ALTER TABLE reports
 ALTER TABLE reports
     ADD COLUMN photo BYTEA;
 
+-- changeSet 11th:10
+CREATE TABLE IF NOT EXISTS update_checkpoints
+(
+    name       VARCHAR(50) PRIMARY KEY NOT NULL,
+    update_id  INT                     NOT NULL,
+    updated_at TIMESTAMP
+);
+
+-- changeSet 11th:11
+CREATE TABLE IF NOT EXISTS buffered_questions
+(
+    question_key      BIGINT PRIMARY KEY NOT NULL,
+    question_id       INT,
+    user_chat_id      BIGINT,
+    volunteer_chat_id BIGINT,
+    question          TEXT,
+    answer            TEXT,
+    updated_at        TIMESTAMP          NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS buffered_requests
+(
+    chat_id           BIGINT PRIMARY KEY NOT NULL,
+    user_phone        BOOLEAN            NOT NULL,
+    user_email        BOOLEAN            NOT NULL,
+    report_photo      BOOLEAN            NOT NULL,
+    report_diet       BOOLEAN            NOT NULL,
+    report_behavior   BOOLEAN            NOT NULL,
+    report_well_being BOOLEAN            NOT NULL,
+    updated_at        TIMESTAMP          NOT NULL
+);
+
+-- changeSet 11th:12
+ALTER TABLE buffered_questions
+    ADD COLUMN volunteer_message_id INT;
+
+-- changeSet 11th:13
+CREATE TABLE IF NOT EXISTS cluster_nodes
+(
+    node_id      VARCHAR(100) PRIMARY KEY NOT NULL,
+    heartbeat_at TIMESTAMP                NOT NULL,
+    ingress      BOOLEAN                  NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS cluster_updates
+(
+    id           BIGSERIAL PRIMARY KEY,
+    update_id    INT       NOT NULL UNIQUE,
+    partition_no INT       NOT NULL,
+    payload      TEXT      NOT NULL,
+    claimed_by   VARCHAR(100),
+    claimed_at   TIMESTAMP,
+    created_at   TIMESTAMP NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS cluster_updates_partition_idx ON cluster_updates (partition_no, id);
+
+-- changeSet 11th:14
+CREATE TABLE IF NOT EXISTS scheduled_job_locks
+(
+    job_name     VARCHAR(100) PRIMARY KEY NOT NULL,
+    locked_by    VARCHAR(100)             NOT NULL,
+    locked_at    TIMESTAMP                NOT NULL,
+    locked_until TIMESTAMP                NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS scheduled_job_runs
+(
+    id           BIGSERIAL PRIMARY KEY,
+    job_name     VARCHAR(100) NOT NULL,
+    node_id      VARCHAR(100) NOT NULL,
+    started_at   TIMESTAMP    NOT NULL,
+    duration_ms  BIGINT       NOT NULL,
+    rows_touched INT,
+    error        TEXT
+);
+
+CREATE INDEX IF NOT EXISTS scheduled_job_runs_job_idx ON scheduled_job_runs (job_name, started_at);
+
+-- changeSet 11th:15
+CREATE TABLE IF NOT EXISTS notification_outbox
+(
+    id              BIGSERIAL PRIMARY KEY,
+    idempotency_key VARCHAR(200) NOT NULL UNIQUE,
+    chat_id         BIGINT       NOT NULL,
+    text            TEXT         NOT NULL,
+    created_at      TIMESTAMP    NOT NULL,
+    attempts        INT          NOT NULL DEFAULT 0,
+    next_attempt_at TIMESTAMP    NOT NULL,
+    claimed_by      VARCHAR(100),
+    claimed_at      TIMESTAMP,
+    sent_at         TIMESTAMP,
+    failed_at       TIMESTAMP,
+    error           TEXT
+);
+
+CREATE INDEX IF NOT EXISTS notification_outbox_pending_idx ON notification_outbox (next_attempt_at, id)
+    WHERE sent_at IS NULL AND failed_at IS NULL;
+
+-- changeSet 11th:16
+CREATE INDEX IF NOT EXISTS reports_user_date_idx ON reports (user_id, date);
+
+-- changeSet 11th:17
+CREATE TABLE IF NOT EXISTS photos
+(
+    id   BIGSERIAL PRIMARY KEY NOT NULL,
+    data BYTEA                 NOT NULL
+);
+
+ALTER TABLE animals
+    ADD COLUMN photo_id BIGINT;
+
+UPDATE animals
+SET photo_id = nextval('photos_id_seq')
+WHERE photo IS NOT NULL;
+
+INSERT INTO photos (id, data)
+SELECT photo_id, photo
+FROM animals
+WHERE photo_id IS NOT NULL;
+
+ALTER TABLE animals
+    DROP COLUMN photo,
+    ADD CONSTRAINT animals_photo_id_fkey FOREIGN KEY (photo_id) REFERENCES photos (id);
+
+ALTER TABLE reports
+    ADD COLUMN photo_id BIGINT;
+
+UPDATE reports
+SET photo_id = nextval('photos_id_seq')
+WHERE photo IS NOT NULL;
+
+INSERT INTO photos (id, data)
+SELECT photo_id, photo
+FROM reports
+WHERE photo_id IS NOT NULL;
+
+ALTER TABLE reports
+    DROP COLUMN photo,
+    ADD CONSTRAINT reports_photo_id_fkey FOREIGN KEY (photo_id) REFERENCES photos (id);
+
+-- changeSet 11th:18
+ALTER TABLE buffered_questions
+    ADD COLUMN partition_no INT;
+
+ALTER TABLE buffered_requests
+    ADD COLUMN partition_no INT;
+
+CREATE INDEX IF NOT EXISTS buffered_questions_partition_idx ON buffered_questions (partition_no, question_key);
+
+CREATE INDEX IF NOT EXISTS buffered_requests_partition_idx ON buffered_requests (partition_no);
+
+CREATE INDEX IF NOT EXISTS buffered_questions_volunteer_message_idx
+    ON buffered_questions (volunteer_chat_id, volunteer_message_id);
+
+CREATE SEQUENCE IF NOT EXISTS buffered_question_keys INCREMENT BY 100;
+
+SELECT setval('buffered_question_keys', COALESCE(MAX(question_key), 0) + 1, false)
+FROM buffered_questions;
+
+-- changeSet 11th:19
+DROP INDEX IF EXISTS reports_user_date_idx;
+
+CREATE INDEX IF NOT EXISTS reports_user_date_id_idx ON reports (user_id, date, id);
+
+-- changeSet 11th:20
+CREATE TABLE IF NOT EXISTS volunteer_digest_events
+(
+    id         BIGSERIAL PRIMARY KEY,
+    section    VARCHAR(50) NOT NULL,
+    event      TEXT        NOT NULL,
+    created_at TIMESTAMP   NOT NULL
+);
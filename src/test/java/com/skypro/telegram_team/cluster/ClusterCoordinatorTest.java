@@ -0,0 +1,179 @@
+package com.skypro.telegram_team.cluster;
+
+import com.skypro.telegram_team.listener.TelegramBotUpdatesListener;
+import com.skypro.telegram_team.listener.VolunteerRoster;
+import com.skypro.telegram_team.listener.buffers.JdbcConversationStateStore;
+import com.skypro.telegram_team.listener.buffers.Question;
+import com.skypro.telegram_team.listener.buffers.QuestionsBuffer;
+import com.skypro.telegram_team.listener.buffers.Request;
+import com.skypro.telegram_team.listener.buffers.RequestsBuffer;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * Узлы кластера на общей БД H2, advisory lock postgres заменен функцией с блокировкой на сессию
+ */
+public class ClusterCoordinatorTest {
+    private static final int PARTITIONS = 8;
+    private static final long LOCK_KEY = 7411001;
+    private static final Map<Long, Connection> LOCKS = new ConcurrentHashMap<>();
+    private DriverManagerDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private ClusterUpdatesQueue queue;
+
+    /**
+     * pg_try_advisory_lock: блокировка принадлежит сессии и освобождается при ее закрытии
+     */
+    public static boolean tryAdvisoryLock(Connection connection, long key) throws SQLException {
+        Connection holder = LOCKS.get(key);
+        if (holder != null && !holder.isClosed()) {
+            return holder == connection;
+        }
+        LOCKS.put(key, connection);
+        return true;
+    }
+
+    @BeforeEach
+    void setUp() {
+        dataSource = new DriverManagerDataSource("jdbc:h2:mem:cluster;DB_CLOSE_DELAY=-1;MODE=POSTGRESQL", "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE ALIAS pg_try_advisory_lock FOR \"" + ClusterCoordinatorTest.class.getName() +
+                ".tryAdvisoryLock\"");
+        jdbcTemplate.execute("CREATE TABLE cluster_nodes (node_id VARCHAR(100) PRIMARY KEY, " +
+                "heartbeat_at TIMESTAMP NOT NULL, ingress BOOLEAN NOT NULL)");
+        jdbcTemplate.execute("CREATE TABLE buffered_questions (question_key BIGINT PRIMARY KEY, question_id INT, " +
+                "user_chat_id BIGINT, volunteer_chat_id BIGINT, volunteer_message_id INT, question TEXT, answer TEXT, " +
+                "partition_no INT, updated_at TIMESTAMP NOT NULL)");
+        jdbcTemplate.execute("CREATE TABLE buffered_requests (chat_id BIGINT PRIMARY KEY, user_phone BOOLEAN, " +
+                "user_email BOOLEAN, report_photo BOOLEAN, report_diet BOOLEAN, report_behavior BOOLEAN, " +
+                "report_well_being BOOLEAN, partition_no INT, updated_at TIMESTAMP NOT NULL)");
+        jdbcTemplate.execute("CREATE SEQUENCE buffered_question_keys INCREMENT BY 100");
+        queue = new ClusterUpdatesQueue(jdbcTemplate, PARTITIONS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.execute("DROP ALL OBJECTS");
+        LOCKS.clear();
+    }
+
+    @Test
+    void heartbeat_ingressMovesToLiveNode() throws Exception {
+        //Given
+        Node first = new Node("node-1");
+        Node second = new Node("node-2");
+        //When
+        first.coordinator.heartbeat();
+        second.coordinator.heartbeat();
+        Assertions.assertThat(first.coordinator.isIngress()).isTrue();
+        Assertions.assertThat(second.coordinator.isIngress()).isFalse();
+        first.coordinator.stop();
+        second.coordinator.heartbeat();
+        //Then
+        Assertions.assertThat(second.coordinator.isIngress()).isTrue();
+        Mockito.verify(first.updatesListener).startPolling();
+        Mockito.verify(first.updatesListener).stopPolling();
+        Mockito.verify(second.updatesListener).startPolling();
+        Assertions.assertThat(jdbcTemplate.queryForList("SELECT node_id FROM cluster_nodes", String.class))
+                .containsExactly("node-2");
+        second.coordinator.stop();
+    }
+
+    @Test
+    void heartbeat_acquiredPartitionsAfterSecondHeartbeat() {
+        //Given
+        Node node = new Node("node-1");
+        //When
+        node.coordinator.heartbeat();
+        Assertions.assertThat(node.coordinator.getOwnedPartitions()).isEmpty();
+        node.coordinator.heartbeat();
+        //Then
+        Assertions.assertThat(node.coordinator.getOwnedPartitions())
+                .containsExactly(IntStream.range(0, PARTITIONS).toArray());
+        //Волонтеров могут изменить другие узлы
+        Mockito.verify(node.volunteerRoster, Mockito.times(2)).reload();
+    }
+
+    @Test
+    void heartbeat_conversationStateMovesWithPartition() {
+        //Given
+        Node first = new Node("node-1");
+        Node second = new Node("node-2");
+        first.coordinator.heartbeat();
+        first.coordinator.heartbeat();
+        int[] secondPartitions = PartitionAssignment.owned(List.of("node-1", "node-2"), "node-2", PARTITIONS);
+        long userChat = chatIn(secondPartitions);
+        long ownChat = chatIn(PartitionAssignment.owned(List.of("node-1", "node-2"), "node-1", PARTITIONS));
+        first.questionsBuffer.addQuestion(new Question(userChat, 99L));
+        first.questionsBuffer.addQuestion(new Question(ownChat, 99L));
+        first.requestsBuffer.addRequest(userChat, Request.REPORT_DIET);
+        first.store.flush();
+        //When
+        second.coordinator.heartbeat();
+        first.coordinator.heartbeat();
+        //Then
+        Assertions.assertThat(first.coordinator.getOwnedPartitions()).doesNotContain(secondPartitions);
+        Assertions.assertThat(first.questionsBuffer.getQuestionByUserChat(userChat)).isEmpty();
+        Assertions.assertThat(first.questionsBuffer.getQuestionByUserChat(ownChat)).isPresent();
+        Assertions.assertThat(first.requestsBuffer.getFlags(userChat)).isZero();
+        Assertions.assertThat(second.coordinator.getOwnedPartitions()).isEmpty();
+        //When
+        second.coordinator.heartbeat();
+        //Then
+        Assertions.assertThat(second.coordinator.getOwnedPartitions()).containsExactly(secondPartitions);
+        Assertions.assertThat(second.questionsBuffer.getQuestionByUserChat(userChat)).isPresent();
+        Assertions.assertThat(second.questionsBuffer.getQuestionByUserChat(ownChat)).isEmpty();
+        Assertions.assertThat(second.requestsBuffer.getFlags(userChat)).isEqualTo(Request.REPORT_DIET);
+        //Новый вопрос второго узла не совпадает по ключу с вопросами первого
+        Question added = new Question(userChat, 98L);
+        second.questionsBuffer.addQuestion(added);
+        Assertions.assertThat(added.getKey()).isGreaterThan(first.questionsBuffer.getQuestionByUserChat(ownChat)
+                .orElseThrow().getKey());
+    }
+
+    private static long chatIn(int[] partitions) {
+        long chatId = 1;
+        while (Arrays.binarySearch(partitions, PartitionAssignment.partitionOf(chatId, null, PARTITIONS)) < 0) {
+            chatId++;
+        }
+        return chatId;
+    }
+
+    /**
+     * Узел кластера со своими буферами и хранилищем на общей БД
+     */
+    private class Node {
+        private final TelegramBotUpdatesListener updatesListener = Mockito.mock(TelegramBotUpdatesListener.class);
+        private final JdbcConversationStateStore store = new JdbcConversationStateStore(jdbcTemplate,
+                new DataSourceTransactionManager(dataSource), Duration.ofMinutes(1), 100, PARTITIONS);
+        private final QuestionsBuffer questionsBuffer = new QuestionsBuffer(Duration.ofHours(1), 100, store,
+                event -> {
+                });
+        private final RequestsBuffer requestsBuffer = new RequestsBuffer(Duration.ofHours(1), 100, store,
+                event -> {
+                });
+        private final VolunteerRoster volunteerRoster = Mockito.mock(VolunteerRoster.class);
+        private final ClusterCoordinator coordinator;
+
+        private Node(String nodeId) {
+            coordinator = new ClusterCoordinator(jdbcTemplate, dataSource, updatesListener, queue, questionsBuffer,
+                    requestsBuffer, volunteerRoster, "jdbc", nodeId, LOCK_KEY, Duration.ofSeconds(1), Duration.ofSeconds(10),
+                    Duration.ofMillis(200), 100);
+        }
+    }
+}
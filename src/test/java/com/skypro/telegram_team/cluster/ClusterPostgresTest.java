@@ -0,0 +1,149 @@
+package com.skypro.telegram_team.cluster;
+
+import com.pengrad.telegrambot.BotUtils;
+import com.pengrad.telegrambot.model.Update;
+import com.skypro.telegram_team.listener.TelegramBotUpdatesListener;
+import com.skypro.telegram_team.listener.VolunteerRoster;
+import com.skypro.telegram_team.listener.buffers.QuestionsBuffer;
+import com.skypro.telegram_team.listener.buffers.RequestsBuffer;
+import liquibase.integration.spring.SpringLiquibase;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.mockito.Mockito;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * SQL очереди и блокировка ingress на настоящем postgres.
+ * Выполняется, если задан адрес тестовой БД: TEST_POSTGRES_URL (и TEST_POSTGRES_USER, TEST_POSTGRES_PASSWORD),
+ * схема БД пересоздается по changelog liquibase.
+ */
+@EnabledIfEnvironmentVariable(named = "TEST_POSTGRES_URL", matches = ".+")
+class ClusterPostgresTest {
+    private static final int PARTITIONS = 4;
+    private static final int[] ALL = IntStream.range(0, PARTITIONS).toArray();
+    private DriverManagerDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private ClusterUpdatesQueue out;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        dataSource = new DriverManagerDataSource(System.getenv("TEST_POSTGRES_URL"),
+                System.getenv("TEST_POSTGRES_USER"), System.getenv("TEST_POSTGRES_PASSWORD"));
+        SpringLiquibase liquibase = new SpringLiquibase();
+        liquibase.setDataSource(dataSource);
+        liquibase.setChangeLog("classpath:liquibase/changelog-master.yml");
+        liquibase.setResourceLoader(new DefaultResourceLoader());
+        liquibase.setDropFirst(true);
+        liquibase.afterPropertiesSet();
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        out = new ClusterUpdatesQueue(jdbcTemplate, PARTITIONS);
+    }
+
+    @Test
+    void enqueue_redeliveredIsSkipped() {
+        //When
+        out.enqueue(List.of(update(1, 11), update(2, 12)));
+        out.enqueue(List.of(update(2, 12), update(3, 13)));
+        //Then
+        Assertions.assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM cluster_updates", Integer.class))
+                .isEqualTo(3);
+    }
+
+    @Test
+    void claim_inOrderAndCompleted() {
+        //Given
+        out.enqueue(List.of(update(1, 11), update(2, 11), update(3, 11)));
+        //When
+        List<ClusterUpdatesQueue.Queued> claimed = out.claim("node-1", ALL, 2, LocalDateTime.now().minusMinutes(1));
+        out.complete(claimed.stream().map(ClusterUpdatesQueue.Queued::id).toList());
+        List<ClusterUpdatesQueue.Queued> next = out.claim("node-1", ALL, 2, LocalDateTime.now().minusMinutes(1));
+        //Then
+        Assertions.assertThat(claimed).extracting(queued -> queued.update().updateId()).containsExactly(1, 2);
+        Assertions.assertThat(next).extracting(queued -> queued.update().updateId()).containsExactly(3);
+    }
+
+    @Test
+    void claim_skipsLockedAndClaimedByLiveNode() throws Exception {
+        //Given
+        out.enqueue(List.of(update(1, 11), update(2, 12), update(3, 13)));
+        List<ClusterUpdatesQueue.Queued> claimed = out.claim("node-1", ALL, 1, LocalDateTime.now().minusMinutes(1));
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SELECT id FROM cluster_updates WHERE update_id = 2 FOR UPDATE");
+            }
+            //When
+            List<ClusterUpdatesQueue.Queued> actual = out.claim("node-2", ALL, 10,
+                    LocalDateTime.now().minusMinutes(1));
+            connection.rollback();
+            //Then
+            Assertions.assertThat(claimed).extracting(queued -> queued.update().updateId()).containsExactly(1);
+            Assertions.assertThat(actual).extracting(queued -> queued.update().updateId()).containsExactly(3);
+        }
+    }
+
+    @Test
+    void claim_staleClaimIsTakenOver() {
+        //Given
+        out.enqueue(List.of(update(1, 11)));
+        out.claim("node-1", ALL, 10, LocalDateTime.now().minusMinutes(1));
+        //When
+        List<ClusterUpdatesQueue.Queued> live = out.claim("node-2", ALL, 10, LocalDateTime.now().minusMinutes(1));
+        List<ClusterUpdatesQueue.Queued> stale = out.claim("node-2", ALL, 10, LocalDateTime.now().plusMinutes(1));
+        //Then
+        Assertions.assertThat(live).isEmpty();
+        Assertions.assertThat(stale).extracting(queued -> queued.update().updateId()).containsExactly(1);
+    }
+
+    @Test
+    void release_updateCanBeClaimedAgain() {
+        //Given
+        out.enqueue(List.of(update(1, 11)));
+        List<ClusterUpdatesQueue.Queued> claimed = out.claim("node-1", ALL, 10, LocalDateTime.now().minusMinutes(1));
+        //When
+        out.release(claimed.stream().map(ClusterUpdatesQueue.Queued::id).toList());
+        //Then
+        Assertions.assertThat(out.claim("node-2", ALL, 10, LocalDateTime.now().minusMinutes(1))).hasSize(1);
+    }
+
+    @Test
+    void heartbeat_advisoryLockHasOneIngress() throws Exception {
+        //Given
+        ClusterCoordinator first = coordinator("node-1");
+        ClusterCoordinator second = coordinator("node-2");
+        //When
+        first.heartbeat();
+        second.heartbeat();
+        Assertions.assertThat(first.isIngress()).isTrue();
+        Assertions.assertThat(second.isIngress()).isFalse();
+        first.stop();
+        second.heartbeat();
+        //Then
+        Assertions.assertThat(second.isIngress()).isTrue();
+        second.stop();
+    }
+
+    private ClusterCoordinator coordinator(String nodeId) {
+        return new ClusterCoordinator(jdbcTemplate, dataSource, Mockito.mock(TelegramBotUpdatesListener.class), out,
+                Mockito.mock(QuestionsBuffer.class), Mockito.mock(RequestsBuffer.class),
+                Mockito.mock(VolunteerRoster.class), "jdbc", nodeId, 7411001,
+                Duration.ofSeconds(1), Duration.ofSeconds(10), Duration.ofMillis(200), 100);
+    }
+
+    private static Update update(int updateId, long chatId) {
+        return BotUtils.fromJson("""
+                { "update_id": %d, "message": { "message_id": 1, "chat": { "id": %d }, "text": "text" } }"""
+                .formatted(updateId, chatId), Update.class);
+    }
+}
@@ -0,0 +1,60 @@
+package com.skypro.telegram_team.cluster;
+
+import com.pengrad.telegrambot.BotUtils;
+import com.pengrad.telegrambot.model.Update;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+class ClusterUpdatesQueueTest {
+    private static final int PARTITIONS = 256;
+    private JdbcTemplate jdbcTemplate;
+    private ClusterUpdatesQueue out;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(
+                "jdbc:h2:mem:clusterQueue;DB_CLOSE_DELAY=-1;MODE=POSTGRESQL", "sa", ""));
+        jdbcTemplate.execute("CREATE TABLE buffered_questions (question_key BIGINT PRIMARY KEY, question_id INT, " +
+                "user_chat_id BIGINT, volunteer_chat_id BIGINT, volunteer_message_id INT, question TEXT, answer TEXT, " +
+                "partition_no INT, updated_at TIMESTAMP NOT NULL)");
+        jdbcTemplate.update("INSERT INTO buffered_questions (question_key, user_chat_id, volunteer_chat_id, " +
+                "volunteer_message_id, updated_at) VALUES (1, 11, 12, 7, CURRENT_TIMESTAMP)");
+        out = new ClusterUpdatesQueue(jdbcTemplate, PARTITIONS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    void partitionOf_volunteerReplyGoesToUserChat() {
+        //Given
+        Update reply = message(12L, 7);
+        //When
+        int actual = out.partitionOf(reply);
+        //Then
+        Assertions.assertThat(actual).isEqualTo(PartitionAssignment.partitionOf(11L, null, PARTITIONS));
+    }
+
+    @Test
+    void partitionOf_otherMessagesGoToOwnChat() {
+        Assertions.assertThat(out.partitionOf(message(12L, 8)))
+                .isEqualTo(PartitionAssignment.partitionOf(12L, null, PARTITIONS));
+        Assertions.assertThat(out.partitionOf(message(12L, null)))
+                .isEqualTo(PartitionAssignment.partitionOf(12L, null, PARTITIONS));
+    }
+
+    private static Update message(long chatId, Integer replyTo) {
+        String reply = replyTo == null ? "" : """
+                , "reply_to_message": { "message_id": %d, "chat": { "id": %d }, "text": "question" }"""
+                .formatted(replyTo, chatId);
+        return BotUtils.fromJson("""
+                { "update_id": 5, "message": { "message_id": 9, "chat": { "id": %d }, "text": "answer"%s } }"""
+                .formatted(chatId, reply), Update.class);
+    }
+}
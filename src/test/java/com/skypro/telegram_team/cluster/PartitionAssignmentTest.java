@@ -0,0 +1,54 @@
+package com.skypro.telegram_team.cluster;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+class PartitionAssignmentTest {
+    private static final int PARTITIONS = 256;
+
+    @Test
+    void owned_eachPartitionHasOneOwner() {
+        //Given
+        List<String> nodes = List.of("node-1", "node-2", "node-3");
+        //When
+        int[] all = nodes.stream()
+                .flatMapToInt(node -> Arrays.stream(PartitionAssignment.owned(nodes, node, PARTITIONS)))
+                .sorted()
+                .toArray();
+        //Then
+        Assertions.assertThat(all).containsExactly(IntStream.range(0, PARTITIONS).toArray());
+        nodes.forEach(node -> Assertions.assertThat(PartitionAssignment.owned(nodes, node, PARTITIONS).length)
+                .isBetween(PARTITIONS / 6, PARTITIONS / 2));
+    }
+
+    @Test
+    void owned_onlyPartitionsOfStoppedNodeMove() {
+        //Given
+        List<String> nodes = List.of("node-1", "node-2", "node-3");
+        List<String> alive = List.of("node-1", "node-3");
+        //When
+        int[] before = PartitionAssignment.owned(nodes, "node-1", PARTITIONS);
+        int[] after = PartitionAssignment.owned(alive, "node-1", PARTITIONS);
+        int[] stopped = PartitionAssignment.owned(nodes, "node-2", PARTITIONS);
+        //Then
+        Assertions.assertThat(after).contains(before);
+        Assertions.assertThat(IntStream.of(after).filter(p -> Arrays.stream(before).noneMatch(b -> b == p)))
+                .allMatch(p -> Arrays.stream(stopped).anyMatch(s -> s == p));
+        Assertions.assertThat(PartitionAssignment.owned(alive, "node-2", PARTITIONS)).isEmpty();
+    }
+
+    @Test
+    void partitionOf_sameChatSamePartition() {
+        //When
+        int partition = PartitionAssignment.partitionOf(11L, 1, PARTITIONS);
+        //Then
+        Assertions.assertThat(PartitionAssignment.partitionOf(11L, 2, PARTITIONS)).isEqualTo(partition);
+        Assertions.assertThat(PartitionAssignment.partitionOf(-11L, 2, PARTITIONS)).isBetween(0, PARTITIONS - 1);
+        Assertions.assertThat(PartitionAssignment.partitionOf(null, 5, PARTITIONS))
+                .isEqualTo(PartitionAssignment.partitionOf(5L, null, PARTITIONS));
+    }
+}
@@ -3,6 +3,8 @@ package com.skypro.telegram_team.controllers;
 import com.skypro.telegram_team.models.Animal;
 import com.skypro.telegram_team.repositories.AnimalRepository;
 import com.skypro.telegram_team.services.AnimalService;
+import com.skypro.telegram_team.services.PhotoService;
+import com.skypro.telegram_team.services.UserCache;
 import org.json.JSONObject;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -46,6 +48,10 @@ public class AnimalControllerTest {
     private UserController userController;
     @MockBean
     private AnimalRepository animalRepository;
+    @MockBean
+    private PhotoService photoService;
+    @MockBean
+    private UserCache userCache;
     private final Animal animal = new Animal();
     private final JSONObject jsonAnimal = new JSONObject();
 
@@ -158,12 +164,13 @@ public class AnimalControllerTest {
         byte[] photo = Files.readAllBytes(resource.getFile().toPath());
         Animal expected = new Animal();
         expected.setId(1L);
-        expected.setPhoto(photo);
+        expected.setPhotoId(5L);
         //When
         when(animalRepository.findById(1L)).thenReturn(Optional.of(expected));
+        when(photoService.findData(5L)).thenReturn(photo);
         //Then
         mockMvc.perform(MockMvcRequestBuilders.get("/animals/1/photo"))
                 .andExpect(status().isOk())
-                .andExpect(content().bytes(expected.getPhoto()));
+                .andExpect(content().bytes(photo));
     }
 }
@@ -7,8 +7,10 @@ import com.skypro.telegram_team.repositories.AnimalRepository;
 import com.skypro.telegram_team.repositories.ReportRepository;
 import com.skypro.telegram_team.repositories.ShelterRepository;
 import com.skypro.telegram_team.repositories.UserRepository;
+import com.skypro.telegram_team.services.PhotoService;
 import com.skypro.telegram_team.services.ReportService;
 import com.skypro.telegram_team.services.ShelterService;
+import com.skypro.telegram_team.services.UserCache;
 import org.json.JSONObject;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -57,6 +59,10 @@ public class ReportControllerTest {
     private AnimalRepository animalRepository;
     @MockBean
     private ShelterRepository shelterRepository;
+    @MockBean
+    private PhotoService photoService;
+    @MockBean
+    private UserCache userCache;
     private final Report report = new Report();
     private final JSONObject jsonReport = new JSONObject();
     private final JSONObject jsonAnimal = new JSONObject();
@@ -189,12 +195,13 @@ public class ReportControllerTest {
         byte[] photo = Files.readAllBytes(resource.getFile().toPath());
         Report expected = new Report();
         expected.setId(1L);
-        expected.setPhoto(photo);
+        expected.setPhotoId(5L);
         //When
         when(reportRepository.findById(1L)).thenReturn(Optional.of(expected));
+        when(photoService.findData(5L)).thenReturn(photo);
         //Then
         mockMvc.perform(MockMvcRequestBuilders.get("/reports/1/photo"))
                 .andExpect(status().isOk())
-                .andExpect(content().bytes(expected.getPhoto()));
+                .andExpect(content().bytes(photo));
     }
 }
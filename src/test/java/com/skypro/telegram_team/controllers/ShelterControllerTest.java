@@ -5,6 +5,7 @@ import com.skypro.telegram_team.models.Shelter;
 import com.skypro.telegram_team.repositories.AnimalRepository;
 import com.skypro.telegram_team.repositories.ShelterRepository;
 import com.skypro.telegram_team.services.ShelterService;
+import com.skypro.telegram_team.services.UserCache;
 import org.json.JSONObject;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -43,6 +44,8 @@ public class ShelterControllerTest {
     private ShelterRepository shelterRepository;
     @MockBean
     private AnimalRepository animalRepository;
+    @MockBean
+    private UserCache userCache;
     private Shelter shelter;
     private JSONObject jsonShelter;
 
@@ -6,6 +6,8 @@ import com.skypro.telegram_team.models.User;
 import com.skypro.telegram_team.repositories.AnimalRepository;
 import com.skypro.telegram_team.repositories.UserRepository;
 import com.skypro.telegram_team.services.AnimalService;
+import com.skypro.telegram_team.services.PhotoService;
+import com.skypro.telegram_team.services.UserCache;
 import com.skypro.telegram_team.services.UserService;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -49,6 +51,10 @@ public class UserControllerTest {
     private AnimalService animalService;
     @MockBean
     private AnimalRepository animalRepository;
+    @MockBean
+    private UserCache userCache;
+    @MockBean
+    private PhotoService photoService;
     private final User user = new User();
     private final JSONObject jsonUser = new JSONObject();
     private final Animal animal = new Animal();
@@ -0,0 +1,91 @@
+package com.skypro.telegram_team.controllers;
+
+import com.pengrad.telegrambot.model.Update;
+import com.skypro.telegram_team.listener.TelegramBotUpdatesListener;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(WebhookController.class)
+@TestPropertySource(properties = {"telegram.bot.mode=webhook", "telegram.bot.webhook.secret=secret"})
+public class WebhookControllerTest {
+    @Autowired
+    private MockMvc mockMvc;
+    @MockBean
+    private TelegramBotUpdatesListener updatesListener;
+
+    @Test
+    public void receiveUpdate() throws Exception {
+        String json = Files.readString(Paths.get("src", "test", "resources",
+                "com.skypro.telegram_team.listener", "update.json")).replace("%text%", "/start");
+        when(updatesListener.dispatch(any())).thenReturn(CompletableFuture.completedFuture(null));
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/telegram/webhook")
+                        .header("X-Telegram-Bot-Api-Secret-Token", "secret")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(json))
+                .andExpect(status().isOk());
+
+        ArgumentCaptor<Update> argumentCaptor = ArgumentCaptor.forClass(Update.class);
+        verify(updatesListener).dispatch(argumentCaptor.capture());
+        Assertions.assertThat(argumentCaptor.getValue().message().chat().id()).isEqualTo(11L);
+        Assertions.assertThat(argumentCaptor.getValue().message().text()).isEqualTo("/start");
+    }
+
+    @Test
+    public void receiveUpdate_rejected() throws Exception {
+        String json = Files.readString(Paths.get("src", "test", "resources",
+                "com.skypro.telegram_team.listener", "update.json")).replace("%text%", "/start");
+        when(updatesListener.dispatch(any()))
+                .thenReturn(CompletableFuture.failedFuture(new RejectedExecutionException("Update queue is full")));
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/telegram/webhook")
+                        .header("X-Telegram-Bot-Api-Secret-Token", "secret")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(json))
+                .andExpect(status().isServiceUnavailable());
+    }
+
+    @Test
+    public void receiveUpdate_handlerFailed() throws Exception {
+        String json = Files.readString(Paths.get("src", "test", "resources",
+                "com.skypro.telegram_team.listener", "update.json")).replace("%text%", "/start");
+        when(updatesListener.dispatch(any()))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("handler failed")));
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/telegram/webhook")
+                        .header("X-Telegram-Bot-Api-Secret-Token", "secret")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(json))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    public void receiveUpdate_wrongSecret() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.post("/telegram/webhook")
+                        .header("X-Telegram-Bot-Api-Secret-Token", "wrong")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{}"))
+                .andExpect(status().isUnauthorized());
+
+        verify(updatesListener, never()).dispatch(any());
+    }
+}
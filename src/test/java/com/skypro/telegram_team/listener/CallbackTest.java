@@ -0,0 +1,42 @@
+package com.skypro.telegram_team.listener;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class CallbackTest {
+
+    @Test
+    void fromData_valid() {
+        Assertions.assertThat(Callback.fromData("INF_ADDRESS")).contains(Callback.INF_ADDRESS);
+        Assertions.assertThat(Callback.fromData("HOW_ARRANGE")).contains(Callback.HOW_ARRANGE);
+        Assertions.assertThat(Callback.fromData("HOW_ARRANGE_PUPPY")).contains(Callback.HOW_ARRANGE_PUPPY);
+        Assertions.assertThat(Callback.fromData("SAVE_SHELTER1")).contains(Callback.SAVE_SHELTER);
+        Assertions.assertThat(Callback.fromData("ASK_VOLUNTEER123456789")).contains(Callback.ASK_VOLUNTEER);
+        Assertions.assertThat(Callback.argumentOf("ASK_VOLUNTEER123456789")).isEqualTo("123456789");
+        Assertions.assertThat(Callback.argumentOf("INF_ADDRESS")).isEmpty();
+    }
+
+    @Test
+    void fromData_malformed() {
+        //Аргумент у команды без аргумента
+        Assertions.assertThat(Callback.fromData("INF_ADDRESS1")).isEmpty();
+        Assertions.assertThat(Callback.fromData("SEND_PHOTO007")).isEmpty();
+        //Нет обязательного аргумента
+        Assertions.assertThat(Callback.fromData("SAVE_SHELTER")).isEmpty();
+        Assertions.assertThat(Callback.fromData("ASK_VOLUNTEER")).isEmpty();
+        //Аргумент не помещается в long или не число
+        Assertions.assertThat(Callback.fromData("ASK_VOLUNTEER1234567890123456789")).isEmpty();
+        Assertions.assertThat(Callback.fromData("ASK_VOLUNTEER-12")).isEmpty();
+        Assertions.assertThat(Callback.fromData("SAVE_SHELTER1x")).isEmpty();
+        Assertions.assertThat(Callback.fromData("INF_ADDRESS ")).isEmpty();
+    }
+
+    @Test
+    void fromData_unknown() {
+        Assertions.assertThat(Callback.fromData("")).isEmpty();
+        Assertions.assertThat(Callback.fromData("123")).isEmpty();
+        Assertions.assertThat(Callback.fromData("INF_")).isEmpty();
+        Assertions.assertThat(Callback.fromData("inf_address")).isEmpty();
+        Assertions.assertThat(Callback.fromData("UNKNOWN1")).isEmpty();
+    }
+}
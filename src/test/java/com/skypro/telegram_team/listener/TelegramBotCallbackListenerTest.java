@@ -3,9 +3,9 @@ package com.skypro.telegram_team.listener;
 import com.pengrad.telegrambot.model.Update;
 import com.skypro.telegram_team.listener.buffers.QuestionsBuffer;
 import com.skypro.telegram_team.listener.buffers.RequestsBuffer;
-import com.skypro.telegram_team.models.User;
 import com.skypro.telegram_team.services.ShelterService;
 import com.skypro.telegram_team.services.UserService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -33,13 +33,16 @@ class TelegramBotCallbackListenerTest {
     private QuestionsBuffer questionsBuffer;
     @Mock
     private RequestsBuffer requestsBuffer;
+    @Mock
+    private VolunteerRoster volunteerRoster;
 
     @InjectMocks
     private TelegramBotCallbackListener out;
 
     @BeforeEach
     void setUp() {
-        out = new TelegramBotCallbackListener(userService, shelterService, questionsBuffer, requestsBuffer);
+        out = new TelegramBotCallbackListener(userService, shelterService, questionsBuffer, requestsBuffer,
+                volunteerRoster, new SimpleMeterRegistry());
         when(userService.findByTelegramId(any())).thenReturn(TelegramBotListenerUtil.mockUser());
     }
 
@@ -88,11 +91,9 @@ class TelegramBotCallbackListenerTest {
         //When
         if (searchVolunteer) {
             if (!noFree) {
-                User volunteer = new User();
-                volunteer.setTelegramId(123);
-                when(userService.findAnyVolunteer()).thenReturn(Optional.of(volunteer));
+                when(volunteerRoster.leastLoaded()).thenReturn(Optional.of(123L));
             } else {
-                when(userService.findAnyVolunteer()).thenReturn(Optional.empty());
+                when(volunteerRoster.leastLoaded()).thenReturn(Optional.empty());
             }
         }
         var actual = out.processCallback(update.callbackQuery());
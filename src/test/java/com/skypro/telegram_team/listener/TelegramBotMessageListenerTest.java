@@ -11,6 +11,7 @@ import com.pengrad.telegrambot.model.request.ReplyKeyboardMarkup;
 import com.pengrad.telegrambot.request.GetFile;
 import com.pengrad.telegrambot.request.SendMessage;
 import com.pengrad.telegrambot.response.GetFileResponse;
+import com.pengrad.telegrambot.response.SendResponse;
 import com.skypro.telegram_team.exceptions.InvalidDataException;
 import com.skypro.telegram_team.listener.buffers.Question;
 import com.skypro.telegram_team.listener.buffers.QuestionsBuffer;
@@ -18,9 +19,11 @@ import com.skypro.telegram_team.listener.buffers.Request;
 import com.skypro.telegram_team.listener.buffers.RequestsBuffer;
 import com.skypro.telegram_team.models.Report;
 import com.skypro.telegram_team.models.User;
+import com.skypro.telegram_team.sender.MessageSender;
 import com.skypro.telegram_team.services.ReportService;
 import com.skypro.telegram_team.services.ShelterService;
 import com.skypro.telegram_team.services.UserService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -28,6 +31,7 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
@@ -37,11 +41,14 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Stream;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -49,6 +56,8 @@ class TelegramBotMessageListenerTest {
     @Mock
     private TelegramBot telegramBot;
     @Mock
+    private MessageSender messageSender;
+    @Mock
     private QuestionsBuffer questionsBuffer;
     @Mock
     private RequestsBuffer requestsBuffer;
@@ -61,10 +70,12 @@ class TelegramBotMessageListenerTest {
 
     @InjectMocks
     private TelegramBotMessageListener out;
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
 
     @BeforeEach
     void setUp() {
-        out = new TelegramBotMessageListener(telegramBot, questionsBuffer, requestsBuffer, shelterService, userService, reportService);
+        out = new TelegramBotMessageListener(telegramBot, messageSender, questionsBuffer, requestsBuffer, shelterService, userService, reportService,
+                meterRegistry);
         when(userService.findByTelegramId(any())).thenReturn(TelegramBotListenerUtil.mockUser());
     }
 
@@ -80,6 +91,9 @@ class TelegramBotMessageListenerTest {
         Assertions.assertThat(actual.get(0).getParameters().get("chat_id")).isEqualTo(update.message().chat().id());
         Assertions.assertThat(actual.get(0).getParameters().get("text")).isEqualTo(message);
         Assertions.assertThat(actual.get(0).getParameters().get("reply_markup")).isNotNull();
+        Assertions.assertThat(meterRegistry.get("bot.handler")
+                .tags("type", "menu", "command", Menu.fromText(menuText).orElseThrow().name()).timer().count())
+                .isEqualTo(1);
     }
 
     static Stream<Arguments> provideParamsForMenuTests() {
@@ -152,7 +166,7 @@ class TelegramBotMessageListenerTest {
         Request request = new Request(update.message().chat().id());
         request.setUserPhoneRequested(true);
         //When
-        when(requestsBuffer.getRequest(any())).thenReturn(Optional.of(request));
+        when(requestsBuffer.getFlags(anyLong())).thenReturn(request.getFlags());
         when(userService.update(any(), any())).thenReturn(TelegramBotListenerUtil.mockUser());
         var actual = out.processMessage(update.message());
         //Then
@@ -168,7 +182,7 @@ class TelegramBotMessageListenerTest {
         Request request = new Request(update.message().chat().id());
         request.setUserEmailRequested(true);
         //When
-        when(requestsBuffer.getRequest(any())).thenReturn(Optional.of(request));
+        when(requestsBuffer.getFlags(anyLong())).thenReturn(request.getFlags());
         when(userService.update(any(), any())).thenThrow(new InvalidDataException("error"));
         var actual = out.processMessage(update.message());
         //Then
@@ -186,7 +200,7 @@ class TelegramBotMessageListenerTest {
         Report report = new Report();
         report.setId(1L);
         //When
-        when(requestsBuffer.getRequest(any())).thenReturn(Optional.of(request));
+        when(requestsBuffer.getFlags(anyLong())).thenReturn(request.getFlags());
         when(reportService.findFirstByUserIdAndDate(any(), any())).thenReturn(report);
         when(reportService.update(any(), any())).thenReturn(report);
         var actual = out.processMessage(update.message());
@@ -206,12 +220,14 @@ class TelegramBotMessageListenerTest {
         report.setId(1L);
         //When
         when(telegramBot.execute(any())).thenReturn(TelegramBotListenerUtil.generateResponseOk());
-        when(requestsBuffer.getRequest(any())).thenReturn(Optional.of(request));
+        when(requestsBuffer.getFlags(anyLong())).thenReturn(request.getFlags());
         when(reportService.findFirstByUserIdAndDate(any(), any())).thenReturn(report);
         when(reportService.update(any(), any())).thenReturn(report);
         GetFileResponse getFileResponse = mock(GetFileResponse.class);
         File file = mock(File.class);
         when(getFileResponse.file()).thenReturn(file);
+        byte[] content = {1, 2, 3};
+        when(telegramBot.getFileContent(file)).thenReturn(content);
         AtomicReference<SendMessage> atomicReference = new AtomicReference<>();
         when(telegramBot.execute(any())).thenAnswer(invocationOnMock -> {
             Object sendRequest = invocationOnMock.getArgument(0);
@@ -227,6 +243,7 @@ class TelegramBotMessageListenerTest {
         //Then
         Assertions.assertThat(actual.isEmpty()).isFalse();
         Assertions.assertThat(actual.get(0).getParameters().get("text")).isEqualTo("Данные отчета записаны");
+        verify(reportService).photoUpload(report, content);
     }
 
     @Test
@@ -238,7 +255,7 @@ class TelegramBotMessageListenerTest {
         Report report = new Report();
         report.setId(1L);
         //When
-        when(requestsBuffer.getRequest(any())).thenReturn(Optional.of(request));
+        when(requestsBuffer.getFlags(anyLong())).thenReturn(request.getFlags());
         when(reportService.findFirstByUserIdAndDate(any(), any())).thenReturn(new Report());
         when(reportService.create(any())).thenReturn(report);
         var actual = out.processMessage(update.message());
@@ -257,7 +274,7 @@ class TelegramBotMessageListenerTest {
         Report report = new Report();
         report.setId(1L);
         //When
-        when(requestsBuffer.getRequest(any())).thenReturn(Optional.of(request));
+        when(requestsBuffer.getFlags(anyLong())).thenReturn(request.getFlags());
         when(reportService.findFirstByUserIdAndDate(any(), any())).thenReturn(report);
         when(reportService.update(any(), any())).thenThrow(new InvalidDataException("error"));
         var actual = out.processMessage(update.message());
@@ -274,25 +291,28 @@ class TelegramBotMessageListenerTest {
         Question question = new Question(update.message().chat().id(), 12L);
         //When
         when(questionsBuffer.getQuestionByUserChat(update.message().chat().id())).thenReturn(Optional.of(question));
+        when(messageSender.send(any(SendMessage.class))).thenReturn(CompletableFuture.completedFuture(
+                BotUtils.fromJson("{ \"ok\": true, \"result\": { \"message_id\": 7 } }", SendResponse.class)));
         var actual = out.processMessage(update.message());
         //Then
-        Assertions.assertThat(actual.isEmpty()).isFalse();
-        Assertions.assertThat(actual.size()).isEqualTo(2);
-        Assertions.assertThat(actual.get(0).getParameters().get("chat_id")).isEqualTo(12L);
-        Assertions.assertThat(actual.get(0).getParameters().get("text")).isEqualTo("1: Сообщение от пользователя, для ответа используйте reply:\n question");
-        Assertions.assertThat(actual.get(1).getParameters().get("chat_id")).isEqualTo(11L);
-        Assertions.assertThat(actual.get(1).getParameters().get("text")).isEqualTo("Сообщение отправлено волонтеру");
+        ArgumentCaptor<SendMessage> sent = ArgumentCaptor.forClass(SendMessage.class);
+        verify(messageSender).send(sent.capture());
+        Assertions.assertThat(sent.getValue().getParameters().get("chat_id")).isEqualTo(12L);
+        Assertions.assertThat(sent.getValue().getParameters().get("text")).isEqualTo("Сообщение от пользователя, для ответа используйте reply:\n question");
+        verify(questionsBuffer).setVolunteerMessageId(question, 7);
+        Assertions.assertThat(actual.size()).isEqualTo(1);
+        Assertions.assertThat(actual.get(0).getParameters().get("chat_id")).isEqualTo(11L);
+        Assertions.assertThat(actual.get(0).getParameters().get("text")).isEqualTo("Сообщение отправлено волонтеру");
     }
 
     @Test
     void processMessage_SendReplyFromVolunteer() throws Exception {
         //Given
-        String replyMessage = "1: Сообщение от пользователя: вопрос";
+        String replyMessage = "Сообщение от пользователя: вопрос";
         Update update = TelegramBotListenerUtil.generateUpdateWithReply(replyMessage);
         Question question = new Question(11L, 12L);
-        question.setId(1);
         //When
-        when(questionsBuffer.getQuestionById(any())).thenReturn(Optional.of(question));
+        when(questionsBuffer.getQuestionByVolunteerMessage(11L, 5)).thenReturn(Optional.of(question));
         var actual = out.processMessage(update.message());
         //Then
         Assertions.assertThat(actual.isEmpty()).isFalse();
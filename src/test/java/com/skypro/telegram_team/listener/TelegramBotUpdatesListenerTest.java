@@ -1,9 +1,14 @@
 package com.skypro.telegram_team.listener;
 
+import com.pengrad.telegrambot.BotUtils;
 import com.pengrad.telegrambot.TelegramBot;
+import com.pengrad.telegrambot.UpdatesListener;
 import com.pengrad.telegrambot.model.Update;
 import com.pengrad.telegrambot.request.SendMessage;
+import com.skypro.telegram_team.cluster.ClusterUpdatesQueue;
 import com.skypro.telegram_team.exceptions.InvalidDataException;
+import com.skypro.telegram_team.sender.MessageSender;
+import com.skypro.telegram_team.services.UpdateCheckpointService;
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -13,11 +18,19 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import java.time.Duration;
 import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.when;
 
@@ -27,13 +40,19 @@ class TelegramBotUpdatesListenerTest {
     private TelegramBot telegramBot;
     @Mock
     private TelegramBotUpdateListener updateListener;
+    @Mock
+    private MessageSender messageSender;
+    @Mock
+    private UpdateCheckpointService checkpointService;
 
     @InjectMocks
     private TelegramBotUpdatesListener out;
 
     @BeforeEach
     void setUp() {
-        out = new TelegramBotUpdatesListener(telegramBot, updateListener);
+        out = new TelegramBotUpdatesListener(telegramBot, updateListener, new UpdatesDispatcher(2, 100, 50, 10), messageSender,
+                checkpointService);
+        ReflectionTestUtils.setField(out, "unconfirmedBackoff", Duration.ofMillis(1));
     }
 
     @Test
@@ -43,10 +62,11 @@ class TelegramBotUpdatesListenerTest {
         List<SendMessage> expected = Collections.singletonList(
                 new SendMessage(update.message().chat().id(), update.message().text()));
         //When
-        when(telegramBot.execute(any())).thenReturn(TelegramBotListenerUtil.generateResponseOk());
         when(updateListener.processUpdate(update)).thenReturn(expected);
-        out.process(Collections.singletonList(update));
+        var confirmed = out.process(Collections.singletonList(update));
         //Then
+        Assertions.assertThat(confirmed).isEqualTo(update.updateId());
+        Mockito.verify(checkpointService).confirm(update.updateId());
         SendMessage actual = getActualSendMessage();
         Assertions.assertThat(actual.getParameters().get("chat_id")).isEqualTo(update.message().chat().id());
         Assertions.assertThat(actual.getParameters().get("text")).isEqualTo(update.message().text());
@@ -58,14 +78,208 @@ class TelegramBotUpdatesListenerTest {
         Update update = TelegramBotListenerUtil.generateUpdate("/start");
         //When
         when(updateListener.processUpdate(update)).thenThrow(new InvalidDataException("error"));
-        out.process(Collections.singletonList(update));
+        var confirmed = out.process(Collections.singletonList(update));
+        //Then
+        Assertions.assertThat(confirmed).isEqualTo(UpdatesListener.CONFIRMED_UPDATES_NONE);
+        Mockito.verify(checkpointService, times(0)).confirm(anyInt());
+        Mockito.verify(messageSender, times(0)).send(any(SendMessage.class));
+    }
+
+    @Test
+    void process_rejectedIsNotAttempt() throws Exception {
+        //Given
+        out = new TelegramBotUpdatesListener(telegramBot, updateListener, new UpdatesDispatcher(1, 1, 1, 0),
+                messageSender, checkpointService);
+        Update first = TelegramBotListenerUtil.generateUpdate("/start");
+        Update second = BotUtils.fromJson("""
+                { "update_id": 2, "message": { "message_id": 2, "chat": { "id": 11 }, "text": "/start" } }""",
+                Update.class);
+        //When
+        when(updateListener.processUpdate(first)).thenAnswer(invocation -> {
+            Thread.sleep(200);
+            return Collections.emptyList();
+        });
+        var confirmed = out.process(List.of(first, second));
+        //Then
+        Assertions.assertThat(confirmed).isEqualTo(first.updateId());
+        Mockito.verify(checkpointService, times(0)).registerFailure(anyInt(), anyInt());
+    }
+
+    @Test
+    void process_cheapServedWhileExpensiveDeferred() throws Exception {
+        //Given
+        UpdatesDispatcher dispatcher = new UpdatesDispatcher(4, 100, 2, 0);
+        out = new TelegramBotUpdatesListener(telegramBot, updateListener, dispatcher, messageSender, checkpointService);
+        List<Update> updates = List.of(updateOf(1, 0, "text"), updateOf(2, 1, "text"),
+                updateOf(3, 2, "text"), updateOf(4, 3, "/start"));
+        CountDownLatch cheapHandled = new CountDownLatch(1);
+        List<Integer> handled = new CopyOnWriteArrayList<>();
+        //When
+        when(updateListener.processUpdate(any())).thenAnswer(invocation -> {
+            Update update = invocation.getArgument(0);
+            if (update.updateId() <= 2) {
+                cheapHandled.await(5, TimeUnit.SECONDS);
+            } else if (update.updateId() == 4) {
+                cheapHandled.countDown();
+            }
+            handled.add(update.updateId());
+            return Collections.emptyList();
+        });
+        var confirmed = out.process(updates);
+        //Then
+        Assertions.assertThat(confirmed).isEqualTo(4);
+        Assertions.assertThat(handled).containsExactlyInAnyOrder(1, 2, 3, 4);
+        Assertions.assertThat(handled.indexOf(4)).isLessThan(handled.indexOf(3));
+        Assertions.assertThat(dispatcher.getDeferredCount()).isEqualTo(1);
+        Mockito.verify(checkpointService).confirm(4);
+        dispatcher.shutdown();
+    }
+
+    @Test
+    void process_exceptionAfterAttempts() throws Exception {
+        //Given
+        Update update = TelegramBotListenerUtil.generateUpdate("/start");
+        //When
+        when(updateListener.processUpdate(update)).thenThrow(new InvalidDataException("error"));
+        when(checkpointService.registerFailure(update.updateId(), 0)).thenReturn(true);
+        var confirmed = out.process(Collections.singletonList(update));
+        //Then
+        Assertions.assertThat(confirmed).isEqualTo(update.updateId());
+        Mockito.verify(checkpointService).confirm(update.updateId());
+    }
+
+    @Test
+    void process_skipProcessed() throws Exception {
+        //Given
+        Update processed = TelegramBotListenerUtil.generateUpdate("/start");
+        Update failed = BotUtils.fromJson("""
+                { "update_id": 2, "message": { "message_id": 2, "chat": { "id": 12 }, "text": "text" } }""",
+                Update.class);
+        Update next = BotUtils.fromJson("""
+                { "update_id": 3, "message": { "message_id": 3, "chat": { "id": 13 }, "text": "text" } }""",
+                Update.class);
+        //When
+        when(checkpointService.isProcessed(processed.updateId())).thenReturn(true);
+        when(updateListener.processUpdate(failed)).thenThrow(new InvalidDataException("error"));
+        when(updateListener.processUpdate(next)).thenReturn(Collections.emptyList());
+        var confirmed = out.process(List.of(processed, failed, next));
+        //Then
+        Assertions.assertThat(confirmed).isEqualTo(processed.updateId());
+        Mockito.verify(updateListener, times(0)).processUpdate(processed);
+        Mockito.verify(checkpointService).markProcessed(next.updateId());
+    }
+
+    @Test
+    void process_clusterForwardsToQueue() throws Exception {
+        //Given
+        ClusterUpdatesQueue queue = mock(ClusterUpdatesQueue.class);
+        out = new TelegramBotUpdatesListener(telegramBot, updateListener, new UpdatesDispatcher(1, 10, 5, 1),
+                messageSender, checkpointService, Optional.of(queue));
+        Update update = TelegramBotListenerUtil.generateUpdate("/start");
+        //When
+        var confirmed = out.process(List.of(update));
+        //Then
+        Assertions.assertThat(confirmed).isEqualTo(update.updateId());
+        Mockito.verify(queue).enqueue(List.of(update));
+        Mockito.verify(checkpointService).confirm(update.updateId());
+        Mockito.verify(updateListener, times(0)).processUpdate(any());
+    }
+
+    @Test
+    void process_clusterQueueUnavailable() throws Exception {
+        //Given
+        ClusterUpdatesQueue queue = mock(ClusterUpdatesQueue.class);
+        out = new TelegramBotUpdatesListener(telegramBot, updateListener, new UpdatesDispatcher(1, 10, 5, 1),
+                messageSender, checkpointService, Optional.of(queue));
+        ReflectionTestUtils.setField(out, "unconfirmedBackoff", Duration.ofMillis(1));
+        Update update = TelegramBotListenerUtil.generateUpdate("/start");
+        //When
+        Mockito.doThrow(new IllegalStateException("connection refused")).when(queue).enqueue(any());
+        var confirmed = out.process(List.of(update));
         //Then
-        Mockito.verify(telegramBot, times(0)).execute(any());
+        Assertions.assertThat(confirmed).isEqualTo(UpdatesListener.CONFIRMED_UPDATES_NONE);
+        Mockito.verify(checkpointService, times(0)).confirm(anyInt());
+        Assertions.assertThat(out.dispatch(update)).isCompletedExceptionally();
+    }
+
+    @Test
+    void dispatch_redeliveredOnce() throws Exception {
+        //Given
+        Update update = TelegramBotListenerUtil.generateUpdate("/start");
+        when(checkpointService.markReceived(update.updateId())).thenReturn(true, false);
+        when(updateListener.processUpdate(update)).thenReturn(Collections.emptyList());
+        //When
+        out.dispatch(update).get(5, TimeUnit.SECONDS);
+        out.dispatch(update).get(5, TimeUnit.SECONDS);
+        //Then
+        Mockito.verify(updateListener, times(1)).processUpdate(update);
+    }
+
+    @Test
+    void dispatch_rejectedIsForgotten() throws Exception {
+        //Given
+        out = new TelegramBotUpdatesListener(telegramBot, updateListener, new UpdatesDispatcher(1, 1, 1, 0),
+                messageSender, checkpointService);
+        Update first = TelegramBotListenerUtil.generateUpdate("/start");
+        Update second = BotUtils.fromJson("""
+                { "update_id": 2, "message": { "message_id": 2, "chat": { "id": 11 }, "text": "/start" } }""",
+                Update.class);
+        CountDownLatch latch = new CountDownLatch(1);
+        when(checkpointService.markReceived(anyInt())).thenReturn(true);
+        when(updateListener.processUpdate(first)).thenAnswer(invocation -> {
+            latch.await(5, TimeUnit.SECONDS);
+            return Collections.emptyList();
+        });
+        //When
+        var accepted = out.dispatch(first);
+        var rejected = out.dispatch(second);
+        latch.countDown();
+        //Then
+        Assertions.assertThat(TelegramBotUpdatesListener.isRejected(rejected)).isTrue();
+        Mockito.verify(checkpointService).forgetReceived(second.updateId());
+        accepted.get(5, TimeUnit.SECONDS);
+        Assertions.assertThat(TelegramBotUpdatesListener.isRejected(accepted)).isFalse();
+        Mockito.verify(checkpointService, times(0)).forgetReceived(first.updateId());
+    }
+
+    @Test
+    void process_backoffWhileNothingConfirmed() throws Exception {
+        //Given
+        ReflectionTestUtils.setField(out, "unconfirmedBackoff", Duration.ofMillis(50));
+        Update update = TelegramBotListenerUtil.generateUpdate("/start");
+        when(updateListener.processUpdate(update))
+                .thenThrow(new InvalidDataException("error"))
+                .thenThrow(new InvalidDataException("error"))
+                .thenReturn(Collections.emptyList());
+        //When
+        long first = timeOf(() -> out.process(List.of(update)));
+        long second = timeOf(() -> out.process(List.of(update)));
+        long confirmed = timeOf(() -> out.process(List.of(update)));
+        long empty = timeOf(() -> out.process(List.of()));
+        //Then
+        //Задержка удваивается, после подтверждения и для пустого списка задержки нет
+        Assertions.assertThat(first).isGreaterThanOrEqualTo(50);
+        Assertions.assertThat(second).isGreaterThanOrEqualTo(100);
+        Assertions.assertThat(confirmed).isLessThan(50);
+        Assertions.assertThat(empty).isLessThan(50);
+        Mockito.verify(checkpointService).confirm(update.updateId());
+    }
+
+    private static long timeOf(Runnable action) {
+        long start = System.nanoTime();
+        action.run();
+        return Duration.ofNanos(System.nanoTime() - start).toMillis();
     }
 
     private SendMessage getActualSendMessage() {
         ArgumentCaptor<SendMessage> argumentCaptor = ArgumentCaptor.forClass(SendMessage.class);
-        Mockito.verify(telegramBot).execute(argumentCaptor.capture());
+        Mockito.verify(messageSender).send(argumentCaptor.capture());
         return argumentCaptor.getValue();
     }
-}
\ No newline at end of file
+
+    private static Update updateOf(int updateId, long chatId, String text) {
+        return BotUtils.fromJson("""
+                { "update_id": %d, "message": { "message_id": %d, "chat": { "id": %d }, "text": "%s" } }"""
+                .formatted(updateId, updateId, chatId, text), Update.class);
+    }
+}
@@ -0,0 +1,171 @@
+package com.skypro.telegram_team.listener;
+
+import com.pengrad.telegrambot.BotUtils;
+import com.pengrad.telegrambot.model.Update;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+class UpdatesDispatcherTest {
+    private UpdatesDispatcher out;
+
+    @BeforeEach
+    void setUp() {
+        out = new UpdatesDispatcher(4, 100, 50, 10);
+    }
+
+    @AfterEach
+    void tearDown() {
+        out.shutdown();
+    }
+
+    @Test
+    void dispatch_sameChatKeepsOrder() throws Exception {
+        //Given
+        Update update = TelegramBotListenerUtil.generateUpdate("text");
+        List<Integer> actual = new CopyOnWriteArrayList<>();
+        //When
+        CompletableFuture.allOf(IntStream.range(0, 100)
+                        .mapToObj(i -> out.dispatch(update, u -> actual.add(i)))
+                        .toArray(CompletableFuture[]::new))
+                .get(5, TimeUnit.SECONDS);
+        //Then
+        Assertions.assertThat(actual).containsExactlyElementsOf(IntStream.range(0, 100).boxed().toList());
+    }
+
+    @Test
+    void dispatch_differentChatsInParallel() throws Exception {
+        //Given
+        Update first = TelegramBotListenerUtil.generateUpdate("text");
+        Update second = BotUtils.fromJson("""
+                { "update_id": 2, "message": { "message_id": 1, "chat": { "id": 12 }, "text": "text" } }""",
+                Update.class);
+        Assertions.assertThat(out.shardOf(UpdatesDispatcher.chatIdOf(first), first.updateId()))
+                .isNotEqualTo(out.shardOf(UpdatesDispatcher.chatIdOf(second), second.updateId()));
+        CountDownLatch latch = new CountDownLatch(1);
+        //When
+        var blocked = out.dispatch(first, u -> {
+            try {
+                latch.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        out.dispatch(second, u -> latch.countDown()).get(5, TimeUnit.SECONDS);
+        //Then
+        blocked.get(1, TimeUnit.SECONDS);
+        Assertions.assertThat(latch.getCount()).isZero();
+    }
+
+    @Test
+    void dispatch_sameChatDeferredKeepsOrder() throws Exception {
+        //Given
+        UpdatesDispatcher dispatcher = new UpdatesDispatcher(1, 10, 1, 0);
+        CountDownLatch latch = new CountDownLatch(1);
+        List<String> actual = new CopyOnWriteArrayList<>();
+        //When
+        var blocked = dispatcher.dispatch(TelegramBotListenerUtil.generateUpdate("/start"), u -> {
+            try {
+                latch.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            actual.add("blocked");
+        });
+        var expensive = dispatcher.dispatch(TelegramBotListenerUtil.generateUpdate("text"),
+                u -> actual.add("expensive"));
+        Assertions.assertThat(dispatcher.isShedding()).isTrue();
+        Assertions.assertThat(dispatcher.getDeferredSize()).isEqualTo(1);
+        var cheap = dispatcher.dispatch(TelegramBotListenerUtil.generateUpdateWithCallback(Callback.INF_ADDRESS.name()),
+                u -> actual.add("cheap"));
+        latch.countDown();
+        CompletableFuture.allOf(blocked, expensive, cheap).get(5, TimeUnit.SECONDS);
+        //Then
+        Assertions.assertThat(actual).containsExactly("blocked", "expensive", "cheap");
+        Assertions.assertThat(dispatcher.getDeferredCount()).isEqualTo(2);
+        Assertions.assertThat(dispatcher.getDeferredSize()).isZero();
+        Assertions.assertThat(dispatcher.isShedding()).isFalse();
+        dispatcher.shutdown();
+    }
+
+    @Test
+    void dispatch_defersExpensiveAboveHighWatermark() throws Exception {
+        //Given
+        UpdatesDispatcher dispatcher = new UpdatesDispatcher(2, 10, 1, 0);
+        Update otherChat = BotUtils.fromJson("""
+                { "update_id": 2, "message": { "message_id": 1, "chat": { "id": 12 }, "text": "/start" } }""",
+                Update.class);
+        CountDownLatch latch = new CountDownLatch(1);
+        List<String> actual = new CopyOnWriteArrayList<>();
+        //When
+        var blocked = dispatcher.dispatch(TelegramBotListenerUtil.generateUpdate("/start"), u -> {
+            try {
+                latch.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            actual.add("blocked");
+        });
+        var expensive = dispatcher.dispatch(TelegramBotListenerUtil.generateUpdate("text"),
+                u -> actual.add("expensive"));
+        Assertions.assertThat(dispatcher.isShedding()).isTrue();
+        Assertions.assertThat(dispatcher.getDeferredSize()).isEqualTo(1);
+        dispatcher.dispatch(otherChat, u -> actual.add("cheap")).get(5, TimeUnit.SECONDS);
+        latch.countDown();
+        CompletableFuture.allOf(blocked, expensive).get(5, TimeUnit.SECONDS);
+        //Then
+        Assertions.assertThat(actual).containsExactly("cheap", "blocked", "expensive");
+        Assertions.assertThat(dispatcher.getDeferredCount()).isEqualTo(1);
+        Assertions.assertThat(dispatcher.getDeferredSize()).isZero();
+        Assertions.assertThat(dispatcher.isShedding()).isFalse();
+        dispatcher.shutdown();
+    }
+
+    @Test
+    void dispatch_rejectsAboveCapacity() throws Exception {
+        //Given
+        UpdatesDispatcher dispatcher = new UpdatesDispatcher(1, 2, 1, 0);
+        CountDownLatch latch = new CountDownLatch(1);
+        //When
+        var blocked = dispatcher.dispatch(TelegramBotListenerUtil.generateUpdate("/start"), u -> {
+            try {
+                latch.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        var deferred = dispatcher.dispatch(TelegramBotListenerUtil.generateUpdate("text"), u -> {
+        });
+        var rejected = dispatcher.dispatch(TelegramBotListenerUtil.generateUpdate("/start"), u -> {
+        });
+        latch.countDown();
+        //Then
+        Assertions.assertThat(rejected).isCompletedExceptionally();
+        Assertions.assertThatThrownBy(rejected::join).hasCauseInstanceOf(RejectedExecutionException.class);
+        Assertions.assertThat(dispatcher.getRejectedCount()).isEqualTo(1);
+        CompletableFuture.allOf(blocked, deferred).get(5, TimeUnit.SECONDS);
+        dispatcher.shutdown();
+    }
+
+    @Test
+    void isCheap() throws Exception {
+        Assertions.assertThat(UpdatesDispatcher.isCheap(TelegramBotListenerUtil.generateUpdate("/start"))).isTrue();
+        Assertions.assertThat(UpdatesDispatcher.isCheap(TelegramBotListenerUtil.generateUpdate("text"))).isFalse();
+        Assertions.assertThat(UpdatesDispatcher.isCheap(TelegramBotListenerUtil.generateUpdateWithPhoto())).isFalse();
+        Assertions.assertThat(UpdatesDispatcher.isCheap(
+                TelegramBotListenerUtil.generateUpdateWithCallback(Callback.HOW_DOCS.name()))).isTrue();
+        Assertions.assertThat(UpdatesDispatcher.isCheap(
+                TelegramBotListenerUtil.generateUpdateWithCallback(Callback.SEND_PHOTO.name()))).isFalse();
+        Assertions.assertThat(UpdatesDispatcher.isCheap(
+                TelegramBotListenerUtil.generateUpdateWithCallback(Callback.SAVE_SHELTER.name() + 1))).isFalse();
+    }
+}
@@ -0,0 +1,128 @@
+package com.skypro.telegram_team.listener;
+
+import com.skypro.telegram_team.listener.buffers.ConversationStateStore;
+import com.skypro.telegram_team.listener.buffers.QuestionsBuffer;
+import com.skypro.telegram_team.listener.buffers.VolunteerLoadChangedEvent;
+import com.skypro.telegram_team.models.User;
+import com.skypro.telegram_team.services.UserService;
+import com.skypro.telegram_team.services.VolunteerChangedEvent;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class VolunteerRosterTest {
+    @Mock
+    private UserService userService;
+    @Mock
+    private QuestionsBuffer questionsBuffer;
+    @Mock
+    private ConversationStateStore store;
+
+    private VolunteerRoster out;
+
+    @BeforeEach
+    void setUp() {
+        out = new VolunteerRoster(userService, questionsBuffer, store, 2, false);
+    }
+
+    @Test
+    void load_leastLoadedFirst() {
+        //Given
+        when(userService.findVolunteers()).thenReturn(List.of(volunteer(11), volunteer(12), volunteer(0)));
+        when(questionsBuffer.countByVolunteerChat(11L)).thenReturn(1);
+        when(questionsBuffer.countByVolunteerChat(12L)).thenReturn(0);
+        //When
+        out.load();
+        //Then
+        Assertions.assertThat(out.size()).isEqualTo(2);
+        Assertions.assertThat(out.leastLoaded()).contains(12L);
+    }
+
+    @Test
+    void onLoadChanged_reordersAndAppliesCap() {
+        //Given
+        out.onVolunteerChanged(new VolunteerChangedEvent(11, true));
+        out.onVolunteerChanged(new VolunteerChangedEvent(12, true));
+        //When
+        out.onLoadChanged(new VolunteerLoadChangedEvent(11, 2));
+        Assertions.assertThat(out.leastLoaded()).contains(12L);
+        out.onLoadChanged(new VolunteerLoadChangedEvent(12, 2));
+        //Then
+        Assertions.assertThat(out.leastLoaded()).isEmpty();
+        out.onLoadChanged(new VolunteerLoadChangedEvent(11, 1));
+        Assertions.assertThat(out.leastLoaded()).contains(11L);
+    }
+
+    @Test
+    void onVolunteerChanged_removesVolunteer() {
+        //Given
+        out.onVolunteerChanged(new VolunteerChangedEvent(11, true));
+        //When
+        out.onVolunteerChanged(new VolunteerChangedEvent(11, false));
+        out.onLoadChanged(new VolunteerLoadChangedEvent(11, 1));
+        //Then
+        Assertions.assertThat(out.size()).isZero();
+        Assertions.assertThat(out.leastLoaded()).isEmpty();
+    }
+
+    @Test
+    void reload_clusteredCountsQuestionsOfAllNodes() {
+        //Given
+        VolunteerRoster clustered = new VolunteerRoster(userService, questionsBuffer, store, 2, true);
+        when(userService.findVolunteers()).thenReturn(List.of(volunteer(11), volunteer(12)))
+                .thenReturn(List.of(volunteer(11), volunteer(13)));
+        when(store.countQuestionsByVolunteerChat()).thenReturn(Map.of(11L, 2, 12L, 1))
+                .thenReturn(Map.of(11L, 1));
+        when(questionsBuffer.countByVolunteerChat(11L)).thenReturn(1);
+        when(questionsBuffer.countByVolunteerChat(12L)).thenReturn(0);
+        when(questionsBuffer.countByVolunteerChat(13L)).thenReturn(0);
+        //When
+        clustered.reload();
+        //Then
+        Assertions.assertThat(clustered.leastLoaded()).contains(12L);
+        //Вопрос узла волонтеру 11 закрыт, вопрос другого узла остался
+        clustered.onLoadChanged(new VolunteerLoadChangedEvent(11, 0));
+        clustered.onLoadChanged(new VolunteerLoadChangedEvent(12, 1));
+        Assertions.assertThat(clustered.leastLoaded()).contains(11L);
+        //Волонтер 12 снят, волонтер 13 добавлен на другом узле
+        clustered.reload();
+        Assertions.assertThat(clustered.size()).isEqualTo(2);
+        Assertions.assertThat(clustered.leastLoaded()).contains(13L);
+    }
+
+    @Test
+    void reload_keepsRosterOnFailure() {
+        //Given
+        VolunteerRoster clustered = new VolunteerRoster(userService, questionsBuffer, store, 2, true);
+        clustered.onVolunteerChanged(new VolunteerChangedEvent(11, true));
+        when(userService.findVolunteers()).thenThrow(new IllegalStateException("db"));
+        //When
+        clustered.reload();
+        //Then
+        Assertions.assertThat(clustered.leastLoaded()).contains(11L);
+    }
+
+    @Test
+    void reload_skippedOnSingleNode() {
+        //When
+        out.reload();
+        //Then
+        Mockito.verifyNoInteractions(userService, store);
+    }
+
+    private static User volunteer(long telegramId) {
+        User user = new User();
+        user.setTelegramId(telegramId);
+        return user;
+    }
+}
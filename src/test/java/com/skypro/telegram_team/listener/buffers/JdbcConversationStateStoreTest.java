@@ -0,0 +1,182 @@
+package com.skypro.telegram_team.listener.buffers;
+
+import com.skypro.telegram_team.cluster.PartitionAssignment;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.time.Duration;
+import java.util.Map;
+
+class JdbcConversationStateStoreTest {
+    private static final int PARTITIONS = 16;
+    private JdbcTemplate jdbcTemplate;
+    private JdbcConversationStateStore out;
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:stateStore;DB_CLOSE_DELAY=-1;MODE=POSTGRESQL", "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE buffered_questions (question_key BIGINT PRIMARY KEY, question_id INT, " +
+                "user_chat_id BIGINT, volunteer_chat_id BIGINT, volunteer_message_id INT, question TEXT, answer TEXT, " +
+                "partition_no INT, updated_at TIMESTAMP NOT NULL)");
+        jdbcTemplate.execute("CREATE TABLE buffered_requests (chat_id BIGINT PRIMARY KEY, user_phone BOOLEAN, " +
+                "user_email BOOLEAN, report_photo BOOLEAN, report_diet BOOLEAN, report_behavior BOOLEAN, " +
+                "report_well_being BOOLEAN, partition_no INT, updated_at TIMESTAMP NOT NULL)");
+        jdbcTemplate.execute("CREATE SEQUENCE buffered_question_keys INCREMENT BY 100");
+        out = new JdbcConversationStateStore(jdbcTemplate, new DataSourceTransactionManager(dataSource),
+                Duration.ofMinutes(1), 100, PARTITIONS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    void saveQuestion_writtenOnFlush() {
+        //Given
+        Question question = new Question(11L, 12L);
+        question.setKey(out.nextQuestionKey());
+        out.saveQuestion(question);
+        Assertions.assertThat(count("buffered_questions")).isZero();
+        //When
+        question.setQuestion("question");
+        question.setId(5);
+        question.setVolunteerMessageId(7);
+        out.saveQuestion(question);
+        out.flush();
+        //Then
+        Assertions.assertThat(count("buffered_questions")).isEqualTo(1);
+        Assertions.assertThat(out.getPendingWrites()).isZero();
+        Assertions.assertThat(out.loadQuestions()).singleElement().satisfies(loaded -> {
+            Assertions.assertThat(loaded.getKey()).isEqualTo(question.getKey());
+            Assertions.assertThat(loaded.getId()).isEqualTo(5);
+            Assertions.assertThat(loaded.getVolunteerMessageId()).isEqualTo(7);
+            Assertions.assertThat(loaded.getQuestion()).isEqualTo("question");
+        });
+    }
+
+    @Test
+    void deleteQuestion() {
+        //Given
+        Question question = new Question(11L, 12L);
+        question.setKey(out.nextQuestionKey());
+        out.saveQuestion(question);
+        out.flush();
+        //When
+        out.deleteQuestion(question);
+        //Then
+        Assertions.assertThat(out.loadQuestions()).isEmpty();
+    }
+
+    @Test
+    void nextQuestionKey_blocksAreNotShared() {
+        //Given
+        JdbcConversationStateStore other = new JdbcConversationStateStore(jdbcTemplate,
+                new DataSourceTransactionManager(jdbcTemplate.getDataSource()), Duration.ofMinutes(1), 100, PARTITIONS);
+        //When
+        long first = out.nextQuestionKey();
+        long second = out.nextQuestionKey();
+        long otherFirst = other.nextQuestionKey();
+        //Then
+        Assertions.assertThat(second).isEqualTo(first + 1);
+        Assertions.assertThat(otherFirst).isEqualTo(first + JdbcConversationStateStore.QUESTION_KEY_BLOCK);
+    }
+
+    @Test
+    void loadQuestions_newKeysFollowLoaded() {
+        //Given
+        long own = out.nextQuestionKey();
+        JdbcConversationStateStore other = new JdbcConversationStateStore(jdbcTemplate,
+                new DataSourceTransactionManager(jdbcTemplate.getDataSource()), Duration.ofMinutes(1), 100, PARTITIONS);
+        Question question = new Question(11L, 12L);
+        question.setKey(other.nextQuestionKey());
+        other.saveQuestion(question);
+        other.flush();
+        //When
+        out.loadQuestions();
+        //Then
+        Assertions.assertThat(question.getKey()).isGreaterThan(own);
+        Assertions.assertThat(out.nextQuestionKey()).isGreaterThan(question.getKey());
+    }
+
+    @Test
+    void loadByPartitions() {
+        //Given
+        long userChat = 11L;
+        long otherChat = chatOutside(PartitionAssignment.partitionOf(userChat, null, PARTITIONS));
+        int[] partitions = {PartitionAssignment.partitionOf(userChat, null, PARTITIONS)};
+        for (long chatId : new long[]{userChat, otherChat}) {
+            Question question = new Question(chatId, 12L);
+            question.setKey(out.nextQuestionKey());
+            out.saveQuestion(question);
+            out.saveRequest(chatId, Request.REPORT_DIET);
+        }
+        //When
+        var questions = out.loadQuestions(partitions);
+        var requests = out.loadRequests(partitions);
+        //Then
+        Assertions.assertThat(questions).singleElement()
+                .satisfies(loaded -> Assertions.assertThat(loaded.getUserChatId()).isEqualTo(userChat));
+        Assertions.assertThat(requests).singleElement()
+                .satisfies(loaded -> Assertions.assertThat(loaded.getChatId()).isEqualTo(userChat));
+        Assertions.assertThat(out.loadQuestions()).hasSize(2);
+    }
+
+    @Test
+    void countQuestionsByVolunteerChat_includesPendingWrites() {
+        //Given
+        for (Question question : new Question[]{new Question(11L, 21L), new Question(12L, 21L),
+                new Question(13L, 22L), new Question(14L, null)}) {
+            question.setKey(out.nextQuestionKey());
+            out.saveQuestion(question);
+        }
+        //When
+        Map<Long, Integer> counts = out.countQuestionsByVolunteerChat();
+        //Then
+        Assertions.assertThat(counts).containsOnly(Map.entry(21L, 2), Map.entry(22L, 1));
+    }
+
+    @Test
+    void saveAndDeleteRequest() {
+        //When
+        out.saveRequest(11L, Request.REPORT_DIET);
+        out.saveRequest(12L, Request.USER_PHONE);
+        out.deleteRequest(12L);
+        //Then
+        Assertions.assertThat(out.loadRequests()).singleElement().satisfies(loaded -> {
+            Assertions.assertThat(loaded.getChatId()).isEqualTo(11L);
+            Assertions.assertThat(loaded.isReportDietRequested()).isTrue();
+            Assertions.assertThat(loaded.isUserPhoneRequested()).isFalse();
+        });
+    }
+
+    @Test
+    void flush_failedWritesAreKept() {
+        //Given
+        jdbcTemplate.execute("DROP TABLE buffered_requests");
+        out.saveRequest(11L, Request.USER_EMAIL);
+        //When
+        out.flush();
+        //Then
+        Assertions.assertThat(out.getPendingWrites()).isEqualTo(1);
+    }
+
+    private static long chatOutside(int partition) {
+        long chatId = 12L;
+        while (PartitionAssignment.partitionOf(chatId, null, PARTITIONS) == partition) {
+            chatId++;
+        }
+        return chatId;
+    }
+
+    private int count(String table) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table, Integer.class);
+    }
+}
@@ -0,0 +1,56 @@
+package com.skypro.telegram_team.listener.buffers;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+class LongIntHashMapTest {
+    private final LongIntHashMap out = new LongIntHashMap(4);
+
+    @Test
+    void putGetRemove() {
+        //When
+        out.put(11L, 1);
+        out.put(-12L, 2);
+        out.put(0L, 3);
+        //Then
+        Assertions.assertThat(out.get(11L, -1)).isEqualTo(1);
+        Assertions.assertThat(out.get(-12L, -1)).isEqualTo(2);
+        Assertions.assertThat(out.get(0L, -1)).isEqualTo(3);
+        Assertions.assertThat(out.get(13L, -1)).isEqualTo(-1);
+        Assertions.assertThat(out.size()).isEqualTo(3);
+        Assertions.assertThat(out.put(11L, 5)).isFalse();
+        Assertions.assertThat(out.get(11L, -1)).isEqualTo(5);
+        Assertions.assertThat(out.remove(0L)).isTrue();
+        Assertions.assertThat(out.remove(11L)).isTrue();
+        Assertions.assertThat(out.remove(11L)).isFalse();
+        Assertions.assertThat(out.containsKey(11L)).isFalse();
+        Assertions.assertThat(out.size()).isEqualTo(1);
+    }
+
+    @Test
+    void randomOperations_sameAsHashMap() {
+        //Given
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+        //When
+        for (int i = 0; i < 100_000; i++) {
+            //Небольшой диапазон ключей, чтобы были коллизии, повторные добавления и удаления
+            long key = random.nextInt(2_000) - 1_000;
+            if (random.nextInt(3) == 0) {
+                Assertions.assertThat(out.remove(key)).isEqualTo(expected.remove(key) != null);
+            } else {
+                Assertions.assertThat(out.put(key, i)).isEqualTo(expected.put(key, i) == null);
+            }
+        }
+        //Then
+        Assertions.assertThat(out.size()).isEqualTo(expected.size());
+        expected.forEach((key, value) -> Assertions.assertThat(out.get(key, -1)).isEqualTo(value));
+        Map<Long, Integer> actual = new HashMap<>();
+        out.forEach(actual::put);
+        Assertions.assertThat(actual).isEqualTo(expected);
+    }
+}
@@ -0,0 +1,109 @@
+package com.skypro.telegram_team.listener.buffers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Поиск и изменение вопросов в буфере при большом количестве открытых вопросов.
+ * Для сравнения - линейный поиск по списку (прежняя реализация буфера).
+ * <p>
+ * Запуск: main из IDE или
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.skypro.telegram_team.listener.buffers.QuestionsBufferBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuestionsBufferBenchmark {
+    private static final int VOLUNTEERS = 100;
+
+    @Param("100000")
+    private int questions;
+
+    private QuestionsBuffer buffer;
+    private List<Question> list;
+
+    @Setup
+    public void setUp() {
+        buffer = new QuestionsBuffer(Duration.ofDays(1), 2 * questions, new InMemoryConversationStateStore(), event -> {
+        }, System::currentTimeMillis);
+        list = new ArrayList<>();
+        for (int i = 0; i < questions; i++) {
+            Question question = new Question((long) i, (long) (i % VOLUNTEERS));
+            buffer.addQuestion(question);
+            buffer.setQuestionId(question, i);
+            list.add(question);
+        }
+    }
+
+    @Benchmark
+    public Optional<Question> getQuestionById() {
+        return buffer.getQuestionById(random(questions));
+    }
+
+    @Benchmark
+    public Optional<Question> getQuestionByUserChat() {
+        return buffer.getQuestionByUserChat((long) random(questions));
+    }
+
+    @Benchmark
+    public Optional<Question> getQuestionByVolunteerChat() {
+        return buffer.getQuestionByVolunteerChat((long) random(VOLUNTEERS));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Optional<Question> getQuestionByUserChat_4threads() {
+        return buffer.getQuestionByUserChat((long) random(questions));
+    }
+
+    @Benchmark
+    public Optional<Question> addAndDelQuestion() {
+        Question question = new Question((long) random(questions), (long) random(VOLUNTEERS));
+        buffer.addQuestion(question);
+        buffer.setQuestionId(question, -1);
+        Optional<Question> actual = buffer.getQuestionById(-1);
+        buffer.delQuestion(question);
+        return actual;
+    }
+
+    @Benchmark
+    public Optional<Question> listGetQuestionByUserChat() {
+        Long chatId = (long) random(questions);
+        return list.stream()
+                .filter(q -> q.getUserChatId().equals(chatId))
+                .findFirst();
+    }
+
+    private static int random(int bound) {
+        return ThreadLocalRandom.current().nextInt(bound);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(QuestionsBufferBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -5,14 +5,27 @@ import com.skypro.telegram_team.listener.buffers.QuestionsBuffer;
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 
 class QuestionsBufferTest {
+    private final List<Object> events = new ArrayList<>();
+    private final ConversationStateStore store = Mockito.spy(new InMemoryConversationStateStore());
+    private long now = 1_000_000;
     private QuestionsBuffer out;
     private Question expected;
 
     @BeforeEach
     void setUp() {
-        out = new QuestionsBuffer();
+        out = new QuestionsBuffer(Duration.ofMinutes(10), 1000, store, events::add, () -> now);
         expected = new Question(11L, 12L);
         expected.setId(1);
         expected.setQuestion("question");
@@ -39,6 +52,23 @@ class QuestionsBufferTest {
         Assertions.assertThat(out.getQuestionById(1).isPresent()).isFalse();
     }
 
+    @Test
+    void getQuestionByVolunteerMessage() {
+        //Given
+        Question second = new Question(21L, 12L);
+        out.addQuestion(expected);
+        out.addQuestion(second);
+        //When
+        out.setVolunteerMessageId(expected, 7);
+        out.setVolunteerMessageId(second, 8);
+        //Then
+        Assertions.assertThat(out.getQuestionByVolunteerMessage(12L, 7)).containsSame(expected);
+        Assertions.assertThat(out.getQuestionByVolunteerMessage(12L, 8)).containsSame(second);
+        Assertions.assertThat(out.getQuestionByVolunteerMessage(13L, 7)).isEmpty();
+        out.delQuestion(expected);
+        Assertions.assertThat(out.getQuestionByVolunteerMessage(12L, 7)).isEmpty();
+    }
+
     @Test
     void getQuestionById() {
         //Given
@@ -71,4 +101,178 @@ class QuestionsBufferTest {
         Assertions.assertThat(actual.isPresent()).isTrue();
         Assertions.assertThat(actual.get()).isEqualTo(expected);
     }
-}
\ No newline at end of file
+
+    @Test
+    void setQuestionId() {
+        //Given
+        Question question = new Question(11L, 12L);
+        out.addQuestion(question);
+        //When
+        out.setQuestionId(question, 5);
+        //Then
+        Assertions.assertThat(question.getId()).isEqualTo(5);
+        Assertions.assertThat(out.getQuestionById(5)).containsSame(question);
+    }
+
+    @Test
+    void getQuestionByVolunteerChat_firstAdded() {
+        //Given
+        Question second = new Question(21L, 12L);
+        out.addQuestion(expected);
+        out.addQuestion(second);
+        //When
+        out.delQuestion(expected);
+        //Then
+        Assertions.assertThat(out.getQuestionByVolunteerChat(12L)).containsSame(second);
+        Assertions.assertThat(out.getQuestionByUserChat(11L)).isEmpty();
+        Assertions.assertThat(out.size()).isEqualTo(1);
+    }
+
+    @Test
+    void addAndDelQuestion_concurrently() throws Exception {
+        //Given
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Question> questions = IntStream.range(0, 1000)
+                .mapToObj(i -> new Question((long) i, (long) (i % 10)))
+                .toList();
+        //When
+        CompletableFuture.allOf(questions.stream()
+                        .map(q -> CompletableFuture.runAsync(() -> {
+                            out.addQuestion(q);
+                            out.setQuestionId(q, q.getUserChatId().intValue());
+                        }, executor))
+                        .toArray(CompletableFuture[]::new))
+                .get(5, TimeUnit.SECONDS);
+        CompletableFuture.allOf(questions.stream()
+                        .filter(q -> q.getUserChatId() % 2 == 0)
+                        .map(q -> CompletableFuture.runAsync(() -> out.delQuestion(q), executor))
+                        .toArray(CompletableFuture[]::new))
+                .get(5, TimeUnit.SECONDS);
+        executor.shutdown();
+        //Then
+        Assertions.assertThat(out.size()).isEqualTo(500);
+        Assertions.assertThat(out.getQuestionById(2)).isEmpty();
+        Assertions.assertThat(out.getQuestionById(3)).isPresent();
+        Assertions.assertThat(out.getQuestionByUserChat(3L)).isPresent();
+        Assertions.assertThat(out.getQuestionByVolunteerChat(2L)).isEmpty();
+        Assertions.assertThat(out.getQuestionByVolunteerChat(3L)).isPresent();
+    }
+
+    @Test
+    void expire() {
+        //Given
+        Question answered = new Question(21L, 12L);
+        out.addQuestion(expected);
+        out.addQuestion(answered);
+        out.delQuestion(answered);
+        //When
+        now += Duration.ofMinutes(10).toMillis() - 1000;
+        out.expire(now);
+        Assertions.assertThat(out.size()).isEqualTo(1);
+        now += 1000;
+        out.expire(now);
+        //Then
+        Assertions.assertThat(out.size()).isZero();
+        Assertions.assertThat(out.getQuestionById(1)).isEmpty();
+        Assertions.assertThat(out.getQuestionByUserChat(11L)).isEmpty();
+        Assertions.assertThat(expiredEvents()).containsExactly(new QuestionExpiredEvent(expected));
+    }
+
+    @Test
+    void expire_setQuestionIdRestartsTtl() {
+        //Given
+        out.addQuestion(expected);
+        now += Duration.ofMinutes(5).toMillis();
+        out.setQuestionId(expected, 2);
+        //When
+        now += Duration.ofMinutes(5).toMillis();
+        out.expire(now);
+        //Then
+        Assertions.assertThat(out.getQuestionById(2)).containsSame(expected);
+        Assertions.assertThat(expiredEvents()).isEmpty();
+    }
+
+    @Test
+    void addQuestion_evictsOldestWhenFull() {
+        //Given
+        out = new QuestionsBuffer(Duration.ofMinutes(10), 2, store, events::add, () -> now);
+        Question second = new Question(21L, 12L);
+        Question third = new Question(31L, 12L);
+        out.addQuestion(expected);
+        out.addQuestion(second);
+        //When
+        out.addQuestion(third);
+        //Then
+        Assertions.assertThat(out.size()).isEqualTo(2);
+        Assertions.assertThat(out.getQuestionByVolunteerChat(12L)).containsSame(second);
+        Assertions.assertThat(expiredEvents()).containsExactly(new QuestionExpiredEvent(expected));
+        //Удаленный вопрос больше не истекает
+        out.expire(now + Duration.ofMinutes(10).toMillis());
+        Assertions.assertThat(expiredEvents()).hasSize(3);
+    }
+
+    @Test
+    void restore() {
+        //Given
+        out.addQuestion(expected);
+        out.addQuestion(new Question(21L, 22L));
+        Question deleted = out.getQuestionByUserChat(21L).get();
+        out.delQuestion(deleted);
+        Mockito.verify(store).saveQuestion(expected);
+        Mockito.verify(store).deleteQuestion(deleted);
+        Mockito.doReturn(List.of(expected)).when(store).loadQuestions();
+        //When
+        QuestionsBuffer restored = new QuestionsBuffer(Duration.ofMinutes(10), 1000, store, events::add, () -> now);
+        restored.restore();
+        //Then
+        Assertions.assertThat(restored.size()).isEqualTo(1);
+        Assertions.assertThat(restored.getQuestionById(1)).containsSame(expected);
+        Assertions.assertThat(restored.getQuestionByVolunteerChat(12L)).containsSame(expected);
+    }
+
+    @Test
+    void release_keepsStoreAndDoesNotExpire() {
+        //Given
+        Question other = new Question(21L, 12L);
+        out.addQuestion(expected);
+        out.addQuestion(other);
+        //When
+        out.release(chatId -> chatId == 11L);
+        out.expire(now + Duration.ofMinutes(10).toMillis());
+        //Then
+        Assertions.assertThat(out.getQuestionByUserChat(11L)).isEmpty();
+        Assertions.assertThat(expiredEvents()).containsExactly(new QuestionExpiredEvent(other));
+        Mockito.verify(store, Mockito.never()).deleteQuestion(expected);
+    }
+
+    @Test
+    void restoreByPartitions() {
+        //Given
+        int[] partitions = {1, 2};
+        Mockito.doReturn(List.of(expected)).when(store).loadQuestions(partitions);
+        //When
+        out.restore(partitions);
+        //Then
+        Assertions.assertThat(out.getQuestionByUserChat(11L)).containsSame(expected);
+        Mockito.verify(store, Mockito.never()).saveQuestion(expected);
+    }
+
+    @Test
+    void addAndRemove_publishVolunteerLoad() {
+        //Given
+        out.addQuestion(expected);
+        out.addQuestion(new Question(21L, 12L));
+        //When
+        out.delQuestion(expected);
+        //Then
+        Assertions.assertThat(out.countByVolunteerChat(12L)).isEqualTo(1);
+        Assertions.assertThat(events).filteredOn(VolunteerLoadChangedEvent.class::isInstance).containsExactly(
+                new VolunteerLoadChangedEvent(12L, 1),
+                new VolunteerLoadChangedEvent(12L, 2),
+                new VolunteerLoadChangedEvent(12L, 1));
+    }
+
+    private List<Object> expiredEvents() {
+        return events.stream().filter(QuestionExpiredEvent.class::isInstance).toList();
+    }
+}
@@ -0,0 +1,92 @@
+package com.skypro.telegram_team.listener.buffers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Поиск и добавление запросов данных при большом количестве чатов.
+ * Для сравнения - HashMap&lt;Long, Request&gt; с объектом на каждый чат (прежняя реализация буфера).
+ * <p>
+ * Выделение памяти на операцию: запуск с профилировщиком -prof gc.
+ * Запуск: main из IDE или
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.skypro.telegram_team.listener.buffers.RequestsBufferBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class RequestsBufferBenchmark {
+    private static final int FLAGS = Request.REPORT_DIET | Request.REPORT_PHOTO;
+
+    @Param("1000000")
+    private int chats;
+
+    private RequestsBuffer buffer;
+    private Map<Long, Request> map;
+
+    @Setup
+    public void setUp() {
+        buffer = new RequestsBuffer(Duration.ofDays(1), chats, new InMemoryConversationStateStore(), event -> {
+        }, System::currentTimeMillis);
+        map = new HashMap<>();
+        for (long chatId = 1; chatId <= chats; chatId++) {
+            buffer.addRequest(chatId, FLAGS);
+            map.put(chatId, new Request(chatId, FLAGS));
+        }
+    }
+
+    @Benchmark
+    public int getFlags() {
+        return buffer.getFlags(random());
+    }
+
+    @Benchmark
+    public int addRequest() {
+        long chatId = random();
+        buffer.addRequest(chatId, FLAGS);
+        return buffer.size();
+    }
+
+    @Benchmark
+    public Optional<Request> mapGetRequest() {
+        return Optional.ofNullable(map.get(random()));
+    }
+
+    @Benchmark
+    public int mapAddRequest() {
+        long chatId = random();
+        map.put(chatId, new Request(chatId, FLAGS));
+        return map.size();
+    }
+
+    private long random() {
+        return ThreadLocalRandom.current().nextLong(1, chats + 1);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RequestsBufferBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
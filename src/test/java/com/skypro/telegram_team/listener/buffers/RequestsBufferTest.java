@@ -5,14 +5,22 @@ import com.skypro.telegram_team.listener.buffers.RequestsBuffer;
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 
 class RequestsBufferTest {
+    private final List<Object> events = new ArrayList<>();
+    private final ConversationStateStore store = Mockito.mock(ConversationStateStore.class);
+    private long now = 1_000_000;
     private RequestsBuffer out;
     private Request expected;
 
     @BeforeEach
     void setUp() {
-        out = new RequestsBuffer();
+        out = new RequestsBuffer(Duration.ofMinutes(30), 1000, store, events::add, () -> now);
         expected = new Request(11L);
         expected.setUserPhoneRequested(true);
     }
@@ -46,4 +54,109 @@ class RequestsBufferTest {
         Assertions.assertThat(actual.isPresent()).isTrue();
         Assertions.assertThat(actual.get()).isEqualTo(expected);
     }
-}
\ No newline at end of file
+
+    @Test
+    void expire() {
+        //Given
+        out.addRequest(expected);
+        //When
+        now += Duration.ofMinutes(30).toMillis();
+        out.expire(now);
+        //Then
+        Assertions.assertThat(out.getRequest(11L).isPresent()).isFalse();
+        Assertions.assertThat(events).containsExactly(new RequestExpiredEvent(expected));
+    }
+
+    @Test
+    void expire_addRequestRestartsTtl() {
+        //Given
+        out.addRequest(expected);
+        now += Duration.ofMinutes(20).toMillis();
+        Request next = new Request(11L);
+        next.setUserEmailRequested(true);
+        out.addRequest(next);
+        //When
+        now += Duration.ofMinutes(20).toMillis();
+        out.expire(now);
+        //Then
+        Assertions.assertThat(out.getRequest(11L).get().isUserEmailRequested()).isTrue();
+        Assertions.assertThat(out.getFlags(11L)).isEqualTo(Request.USER_EMAIL);
+        Assertions.assertThat(events).isEmpty();
+    }
+
+    @Test
+    void addRequest_evictsOldestWhenFull() {
+        //Given
+        out = new RequestsBuffer(Duration.ofMinutes(30), 2, store, events::add, () -> now);
+        out.addRequest(expected);
+        now += 1000;
+        out.addRequest(new Request(12L));
+        now += 1000;
+        out.addRequest(new Request(11L));
+        //When
+        now += 1000;
+        out.addRequest(new Request(13L));
+        //Then
+        Assertions.assertThat(out.size()).isEqualTo(2);
+        Assertions.assertThat(out.getRequest(12L).isPresent()).isFalse();
+        Assertions.assertThat(out.getRequest(11L).isPresent()).isTrue();
+        Assertions.assertThat(events).hasSize(1);
+    }
+
+    @Test
+    void restore() {
+        //Given
+        out.addRequest(expected);
+        Request answered = new Request(12L);
+        out.addRequest(answered);
+        out.delRequest(answered);
+        Mockito.verify(store).saveRequest(11L, expected.getFlags());
+        Mockito.verify(store).deleteRequest(12L);
+        Mockito.when(store.loadRequests()).thenReturn(List.of(new Request(11L, expected.getFlags())));
+        //When
+        RequestsBuffer restored = new RequestsBuffer(Duration.ofMinutes(30), 1000, store, events::add, () -> now);
+        restored.restore();
+        //Then
+        Assertions.assertThat(restored.size()).isEqualTo(1);
+        Assertions.assertThat(restored.getRequest(11L).get().isUserPhoneRequested()).isTrue();
+    }
+
+    @Test
+    void release_keepsStoreAndDoesNotExpire() {
+        //Given
+        out.addRequest(expected);
+        out.addRequest(12L, Request.REPORT_DIET);
+        //When
+        out.release(chatId -> chatId == 11L);
+        out.expire(now + Duration.ofMinutes(30).toMillis());
+        //Then
+        Assertions.assertThat(out.getRequest(11L)).isEmpty();
+        Assertions.assertThat(events).hasSize(1);
+        Mockito.verify(store, Mockito.never()).deleteRequest(11L);
+    }
+
+    @Test
+    void restoreByPartitions() {
+        //Given
+        int[] partitions = {1, 2};
+        Mockito.when(store.loadRequests(partitions)).thenReturn(List.of(new Request(11L, Request.REPORT_DIET)));
+        //When
+        out.restore(partitions);
+        //Then
+        Assertions.assertThat(out.getFlags(11L)).isEqualTo(Request.REPORT_DIET);
+        Mockito.verify(store, Mockito.never()).saveRequest(11L, Request.REPORT_DIET);
+    }
+
+    @Test
+    void getFlags() {
+        //Given
+        out.addRequest(12L, Request.REPORT_DIET | Request.REPORT_PHOTO);
+        //When
+        int actual = out.getFlags(12L);
+        //Then
+        Assertions.assertThat(actual & Request.REPORT_DATA).isEqualTo(Request.REPORT_DIET | Request.REPORT_PHOTO);
+        Assertions.assertThat(out.getFlags(13L)).isZero();
+        out.delRequest(12L);
+        Assertions.assertThat(out.getFlags(12L)).isZero();
+    }
+}
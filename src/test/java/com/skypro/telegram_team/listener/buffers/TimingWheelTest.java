@@ -0,0 +1,107 @@
+package com.skypro.telegram_team.listener.buffers;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class TimingWheelTest {
+    private final List<Long> expired = new ArrayList<>();
+    private TimingWheel out;
+
+    @BeforeEach
+    void setUp() {
+        out = new TimingWheel(100, 8, 0);
+    }
+
+    @Test
+    void advance_expiresOnDeadline() {
+        //Given
+        out.schedule(1, 250);
+        out.schedule(2, 550);
+        //When
+        out.advance(200, expired::add);
+        Assertions.assertThat(expired).isEmpty();
+        out.advance(300, expired::add);
+        //Then
+        Assertions.assertThat(expired).containsExactly(1L);
+        Assertions.assertThat(out.size()).isEqualTo(1);
+    }
+
+    @Test
+    void advance_deadlineBeyondOneRotation() {
+        //Given
+        out.schedule(1, 2_050);
+        //When
+        out.advance(1_000, expired::add);
+        Assertions.assertThat(expired).isEmpty();
+        out.advance(2_100, expired::add);
+        //Then
+        Assertions.assertThat(expired).containsExactly(1L);
+    }
+
+    @Test
+    void advance_skippedTicks() {
+        //Given
+        out.schedule(1, 150);
+        out.schedule(2, 650);
+        //When
+        out.advance(10_000, expired::add);
+        //Then
+        Assertions.assertThat(expired).containsExactlyInAnyOrder(1L, 2L);
+    }
+
+    @Test
+    void cancel() {
+        //Given
+        out.schedule(1, 150);
+        //When
+        out.cancel(1);
+        out.advance(1_000, expired::add);
+        //Then
+        Assertions.assertThat(expired).isEmpty();
+        Assertions.assertThat(out.size()).isZero();
+    }
+
+    @Test
+    void schedule_reschedulesExistingKey() {
+        //Given
+        out.schedule(1, 150);
+        //When
+        out.schedule(1, 450);
+        out.advance(300, expired::add);
+        Assertions.assertThat(expired).isEmpty();
+        out.advance(500, expired::add);
+        //Then
+        Assertions.assertThat(expired).containsExactly(1L);
+    }
+
+    @Test
+    void schedule_pastDeadlineExpiresOnNextTick() {
+        //Given
+        out.advance(1_000, expired::add);
+        //When
+        out.schedule(1, 500);
+        out.advance(1_100, expired::add);
+        //Then
+        Assertions.assertThat(expired).containsExactly(1L);
+    }
+
+    @Test
+    void expireEarliest() {
+        //Given
+        out.schedule(1, 450);
+        out.schedule(2, 250);
+        out.schedule(3, 5_000);
+        out.schedule(2, 650);
+        //When
+        out.expireEarliest(expired::add);
+        out.expireEarliest(expired::add);
+        out.expireEarliest(expired::add);
+        //Then
+        Assertions.assertThat(expired).containsExactly(1L, 2L, 3L);
+        Assertions.assertThat(out.expireEarliest(expired::add)).isFalse();
+    }
+}
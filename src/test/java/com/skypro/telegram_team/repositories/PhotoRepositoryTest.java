@@ -0,0 +1,55 @@
+package com.skypro.telegram_team.repositories;
+
+import com.skypro.telegram_team.models.Animal;
+import com.skypro.telegram_team.models.Photo;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+
+import java.util.List;
+
+@DataJpaTest(properties = "spring.jpa.hibernate.ddl-auto=create-drop")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class PhotoRepositoryTest {
+    @Autowired
+    private TestEntityManager entityManager;
+    @Autowired
+    private PhotoRepository photoRepository;
+    @Autowired
+    private AnimalRepository animalRepository;
+
+    @Test
+    void updateData() {
+        //Given
+        long id = entityManager.persistAndGetId(new Photo(new byte[]{1, 2, 3}), Long.class);
+        //When
+        int updated = photoRepository.updateData(id, new byte[]{4, 5});
+        int missing = photoRepository.updateData(id + 1, new byte[]{6});
+        entityManager.clear();
+        //Then
+        Assertions.assertThat(updated).isEqualTo(1);
+        Assertions.assertThat(missing).isZero();
+        Assertions.assertThat(photoRepository.findById(id)).map(Photo::getData).contains(new byte[]{4, 5});
+    }
+
+    @Test
+    void animalKeepsOnlyPhotoId() {
+        //Given
+        long photoId = entityManager.persistAndGetId(new Photo(new byte[]{1, 2, 3}), Long.class);
+        Animal animal = new Animal();
+        animal.setName("barsik");
+        animal.setType(Animal.TypeAnimal.CAT);
+        animal.setPhotoId(photoId);
+        entityManager.persist(animal);
+        entityManager.flush();
+        entityManager.clear();
+        //When
+        List<Animal> animals = animalRepository.findAll();
+        //Then
+        Assertions.assertThat(animals).extracting(Animal::getPhotoId).containsExactly(photoId);
+        Assertions.assertThat(animals.get(0).toString()).contains("photoId=" + photoId);
+    }
+}
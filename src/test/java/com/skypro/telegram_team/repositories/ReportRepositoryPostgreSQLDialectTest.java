@@ -0,0 +1,10 @@
+package com.skypro.telegram_team.repositories;
+
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * Те же запросы, сгенерированные диалектом postgres (БД - H2 в режиме совместимости с postgres)
+ */
+@TestPropertySource(properties = "spring.jpa.database-platform=org.hibernate.dialect.PostgreSQL10Dialect")
+class ReportRepositoryPostgreSQLDialectTest extends ReportRepositoryTest {
+}
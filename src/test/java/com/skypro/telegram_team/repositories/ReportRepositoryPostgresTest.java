@@ -0,0 +1,64 @@
+package com.skypro.telegram_team.repositories;
+
+import liquibase.integration.spring.SpringLiquibase;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Индекс отчетов по changelog liquibase на настоящем postgres.
+ * Выполняется, если задан адрес тестовой БД: TEST_POSTGRES_URL (и TEST_POSTGRES_USER, TEST_POSTGRES_PASSWORD),
+ * схема БД пересоздается по changelog liquibase.
+ */
+@EnabledIfEnvironmentVariable(named = "TEST_POSTGRES_URL", matches = ".+")
+class ReportRepositoryPostgresTest {
+    private SingleConnectionDataSource connection;
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(System.getenv("TEST_POSTGRES_URL"),
+                System.getenv("TEST_POSTGRES_USER"), System.getenv("TEST_POSTGRES_PASSWORD"));
+        SpringLiquibase liquibase = new SpringLiquibase();
+        liquibase.setDataSource(dataSource);
+        liquibase.setChangeLog("classpath:liquibase/changelog-master.yml");
+        liquibase.setResourceLoader(new DefaultResourceLoader());
+        liquibase.setDropFirst(true);
+        liquibase.afterPropertiesSet();
+        //Настройка планировщика действует в пределах соединения
+        connection = new SingleConnectionDataSource(dataSource.getConnection(), true);
+        jdbcTemplate = new JdbcTemplate(connection);
+    }
+
+    @AfterEach
+    void tearDown() {
+        connection.destroy();
+    }
+
+    @Test
+    void reportsIndex_matchesRangeQuery() {
+        //When
+        List<String> indexes = jdbcTemplate.queryForList(
+                "SELECT indexdef FROM pg_indexes WHERE tablename = 'reports' AND indexname LIKE 'reports_user_%'",
+                String.class);
+        jdbcTemplate.execute("SET enable_seqscan = off");
+        List<String> plan = jdbcTemplate.queryForList("EXPLAIN SELECT id FROM reports WHERE user_id = ? " +
+                        "AND date >= ? AND date < ? ORDER BY date, id LIMIT 1", String.class,
+                1L, Timestamp.valueOf(LocalDateTime.now().minusDays(1)), Timestamp.valueOf(LocalDateTime.now()));
+        //Then
+        Assertions.assertThat(indexes).singleElement().asString()
+                .contains("reports_user_date_id_idx").endsWith("(user_id, date, id)");
+        //Порядок (date, id) берется из индекса, отдельной сортировки нет
+        Assertions.assertThat(String.join("\n", plan)).contains("reports_user_date_id_idx").doesNotContain("Sort");
+    }
+}
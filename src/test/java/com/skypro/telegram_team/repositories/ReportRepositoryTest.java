@@ -0,0 +1,109 @@
+package com.skypro.telegram_team.repositories;
+
+import com.skypro.telegram_team.models.Report;
+import com.skypro.telegram_team.models.User;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@DataJpaTest(properties = "spring.jpa.hibernate.ddl-auto=create-drop")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class ReportRepositoryTest {
+    private static final LocalDateTime START_OF_DAY = LocalDateTime.of(2023, 3, 1, 0, 0);
+    @Autowired
+    private TestEntityManager entityManager;
+    @Autowired
+    private ReportRepository reportRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        user = new User();
+        user.setTelegramId(1L);
+        user = entityManager.persist(user);
+        //Отчеты на границах дня
+        persistReport(user, START_OF_DAY.minusMinutes(1), "yesterday");
+        persistReport(user, START_OF_DAY.plusHours(15), "afternoon");
+        persistReport(user, START_OF_DAY, "midnight");
+        persistReport(user, START_OF_DAY.plusDays(1), "tomorrow");
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @Test
+    void findFirstByUserIdAndDate_halfOpenDay() {
+        //When
+        Optional<Report> actual = reportRepository
+                .findFirstByUserIdAndDateGreaterThanEqualAndDateLessThanOrderByDateAscIdAsc(
+                        user.getId(), START_OF_DAY, START_OF_DAY.plusDays(1));
+        //Then
+        Assertions.assertThat(actual).map(Report::getDiet).contains("midnight");
+    }
+
+    @Test
+    void findFirstByUserIdAndDate_emptyDay() {
+        //When
+        Optional<Report> actual = reportRepository
+                .findFirstByUserIdAndDateGreaterThanEqualAndDateLessThanOrderByDateAscIdAsc(
+                        user.getId(), START_OF_DAY.plusDays(2), START_OF_DAY.plusDays(3));
+        Optional<Report> otherUser = reportRepository
+                .findFirstByUserIdAndDateGreaterThanEqualAndDateLessThanOrderByDateAscIdAsc(
+                        user.getId() + 1, START_OF_DAY, START_OF_DAY.plusDays(1));
+        //Then
+        Assertions.assertThat(actual).isEmpty();
+        Assertions.assertThat(otherUser).isEmpty();
+    }
+
+    /**
+     * Схема создается Hibernate, поэтому индекс создается тем же changeset, что и в changelog liquibase
+     */
+    @Test
+    void findFirstByUserIdAndDate_servedByIndex() throws IOException {
+        //Given
+        applyChangeSet("11th:19");
+        //When
+        List<String> columns = jdbcTemplate.queryForList("SELECT COLUMN_NAME FROM INFORMATION_SCHEMA.INDEX_COLUMNS " +
+                "WHERE INDEX_NAME = 'REPORTS_USER_DATE_ID_IDX' ORDER BY ORDINAL_POSITION", String.class);
+        String plan = jdbcTemplate.queryForObject("EXPLAIN SELECT id FROM reports WHERE user_id = ? " +
+                        "AND date >= ? AND date < ? ORDER BY date, id LIMIT 1", String.class,
+                user.getId(), START_OF_DAY, START_OF_DAY.plusDays(1));
+        //Then
+        Assertions.assertThat(columns).containsExactly("USER_ID", "DATE", "ID");
+        Assertions.assertThat(plan).contains("REPORTS_USER_DATE_ID_IDX");
+    }
+
+    private void applyChangeSet(String id) throws IOException {
+        String scheme = StreamUtils.copyToString(new ClassPathResource("liquibase/scripts/scheme.sql")
+                .getInputStream(), StandardCharsets.UTF_8);
+        String changeSet = scheme.substring(scheme.indexOf("-- changeSet " + id + "\n"));
+        int next = changeSet.indexOf("-- changeSet ", 1);
+        for (String statement : changeSet.substring(0, next < 0 ? changeSet.length() : next).split(";")) {
+            if (!statement.replaceAll("--.*", "").isBlank()) {
+                jdbcTemplate.execute(statement);
+            }
+        }
+    }
+
+    private void persistReport(User user, LocalDateTime date, String diet) {
+        Report report = new Report();
+        report.setUser(user);
+        report.setDate(date);
+        report.setDiet(diet);
+        entityManager.persist(report);
+    }
+}
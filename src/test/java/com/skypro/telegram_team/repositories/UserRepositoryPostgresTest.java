@@ -0,0 +1,153 @@
+package com.skypro.telegram_team.repositories;
+
+import com.skypro.telegram_team.models.User;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Переходы статуса пользователей (UPDATE ... RETURNING) на настоящем postgres.
+ * Выполняется, если задан адрес тестовой БД: TEST_POSTGRES_URL (и TEST_POSTGRES_USER, TEST_POSTGRES_PASSWORD),
+ * схема БД пересоздается по changelog liquibase.
+ */
+@EnabledIfEnvironmentVariable(named = "TEST_POSTGRES_URL", matches = ".+")
+@DataJpaTest(properties = {"spring.liquibase.enabled=true",
+        "spring.liquibase.change-log=classpath:liquibase/changelog-master.yml", "spring.liquibase.drop-first=true"})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+//Каждый запрос фиксируется сам, как при вызове из таймера
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class UserRepositoryPostgresTest {
+    private static final LocalDateTime END_TEST = LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS).minusDays(1);
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @DynamicPropertySource
+    static void datasource(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> System.getenv("TEST_POSTGRES_URL"));
+        registry.add("spring.datasource.username", () -> System.getenv("TEST_POSTGRES_USER"));
+        registry.add("spring.datasource.password", () -> System.getenv("TEST_POSTGRES_PASSWORD"));
+    }
+
+    /**
+     * Схема пересоздается один раз на контекст, пользователи предыдущего теста удаляются
+     */
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("DELETE FROM users");
+    }
+
+    @Test
+    void updateState_returnsProjectionByPages() {
+        //Given
+        long first = insertUser(11L, User.OwnerStateEnum.ACCEPTED, END_TEST);
+        long second = insertUser(12L, User.OwnerStateEnum.ACCEPTED, null);
+        long third = insertUser(13L, User.OwnerStateEnum.ACCEPTED, null);
+        long other = insertUser(14L, User.OwnerStateEnum.REFUSE, null);
+        //When
+        List<UserStateProjection> page = userRepository.updateState(User.OwnerStateEnum.ACCEPTED,
+                User.OwnerStateEnum.ADOPTED, 2);
+        List<UserStateProjection> next = userRepository.updateState(User.OwnerStateEnum.ACCEPTED,
+                User.OwnerStateEnum.ADOPTED, 2);
+        List<UserStateProjection> empty = userRepository.updateState(User.OwnerStateEnum.ACCEPTED,
+                User.OwnerStateEnum.ADOPTED, 2);
+        //Then
+        Assertions.assertThat(page).extracting(UserStateProjection::getId).containsExactlyInAnyOrder(first, second);
+        Assertions.assertThat(page).filteredOn(user -> user.getId() == first).singleElement().satisfies(user -> {
+            Assertions.assertThat(user.getTelegramId()).isEqualTo(11L);
+            Assertions.assertThat(user.getName()).isEqualTo("name11");
+            Assertions.assertThat(user.getSurname()).isEqualTo("surname11");
+            Assertions.assertThat(user.getEndTest()).isEqualTo(END_TEST);
+        });
+        Assertions.assertThat(next).extracting(UserStateProjection::getId).containsExactly(third);
+        Assertions.assertThat(empty).isEmpty();
+        Assertions.assertThat(state(first)).isEqualTo("ADOPTED");
+        Assertions.assertThat(state(other)).isEqualTo("REFUSE");
+    }
+
+    @Test
+    void updateStateOfEndedProbation_onlyEndedByPages() {
+        //Given
+        LocalDateTime now = LocalDateTime.now();
+        long first = insertUser(11L, User.OwnerStateEnum.PROBATION, END_TEST);
+        long second = insertUser(12L, User.OwnerStateEnum.PROBATION, END_TEST.minusDays(1));
+        long third = insertUser(13L, User.OwnerStateEnum.PROBATION, END_TEST);
+        long notEnded = insertUser(14L, User.OwnerStateEnum.PROBATION, now.plusDays(1));
+        //When
+        List<UserStateProjection> page = userRepository.updateStateOfEndedProbation(now, 2);
+        List<UserStateProjection> next = userRepository.updateStateOfEndedProbation(now, 2);
+        //Then
+        Assertions.assertThat(page).extracting(UserStateProjection::getId).containsExactlyInAnyOrder(first, second);
+        Assertions.assertThat(page).extracting(UserStateProjection::getEndTest)
+                .containsExactlyInAnyOrder(END_TEST, END_TEST.minusDays(1));
+        Assertions.assertThat(next).extracting(UserStateProjection::getTelegramId).containsExactly(13L);
+        Assertions.assertThat(state(third)).isEqualTo("DECISION");
+        Assertions.assertThat(state(notEnded)).isEqualTo("PROBATION");
+    }
+
+    @Test
+    void updateState_concurrentCallDoesNotReturnTransitionedRows() throws Exception {
+        //Given
+        insertUser(11L, User.OwnerStateEnum.REFUSE, null);
+        insertUser(12L, User.OwnerStateEnum.REFUSE, null);
+        insertUser(13L, User.OwnerStateEnum.REFUSE, null);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        List<UserStateProjection> page = new ArrayList<>();
+        //When
+        CompletableFuture<List<UserStateProjection>> concurrent = transactionTemplate.execute(status -> {
+            page.addAll(userRepository.updateState(User.OwnerStateEnum.REFUSE, User.OwnerStateEnum.BLACKLIST, 2));
+            //Второй вызов выбирает те же строки и ждет фиксации первого на их блокировке
+            CompletableFuture<List<UserStateProjection>> second = CompletableFuture.supplyAsync(() ->
+                    userRepository.updateState(User.OwnerStateEnum.REFUSE, User.OwnerStateEnum.BLACKLIST, 2));
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return second;
+        });
+        List<UserStateProjection> secondPage = concurrent.get(10, TimeUnit.SECONDS);
+        //Then
+        Assertions.assertThat(page).hasSize(2);
+        //Переведенные первым вызовом не переводятся и не уведомляются повторно
+        Assertions.assertThat(secondPage).extracting(UserStateProjection::getId)
+                .doesNotContainAnyElementsOf(page.stream().map(UserStateProjection::getId).toList());
+        Assertions.assertThat(userRepository.updateState(User.OwnerStateEnum.REFUSE, User.OwnerStateEnum.BLACKLIST,
+                        2).size() + secondPage.size())
+                .isEqualTo(1);
+        Assertions.assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM users WHERE state = 'BLACKLIST'",
+                Integer.class)).isEqualTo(3);
+    }
+
+    private long insertUser(long telegramId, User.OwnerStateEnum state, LocalDateTime endTest) {
+        return jdbcTemplate.queryForObject("INSERT INTO users (telegram_id, name, surname, state, end_test) " +
+                        "VALUES (?, ?, ?, ?, ?) RETURNING id", Long.class, telegramId, "name" + telegramId,
+                "surname" + telegramId, state.name(), endTest == null ? null : Timestamp.valueOf(endTest));
+    }
+
+    private String state(long id) {
+        return jdbcTemplate.queryForObject("SELECT state FROM users WHERE id = ?", String.class, id);
+    }
+}
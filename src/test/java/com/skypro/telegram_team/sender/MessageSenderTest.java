@@ -0,0 +1,151 @@
+package com.skypro.telegram_team.sender;
+
+import com.pengrad.telegrambot.BotUtils;
+import com.pengrad.telegrambot.Callback;
+import com.pengrad.telegrambot.TelegramBot;
+import com.pengrad.telegrambot.request.AnswerCallbackQuery;
+import com.pengrad.telegrambot.request.BaseRequest;
+import com.pengrad.telegrambot.request.SendMessage;
+import com.pengrad.telegrambot.response.BaseResponse;
+import com.pengrad.telegrambot.response.SendResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+
+@ExtendWith(MockitoExtension.class)
+class MessageSenderTest {
+    @Mock
+    private TelegramBot telegramBot;
+
+    private MessageSender out;
+    private final List<Object> sent = new CopyOnWriteArrayList<>();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @BeforeEach
+    void setUp() {
+        out = new MessageSender(telegramBot, 1000, 1000, 1000, meterRegistry);
+        out.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        out.stop();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void send_ok() throws Exception {
+        //Given
+        doAnswer(invocation -> {
+            SendMessage request = invocation.getArgument(0);
+            sent.add(request.getParameters().get("text"));
+            invocation.getArgument(1, Callback.class).onResponse(request,
+                    BotUtils.fromJson("{ \"ok\": true }", SendResponse.class));
+            return null;
+        }).when(telegramBot).execute(any(SendMessage.class), any(Callback.class));
+        //When
+        CompletableFuture.allOf(IntStream.range(0, 10)
+                        .mapToObj(i -> out.send(new SendMessage(11L, Integer.toString(i))))
+                        .toArray(CompletableFuture[]::new))
+                .get(5, TimeUnit.SECONDS);
+        //Then
+        Assertions.assertThat(sent).containsExactly("0", "1", "2", "3", "4", "5", "6", "7", "8", "9");
+        Assertions.assertThat(out.getQueueDepth()).isZero();
+        Assertions.assertThat(out.getSentCount()).isEqualTo(10);
+        Assertions.assertThat(out.getFailedCount()).isZero();
+        Assertions.assertThat(meterRegistry.get("bot.telegram.requests")
+                .tags("method", "sendMessage", "outcome", "ok").timer().count()).isEqualTo(10);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void send_interactiveBeforeBulk() throws Exception {
+        //Given
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch enqueued = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            SendMessage request = invocation.getArgument(0);
+            sent.add(request.getParameters().get("text"));
+            started.countDown();
+            //Пока отправляется первый запрос, в очередь ставятся остальные
+            enqueued.await(5, TimeUnit.SECONDS);
+            invocation.getArgument(1, Callback.class).onResponse(request,
+                    BotUtils.fromJson("{ \"ok\": true }", SendResponse.class));
+            return null;
+        }).when(telegramBot).execute(any(SendMessage.class), any(Callback.class));
+        //When
+        CompletableFuture<SendResponse> first = out.send(new SendMessage(1L, "bulk 1"), MessageSender.Priority.BULK);
+        started.await(5, TimeUnit.SECONDS);
+        CompletableFuture<SendResponse> second = out.send(new SendMessage(2L, "bulk 2"), MessageSender.Priority.BULK);
+        CompletableFuture<SendResponse> reply = out.send(new SendMessage(3L, "reply"));
+        CompletableFuture<SendResponse> sameChat = out.send(new SendMessage(2L, "reply 2"));
+        enqueued.countDown();
+        CompletableFuture.allOf(first, second, reply, sameChat).get(5, TimeUnit.SECONDS);
+        //Then
+        Assertions.assertThat(sent).containsExactly("bulk 1", "reply", "reply 2", "bulk 2");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void send_withoutChatNotLimitedPerChat() throws Exception {
+        //Given
+        out.stop();
+        out = new MessageSender(telegramBot, 1000, 1, 1, meterRegistry);
+        out.start();
+        doAnswer(invocation -> {
+            BaseRequest<?, ?> request = invocation.getArgument(0);
+            sent.add(request.getParameters().getOrDefault("chat_id", "none"));
+            invocation.getArgument(1, Callback.class).onResponse(request,
+                    BotUtils.fromJson("{ \"ok\": true }", BaseResponse.class));
+            return null;
+        }).when(telegramBot).execute(any(BaseRequest.class), any(Callback.class));
+        long start = System.nanoTime();
+        //When
+        CompletableFuture.allOf(IntStream.range(0, 5)
+                        .mapToObj(i -> out.send(new AnswerCallbackQuery(Integer.toString(i))))
+                        .toArray(CompletableFuture[]::new))
+                .get(5, TimeUnit.SECONDS);
+        long elapsed = System.nanoTime() - start;
+        CompletableFuture.allOf(out.send(new SendMessage("@first", "text")),
+                out.send(new SendMessage("@second", "text"))).get(5, TimeUnit.SECONDS);
+        //Then
+        //В один чат - одно сообщение в секунду, запросы без чата ждали бы 4 секунды
+        Assertions.assertThat(elapsed).isLessThan(TimeUnit.SECONDS.toNanos(2));
+        Assertions.assertThat(sent)
+                .containsExactlyInAnyOrder("none", "none", "none", "none", "none", "@first", "@second");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void send_failure() {
+        //Given
+        doAnswer(invocation -> {
+            invocation.getArgument(1, Callback.class).onFailure(invocation.getArgument(0), new IOException("error"));
+            return null;
+        }).when(telegramBot).execute(any(SendMessage.class), any(Callback.class));
+        //When
+        var actual = out.send(new SendMessage(11L, "text"));
+        //Then
+        Assertions.assertThatThrownBy(() -> actual.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(IOException.class);
+        Assertions.assertThat(out.getFailedCount()).isEqualTo(1);
+        Assertions.assertThat(out.getQueueDepth()).isZero();
+        Assertions.assertThat(meterRegistry.get("bot.telegram.requests")
+                .tags("method", "sendMessage", "outcome", "failure").timer().count()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,116 @@
+package com.skypro.telegram_team.sender;
+
+import liquibase.integration.spring.SpringLiquibase;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Запись и выборка уведомлений на настоящем postgres.
+ * Выполняется, если задан адрес тестовой БД: TEST_POSTGRES_URL (и TEST_POSTGRES_USER, TEST_POSTGRES_PASSWORD),
+ * схема БД пересоздается по changelog liquibase.
+ */
+@EnabledIfEnvironmentVariable(named = "TEST_POSTGRES_URL", matches = ".+")
+class NotificationOutboxPostgresTest {
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+    private NotificationOutbox out;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(System.getenv("TEST_POSTGRES_URL"),
+                System.getenv("TEST_POSTGRES_USER"), System.getenv("TEST_POSTGRES_PASSWORD"));
+        SpringLiquibase liquibase = new SpringLiquibase();
+        liquibase.setDataSource(dataSource);
+        liquibase.setChangeLog("classpath:liquibase/changelog-master.yml");
+        liquibase.setResourceLoader(new DefaultResourceLoader());
+        liquibase.setDropFirst(true);
+        liquibase.afterPropertiesSet();
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        out = new NotificationOutbox(jdbcTemplate);
+    }
+
+    @Test
+    void enqueue_onceByIdempotencyKey() {
+        //When
+        boolean first = out.enqueue("adopted:1", 11L, "first");
+        boolean second = out.enqueue("adopted:1", 11L, "second");
+        out.enqueue("adopted:2", 22L, "other");
+        //Then
+        Assertions.assertThat(first).isTrue();
+        Assertions.assertThat(second).isFalse();
+        Assertions.assertThat(jdbcTemplate.queryForObject(
+                "SELECT text FROM notification_outbox WHERE idempotency_key = 'adopted:1'", String.class))
+                .isEqualTo("first");
+        Assertions.assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM notification_outbox", Integer.class))
+                .isEqualTo(2);
+    }
+
+    @Test
+    void enqueue_concurrentSameKeyDoesNotRollBack() throws Exception {
+        //When
+        CompletableFuture<Boolean> concurrent = transactionTemplate.execute(status -> {
+            out.enqueue("digest:1", 11L, "first");
+            //Вторая транзакция ждет фиксации первой на уникальном ключе
+            CompletableFuture<Boolean> second = CompletableFuture.supplyAsync(() -> transactionTemplate.execute(
+                    secondStatus -> {
+                        out.enqueue("digest:2", 11L, "other");
+                        return out.enqueue("digest:1", 11L, "second");
+                    }));
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return second;
+        });
+        //Then
+        Assertions.assertThat(concurrent.get(10, TimeUnit.SECONDS)).isFalse();
+        //Вторая транзакция не откатилась из-за повторного ключа
+        Assertions.assertThat(jdbcTemplate.queryForList(
+                "SELECT idempotency_key FROM notification_outbox", String.class))
+                .containsExactlyInAnyOrder("digest:1", "digest:2");
+    }
+
+    @Test
+    void enqueue_againAfterPurge() {
+        //Given
+        out.enqueue("sent", 11L, "text");
+        out.enqueue("failed", 11L, "text");
+        jdbcTemplate.update("UPDATE notification_outbox SET sent_at = ? WHERE idempotency_key = 'sent'",
+                LocalDateTime.now().minusDays(8));
+        jdbcTemplate.update("UPDATE notification_outbox SET failed_at = ? WHERE idempotency_key = 'failed'",
+                LocalDateTime.now());
+        //When
+        out.purge(LocalDateTime.now().minusDays(7));
+        //Then
+        Assertions.assertThat(out.enqueue("sent", 11L, "text")).isTrue();
+        Assertions.assertThat(out.enqueue("failed", 11L, "text")).isFalse();
+    }
+
+    @Test
+    void claim_inSendOrder() {
+        //Given
+        out.enqueue("later", 11L, "later", LocalDateTime.now().minusMinutes(1));
+        out.enqueue("earlier", 11L, "earlier", LocalDateTime.now().minusMinutes(2));
+        out.enqueue("future", 11L, "future", LocalDateTime.now().plusMinutes(5));
+        //When
+        List<NotificationOutbox.Notification> claimed = out.claim("node-1", 10, LocalDateTime.now().minusMinutes(1));
+        //Then
+        Assertions.assertThat(claimed).extracting(NotificationOutbox.Notification::text)
+                .containsExactly("earlier", "later");
+        Assertions.assertThat(out.claim("node-2", 10, LocalDateTime.now().minusMinutes(1))).isEmpty();
+    }
+}
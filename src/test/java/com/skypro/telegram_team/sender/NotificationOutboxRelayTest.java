@@ -0,0 +1,146 @@
+package com.skypro.telegram_team.sender;
+
+import com.pengrad.telegrambot.BotUtils;
+import com.pengrad.telegrambot.request.SendMessage;
+import com.pengrad.telegrambot.response.SendResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class NotificationOutboxRelayTest {
+    @Mock
+    private NotificationOutbox outbox;
+    @Mock
+    private MessageSender messageSender;
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private NotificationOutboxRelay out;
+
+    @BeforeEach
+    void setUp() {
+        out = new NotificationOutboxRelay(outbox, messageSender, meterRegistry, "node", Duration.ofSeconds(1), 2, 3,
+                Duration.ofSeconds(30), Duration.ofMinutes(5), Duration.ofDays(7));
+    }
+
+    @Test
+    void relayBatch_sentRetriedAndRejected() {
+        //Given
+        when(outbox.claim(eq("node"), eq(2), any())).thenReturn(List.of(
+                notification(1, 11, "ok", 0),
+                notification(2, 22, "server error", 1)));
+        when(messageSender.send(any(SendMessage.class), eq(MessageSender.Priority.BULK)))
+                .thenReturn(CompletableFuture.completedFuture(response("{ \"ok\": true }")))
+                .thenReturn(CompletableFuture.completedFuture(response(
+                        "{ \"ok\": false, \"error_code\": 500, \"description\": \"Internal Server Error\" }")));
+        LocalDateTime before = LocalDateTime.now();
+        //When
+        int claimed = out.relayBatch();
+        //Then
+        Assertions.assertThat(claimed).isEqualTo(2);
+        verify(outbox).markSent(List.of(1L));
+        //Задержка удваивается с каждой попыткой
+        ArgumentCaptor<LocalDateTime> nextAttemptAt = ArgumentCaptor.forClass(LocalDateTime.class);
+        verify(outbox).retryLater(eq(2L), nextAttemptAt.capture(), eq("500 Internal Server Error"));
+        Assertions.assertThat(nextAttemptAt.getValue()).isAfterOrEqualTo(before.plusSeconds(60));
+        verify(outbox, never()).fail(any(Long.class), anyString());
+        ArgumentCaptor<SendMessage> request = ArgumentCaptor.forClass(SendMessage.class);
+        verify(messageSender, times(2)).send(request.capture(), eq(MessageSender.Priority.BULK));
+        Assertions.assertThat(request.getAllValues().get(0).getParameters())
+                .containsEntry("chat_id", 11L).containsEntry("text", "ok").containsEntry("parse_mode", "HTML");
+        //Уведомления запланированы минуту назад
+        Assertions.assertThat(meterRegistry.get("bot.outbox.lag").timer().count()).isEqualTo(2);
+        Assertions.assertThat(meterRegistry.get("bot.outbox.lag").timer().max(TimeUnit.SECONDS))
+                .isGreaterThanOrEqualTo(60);
+    }
+
+    @Test
+    void relayBatch_rejectedAndLastAttemptFail() {
+        //Given
+        when(outbox.claim(eq("node"), eq(2), any())).thenReturn(List.of(
+                notification(1, 11, "blocked", 0),
+                notification(2, 22, "network", 2)));
+        when(messageSender.send(any(SendMessage.class), eq(MessageSender.Priority.BULK)))
+                .thenReturn(CompletableFuture.completedFuture(response(
+                        "{ \"ok\": false, \"error_code\": 403, \"description\": \"Forbidden\" }")))
+                .thenReturn(CompletableFuture.failedFuture(new IOException("timeout")));
+        //When
+        out.relayBatch();
+        //Then
+        verify(outbox).fail(1L, "403 Forbidden");
+        verify(outbox).fail(eq(2L), anyString());
+        verify(outbox, never()).retryLater(any(Long.class), any(), anyString());
+        verify(outbox).markSent(List.of());
+        Assertions.assertThat(meterRegistry.get("bot.outbox.notifications").tag("outcome", "failed")
+                .counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    void relayBatch_timedOutIsNotRetriedUntilSendCompletes() {
+        //Given
+        out = new NotificationOutboxRelay(outbox, messageSender, meterRegistry, "node", Duration.ofSeconds(1), 2, 3,
+                Duration.ofSeconds(30), Duration.ofMillis(50), Duration.ofDays(7));
+        NotificationOutbox.Notification slow = notification(1, 11, "slow", 0);
+        CompletableFuture<SendResponse> result = new CompletableFuture<>();
+        when(outbox.claim(eq("node"), eq(2), any())).thenReturn(List.of(slow));
+        when(messageSender.send(any(SendMessage.class), eq(MessageSender.Priority.BULK))).thenReturn(result);
+        //When
+        out.relayBatch();
+        //Забрано повторно после claim-ttl, пока сообщение в очереди
+        out.relayBatch();
+        //Then
+        verify(messageSender, times(1)).send(any(SendMessage.class), eq(MessageSender.Priority.BULK));
+        verify(outbox).extendClaim("node", List.of(1L));
+        verify(outbox, never()).retryLater(any(Long.class), any(), anyString());
+        verify(outbox, never()).fail(any(Long.class), anyString());
+        //When
+        result.complete(response("{ \"ok\": true }"));
+        //Then
+        verify(outbox, timeout(1000)).markSent(List.of(1L));
+        verify(outbox, never()).retryLater(any(Long.class), any(), anyString());
+    }
+
+    @Test
+    void drain_untilBatchIsNotFull() {
+        //Given
+        when(outbox.claim(eq("node"), anyInt(), any())).thenReturn(List.of(
+                notification(1, 11, "first", 0),
+                notification(2, 11, "second", 0))).thenReturn(List.of());
+        when(messageSender.send(any(SendMessage.class), eq(MessageSender.Priority.BULK)))
+                .thenReturn(CompletableFuture.completedFuture(response("{ \"ok\": true }")));
+        //When
+        out.drain();
+        //Then
+        verify(outbox, times(2)).claim(eq("node"), anyInt(), any());
+        verify(outbox).markSent(List.of(1L, 2L));
+    }
+
+    private static NotificationOutbox.Notification notification(long id, long chatId, String text, int attempts) {
+        return new NotificationOutbox.Notification(id, chatId, text, attempts, LocalDateTime.now().minusMinutes(1));
+    }
+
+    private static SendResponse response(String json) {
+        return BotUtils.fromJson(json, SendResponse.class);
+    }
+}
@@ -0,0 +1,86 @@
+package com.skypro.telegram_team.sender;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+class NotificationOutboxTest {
+    private JdbcTemplate jdbcTemplate;
+    private NotificationOutbox out;
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:outbox;DB_CLOSE_DELAY=-1;MODE=POSTGRESQL", "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE notification_outbox (id BIGSERIAL PRIMARY KEY, " +
+                "idempotency_key VARCHAR(200) NOT NULL UNIQUE, chat_id BIGINT NOT NULL, text TEXT NOT NULL, " +
+                "created_at TIMESTAMP NOT NULL, attempts INT NOT NULL DEFAULT 0, next_attempt_at TIMESTAMP NOT NULL, " +
+                "claimed_by VARCHAR(100), claimed_at TIMESTAMP, sent_at TIMESTAMP, failed_at TIMESTAMP, error TEXT)");
+        out = new NotificationOutbox(jdbcTemplate);
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    void retryLaterAndFail() {
+        //Given
+        insert("retry", 11L, "text");
+        insert("fail", 11L, "text");
+        long retryId = idOf("retry");
+        long failId = idOf("fail");
+        LocalDateTime nextAttemptAt = LocalDateTime.now().plusMinutes(1);
+        //When
+        out.retryLater(retryId, nextAttemptAt, "500");
+        out.fail(failId, "403");
+        //Then
+        Map<String, Object> retried = jdbcTemplate.queryForMap(
+                "SELECT attempts, error, failed_at FROM notification_outbox WHERE id = ?", retryId);
+        Assertions.assertThat(retried).containsEntry("ATTEMPTS", 1).containsEntry("ERROR", "500")
+                .containsEntry("FAILED_AT", null);
+        Map<String, Object> failed = jdbcTemplate.queryForMap(
+                "SELECT attempts, error, failed_at FROM notification_outbox WHERE id = ?", failId);
+        Assertions.assertThat(failed).containsEntry("ATTEMPTS", 1).containsEntry("ERROR", "403");
+        Assertions.assertThat(failed.get("FAILED_AT")).isNotNull();
+    }
+
+    @Test
+    void purge_processedBefore() {
+        //Given
+        insert("sent", 11L, "text");
+        insert("failed", 11L, "text");
+        insert("pending", 11L, "text");
+        jdbcTemplate.update("UPDATE notification_outbox SET sent_at = ? WHERE idempotency_key = 'sent'",
+                LocalDateTime.now().minusDays(8));
+        out.fail(idOf("failed"), "403");
+        //When
+        int purged = out.purge(LocalDateTime.now().minusDays(7));
+        //Then
+        Assertions.assertThat(purged).isEqualTo(1);
+        Assertions.assertThat(jdbcTemplate.queryForList("SELECT idempotency_key FROM notification_outbox", String.class))
+                .containsExactlyInAnyOrder("failed", "pending");
+    }
+
+    /**
+     * Записать уведомление без {@link NotificationOutbox#enqueue}: H2 не поддерживает ON CONFLICT (столбец),
+     * запись проверяется на postgres ({@link NotificationOutboxPostgresTest})
+     */
+    private void insert(String key, long chatId, String text) {
+        jdbcTemplate.update("INSERT INTO notification_outbox (idempotency_key, chat_id, text, created_at, " +
+                "next_attempt_at) VALUES (?, ?, ?, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP)", key, chatId, text);
+    }
+
+    private long idOf(String key) {
+        return jdbcTemplate.queryForObject("SELECT id FROM notification_outbox WHERE idempotency_key = ?",
+                Long.class, key);
+    }
+}
@@ -0,0 +1,46 @@
+package com.skypro.telegram_team.sender;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+class TokenBucketTest {
+    private final AtomicLong clock = new AtomicLong();
+    private TokenBucket out;
+
+    @BeforeEach
+    void setUp() {
+        out = new TokenBucket(1, 2, clock::get);
+    }
+
+    @Test
+    void tryAcquire_burst() {
+        //When
+        var first = out.tryAcquire();
+        var second = out.tryAcquire();
+        var third = out.tryAcquire();
+        //Then
+        Assertions.assertThat(first).isZero();
+        Assertions.assertThat(second).isZero();
+        Assertions.assertThat(third).isEqualTo(TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    void tryAcquire_refill() {
+        //Given
+        out.tryAcquire();
+        out.tryAcquire();
+        //When
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        var waiting = out.tryAcquire();
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        var refilled = out.tryAcquire();
+        //Then
+        Assertions.assertThat(waiting).isEqualTo(TimeUnit.MILLISECONDS.toNanos(500));
+        Assertions.assertThat(refilled).isZero();
+        Assertions.assertThat(out.isFull()).isFalse();
+    }
+}
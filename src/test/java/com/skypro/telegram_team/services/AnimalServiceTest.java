@@ -16,6 +16,7 @@ import org.springframework.core.io.Resource;
 import org.springframework.data.domain.Sort;
 import org.springframework.mock.web.MockMultipartFile;
 
+import javax.persistence.EntityNotFoundException;
 import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.List;
@@ -31,6 +32,10 @@ public class AnimalServiceTest {
     private AnimalService animalService;
     @Mock
     private AnimalRepository animalRepository;
+    @Mock
+    private PhotoService photoService;
+    @Mock
+    private UserCache userCache;
     private Animal expectedAnimal;
 
     @BeforeEach
@@ -89,6 +94,29 @@ public class AnimalServiceTest {
         verify(animalRepository, times(1)).findById(any());
     }
 
+    @Test
+    public void updateAnimal_keepsPhoto() {
+        Animal animalInDB = new Animal();
+        animalInDB.setId(1L);
+        animalInDB.setPhotoId(5L);
+        Animal updatedAnimal = new Animal();
+        updatedAnimal.setName("pushok");
+        when(animalRepository.findById(any())).thenReturn(Optional.of(animalInDB));
+        when(animalRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        Animal actualAnimal = animalService.update(updatedAnimal, animalInDB.getId());
+        assertEquals(5L, actualAnimal.getPhotoId());
+        assertEquals("pushok", actualAnimal.getName());
+    }
+
+    @Test
+    public void deleteById_withPhoto() {
+        expectedAnimal.setPhotoId(5L);
+        when(animalRepository.findById(any())).thenReturn(Optional.of(expectedAnimal));
+        animalService.deleteById(expectedAnimal.getId());
+        verify(animalRepository).delete(expectedAnimal);
+        verify(photoService).deleteById(5L);
+    }
+
     @Test
     public void findAll() {
         Animal animal1 = new Animal();
@@ -141,6 +169,15 @@ public class AnimalServiceTest {
         verify(animalRepository, times(1)).findAnimalsByUserState(any());
     }
 
+    @Test
+    public void changeStateByUserState() {
+        when(animalRepository.updateStateByUserState(User.OwnerStateEnum.ADOPTED, Animal.AnimalStateEnum.HAPPY_END))
+                .thenReturn(2);
+        int actual = animalService.changeStateByUserState(User.OwnerStateEnum.ADOPTED, Animal.AnimalStateEnum.HAPPY_END);
+        assertEquals(2, actual);
+        verify(animalRepository, never()).save(any());
+    }
+
     @Test
     public void ShouldThrowsIllegalStateExceptionWhenMethodUpdateRuns() {
         Animal animalInDB = new Animal();
@@ -161,27 +198,38 @@ public class AnimalServiceTest {
         MockMultipartFile multipartFile = new MockMultipartFile("file", "file.jpeg", "", resource.getInputStream());
         Animal animal = new Animal();
         animal.setId(1L);
-        animal.setPhoto(Files.readAllBytes(resource.getFile().toPath()));
+        animal.setPhotoId(5L);
         //When
         when(animalRepository.findById(any())).thenReturn(Optional.of(animal));
         when(animalRepository.save(animal)).thenReturn(animal);
+        when(photoService.save(5L, Files.readAllBytes(resource.getFile().toPath()))).thenReturn(5L);
         animalService.photoUpload(1L, multipartFile);
         //Then
         verify(animalRepository, times(1)).save(animal);
+        Assertions.assertThat(animal.getPhotoId()).isEqualTo(5L);
     }
 
     @Test
     public void photoDownload() throws Exception {
         //Given
         Resource resource = new ClassPathResource("photo/cat.jpeg");
+        byte[] photo = Files.readAllBytes(resource.getFile().toPath());
         Animal expected = new Animal();
         expected.setId(1L);
-        expected.setPhoto(Files.readAllBytes(resource.getFile().toPath()));
+        expected.setPhotoId(5L);
         //When
         when(animalRepository.findById(any())).thenReturn(Optional.of(expected));
+        when(photoService.findData(5L)).thenReturn(photo);
         var actual = animalService.photoDownload(1L);
         //Then
         Assertions.assertThat(actual).isNotEmpty();
-        Assertions.assertThat(Arrays.toString(actual)).isEqualTo(Arrays.toString(expected.getPhoto()));
+        Assertions.assertThat(Arrays.toString(actual)).isEqualTo(Arrays.toString(photo));
+    }
+
+    @Test
+    public void photoDownload_noPhoto() {
+        when(animalRepository.findById(any())).thenReturn(Optional.of(expectedAnimal));
+        assertThrows(EntityNotFoundException.class, () -> animalService.photoDownload(1L));
+        verifyNoInteractions(photoService);
     }
 }
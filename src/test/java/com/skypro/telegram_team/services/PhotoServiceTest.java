@@ -0,0 +1,70 @@
+package com.skypro.telegram_team.services;
+
+import com.skypro.telegram_team.models.Photo;
+import com.skypro.telegram_team.repositories.PhotoRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import javax.persistence.EntityNotFoundException;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class PhotoServiceTest {
+    private final byte[] data = {1, 2, 3};
+    @InjectMocks
+    private PhotoService photoService;
+    @Mock
+    private PhotoRepository photoRepository;
+
+    @Test
+    public void save_new() {
+        Photo saved = new Photo(data);
+        saved.setId(5L);
+        when(photoRepository.save(any())).thenReturn(saved);
+        long actual = photoService.save(null, data);
+        assertEquals(5L, actual);
+        verify(photoRepository, never()).updateData(anyLong(), any());
+    }
+
+    @Test
+    public void save_replace() {
+        when(photoRepository.updateData(5L, data)).thenReturn(1);
+        long actual = photoService.save(5L, data);
+        assertEquals(5L, actual);
+        verify(photoRepository, never()).save(any());
+    }
+
+    @Test
+    public void save_replaceDeleted() {
+        Photo saved = new Photo(data);
+        saved.setId(6L);
+        when(photoRepository.updateData(5L, data)).thenReturn(0);
+        when(photoRepository.save(any())).thenReturn(saved);
+        long actual = photoService.save(5L, data);
+        assertEquals(6L, actual);
+    }
+
+    @Test
+    public void findData() {
+        when(photoRepository.findById(5L)).thenReturn(Optional.of(new Photo(data)));
+        assertArrayEquals(data, photoService.findData(5L));
+        when(photoRepository.findById(6L)).thenReturn(Optional.empty());
+        assertThrows(EntityNotFoundException.class, () -> photoService.findData(6L));
+    }
+
+    @Test
+    public void deleteById() {
+        photoService.deleteById(5L);
+        photoService.deleteById(null);
+        verify(photoRepository, times(1)).deleteAllByIdInBatch(List.of(5L));
+        verifyNoMoreInteractions(photoRepository);
+    }
+}
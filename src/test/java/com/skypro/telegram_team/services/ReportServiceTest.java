@@ -33,6 +33,8 @@ public class ReportServiceTest {
     private ReportService reportService;
     @Mock
     private ReportRepository reportRepository;
+    @Mock
+    private PhotoService photoService;
     private Report expectedReport;
 
     @BeforeEach
@@ -72,6 +74,15 @@ public class ReportServiceTest {
         verify(reportRepository, times(1)).findById(any());
     }
 
+    @Test
+    public void deleteById_withPhoto() {
+        expectedReport.setPhotoId(5L);
+        when(reportRepository.findById(any())).thenReturn(Optional.of(expectedReport));
+        reportService.deleteById(expectedReport.getId());
+        verify(reportRepository).delete(expectedReport);
+        verify(photoService).deleteById(5L);
+    }
+
     @Test
     public void findAll() {
         when(reportRepository.findAll()).thenReturn(List.of(expectedReport));
@@ -97,6 +108,20 @@ public class ReportServiceTest {
         verify(reportRepository, times(1)).findById(any());
     }
 
+    @Test
+    public void updateReport_keepsPhoto() {
+        Report reportInDB = new Report();
+        reportInDB.setId(1L);
+        reportInDB.setPhotoId(5L);
+        Report updatedReport = new Report();
+        updatedReport.setDiet("diet2");
+        when(reportRepository.findById(any())).thenReturn(Optional.of(reportInDB));
+        when(reportRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        Report actualReport = reportService.update(updatedReport, reportInDB.getId());
+        assertEquals(5L, actualReport.getPhotoId());
+        assertEquals("diet2", actualReport.getDiet());
+    }
+
     @Test
     public void findByAnimalId() {
         List<Report> expectedReports = List.of(expectedReport);
@@ -127,26 +152,47 @@ public class ReportServiceTest {
 
     @Test
     public void findFirstByUserIdAndDate() {
-        List<Report> expectedReports = List.of(expectedReport);
-        when(reportRepository.findAll()).thenReturn(expectedReports);
+        LocalDateTime startOfDay = LocalDateTime.of(2023, 3, 1, 0, 0);
+        when(reportRepository.findFirstByUserIdAndDateGreaterThanEqualAndDateLessThanOrderByDateAscIdAsc(
+                expectedReport.getUser().getId(), startOfDay, startOfDay.plusDays(1)))
+                .thenReturn(Optional.of(expectedReport));
         Report actualReport = reportService.findFirstByUserIdAndDate(expectedReport.getUser().getId(),
-                expectedReport.getDate());
-        assertEquals(expectedReports.get(0), actualReport);
-        verify(reportRepository, times(1)).findAll();
+                startOfDay.plusHours(15));
+        assertEquals(expectedReport, actualReport);
+        verify(reportRepository, never()).findAll();
+    }
+
+    @Test
+    public void findFirstByUserIdAndDate_notFound() {
+        when(reportRepository.findFirstByUserIdAndDateGreaterThanEqualAndDateLessThanOrderByDateAscIdAsc(
+                any(), any(), any())).thenReturn(Optional.empty());
+        Report actualReport = reportService.findFirstByUserIdAndDate(1L, LocalDateTime.now());
+        assertEquals(0, actualReport.getId());
     }
 
     @Test
     public void photoDownload() throws Exception {
         //Given
         Resource resource = new ClassPathResource("photo/cat.jpeg");
+        byte[] photo = Files.readAllBytes(resource.getFile().toPath());
         Report expected = new Report();
         expected.setId(1L);
-        expected.setPhoto(Files.readAllBytes(resource.getFile().toPath()));
+        expected.setPhotoId(5L);
         //When
         when(reportRepository.findById(any())).thenReturn(Optional.of(expected));
+        when(photoService.findData(5L)).thenReturn(photo);
         var actual = reportService.photoDownload(1L);
         //Then
         Assertions.assertThat(actual).isNotEmpty();
-        Assertions.assertThat(Arrays.toString(actual)).isEqualTo(Arrays.toString(expected.getPhoto()));
+        Assertions.assertThat(Arrays.toString(actual)).isEqualTo(Arrays.toString(photo));
+    }
+
+    @Test
+    public void photoUpload() {
+        byte[] photo = {1, 2, 3};
+        when(photoService.save(null, photo)).thenReturn(5L);
+        reportService.photoUpload(expectedReport, photo);
+        assertEquals(5L, expectedReport.getPhotoId());
+        verify(reportRepository, never()).save(any());
     }
 }
@@ -27,6 +27,8 @@ public class ShelterServiceTest {
     private ShelterRepository shelterRepository;
     @Mock
     private AnimalRepository animalRepository;
+    @Mock
+    private UserCache userCache;
     private Shelter expectedShelter;
 
     @BeforeEach
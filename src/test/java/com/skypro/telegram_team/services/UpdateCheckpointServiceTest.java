@@ -0,0 +1,86 @@
+package com.skypro.telegram_team.services;
+
+import com.skypro.telegram_team.models.UpdateCheckpoint;
+import com.skypro.telegram_team.repositories.UpdateCheckpointRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class UpdateCheckpointServiceTest {
+    @InjectMocks
+    private UpdateCheckpointService checkpointService;
+    @Mock
+    private UpdateCheckpointRepository checkpointRepository;
+
+    @Test
+    public void isProcessed() {
+        UpdateCheckpoint checkpoint = new UpdateCheckpoint();
+        checkpoint.setUpdateId(10);
+        when(checkpointRepository.findById(any())).thenReturn(Optional.of(checkpoint));
+
+        assertTrue(checkpointService.isProcessed(10));
+        assertFalse(checkpointService.isProcessed(11));
+        checkpointService.markProcessed(12);
+        assertTrue(checkpointService.isProcessed(12));
+        verify(checkpointRepository, times(1)).findById(any());
+    }
+
+    @Test
+    public void markReceived() {
+        UpdateCheckpoint checkpoint = new UpdateCheckpoint();
+        checkpoint.setUpdateId(10);
+        when(checkpointRepository.findById(any())).thenReturn(Optional.of(checkpoint));
+
+        assertFalse(checkpointService.markReceived(10));
+        assertTrue(checkpointService.markReceived(11));
+        assertFalse(checkpointService.markReceived(11));
+        checkpointService.forgetReceived(11);
+        assertTrue(checkpointService.markReceived(11));
+        //Помнятся только последние обновления
+        for (int i = 0; i < UpdateCheckpointService.RECEIVED_WINDOW; i++) {
+            checkpointService.markReceived(100 + i);
+        }
+        assertTrue(checkpointService.markReceived(11));
+    }
+
+    @Test
+    public void confirm() {
+        when(checkpointRepository.findById(any())).thenReturn(Optional.empty());
+
+        checkpointService.markProcessed(3);
+        checkpointService.confirm(5);
+
+        ArgumentCaptor<UpdateCheckpoint> captor = ArgumentCaptor.forClass(UpdateCheckpoint.class);
+        verify(checkpointRepository).save(captor.capture());
+        assertEquals(5, captor.getValue().getUpdateId());
+        assertEquals(5, checkpointService.getLastUpdateId());
+        assertTrue(checkpointService.isProcessed(3));
+    }
+
+    @Test
+    public void confirmOlder() {
+        UpdateCheckpoint checkpoint = new UpdateCheckpoint();
+        checkpoint.setUpdateId(10);
+        when(checkpointRepository.findById(any())).thenReturn(Optional.of(checkpoint));
+
+        checkpointService.confirm(5);
+
+        verify(checkpointRepository, never()).save(any());
+    }
+
+    @Test
+    public void registerFailure() {
+        assertFalse(checkpointService.registerFailure(1, 2));
+        assertTrue(checkpointService.registerFailure(1, 2));
+    }
+}
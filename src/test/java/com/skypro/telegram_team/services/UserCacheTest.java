@@ -0,0 +1,85 @@
+package com.skypro.telegram_team.services;
+
+import com.skypro.telegram_team.models.Animal;
+import com.skypro.telegram_team.models.Shelter;
+import com.skypro.telegram_team.models.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserCacheTest {
+    private UserCache userCache;
+    private User user;
+
+    @BeforeEach
+    public void setup() {
+        userCache = new UserCache(100, Duration.ofMinutes(1));
+        Shelter shelter = new Shelter();
+        shelter.setId(3L);
+        shelter.setName("shelter");
+        Animal animal = new Animal();
+        animal.setId(2L);
+        animal.setName("sharik");
+        animal.setShelter(shelter);
+        user = new User();
+        user.setId(1L);
+        user.setTelegramId(111L);
+        user.setName("dima");
+        user.setShelter(shelter);
+        user.setAnimal(animal);
+        animal.setUser(user);
+    }
+
+    @Test
+    public void get_returnsCopies() {
+        User first = userCache.get(111L, id -> user);
+        first.setName("changed");
+        first.getAnimal().setName("changed");
+        first.getShelter().setName("changed");
+        User second = userCache.get(111L, id -> null);
+        assertNotSame(first, second);
+        assertEquals("dima", second.getName());
+        assertEquals("sharik", second.getAnimal().getName());
+        assertEquals("shelter", second.getShelter().getName());
+        assertSame(second, second.getAnimal().getUser());
+        assertSame(second.getShelter(), second.getAnimal().getShelter());
+        //Изменения загруженного пользователя после записи в кэш тоже не видны
+        user.setName("changed");
+        assertEquals("dima", userCache.get(111L, id -> null).getName());
+    }
+
+    @Test
+    public void invalidateByAnimalAndShelter() {
+        User other = new User();
+        other.setId(4L);
+        other.setTelegramId(444L);
+        userCache.put(user);
+        userCache.put(other);
+
+        userCache.invalidateByAnimal(5L);
+        userCache.invalidateByShelter(5L);
+        assertEquals(2, userCache.getSize());
+
+        userCache.invalidateByAnimal(2L);
+        assertNull(userCache.get(111L, id -> null));
+        assertNotNull(userCache.get(444L, id -> null));
+
+        userCache.put(user);
+        userCache.invalidateByShelter(3L);
+        assertNull(userCache.get(111L, id -> null));
+        userCache.invalidateAll();
+        assertEquals(0, userCache.getSize());
+    }
+
+    @Test
+    public void clustered_alwaysLoads() {
+        UserCache clustered = new UserCache(100, Duration.ofMinutes(1), true);
+        clustered.put(user);
+        assertEquals(0, clustered.getSize());
+        assertNull(clustered.get(111L, id -> null));
+        assertSame(user, clustered.get(111L, id -> user));
+    }
+}
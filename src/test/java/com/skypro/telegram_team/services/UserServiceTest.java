@@ -6,14 +6,17 @@ import com.skypro.telegram_team.models.Shelter;
 import com.skypro.telegram_team.models.User;
 import com.skypro.telegram_team.repositories.AnimalRepository;
 import com.skypro.telegram_team.repositories.UserRepository;
+import com.skypro.telegram_team.repositories.UserStateProjection;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
 
 import javax.persistence.EntityNotFoundException;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.Collection;
@@ -26,16 +29,23 @@ import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 public class UserServiceTest {
-    @InjectMocks
     private UserService userService;
     @Mock
     private UserRepository userRepository;
     @Mock
     private AnimalRepository animalRepository;
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+    @Mock
+    private PhotoService photoService;
+    @Spy
+    private UserCache userCache = new UserCache(100, Duration.ofMinutes(1));
     private User expectedUser;
 
     @BeforeEach
     public void setup() {
+        userService = new UserService(userRepository, animalRepository, userCache, eventPublisher,
+                new AnimalService(animalRepository, photoService, userCache));
         expectedUser = new User();
         expectedUser.setId(1L);
         expectedUser.setTelegramId(111L);
@@ -108,6 +118,15 @@ public class UserServiceTest {
         verify(userRepository, times(2)).findById(any());
     }
 
+    @Test
+    public void userIsVolunteer_publishesVolunteerChanged() {
+        when(userRepository.findById(any())).thenReturn(Optional.ofNullable(expectedUser));
+        when(userRepository.save(any())).thenReturn(expectedUser);
+        userService.userIsVolunteer(expectedUser.getId(), true);
+        userService.userIsVolunteer(expectedUser.getId(), true);
+        verify(eventPublisher, times(1)).publishEvent(new VolunteerChangedEvent(111L, true));
+    }
+
     @Test
     public void findByState() {
         List<User> expectedUsers = List.of(expectedUser);
@@ -118,21 +137,43 @@ public class UserServiceTest {
     }
 
     @Test
-    public void findVolunteers() {
-        List<User> expectedUsers = List.of(expectedUser);
-        when(userRepository.findByVolunteerTrue()).thenReturn(expectedUsers);
-        Collection<User> actualUsers = userService.findVolunteers();
-        assertEquals(expectedUsers, actualUsers);
-        verify(userRepository, times(1)).findByVolunteerTrue();
+    public void changeState_invalidatesChangedUsers() {
+        UserStateProjection changed = mock(UserStateProjection.class);
+        when(changed.getTelegramId()).thenReturn(111L);
+        when(userRepository.updateState(User.OwnerStateEnum.ACCEPTED, User.OwnerStateEnum.ADOPTED, 100))
+                .thenReturn(List.of(changed));
+        userCache.put(expectedUser);
+        List<UserStateProjection> actual =
+                userService.changeState(User.OwnerStateEnum.ACCEPTED, User.OwnerStateEnum.ADOPTED, 100);
+        assertEquals(List.of(changed), actual);
+        verify(userCache).invalidate(111L);
+        verify(userRepository, never()).save(any());
+    }
+
+    @Test
+    public void changeStateOfEndedProbation() {
+        LocalDateTime now = LocalDateTime.now();
+        when(userRepository.updateStateOfEndedProbation(now, 100)).thenReturn(List.of());
+        assertTrue(userService.changeStateOfEndedProbation(now, 100).isEmpty());
+        verify(userRepository, times(1)).updateStateOfEndedProbation(now, 100);
+    }
+
+    @Test
+    public void updateState_publishesProbationEnd() {
+        when(userRepository.findById(any())).thenReturn(Optional.ofNullable(expectedUser));
+        when(userRepository.save(any())).thenReturn(expectedUser);
+        User actual = userService.updateState(expectedUser.getId(), User.OwnerStateEnum.PROLONGED, 10L);
+        verify(eventPublisher).publishEvent(new ProbationChangedEvent(expectedUser.getId(), actual.getEndTest()));
+        userService.updateState(expectedUser.getId(), User.OwnerStateEnum.ADOPTED, null);
+        verify(eventPublisher).publishEvent(new ProbationChangedEvent(expectedUser.getId(), null));
     }
 
     @Test
-    public void findAnyVolunteer() {
+    public void findVolunteers() {
         List<User> expectedUsers = List.of(expectedUser);
         when(userRepository.findByVolunteerTrue()).thenReturn(expectedUsers);
-        Optional<User> anyVolunteer = userService.findAnyVolunteer();
-        assertTrue(anyVolunteer.isPresent());
-        assertEquals(anyVolunteer.get().getId(), expectedUser.getId());
+        Collection<User> actualUsers = userService.findVolunteers();
+        assertEquals(expectedUsers, actualUsers);
         verify(userRepository, times(1)).findByVolunteerTrue();
     }
 
@@ -145,6 +186,50 @@ public class UserServiceTest {
         verify(userRepository, times(1)).findByTelegramId(any());
     }
 
+    @Test
+    public void findByTelegramIdFromCache() {
+        when(userRepository.findByTelegramId(any())).thenReturn(List.of(expectedUser));
+        userService.findByTelegramId(expectedUser.getTelegramId());
+        User actualUser = userService.findByTelegramId(expectedUser.getTelegramId());
+        assertEquals(expectedUser, actualUser);
+        verify(userRepository, times(1)).findByTelegramId(any());
+        assertEquals(1, userCache.getStats().hitCount());
+        assertEquals(1, userCache.getStats().missCount());
+    }
+
+    @Test
+    public void findByTelegramIdNotFoundIsNotCached() {
+        when(userRepository.findByTelegramId(any())).thenReturn(List.of());
+        assertEquals(0L, userService.findByTelegramId(1L).getId());
+        assertEquals(0L, userService.findByTelegramId(1L).getId());
+        verify(userRepository, times(2)).findByTelegramId(any());
+        assertEquals(0, userCache.getSize());
+    }
+
+    @Test
+    public void updateUserRefreshesCache() {
+        when(userRepository.findByTelegramId(any())).thenReturn(List.of(expectedUser));
+        User cachedUser = userService.findByTelegramId(expectedUser.getTelegramId());
+        User savedUser = new User();
+        savedUser.setId(expectedUser.getId());
+        savedUser.setTelegramId(expectedUser.getTelegramId());
+        savedUser.setName("sergei");
+        when(userRepository.findById(any())).thenReturn(Optional.of(new User()));
+        when(userRepository.save(any())).thenReturn(savedUser);
+        userService.update(cachedUser, cachedUser.getId());
+        assertEquals("sergei", userService.findByTelegramId(expectedUser.getTelegramId()).getName());
+        verify(userRepository, times(1)).findByTelegramId(any());
+    }
+
+    @Test
+    public void updateInvalidUserEvictsCache() {
+        when(userRepository.findByTelegramId(any())).thenReturn(List.of(expectedUser));
+        User cachedUser = userService.findByTelegramId(expectedUser.getTelegramId());
+        cachedUser.setPhone("123");
+        assertThrows(InvalidDataException.class, () -> userService.update(cachedUser, cachedUser.getId()));
+        assertEquals(0, userCache.getSize());
+    }
+
     @Test
     public void joinAnimalAndUser() {
         Animal animal = new Animal();
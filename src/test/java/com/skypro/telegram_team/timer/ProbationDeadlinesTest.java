@@ -0,0 +1,111 @@
+package com.skypro.telegram_team.timer;
+
+import com.skypro.telegram_team.models.User;
+import com.skypro.telegram_team.repositories.UserStateProjection;
+import com.skypro.telegram_team.services.ProbationChangedEvent;
+import com.skypro.telegram_team.services.UserService;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.projection.SpelAwareProxyProjectionFactory;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ProbationDeadlinesTest {
+    private final LocalDateTime now = LocalDateTime.now();
+    @Mock
+    private UserService userService;
+    @Mock
+    private Timer timer;
+    private ProbationDeadlines out;
+
+    @BeforeEach
+    void setUp() {
+        out = new ProbationDeadlines(userService, timer, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        out.stop();
+    }
+
+    @Test
+    void pollDue_inDeadlineOrder() {
+        //Given
+        out.schedule(1, now.plusDays(3));
+        out.schedule(2, now.plusDays(1));
+        out.schedule(3, now.plusDays(2));
+        //When
+        List<Long> due = out.pollDue(now.plusDays(2));
+        //Then
+        Assertions.assertThat(due).containsExactly(2L, 3L);
+        Assertions.assertThat(out.nextDeadline()).contains(now.plusDays(3));
+        Assertions.assertThat(out.size()).isEqualTo(1);
+    }
+
+    @Test
+    void schedule_movedAndCancelledDeadlines() {
+        //Given
+        out.schedule(1, now.plusDays(1));
+        out.schedule(2, now.plusDays(2));
+        //When
+        out.schedule(1, now.plusDays(5));
+        out.onProbationChanged(new ProbationChangedEvent(2, null));
+        //Then
+        Assertions.assertThat(out.nextDeadline()).contains(now.plusDays(5));
+        Assertions.assertThat(out.pollDue(now.plusDays(4))).isEmpty();
+        Assertions.assertThat(out.pollDue(now.plusDays(5))).containsExactly(1L);
+        Assertions.assertThat(out.nextDeadline()).isEmpty();
+    }
+
+    @Test
+    void schedule_firesAtDeadline() {
+        //When
+        out.schedule(1, LocalDateTime.now().plusNanos(50_000_000));
+        //Then
+        verify(timer, timeout(2_000)).decideEndedProbation();
+        Assertions.assertThat(out.size()).isZero();
+    }
+
+    @Test
+    void rebuild_overdueDeadlinesFireImmediately() {
+        //Given
+        when(userService.findStateProjectionsByState(User.OwnerStateEnum.PROBATION, 0L, 2)).thenReturn(List.of(
+                user(1L, now.minusDays(1)), user(2L, now.plusDays(10))));
+        //Полная страница - читается следующая после последнего id
+        when(userService.findStateProjectionsByState(User.OwnerStateEnum.PROBATION, 2L, 2)).thenReturn(List.of());
+        when(userService.findStateProjectionsByState(User.OwnerStateEnum.PROLONGED, 0L, 2)).thenReturn(List.of(
+                user(3L, now.plusDays(20))));
+        //When
+        out.rebuild();
+        //Then
+        verify(timer, timeout(2_000)).decideEndedProbation();
+        Assertions.assertThat(out.size()).isEqualTo(2);
+        Assertions.assertThat(out.nextDeadline()).contains(now.plusDays(10));
+    }
+
+    @Test
+    void rebuild_failureKeepsScheduledCheck() {
+        //Given
+        when(userService.findStateProjectionsByState(any(), anyLong(), anyInt())).thenThrow(new IllegalStateException("db"));
+        //When
+        out.rebuild();
+        //Then
+        Assertions.assertThat(out.size()).isZero();
+        verifyNoInteractions(timer);
+    }
+
+    private static UserStateProjection user(long id, LocalDateTime endTest) {
+        return new SpelAwareProxyProjectionFactory().createProjection(UserStateProjection.class,
+                Map.of("id", id, "telegramId", id, "endTest", endTest));
+    }
+}
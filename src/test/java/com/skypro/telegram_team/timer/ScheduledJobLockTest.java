@@ -0,0 +1,112 @@
+package com.skypro.telegram_team.timer;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class ScheduledJobLockTest {
+    private JdbcTemplate jdbcTemplate;
+    private ScheduledJobLock first;
+    private ScheduledJobLock second;
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:jobLock;DB_CLOSE_DELAY=-1;MODE=POSTGRESQL", "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE scheduled_job_locks (job_name VARCHAR(100) PRIMARY KEY, " +
+                "locked_by VARCHAR(100) NOT NULL, locked_at TIMESTAMP NOT NULL, locked_until TIMESTAMP NOT NULL)");
+        jdbcTemplate.execute("CREATE TABLE scheduled_job_runs (id BIGSERIAL PRIMARY KEY, " +
+                "job_name VARCHAR(100) NOT NULL, node_id VARCHAR(100) NOT NULL, started_at TIMESTAMP NOT NULL, " +
+                "duration_ms BIGINT NOT NULL, rows_touched INT, error TEXT)");
+        first = new ScheduledJobLock(jdbcTemplate, "first", Duration.ofMinutes(30), Duration.ofMinutes(1));
+        second = new ScheduledJobLock(jdbcTemplate, "second", Duration.ofMinutes(30), Duration.ofMinutes(1));
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    void runLocked_otherNodeSkipsWhileLocked() {
+        //Given
+        AtomicInteger runs = new AtomicInteger();
+        //When
+        boolean firstRan = first.runLocked("job", () -> {
+            runs.incrementAndGet();
+            //Пока задание выполняется, другой узел его не выполняет
+            Assertions.assertThat(second.runLocked("job", runs::incrementAndGet)).isFalse();
+            return 5;
+        });
+        //После выполнения блокировка держится lock-at-least-for
+        boolean secondRan = second.runLocked("job", runs::incrementAndGet);
+        //Then
+        Assertions.assertThat(firstRan).isTrue();
+        Assertions.assertThat(secondRan).isFalse();
+        Assertions.assertThat(runs).hasValue(1);
+        Assertions.assertThat(second.runLocked("otherJob", () -> 0)).isTrue();
+    }
+
+    @Test
+    void runLocked_expiredLockIsTaken() {
+        //Given
+        jdbcTemplate.update("INSERT INTO scheduled_job_locks VALUES ('job', 'first', ?, ?)",
+                Timestamp.valueOf(LocalDateTime.now().minusHours(1)),
+                Timestamp.valueOf(LocalDateTime.now().minusMinutes(1)));
+        //When
+        boolean ran = second.runLocked("job", () -> 1);
+        //Then
+        Assertions.assertThat(ran).isTrue();
+        Assertions.assertThat(jdbcTemplate.queryForObject(
+                "SELECT locked_by FROM scheduled_job_locks WHERE job_name = 'job'", String.class)).isEqualTo("second");
+    }
+
+    @Test
+    void runLocked_releasedAfterLockAtLeastFor() {
+        //Given
+        ScheduledJobLock out = new ScheduledJobLock(jdbcTemplate, "first", Duration.ofMinutes(30), Duration.ZERO);
+        out.runLocked("job", () -> 1);
+        //When
+        boolean ran = second.runLocked("job", () -> 1);
+        //Then
+        Assertions.assertThat(ran).isTrue();
+    }
+
+    @Test
+    void runLocked_historyRecorded() {
+        //When
+        first.runLocked("job", () -> 7);
+        Assertions.assertThatThrownBy(() -> second.runLocked("failing", () -> {
+            throw new IllegalStateException("broken");
+        })).isInstanceOf(IllegalStateException.class);
+        //Then
+        Map<String, Object> run = jdbcTemplate.queryForMap(
+                "SELECT node_id, rows_touched, error FROM scheduled_job_runs WHERE job_name = 'job'");
+        Assertions.assertThat(run).containsEntry("NODE_ID", "first").containsEntry("ROWS_TOUCHED", 7)
+                .containsEntry("ERROR", null);
+        Map<String, Object> failed = jdbcTemplate.queryForMap(
+                "SELECT node_id, rows_touched, error FROM scheduled_job_runs WHERE job_name = 'failing'");
+        Assertions.assertThat(failed).containsEntry("NODE_ID", "second").containsEntry("ROWS_TOUCHED", null);
+        Assertions.assertThat((String) failed.get("ERROR")).contains("broken");
+        //Задание с ошибкой не держит блокировку дольше lock-at-least-for
+        Assertions.assertThat(jdbcTemplate.queryForObject(
+                "SELECT locked_until FROM scheduled_job_locks WHERE job_name = 'failing'", LocalDateTime.class))
+                .isBefore(LocalDateTime.now().plusMinutes(2));
+    }
+
+    @Test
+    void constructor_lockAtLeastForLongerThanLease() {
+        Assertions.assertThatThrownBy(() -> new ScheduledJobLock(jdbcTemplate, "node",
+                Duration.ofMinutes(1), Duration.ofMinutes(2))).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,36 @@
+package com.skypro.telegram_team.timer;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.stream.LongStream;
+
+class SendJitterTest {
+    private final Duration window = Duration.ofMinutes(30);
+
+    @Test
+    void offset_deterministicPerRecipient() {
+        Assertions.assertThat(SendJitter.offset(12345L, window)).isEqualTo(SendJitter.offset(12345L, window));
+        Assertions.assertThat(SendJitter.offset(12345L, window)).isNotEqualTo(SendJitter.offset(12346L, window));
+    }
+
+    @Test
+    void offset_spreadOverWindow() {
+        //Соседние id распределяются по всему окну: в каждой из 10 частей окна есть получатели
+        long[] parts = new long[10];
+        LongStream.rangeClosed(1, 1_000).forEach(recipient -> {
+            Duration offset = SendJitter.offset(recipient, window);
+            Assertions.assertThat(offset).isGreaterThanOrEqualTo(Duration.ZERO).isLessThan(window);
+            parts[(int) (offset.toMillis() * parts.length / window.toMillis())]++;
+        });
+        Assertions.assertThat(Arrays.stream(parts).boxed().toList())
+                .allSatisfy(count -> Assertions.assertThat(count).isBetween(50L, 150L));
+    }
+
+    @Test
+    void offset_zeroWindow() {
+        Assertions.assertThat(SendJitter.offset(12345L, Duration.ZERO)).isZero();
+    }
+}
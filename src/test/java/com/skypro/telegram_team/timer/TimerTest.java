@@ -1,27 +1,43 @@
 package com.skypro.telegram_team.timer;
 
-import com.pengrad.telegrambot.TelegramBot;
-import com.pengrad.telegrambot.request.SendMessage;
 import com.skypro.telegram_team.models.Animal;
 import com.skypro.telegram_team.models.Report;
 import com.skypro.telegram_team.models.User;
+import com.skypro.telegram_team.repositories.LastReportProjection;
+import com.skypro.telegram_team.repositories.UserStateProjection;
+import com.skypro.telegram_team.sender.NotificationOutbox;
 import com.skypro.telegram_team.services.AnimalService;
 import com.skypro.telegram_team.services.ReportService;
 import com.skypro.telegram_team.services.UserService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.projection.SpelAwareProxyProjectionFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.stream.IntStream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.Mockito.*;
@@ -30,7 +46,10 @@ import static org.mockito.Mockito.*;
 public class TimerTest {
 
     @Mock
-    private TelegramBot bot;
+    private NotificationOutbox outbox;
+
+    @Spy
+    private StagedDigestEvents digestEvents = new StagedDigestEvents();
 
     @Mock
     private AnimalService animalService;
@@ -41,202 +60,322 @@ public class TimerTest {
     @Mock
     private UserService userService;
 
+    @Spy
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Mock
+    private ScheduledJobLock jobLock;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
     @InjectMocks
     private Timer timer;
 
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(timer, "pageSize", 500);
+        ReflectionTestUtils.setField(timer, "reminderWindow", Duration.ofMinutes(30));
+        lenient().when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        lenient().doAnswer(invocation -> {
+            invocation.<Consumer<Object>>getArgument(0).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+    }
+
     @Test
-    public void testChangeStateAcceptedToAdoptedAndCollect() {
+    public void testChangeStateAcceptedToAdopted() {
         // Given
-        User user = new User();
-        user.setState(User.OwnerStateEnum.ACCEPTED);
-        user.setTelegramId(1L);
-        user.setName("John");
-        user.setSurname("Doe");
-        List<User> users = Collections.singletonList(user);
-        when(userService.findByState(User.OwnerStateEnum.ACCEPTED)).thenReturn(users);
-
-        User volunteer = new User();
-        volunteer.setTelegramId(0L);
-        volunteer.setVolunteer(true);
-        when(userService.findVolunteers()).thenReturn(Collections.singletonList(volunteer));
+        UserStateProjection user = userState(1L, "John", "Doe", null);
+        when(userService.changeState(User.OwnerStateEnum.ACCEPTED, User.OwnerStateEnum.ADOPTED, 500))
+                .thenReturn(List.of(user));
+        //Уведомления и события сводки записываются внутри транзакции страницы
+        AtomicBoolean inPage = new AtomicBoolean();
+        List<Boolean> enqueuedInPage = new ArrayList<>();
+        doAnswer(invocation -> {
+            inPage.set(true);
+            try {
+                return invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null);
+            } finally {
+                inPage.set(false);
+            }
+        }).when(transactionTemplate).execute(any());
+        when(outbox.enqueue(anyString(), anyLong(), anyString(), any())).thenAnswer(invocation ->
+                enqueuedInPage.add(inPage.get()));
+        doAnswer(invocation -> {
+            enqueuedInPage.add(inPage.get());
+            return invocation.callRealMethod();
+        }).when(digestEvents).stage(any());
 
         // When
-        List<User> result = timer.changeStateAcceptedToAdoptedAndCollect();
+        int result = timer.changeStateAcceptedToAdopted();
 
         // Then
-        List<SendMessage> actual = getActualSendMessages();
-        Assertions.assertThat(actual.size()).isEqualTo(2);
-        Assertions.assertThat(actual.get(0).getParameters().get("chat_id")).isEqualTo(1L);
-        Assertions.assertThat(actual.get(0).getParameters().get("text"))
+        List<Enqueued> actual = getActualSendMessages(1);
+        Assertions.assertThat(actual.get(0).chatId()).isEqualTo(1L);
+        Assertions.assertThat(actual.get(0).text())
                 .isEqualTo("Уважаемый John Doe Поздравляем, вы прошли пробный период!");
-        Assertions.assertThat(actual.get(1).getParameters().get("chat_id")).isEqualTo(0L);
-        Assertions.assertThat(actual.get(1).getParameters().get("text"))
-                .isEqualTo(String.format("Одобрение на усыновление подтверждено у %s %s.",
-                        user.getName(), user.getSurname()));
-
-        assertEquals(1, result.size());
-        User updatedUser = result.get(0);
-        assertEquals(User.OwnerStateEnum.ADOPTED, updatedUser.getState());
+        Assertions.assertThat(actual.get(0).key()).isEqualTo("adopted:1:null");
+        Assertions.assertThat(digestEvents.render()).containsExactly(
+                "<b>Сводка для волонтеров</b>\n\n<b>Одобрение на усыновление подтверждено:</b>\n- John Doe");
+        //Перевод страницы, уведомления по ней и события сводки записываются в одной транзакции,
+        //сводку волонтерам отправляет проверка в конце запуска
+        verify(transactionTemplate).execute(any());
+        Assertions.assertThat(enqueuedInPage).containsExactly(true, true);
+        verify(userService, never()).findVolunteers();
+        verify(userService, never()).update(any(), anyLong());
+
+        assertEquals(1, result);
     }
 
     @Test
-    public void testChangeStateRefusedToBlackListAndCollect() {
+    public void testChangeStateRefusedToBlackList() {
         // Given
-        User user = new User();
-        user.setState(User.OwnerStateEnum.REFUSE);
-        user.setTelegramId(1L);
-        user.setName("John");
-        user.setSurname("Doe");
-        List<User> users = Collections.singletonList(user);
-        when(userService.findByState(User.OwnerStateEnum.REFUSE)).thenReturn(users);
-
-        User volunteer = new User();
-        volunteer.setTelegramId(0L);
-        volunteer.setVolunteer(true);
-        when(userService.findVolunteers()).thenReturn(Collections.singletonList(volunteer));
+        UserStateProjection user = userState(1L, "John", "Doe", null);
+        when(userService.changeState(User.OwnerStateEnum.REFUSE, User.OwnerStateEnum.BLACKLIST, 500))
+                .thenReturn(List.of(user));
 
         // When
-        List<User> result = timer.changeStateRefusedToBlackListAndCollect();
+        int result = timer.changeStateRefusedToBlackList();
 
         // Then
-        assertEquals(1, result.size());
-        User updatedUser = result.get(0);
-        assertEquals(User.OwnerStateEnum.BLACKLIST, updatedUser.getState());
-
-        List<SendMessage> actual = getActualSendMessages();
-        Assertions.assertThat(actual.size()).isEqualTo(2);
-        Assertions.assertThat(actual.get(0).getParameters().get("chat_id")).isEqualTo(1L);
-        Assertions.assertThat(actual.get(0).getParameters().get("text"))
+        assertEquals(1, result);
+
+        List<Enqueued> actual = getActualSendMessages(1);
+        Assertions.assertThat(actual.get(0).chatId()).isEqualTo(1L);
+        Assertions.assertThat(actual.get(0).text())
                 .isEqualTo(String.format("Уважаемый %s %s Вы НЕ прошли пробный период! " +
                         "Пожалуйста сдайте собаку в приют!", user.getName(), user.getSurname()));
-        Assertions.assertThat(actual.get(1).getParameters().get("chat_id")).isEqualTo(0L);
-        Assertions.assertThat(actual.get(1).getParameters().get("text"))
-                .isEqualTo(String.format("Отказ подтвержден у %s %s.",
-                        user.getName(), user.getSurname()));
+        Assertions.assertThat(digestEvents.render()).containsExactly(
+                "<b>Сводка для волонтеров</b>\n\n<b>Отказ подтвержден:</b>\n- John Doe");
     }
 
 
     @Test
-    public void testFindStateProlongedAndCollect() {
+    public void testFindStateProlonged() {
         // Arrange
-        User user = new User();
-        user.setTelegramId(12345L);
-        user.setName("John");
-        user.setSurname("Doe");
-        user.setState(User.OwnerStateEnum.PROLONGED);
-        user.setEndTest(LocalDateTime.now().minusDays(1));
-        List<User> users = Collections.singletonList(user);
-        when(userService.findByState(User.OwnerStateEnum.PROLONGED)).thenReturn(users);
-
-        User volunteer = new User();
-        volunteer.setTelegramId(0L);
-        volunteer.setVolunteer(true);
-        when(userService.findVolunteers()).thenReturn(Collections.singletonList(volunteer));
+        UserStateProjection user = userState(12345L, "John", "Doe", LocalDateTime.now().minusDays(1));
+        when(userService.changeState(User.OwnerStateEnum.PROLONGED, User.OwnerStateEnum.PROBATION, 500))
+                .thenReturn(List.of(user));
 
         // Act
-        List<User> result = timer.findStateProlongedAndCollect();
+        int result = timer.findStateProlonged();
 
         // Then
-        List<SendMessage> actual = getActualSendMessages();
-        Assertions.assertThat(actual.size()).isEqualTo(2);
-        Assertions.assertThat(actual.get(0).getParameters().get("chat_id")).isEqualTo(12345L);
-        Assertions.assertThat(actual.get(0).getParameters().get("text")).isEqualTo(String.format(
+        List<Enqueued> actual = getActualSendMessages(1);
+        Assertions.assertThat(actual.get(0).chatId()).isEqualTo(12345L);
+        Assertions.assertThat(actual.get(0).text()).isEqualTo(String.format(
                 "Уважаемый %s %s, мы решили продлить пробный период на %s дней!",
                 user.getName(), user.getSurname(),
                 Duration.between(user.getEndTest(), LocalDateTime.now()).toDays()));
-        Assertions.assertThat(actual.get(1).getParameters().get("chat_id")).isEqualTo(0L);
-        Assertions.assertThat(actual.get(1).getParameters().get("text")).isEqualTo(String.format(
-                "Подтверждено продление у %s %s на %s дней!",
+        Assertions.assertThat(digestEvents.render()).containsExactly(String.format(
+                "<b>Сводка для волонтеров</b>\n\n<b>Подтверждено продление:</b>\n- %s %s на %s дней",
                 user.getName(), user.getSurname(),
                 Duration.between(user.getEndTest(), LocalDateTime.now()).toDays()));
-        assertEquals(1, result.size());
-        User updatedUser = result.get(0);
-        assertEquals(User.OwnerStateEnum.PROBATION, updatedUser.getState());
+        assertEquals(1, result);
+    }
+
+    @Test
+    void testCheckAndChangeUsersStatus_oneDigestPerVolunteerPerRun() {
+        // Given
+        ReflectionTestUtils.setField(timer, "pageSize", 2);
+        runJobsLocally();
+        when(userService.changeState(any(), any(), eq(2))).thenReturn(List.of());
+        when(userService.changeState(User.OwnerStateEnum.ACCEPTED, User.OwnerStateEnum.ADOPTED, 2))
+                .thenReturn(List.of(userState(1L, "John", "Doe", null), userState(2L, "Jane", "Doe", null)))
+                .thenReturn(List.of(userState(3L, "Jack", "Doe", null), userState(4L, "Jill", "Doe", null)))
+                .thenReturn(List.of(userState(5L, "Joe", "Doe", null)));
+        when(userService.changeState(User.OwnerStateEnum.REFUSE, User.OwnerStateEnum.BLACKLIST, 2))
+                .thenReturn(List.of(userState(6L, "Bad", "Owner", null)));
+        when(userService.findStateProjectionsByState(User.OwnerStateEnum.DECISION, 0L, 2))
+                .thenReturn(List.of(userState(7L, "Waiting", "Owner", LocalDateTime.now().minusDays(5))));
+        when(userService.changeStateOfEndedProbation(any(LocalDateTime.class), eq(2)))
+                .thenReturn(List.of(userState(8L, "Ended", "Owner", LocalDateTime.now().minusDays(1))));
+        when(userService.findVolunteers()).thenReturn(List.of(volunteer(101L), volunteer(102L)));
+
+        // When
+        timer.checkAndChangeUsersStatus();
+
+        // Then
+        List<Enqueued> digests = getActualSendMessages(10).stream()
+                .filter(enqueued -> enqueued.key().startsWith("digest:"))
+                .toList();
+        //Переходы всех страниц и напоминания запуска - в одной сводке каждому волонтеру
+        Assertions.assertThat(digests).extracting(Enqueued::chatId).containsExactly(101L, 102L);
+        Assertions.assertThat(digests).extracting(Enqueued::text).containsOnly("<b>Сводка для волонтеров</b>\n" +
+                "\n<b>Одобрение на усыновление подтверждено:</b>\n- John Doe\n- Jane Doe\n- Jack Doe\n- Jill Doe" +
+                "\n- Joe Doe\n" +
+                "\n<b>Отказ подтвержден:</b>\n- Bad Owner\n" +
+                "\n<b>Принять решение об усыновлении животного:</b>\n- Waiting Owner\n- Ended Owner");
+        Assertions.assertThat(digestEvents.render()).isEmpty();
     }
 
+    @Test
+    void testCheckAndChangeUsersStatus_loadsVolunteersOncePerRun() {
+        // Given
+        ReflectionTestUtils.setField(timer, "pageSize", 1);
+        runJobsLocally();
+        when(userService.changeState(any(), any(), eq(1))).thenReturn(List.of());
+        when(userService.changeState(User.OwnerStateEnum.ACCEPTED, User.OwnerStateEnum.ADOPTED, 1))
+                .thenReturn(List.of(userState(1L, "John", "Doe", null)))
+                .thenReturn(List.of(userState(2L, "Jane", "Doe", null)))
+                .thenReturn(List.of());
+        when(userService.changeState(User.OwnerStateEnum.PROLONGED, User.OwnerStateEnum.PROBATION, 1))
+                .thenReturn(List.of(userState(3L, "Jack", "Doe", LocalDateTime.now().minusDays(1))))
+                .thenReturn(List.of());
+        when(userService.findVolunteers()).thenReturn(List.of(volunteer(101L)));
+
+        // When
+        timer.checkAndChangeUsersStatus();
+
+        // Then
+        //Страницы переходов волонтеров не загружают, список загружается при записи сводки запуска
+        verify(transactionTemplate, times(7)).execute(any());
+        verify(userService, times(1)).findVolunteers();
+        Assertions.assertThat(getActualSendMessages(4)).extracting(Enqueued::chatId)
+                .containsExactly(1L, 2L, 3L, 101L);
+    }
 
     @Test
     public void testDecisionMakingOfVolunteersAboutUsers() {
         // Arrange
-        User user = new User();
-        user.setId(1L);
-        user.setTelegramId(12345);
-        user.setName("John");
-        user.setSurname("Doe");
-        user.setState(User.OwnerStateEnum.PROBATION);
-        user.setEndTest(LocalDateTime.now().plusDays(1));
-        List<User> users = Collections.singletonList(user);
-        when(userService.findByState(User.OwnerStateEnum.PROBATION)).thenReturn(users);
+        UserStateProjection ended = userState(12345L, "John", "Doe", LocalDateTime.now().minusDays(1));
+        UserStateProjection waiting = userState(67890L, "Jane", "Doe", LocalDateTime.now().minusDays(5));
+        when(userService.findStateProjectionsByState(User.OwnerStateEnum.DECISION, 0L, 500))
+                .thenReturn(List.of(waiting));
+        when(userService.changeStateOfEndedProbation(any(LocalDateTime.class), eq(500))).thenReturn(List.of(ended));
 
         // Act
-        List<User> result = timer.decisionMakingOfVolunteersAboutUsers();
+        VolunteerDigest digest = new VolunteerDigest();
+        int result = timer.decisionMakingOfVolunteersAboutUsers(digest);
 
         // Then
-        assertEquals(1, result.size());
-        User updatedUser = result.get(0);
-        assertEquals(User.OwnerStateEnum.DECISION, updatedUser.getState());
+        assertEquals(2, result);
+        List<Enqueued> actual = getActualSendMessages(2);
+        Assertions.assertThat(actual)
+                .extracting(Enqueued::chatId)
+                .containsExactly(67890L, 12345L);
+        //Переведенный попадает в события сводки своей страницы, ожидающий - в сводку запуска
+        Assertions.assertThat(digestEvents.render()).containsExactly(
+                "<b>Сводка для волонтеров</b>\n\n<b>Принять решение об усыновлении животного:</b>\n- John Doe");
+        Assertions.assertThat(digest.render(VolunteerDigest.MAX_MESSAGE_LENGTH)).containsExactly(
+                "<b>Сводка для волонтеров</b>\n\n<b>Принять решение об усыновлении животного:</b>\n- Jane Doe");
+        //Ожидающим решения напоминание отправляется до перевода, иначе переведенные получили бы его дважды
+        InOrder inOrder = inOrder(userService);
+        inOrder.verify(userService).findStateProjectionsByState(User.OwnerStateEnum.DECISION, 0L, 500);
+        inOrder.verify(userService).changeStateOfEndedProbation(any(LocalDateTime.class), eq(500));
     }
 
     @Test
-    void testChangeStateRefusedToInShelterListAndCollect() {
+    void testDecideEndedProbation() {
         // Arrange
-        User user = new User();
-        user.setId(1L);
-        user.setTelegramId(12345);
-        user.setName("John");
-        user.setSurname("Doe");
-        user.setState(User.OwnerStateEnum.BLACKLIST);
-
-        Animal animal = new Animal();
-        animal.setId(1L);
-        animal.setName("Animal");
-        animal.setState(Animal.AnimalStateEnum.IN_TEST);
-        animal.setUser(user);
-        List<Animal> animalList = Collections.singletonList(animal);
-
-        when(animalService.findByUserState(User.OwnerStateEnum.BLACKLIST))
-                .thenReturn(animalList);
+        UserStateProjection ended = userState(12345L, "John", "Doe", LocalDateTime.now().minusSeconds(1));
+        when(userService.changeStateOfEndedProbation(any(LocalDateTime.class), eq(500))).thenReturn(List.of(ended));
 
         // Act
-        var result = timer.changeStateRefusedToInShelterListAndCollect();
+        int result = timer.decideEndedProbation();
 
         // Assert
-        verify(animalService).findByUserState(User.OwnerStateEnum.BLACKLIST);
+        assertEquals(1, result);
+        Assertions.assertThat(getActualSendMessages(1))
+                .extracting(Enqueued::chatId)
+                .containsExactly(12345L);
+        //События сводки записываются в транзакции перевода, волонтеры получат их в сводке следующей проверки
+        verify(transactionTemplate).execute(any());
+        verify(digestEvents).stage(any());
+        verify(userService, never()).findVolunteers();
+        verify(userService, never()).findStateProjectionsByState(any(), anyLong(), anyInt());
+        verifyNoInteractions(jobLock);
+    }
 
-        assertEquals(1, result.size());
-        Animal updatedAnimal = result.get(0);
-        assertEquals(Animal.AnimalStateEnum.IN_SHELTER, updatedAnimal.getState());
+    @Test
+    void testChangeStateRefusedToInShelter() {
+        // Arrange
+        when(animalService.changeStateByUserState(User.OwnerStateEnum.BLACKLIST, Animal.AnimalStateEnum.IN_SHELTER))
+                .thenReturn(1);
+
+        // Act
+        int result = timer.changeStateRefusedToInShelter();
+
+        // Assert
+        verify(animalService, never()).update(any(), anyLong());
+        assertEquals(1, result);
     }
 
     @Test
-    void testChangeStateAcceptedToHappyEndAndCollect() {
+    void testChangeStateAcceptedToHappyEnd() {
         // Arrange
-        User user = new User();
-        user.setId(1L);
-        user.setTelegramId(12345);
-        user.setName("John");
-        user.setSurname("Doe");
-        user.setState(User.OwnerStateEnum.ADOPTED);
-
-        Animal animal = new Animal();
-        animal.setId(1L);
-        animal.setName("Animal");
-        animal.setState(Animal.AnimalStateEnum.IN_TEST);
-        animal.setUser(user);
-        List<Animal> animalList = Collections.singletonList(animal);
-
-        when(animalService.findByUserState(User.OwnerStateEnum.ADOPTED))
-                .thenReturn(animalList);
+        when(animalService.changeStateByUserState(User.OwnerStateEnum.ADOPTED, Animal.AnimalStateEnum.HAPPY_END))
+                .thenReturn(1);
 
         // Act
-        var result = timer.changeStateAcceptedToHappyEndAndCollect();
+        int result = timer.changeStateAcceptedToHappyEnd();
 
         // Assert
-        verify(animalService).findByUserState(User.OwnerStateEnum.ADOPTED);
+        verify(animalService, never()).update(any(), anyLong());
+        assertEquals(1, result);
+    }
+
+    @Test
+    void testCheckAndChangeUsersStatus_animalsChangedBeforeUsers() {
+        // Arrange
+        runJobsLocally();
+
+        // Act
+        timer.checkAndChangeUsersStatus();
+
+        // Assert
+        InOrder inOrder = inOrder(animalService, userService);
+        inOrder.verify(animalService).changeStateByUserState(
+                User.OwnerStateEnum.ADOPTED, Animal.AnimalStateEnum.HAPPY_END);
+        inOrder.verify(animalService).changeStateByUserState(
+                User.OwnerStateEnum.BLACKLIST, Animal.AnimalStateEnum.IN_SHELTER);
+        inOrder.verify(userService).changeState(User.OwnerStateEnum.ACCEPTED, User.OwnerStateEnum.ADOPTED, 500);
+        verify(userService, never()).findVolunteers();
+        verify(outbox, never()).enqueue(anyString(), anyLong(), anyString(), any());
+    }
+
+    @Test
+    void testSendDigest_loadsVolunteersOnceAndSendsOneMessageToEach() {
+        // Given
+        User first = new User();
+        first.setTelegramId(1L);
+        User second = new User();
+        second.setTelegramId(2L);
+        when(userService.findVolunteers()).thenReturn(List.of(first, second));
+        VolunteerDigest digest = new VolunteerDigest();
+        digest.add(VolunteerDigest.Section.ADOPTED, "John Doe");
+        digest.add(VolunteerDigest.Section.REFUSED, "Jane Doe");
+        digest.add(VolunteerDigest.Section.ADOPTED, "Jack Doe");
+
+        // When
+        timer.sendDigest(digest, "reports:run");
+
+        // Then
+        List<Enqueued> actual = getActualSendMessages(2);
+        Assertions.assertThat(actual)
+                .extracting(Enqueued::chatId)
+                .containsExactly(1L, 2L);
+        Assertions.assertThat(actual)
+                .extracting(Enqueued::key)
+                .containsExactly("digest:reports:run:1:0", "digest:reports:run:2:0");
+        Assertions.assertThat(actual)
+                .extracting(Enqueued::text)
+                .containsOnly("<b>Сводка для волонтеров</b>\n" +
+                        "\n<b>Одобрение на усыновление подтверждено:</b>\n- John Doe\n- Jack Doe\n" +
+                        "\n<b>Отказ подтвержден:</b>\n- Jane Doe");
+        verify(userService, times(1)).findVolunteers();
+    }
+
+    @Test
+    void testSendDigest_emptyDigestIsNotSent() {
+        // When
+        timer.sendDigest(new VolunteerDigest(), "reports:run");
 
-        assertEquals(1, result.size());
-        Animal updatedAnimal = result.get(0);
-        assertEquals(Animal.AnimalStateEnum.HAPPY_END, updatedAnimal.getState());
+        // Then
+        verify(userService, never()).findVolunteers();
+        verify(outbox, never()).enqueue(anyString(), anyLong(), anyString(), any());
     }
 
     @Disabled
@@ -288,29 +427,227 @@ public class TimerTest {
         animalService.create(animal2, Animal.TypeAnimal.CAT);
         reportService.create(report);
         reportService.create(report2);
-        when(reportService.findByAnimalId(animal1.getId())).thenReturn(Collections.singletonList(report));
-        when(reportService.findByAnimalId(animal2.getId())).thenReturn(Collections.singletonList(report2));
-        when(animalService.findAllByUserIdNotNullAndState(Animal.AnimalStateEnum.IN_TEST))
-                .thenReturn(List.of(animal1, animal2));
+        when(reportService.findLastReportDates(Animal.AnimalStateEnum.IN_TEST, 0L, 0L, 500)).thenReturn(List.of(
+                lastReport(animal1, user1, report.getDate()), lastReport(animal2, user2, report2.getDate())));
+
+        runJobsLocally();
 
         // Act
         timer.checkingDailyAndTwoDaysReportFromUsers();
 
         // Verify that the users receive the correct messages
-        List<SendMessage> actual = getActualSendMessages();
-        Assertions.assertThat(actual.size()).isEqualTo(2);
-        Assertions.assertThat(actual.get(0).getParameters().get("chat_id")).isEqualTo(12345L);
-        Assertions.assertThat(actual.get(0).getParameters().get("text")).isEqualTo("Последний отчет " +
+        List<Enqueued> actual = getActualSendMessages(2);
+        Assertions.assertThat(actual.get(0).chatId()).isEqualTo(12345L);
+        Assertions.assertThat(actual.get(0).text()).isEqualTo("Последний отчет " +
                 "был принят более двух дней! Пожалуйста, сдайте отчет.");
-        Assertions.assertThat(actual.get(1).getParameters().get("chat_id")).isEqualTo(67890L);
-        Assertions.assertThat(actual.get(1).getParameters().get("text")).isEqualTo("Последний отчет" +
+        Assertions.assertThat(actual.get(1).chatId()).isEqualTo(67890L);
+        Assertions.assertThat(actual.get(1).text()).isEqualTo("Последний отчет" +
                 " был принят более двух дней! Пожалуйста, сдайте отчет.");
     }
 
-    private List<SendMessage> getActualSendMessages() {
-        ArgumentCaptor<SendMessage> argumentCaptor = ArgumentCaptor.forClass(SendMessage.class);
-        Mockito.verify(bot, times(2)).execute(argumentCaptor.capture());
-        return argumentCaptor.getAllValues();
+    @Test
+    void testCheckingReportsByLastReportDate() {
+        // Given
+        User volunteer = new User();
+        volunteer.setTelegramId(1L);
+        User recent = user(2L, 20L, LocalDateTime.now().plusDays(20));
+        User twoDays = user(3L, 30L, LocalDateTime.now().plusDays(20));
+        User daily = user(4L, 40L, LocalDateTime.now().plusDays(20));
+        User newcomer = user(5L, 50L, LocalDateTime.now().plusDays(30));
+        LocalDateTime twoDaysAgo = LocalDateTime.now().minusDays(2).withHour(0);
+        when(reportService.findLastReportDates(Animal.AnimalStateEnum.IN_TEST, 0L, 0L, 500)).thenReturn(List.of(
+                lastReport(new Animal(), recent, LocalDateTime.now().minusHours(12)),
+                lastReport(new Animal(), twoDays, twoDaysAgo.minusDays(1)),
+                lastReport(new Animal(), daily, twoDaysAgo.plusHours(1)),
+                lastReport(new Animal(), newcomer, null)));
+        when(userService.findVolunteers()).thenReturn(List.of(volunteer));
+
+        runJobsLocally();
+        LocalDateTime before = LocalDateTime.now();
+
+        // Act
+        timer.checkingDailyAndTwoDaysReportFromUsers();
+
+        // Assert
+        LocalDateTime after = LocalDateTime.now();
+        List<Enqueued> actual = getActualSendMessages(3);
+        Assertions.assertThat(actual)
+                .extracting(Enqueued::chatId)
+                .containsExactly(30L, 40L, 1L);
+        //Повторная проверка в тот же час не запишет напоминания повторно
+        Assertions.assertThat(actual.get(0).key()).startsWith("reportTwoDays:3:");
+        Assertions.assertThat(actual.get(1).key()).startsWith("reportDaily:4:");
+        Assertions.assertThat(actual.get(2).key()).startsWith("digest:reports:").endsWith(":1:0");
+        //Напоминания распределяются по окну со смещением получателя, сводка волонтерам отправляется сразу
+        Assertions.assertThat(actual.get(0).sendAt().minus(SendJitter.offset(30L, Duration.ofMinutes(30))))
+                .isBetween(before, after);
+        Assertions.assertThat(actual.get(1).sendAt().minus(SendJitter.offset(40L, Duration.ofMinutes(30))))
+                .isBetween(before, after);
+        Assertions.assertThat(actual.get(2).sendAt()).isBetween(before, after);
+        Mockito.verify(reportService, never()).findByAnimalId(anyLong());
+        Mockito.verify(userService, times(1)).findVolunteers();
+    }
+
+    @Test
+    void testCheckingReportsPageByPage() {
+        // Given
+        ReflectionTestUtils.setField(timer, "pageSize", 2);
+        Animal first = new Animal();
+        first.setId(7L);
+        Animal second = new Animal();
+        second.setId(8L);
+        Animal third = new Animal();
+        third.setId(9L);
+        User twoDays = user(3L, 30L, LocalDateTime.now().plusDays(20));
+        User recent = user(4L, 40L, LocalDateTime.now().plusDays(20));
+        LocalDateTime threeDaysAgo = LocalDateTime.now().minusDays(3);
+        //Животные одного усыновителя попадают на разные страницы
+        when(reportService.findLastReportDates(Animal.AnimalStateEnum.IN_TEST, 0L, 0L, 2)).thenReturn(List.of(
+                lastReport(first, twoDays, threeDaysAgo), lastReport(second, twoDays, threeDaysAgo)));
+        when(reportService.findLastReportDates(Animal.AnimalStateEnum.IN_TEST, 3L, 8L, 2)).thenReturn(List.of(
+                lastReport(third, twoDays, threeDaysAgo), lastReport(new Animal(), recent, LocalDateTime.now())));
+        when(reportService.findLastReportDates(Animal.AnimalStateEnum.IN_TEST, 4L, 0L, 2)).thenReturn(List.of());
+        when(userService.findVolunteers()).thenReturn(List.of());
+
+        runJobsLocally();
+
+        // Act
+        timer.checkingDailyAndTwoDaysReportFromUsers();
+
+        // Assert
+        Assertions.assertThat(getActualSendMessages(1))
+                .extracting(Enqueued::chatId)
+                .containsExactly(30L);
+        verify(reportService, times(3)).findLastReportDates(any(), anyLong(), anyLong(), eq(2));
+    }
+
+    @Test
+    void testJobIsSkippedWhenLockedByAnotherNode() {
+        // Arrange
+        when(jobLock.runLocked(eq("checkAndChangeUsersStatus"), any())).thenReturn(false);
+
+        // Act
+        timer.checkAndChangeUsersStatus();
+
+        // Assert
+        verifyNoInteractions(userService, animalService, outbox);
+    }
+
+    @Test
+    void testJobReportsRowsTouched() {
+        // Arrange
+        ArgumentCaptor<IntSupplier> job = ArgumentCaptor.forClass(IntSupplier.class);
+        when(jobLock.runLocked(eq("checkAndChangeUsersStatus"), job.capture())).thenReturn(true);
+        when(animalService.changeStateByUserState(any(), any())).thenAnswer(invocation ->
+                invocation.getArgument(0) == User.OwnerStateEnum.ADOPTED ? 2 : 0);
+        when(userService.changeState(any(), any(), anyInt())).thenAnswer(invocation ->
+                invocation.getArgument(0) == User.OwnerStateEnum.REFUSE
+                        ? List.of(userState(1L, "John", "Doe", null)) : List.of());
+        when(userService.findVolunteers()).thenReturn(List.of());
+        timer.checkAndChangeUsersStatus();
+
+        // Act
+        int rowsTouched = job.getValue().getAsInt();
+
+        // Assert
+        assertEquals(3, rowsTouched);
+        Assertions.assertThat(meterRegistry.get("bot.job").tag("job", "checkAndChangeUsersStatus").timer().count())
+                .isEqualTo(1);
+    }
+
+    /**
+     * Блокировка задания всегда получена этим узлом
+     */
+    private void runJobsLocally() {
+        when(jobLock.runLocked(anyString(), any())).thenAnswer(invocation -> {
+            invocation.getArgument(1, IntSupplier.class).getAsInt();
+            return true;
+        });
+    }
+
+    private static UserStateProjection userState(long telegramId, String name, String surname,
+                                                 LocalDateTime endTest) {
+        Map<String, Object> values = new HashMap<>();
+        //id пользователя совпадает с id чата
+        values.put("id", telegramId);
+        values.put("telegramId", telegramId);
+        values.put("name", name);
+        values.put("surname", surname);
+        values.put("endTest", endTest);
+        return new SpelAwareProxyProjectionFactory().createProjection(UserStateProjection.class, values);
+    }
+
+    private static User volunteer(long telegramId) {
+        User volunteer = new User();
+        volunteer.setTelegramId(telegramId);
+        return volunteer;
+    }
+
+    private static User user(long id, long telegramId, LocalDateTime endTest) {
+        User user = new User();
+        user.setId(id);
+        user.setTelegramId(telegramId);
+        user.setEndTest(endTest);
+        return user;
+    }
+
+    private static LastReportProjection lastReport(Animal animal, User user, LocalDateTime lastReportDate) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("animalId", animal.getId());
+        values.put("userId", user.getId());
+        values.put("telegramId", user.getTelegramId());
+        values.put("name", user.getName());
+        values.put("surname", user.getSurname());
+        values.put("endTest", user.getEndTest());
+        values.put("lastReportDate", lastReportDate);
+        return new SpelAwareProxyProjectionFactory().createProjection(LastReportProjection.class, values);
+    }
+
+    private List<Enqueued> getActualSendMessages(int count) {
+        ArgumentCaptor<String> keyCaptor = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<Long> chatIdCaptor = ArgumentCaptor.forClass(Long.class);
+        ArgumentCaptor<String> textCaptor = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<LocalDateTime> sendAtCaptor = ArgumentCaptor.forClass(LocalDateTime.class);
+        Mockito.verify(outbox, times(count)).enqueue(keyCaptor.capture(), chatIdCaptor.capture(),
+                textCaptor.capture(), sendAtCaptor.capture());
+        return IntStream.range(0, count)
+                .mapToObj(i -> new Enqueued(keyCaptor.getAllValues().get(i), chatIdCaptor.getAllValues().get(i),
+                        textCaptor.getAllValues().get(i), sendAtCaptor.getAllValues().get(i)))
+                .toList();
+    }
+
+    private record Enqueued(String key, long chatId, String text, LocalDateTime sendAt) {
+    }
+
+    /**
+     * События сводки в памяти вместо таблицы volunteer_digest_events
+     */
+    static class StagedDigestEvents extends VolunteerDigestEvents {
+        private VolunteerDigest staged = new VolunteerDigest();
+        private long lastId;
+
+        StagedDigestEvents() {
+            super(null);
+        }
+
+        @Override
+        void stage(VolunteerDigest digest) {
+            digest.forEach((section, event) -> {
+                staged.add(section, event);
+                lastId++;
+            });
+        }
+
+        @Override
+        long takeInto(VolunteerDigest digest) {
+            staged.forEach(digest::add);
+            staged = new VolunteerDigest();
+            return lastId;
+        }
+
+        List<String> render() {
+            return staged.render(VolunteerDigest.MAX_MESSAGE_LENGTH);
+        }
     }
 
 }
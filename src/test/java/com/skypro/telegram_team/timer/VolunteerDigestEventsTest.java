@@ -0,0 +1,76 @@
+package com.skypro.telegram_team.timer;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+class VolunteerDigestEventsTest {
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+    private VolunteerDigestEvents out;
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:digestEvents;DB_CLOSE_DELAY=-1;MODE=POSTGRESQL", "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE volunteer_digest_events (id BIGSERIAL PRIMARY KEY, " +
+                "section VARCHAR(50) NOT NULL, event TEXT NOT NULL, created_at TIMESTAMP NOT NULL)");
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        out = new VolunteerDigestEvents(jdbcTemplate);
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    void takeInto_mergesStagedPagesOnce() {
+        //Given
+        out.stage(digest(VolunteerDigest.Section.ADOPTED, "John Doe"));
+        out.stage(digest(VolunteerDigest.Section.DECISION, "Jane Doe"));
+        out.stage(digest(VolunteerDigest.Section.ADOPTED, "Jack Doe"));
+        out.stage(new VolunteerDigest());
+        VolunteerDigest run = digest(VolunteerDigest.Section.DECISION, "Waiting Doe");
+        //When
+        long last = out.takeInto(run);
+        //Then
+        Assertions.assertThat(last).isPositive();
+        Assertions.assertThat(run.render(VolunteerDigest.MAX_MESSAGE_LENGTH)).containsExactly(
+                "<b>Сводка для волонтеров</b>\n" +
+                        "\n<b>Одобрение на усыновление подтверждено:</b>\n- John Doe\n- Jack Doe\n" +
+                        "\n<b>Принять решение об усыновлении животного:</b>\n- Waiting Doe\n- Jane Doe");
+        //Забранные события в следующую сводку не попадают
+        VolunteerDigest next = new VolunteerDigest();
+        Assertions.assertThat(out.takeInto(next)).isZero();
+        Assertions.assertThat(next.isEmpty()).isTrue();
+    }
+
+    @Test
+    void takeInto_eventsKeptOnRollback() {
+        //Given
+        out.stage(digest(VolunteerDigest.Section.REFUSED, "John Doe"));
+        //When
+        transactionTemplate.executeWithoutResult(status -> {
+            out.takeInto(new VolunteerDigest());
+            status.setRollbackOnly();
+        });
+        VolunteerDigest digest = new VolunteerDigest();
+        out.takeInto(digest);
+        //Then
+        Assertions.assertThat(digest.render(VolunteerDigest.MAX_MESSAGE_LENGTH)).containsExactly(
+                "<b>Сводка для волонтеров</b>\n\n<b>Отказ подтвержден:</b>\n- John Doe");
+    }
+
+    private static VolunteerDigest digest(VolunteerDigest.Section section, String event) {
+        VolunteerDigest digest = new VolunteerDigest();
+        digest.add(section, event);
+        return digest;
+    }
+}
@@ -0,0 +1,58 @@
+package com.skypro.telegram_team.timer;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+class VolunteerDigestTest {
+    private final VolunteerDigest out = new VolunteerDigest();
+
+    @Test
+    void render_empty() {
+        Assertions.assertThat(out.render(VolunteerDigest.MAX_MESSAGE_LENGTH)).isEmpty();
+    }
+
+    @Test
+    void render_sectionsInOrderAndEscaped() {
+        //Given
+        out.add(VolunteerDigest.Section.DECISION, "John <Doe>");
+        out.add(VolunteerDigest.Section.ADOPTED, "Jane & Doe");
+        //When
+        List<String> actual = out.render(VolunteerDigest.MAX_MESSAGE_LENGTH);
+        //Then
+        Assertions.assertThat(actual).containsExactly("<b>Сводка для волонтеров</b>\n" +
+                "\n<b>Одобрение на усыновление подтверждено:</b>\n- Jane &amp; Doe\n" +
+                "\n<b>Принять решение об усыновлении животного:</b>\n- John &lt;Doe&gt;");
+    }
+
+    @Test
+    void render_chunkedByMaxLength() {
+        //Given
+        for (int i = 0; i < 1_000; i++) {
+            out.add(VolunteerDigest.Section.NO_REPORT_FOR_TWO_DAYS, "User " + i);
+        }
+        //When
+        List<String> actual = out.render(VolunteerDigest.MAX_MESSAGE_LENGTH);
+        //Then
+        Assertions.assertThat(actual).hasSizeGreaterThan(1);
+        Assertions.assertThat(actual).allSatisfy(message -> {
+            Assertions.assertThat(message.length()).isLessThanOrEqualTo(VolunteerDigest.MAX_MESSAGE_LENGTH);
+            Assertions.assertThat(message).contains("<b>Последний отчет был принят более двух дней назад:</b>");
+        });
+        Assertions.assertThat(String.join("", actual))
+                .contains("- User 0\n", "- User 999")
+                .doesNotContain("- User 1000");
+    }
+
+    @Test
+    void render_longEventIsTruncated() {
+        //Given
+        out.add(VolunteerDigest.Section.REFUSED, "x".repeat(10_000));
+        //When
+        List<String> actual = out.render(100);
+        //Then
+        Assertions.assertThat(actual).allSatisfy(message ->
+                Assertions.assertThat(message.length()).isLessThanOrEqualTo(100));
+    }
+}